@@ -1,10 +1,13 @@
 import com.jtransc.compression.jzlib.*;
+import com.jtransc.ds.FastIntMap;
+import com.jtransc.ds.FastStringMap;
 import com.jtransc.simd.MutableFloat32x4;
 import com.jtransc.simd.Float32x4;
 import com.jtransc.simd.MutableMatrixFloat32x4x4;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
 import java.util.Random;
 import java.util.zip.*;
 import java.util.zip.CRC32;
@@ -164,6 +167,32 @@ public class Benchmark {
 			}
 		});
 
+		benchmark("long hashing", new Task() {
+			@Override
+			public int run() {
+				long hash = 0xcbf29ce484222325L;
+
+				for (int n = 0; n < 1000000; n++) {
+					hash ^= (n & 0xFF);
+					hash *= 0x100000001b3L;
+					hash ^= hash >>> 29;
+				}
+
+				return (int)(hash ^ (hash >>> 32));
+			}
+		});
+
+		benchmark("write long[]", new Task() {
+			@Override
+			public int run() {
+				long[] array = new long[1000000];
+				for (int n = 0; n < 1000000; n++) {
+					array[n] = (long)n * 1000003L;
+				}
+				return (int)array[7];
+			}
+		});
+
 		benchmark("simd mutable", new Task() {
 			@Override
 			public int run() {
@@ -267,6 +296,24 @@ public class Benchmark {
 			}
 		});
 
+		benchmark("Create linked nodes", new Task() {
+			@Override
+			public int run() {
+				int out = 0;
+				for (int n = 0; n < 1000; n++) {
+					Node first = new Node(n);
+					Node last = first;
+					for (int m = 0; m < 100; m++) {
+						last.next = new Node(m);
+						last.next.prev = last;
+						last = last.next;
+					}
+					out += last.value + first.next.value;
+				}
+				return out;
+			}
+		});
+
 		char[] hexDataChar = new char[]{
 			0x50, 0x4B, 0x03, 0x04, 0x0A, 0x03, 0x00, 0x00, 0x00, 0x00, 0x49, 0x9E, 0x74, 0x48, 0xA3, 0x1C,
 			0x29, 0x1C, 0x0C, 0x00, 0x00, 0x00, 0x0C, 0x00, 0x00, 0x00, 0x09, 0x00, 0x00, 0x00, 0x68, 0x65,
@@ -361,6 +408,189 @@ public class Benchmark {
 				}
 			}
 		});
+
+		// Maps with int and String keys: the fast maps don't box keys nor allocate entries
+		benchmark("HashMap<Integer>", new Task() {
+			@Override
+			public int run() {
+				HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+				Integer value = 1;
+				int m = 0;
+				for (int n = 0; n < 100000; n++) map.put(n * 7, value);
+				for (int n = 0; n < 100000; n++) m += map.get(n * 7);
+				for (int n = 0; n < 100000; n += 2) map.remove(n * 7);
+				return m + (map.containsKey(7) ? 1 : 0);
+			}
+		});
+
+		benchmark("FastIntMap", new Task() {
+			@Override
+			public int run() {
+				FastIntMap<Integer> map = new FastIntMap<Integer>();
+				Integer value = 1;
+				int m = 0;
+				for (int n = 0; n < 100000; n++) map.set(n * 7, value);
+				for (int n = 0; n < 100000; n++) m += map.get(n * 7);
+				for (int n = 0; n < 100000; n += 2) map.remove(n * 7);
+				return m + (map.has(7) ? 1 : 0);
+			}
+		});
+
+		final String[] keys = new String[10000];
+		for (int n = 0; n < keys.length; n++) keys[n] = "key" + n;
+
+		benchmark("HashMap<String>", new Task() {
+			@Override
+			public int run() {
+				HashMap<String, Integer> map = new HashMap<String, Integer>();
+				Integer value = 1;
+				int m = 0;
+				for (int i = 0; i < 10; i++) {
+					for (String key : keys) map.put(key, value);
+					for (String key : keys) m += map.get(key);
+					for (String key : keys) map.remove(key);
+				}
+				return m;
+			}
+		});
+
+		benchmark("FastStringMap", new Task() {
+			@Override
+			public int run() {
+				FastStringMap<Integer> map = new FastStringMap<Integer>();
+				Integer value = 1;
+				int m = 0;
+				for (int i = 0; i < 10; i++) {
+					for (String key : keys) map.set(key, value);
+					for (String key : keys) m += map.get(key);
+					for (String key : keys) map.remove(key);
+				}
+				return m;
+			}
+		});
+
+		benchmark("try/catch not throwing", new Task() {
+			@Override
+			public int run() {
+				int m = 0;
+				for (int n = 0; n < 1000000; n++) m += checkedDiv(n, 3);
+				return m;
+			}
+		});
+
+		final String[] numbers = new String[16];
+		// One in 16 inputs isn't a number and throws
+		for (int n = 0; n < numbers.length; n++) numbers[n] = (n == 0) ? "1.5" : ("" + n);
+
+		benchmark("try/catch throwing", new Task() {
+			@Override
+			public int run() {
+				int m = 0;
+				for (int n = 0; n < 100000; n++) m += parseOrDefault(numbers[n & 15], -1);
+				return m;
+			}
+		});
+
+		// Same total work split between threads: scales with the cores on targets with threads
+		for (final int threadCount : new int[]{1, 2, 4, 8}) {
+			benchmark("threads " + threadCount, new Task() {
+				@Override
+				public int run() {
+					final int[] results = new int[threadCount];
+					runThreads(threadCount, new ThreadTask() {
+						@Override
+						public void run(int index) {
+							int m = 0;
+							for (int n = 0; n < 4000000 / threadCount; n++) m += calc(m, n);
+							results[index] = m;
+						}
+					});
+					int m = 0;
+					for (int result : results) m += result;
+					return m;
+				}
+			});
+		}
+
+		benchmark("synchronized uncontended", new Task() {
+			@Override
+			public int run() {
+				final Object lock = new Object();
+				int m = 0;
+				for (int n = 0; n < 1000000; n++) {
+					synchronized (lock) {
+						m += n;
+					}
+				}
+				return m;
+			}
+		});
+
+		benchmark("synchronized contended 4 threads", new Task() {
+			@Override
+			public int run() {
+				final Object lock = new Object();
+				final int[] counter = new int[1];
+				runThreads(4, new ThreadTask() {
+					@Override
+					public void run(int index) {
+						for (int n = 0; n < 250000; n++) {
+							synchronized (lock) {
+								counter[0]++;
+							}
+						}
+					}
+				});
+				return counter[0];
+			}
+		});
+	}
+
+	// Methods with traps: compare runPlainJs and runJsRelooper to see the state machine against the relooped try/catch
+	static private int checkedDiv(int a, int b) {
+		int result;
+		try {
+			result = a / b;
+			if (result > 1000) result -= 1000;
+		} catch (ArithmeticException e) {
+			result = -1;
+		}
+		return result;
+	}
+
+	static private int parseOrDefault(String str, int def) {
+		try {
+			return Integer.parseInt(str);
+		} catch (NumberFormatException e) {
+			return def;
+		} finally {
+			parseCount++;
+		}
+	}
+
+	static private int parseCount = 0;
+
+	interface ThreadTask {
+		void run(int index);
+	}
+
+	static private void runThreads(int count, final ThreadTask task) {
+		Thread[] threads = new Thread[count];
+		for (int n = 0; n < count; n++) {
+			final int index = n;
+			threads[n] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					task.run(index);
+				}
+			});
+			threads[n].start();
+		}
+		try {
+			for (Thread thread : threads) thread.join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	static private void benchmark(String name, Task run) {
@@ -386,6 +616,16 @@ public class Benchmark {
 		return (a + b) * (a + b);
 	}
 
+	static class Node {
+		public int value;
+		public Node prev;
+		public Node next;
+
+		public Node(int value) {
+			this.value = value;
+		}
+	}
+
 	static class MyClass {
 		public int a = 10;
 		public int b = 20;
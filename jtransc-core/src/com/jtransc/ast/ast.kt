@@ -107,6 +107,11 @@ data class AstBuildSettings(
 
 interface AstClassGenerator {
 	fun generateClass(program: AstProgram, fqname: FqName): AstClass
+
+	// Does the program independent part of generateClass (reading and parsing) and returns the part that
+	// registers the class in the program. The first part can run on any thread, the returned one must not
+	// run concurrently with other program changes.
+	fun prepareClass(program: AstProgram, fqname: FqName): () -> AstClass = { generateClass(program, fqname) }
 }
 
 interface AstResolver {
@@ -192,19 +197,24 @@ class AstProgram(
 	private val referencedClasses = hashSetOf<AstType.REF>()
 	private val referencedClassBy = hashMapOf<AstType.REF, AstType.REF>()
 
-	fun hasClassToGenerate() = classesToGenerate.isNotEmpty()
+	@Synchronized fun hasClassToGenerate() = classesToGenerate.isNotEmpty()
 
 	fun getClassBytes(clazz: FqName): ByteArray {
-		try {
-			return resourcesVfs[clazz.internalFqname + ".class"].readBytes()
-		} catch (e: Throwable) {
-			throw IOException(e.message + " referenced by " + referencedClassBy[AstType.REF(clazz)], e)
-		}
+		val path = clazz.internalFqname + ".class"
+		return resourcesVfs[path].readOrNull()
+			?: throw IOException("Can't find $path referenced by " + synchronized(this) { referencedClassBy[AstType.REF(clazz)] })
 	}
 
-	fun readClassToGenerate(): AstType.REF = classesToGenerate.remove()
+	@Synchronized fun readClassToGenerate(): AstType.REF = classesToGenerate.remove()
+
+	// Takes the whole frontier in discovery order
+	@Synchronized fun readClassesToGenerate(): List<AstType.REF> {
+		val out = classesToGenerate.toList()
+		classesToGenerate.clear()
+		return out
+	}
 
-	fun addReference(clazz: AstType.REF, referencedBy: AstType.REF) {
+	@Synchronized fun addReference(clazz: AstType.REF, referencedBy: AstType.REF) {
 		if (clazz !in referencedClasses) {
 			classesToGenerate += clazz
 			referencedClasses += clazz
@@ -404,6 +414,8 @@ class AstClass(
 
 	fun implements(name: FqName) = allInterfacesInAncestors.firstOrNull { it.name == name } != null
 
+	fun isSubtypeOf(other: AstClass): Boolean = (this == other) || (other in thisAndAncestors) || (other in allInterfacesInAncestors)
+
 	val allInterfacesInAncestors: List<AstClass> by lazy {
 		(allDirectInterfaces + (parentClass?.allInterfacesInAncestors ?: listOf())).distinct()
 	}
@@ -465,8 +477,12 @@ class AstClass(
 
 	fun isMethodOverloaded(name: String): Boolean = getMethodsInAncestorsAndInterfaces(name).count() > 1
 
-	fun getMethodInAncestors(nameDesc: AstMethodWithoutClassRef): AstMethod? = methodsByNameDesc.getOrPut(nameDesc) {
-		parentClass?.getMethodInAncestors(nameDesc)
+	// Lookups cache their results and can run from several generator threads. Locks are only taken
+	// from a class to its ancestors, so they can't deadlock.
+	fun getMethodInAncestors(nameDesc: AstMethodWithoutClassRef): AstMethod? = synchronized(methodsByNameDesc) {
+		methodsByNameDesc.getOrPut(nameDesc) {
+			parentClass?.getMethodInAncestors(nameDesc)
+		}
 	}
 
 	/*
@@ -478,7 +494,7 @@ class AstClass(
 	val descendantClasses by lazy { childrenClasses.flatMap { it.childrenClasses } }
 	*/
 
-	fun getMethodInAncestorsAndInterfaces(nameDesc: AstMethodWithoutClassRef): AstMethod? {
+	fun getMethodInAncestorsAndInterfaces(nameDesc: AstMethodWithoutClassRef): AstMethod? = synchronized(methodsByNameDescInterfaces) {
 		var result = methodsByNameDescInterfaces[nameDesc]
 		if (result == null) {
 			result = parentClass?.getMethodInAncestorsAndInterfaces(nameDesc)
@@ -490,7 +506,7 @@ class AstClass(
 			}
 		}
 		methodsByNameDescInterfaces[nameDesc] = result
-		return result
+		result
 		//return methodsByNameDesc[nameDesc] ?: parentClass?.getMethodInAncestors(nameDesc)
 	}
 
@@ -691,22 +707,24 @@ class AstMethod(
 
 	val isNative: Boolean = modifiers.isNative
 
+	// Bodies are generated lazily, and can be first read from several threads while loading the program
+	private val bodyLock = Any()
 	private var generatedBody: Boolean = false
 	private var generatedBodyBody: AstBody? = null
 
-	val body: AstBody? get() {
+	val body: AstBody? get() = synchronized(bodyLock) {
 		if (!generatedBody) {
-			generatedBody = true
 			generatedBodyBody = generateBody()
+			generatedBody = true
 		}
-		return generatedBodyBody
+		generatedBodyBody
 	}
 	val hasBody: Boolean get() = body != null
 
 	fun replaceBody(stmGen: () -> AstStm) {
 		this.generateBody = { AstBody(types, stmGen(), methodType) }
 		calculatedBodyDependencies = null
-		generatedBody = false
+		synchronized(bodyLock) { generatedBody = false }
 	}
 
 	fun replaceBodyOpt(stmGen: () -> AstStm) {
@@ -716,7 +734,7 @@ class AstMethod(
 			body
 		}
 		calculatedBodyDependencies = null
-		generatedBody = false
+		synchronized(bodyLock) { generatedBody = false }
 	}
 
 	fun replaceBodyOptBuild(stmGen: AstBuilder2.(args: List<AstArgument>) -> Unit) {
@@ -728,13 +746,13 @@ class AstMethod(
 			body
 		}
 		calculatedBodyDependencies = null
-		generatedBody = false
+		synchronized(bodyLock) { generatedBody = false }
 	}
 
 	fun replaceBody(stm: AstStm) {
 		this.generateBody = { AstBody(types, stm, methodType) }
 		calculatedBodyDependencies = null
-		generatedBody = false
+		synchronized(bodyLock) { generatedBody = false }
 	}
 
 	val methodType: AstType.METHOD = methodType
@@ -780,6 +798,8 @@ class AstMethod(
 	val setterField: String? by lazy { annotationsList.getTyped<JTranscSetter>()?.value }
 	val nativeMethod: String? by lazy { annotationsList.getTyped<JTranscMethod>()?.value }
 	val isInline: Boolean by lazy { annotationsList.contains<JTranscInline>() }
+	// Set by AstDevirtualizer.markEffectivelyFinal when no class in the program overrides this method
+	var isEffectivelyFinal: Boolean = false
 	val useUnsafeArrays: Boolean by lazy { annotationsList.contains<JTranscUnsafeFastArrays>() }
 
 
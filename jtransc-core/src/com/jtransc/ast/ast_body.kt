@@ -148,6 +148,9 @@ open class AstStm() : AstElement, Cloneable<AstStm> {
 		val array = array.box
 		val index = index.box
 		val expr = expr.box
+		// Proven by AstCheckElimination
+		var notNull = false
+		var inBounds = false
 	}
 
 	class SET_ARRAY_LITERALS(array: AstExpr, val startIndex: Int, val values: List<AstExpr.Box>) : AstStm() {
@@ -162,6 +165,7 @@ open class AstStm() : AstElement, Cloneable<AstStm> {
 	class SET_FIELD_INSTANCE(val field: AstFieldRef, left: AstExpr, expr: AstExpr) : AstStm() {
 		val left = left.box
 		val expr = expr.box
+		var notNull = false
 	}
 
 	class SET_NEW_WITH_CONSTRUCTOR(val local: AstExpr.LocalExpr, val target: AstType.REF, val method: AstMethodRef, args: List<AstExpr>) : AstStm() {
@@ -387,6 +391,7 @@ abstract class AstExpr : AstElement, Cloneable<AstExpr> {
 		override val args = args.map { it.box }
 
 		override val type = method.type.ret
+		var notNull = false
 	}
 
 	//class CALL_SPECIAL(obj: AstExpr, override val method: AstMethodRef, args: List<AstExpr>, override val isSpecial: Boolean = false) : CALL_BASE() {
@@ -414,17 +419,22 @@ abstract class AstExpr : AstElement, Cloneable<AstExpr> {
 	class ARRAY_LENGTH(array: AstExpr) : AstExpr() {
 		val array = array.box
 		override val type = AstType.INT
+		var notNull = false
 	}
 
 	class ARRAY_ACCESS(array: AstExpr, index: AstExpr) : LValueExpr() {
 		val array = array.box
 		val index = index.box
 		override val type = array.type.elementType
+		// Proven by AstCheckElimination
+		var notNull = false
+		var inBounds = false
 	}
 
 	class FIELD_INSTANCE_ACCESS(val field: AstFieldRef, expr: AstExpr) : LValueExpr() {
 		val expr = expr.box
 		override val type: AstType = field.type
+		var notNull = false
 	}
 
 	class FIELD_STATIC_ACCESS(val field: AstFieldRef) : LValueExpr() {
@@ -472,6 +482,12 @@ abstract class AstExpr : AstElement, Cloneable<AstExpr> {
 		override val type = arrayType
 	}
 
+	// StringSwitchFeature: value of the case matching subject in a string switch, or -1 when there is none
+	class STRING_SWITCH(subject: AstExpr, val cases: List<Pair<String, Int>>) : AstExpr() {
+		val subject = subject.box
+		override val type = AstType.INT
+	}
+
 	//class ARRAY_VALUES(elementType: AstType, val values: List<AstExpr>) : AstExpr() {
 	//	val arrayType: AstType.ARRAY = AstType.ARRAY(elementType)
 	//	override val type = arrayType
@@ -487,12 +503,17 @@ abstract class AstExpr : AstElement, Cloneable<AstExpr> {
 	}
 
 	infix fun ge(that: AstExpr) = AstExpr.BINOP(AstType.BOOL, this, AstBinop.GE, that)
+	infix fun lt(that: AstExpr) = AstExpr.BINOP(AstType.BOOL, this, AstBinop.LT, that)
 	infix fun le(that: AstExpr) = AstExpr.BINOP(AstType.BOOL, this, AstBinop.LE, that)
 	infix fun band(that: AstExpr) = AstExpr.BINOP(AstType.BOOL, this, AstBinop.BAND, that)
 	infix fun and(that: AstExpr) = AstExpr.BINOP(this.type, this, AstBinop.AND, that)
 	infix fun instanceof(that: AstType.REF) = AstExpr.INSTANCE_OF(this, that)
 
-	class TERNARY(val cond: AstExpr, val etrue: AstExpr, val efalse: AstExpr, val types: AstTypes) : AstExpr() {
+	class TERNARY(cond: AstExpr, etrue: AstExpr, efalse: AstExpr, val types: AstTypes) : AstExpr() {
+		val cond = cond.box
+		val etrue = etrue.box
+		val efalse = efalse.box
+
 		override val type: AstType = types.unify(etrue.type, efalse.type)
 	}
 }
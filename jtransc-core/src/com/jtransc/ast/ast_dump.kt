@@ -106,6 +106,7 @@ fun dump(expr: AstExpr?): String {
 		is AstExpr.INSTANCE_OF -> "(" + dump(expr.expr) + " instance of " + javaDump(expr.checkType) + ")"
 		is AstExpr.NEW -> "new " + expr.target.fqname + "()"
 		is AstExpr.TERNARY -> dump(expr.cond) + " ? " + dump(expr.etrue) + " : " + dump(expr.efalse)
+		is AstExpr.STRING_SWITCH -> "switchIndex(" + dump(expr.subject) + ", " + expr.cases.map { "\"${it.first}\"=${it.second}" }.joinToString(", ") + ")"
 	//is AstExpr.REF -> "REF(" + dump(expr.expr) + ")"
 		is AstExpr.NEW_ARRAY -> "new " + expr.arrayType.element + "[" + expr.counts.map { dump(it) }.joinToString(", ") + "]"
 		is AstExpr.CALL_BASE -> {
@@ -40,6 +40,12 @@ object References {
 			out += GetClassTemplateReferences(program, member.value.joinToString("\n"), clazz.name).map { AstType.REF(it) }
 		}
 
+		// cpp/Base.cpp is included by the target instead of with JTranscAddFile (see TreeShaking)
+		if (targetName.matches("cpp") && clazz.fqname == "java.lang.Object") {
+			val filecontent = program.resourcesVfs["cpp/Base.cpp"].readString()
+			out += GetClassTemplateReferences(program, filecontent, clazz.name).map { AstType.REF(it) }
+		}
+
 		// @TODO: This should be unified!
 		if (targetName.matches("haxe")) {
 			val haxeAddFilesTemplate = this.getTyped<HaxeAddFilesTemplate>()
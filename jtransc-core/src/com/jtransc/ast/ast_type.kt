@@ -10,6 +10,7 @@ import com.jtransc.text.StrReader
 import com.jtransc.text.readUntil
 import java.io.Serializable
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 interface AstType {
 	abstract class Primitive(underlyingClassStr: String, val ch: Char, val shortName: String) : AstType {
@@ -141,7 +142,7 @@ fun ARRAY(type: AstType) = AstType.ARRAY(type)
 
 @Singleton
 class AstTypes {
-	private val AstTypeDemangleCache = hashMapOf<String, AstType>()
+	private val AstTypeDemangleCache = ConcurrentHashMap<String, AstType>()
 
 	fun ARRAY(element: AstType, count: Int): AstType.ARRAY = if (count <= 1) AstType.ARRAY(element) else ARRAY(AstType.ARRAY(element), count - 1)
 
@@ -158,10 +159,7 @@ class AstTypes {
 	}
 
 	fun demangle(desc: String): AstType {
-		if (desc !in AstTypeDemangleCache) {
-			AstTypeDemangleCache[desc] = this.readOne(StrReader(desc))
-		}
-		return AstTypeDemangleCache[desc]!!
+		return AstTypeDemangleCache[desc] ?: this.readOne(StrReader(desc)).apply { AstTypeDemangleCache[desc] = this }
 	}
 
 	fun demangleMethod(text: String): AstType.METHOD {
@@ -92,6 +92,7 @@ open class AstVisitor {
 			is AstExpr.INTARRAY_LITERAL -> visit(expr)
 			is AstExpr.STRINGARRAY_LITERAL -> visit(expr)
 			is AstExpr.TERNARY -> visit(expr)
+			is AstExpr.STRING_SWITCH -> visit(expr)
 			else -> noImpl("$expr")
 		}
 	}
@@ -378,6 +379,10 @@ open class AstVisitor {
 		//visitExprs(expr.values)
 	}
 
+	open fun visit(expr: AstExpr.STRING_SWITCH) {
+		visit(expr.subject)
+	}
+
 	open fun visit(expr: AstExpr.TERNARY) {
 		visit(expr.cond)
 		visit(expr.etrue)
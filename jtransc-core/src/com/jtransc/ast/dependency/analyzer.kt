@@ -80,6 +80,9 @@ object AstDependencyAnalyzer {
 				is AstExpr.ARRAY_LENGTH -> {
 					ana(expr.array)
 				}
+				is AstExpr.STRING_SWITCH -> {
+					ana(expr.subject)
+				}
 				is AstExpr.TERNARY -> {
 					ana(expr.cond)
 					ana(expr.etrue)
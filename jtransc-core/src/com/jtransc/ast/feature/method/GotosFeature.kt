@@ -20,6 +20,7 @@ import com.jtransc.ast.*
 import com.jtransc.ast.optimize.optimize
 import com.jtransc.graph.Relooper
 import com.jtransc.graph.RelooperException
+import java.util.*
 
 @Suppress("UNUSED_PARAMETER", "LoopToCallChain")
 // @TODO: Use AstBuilder to make it more readable
@@ -38,6 +39,199 @@ class GotosFeature : AstMethodFeature() {
 	}
 
 	private fun removeRelooper(body: AstBody, types: AstTypes): AstBody? {
+		val entryStm = body.stm as? AstStm.STMS ?: return null
+		// Not relooping single statements
+
+		var stms = entryStm.stms.map { it.value }
+		val locals = body.locals.toCollection(arrayListOf<AstLocal>())
+		if (body.traps.isNotEmpty()) {
+			stms = structureTraps(stms, body.traps, locals, types) ?: return null
+			// Loops outside the try blocks still need the state machine, but it doesn't have to check trap ranges anymore
+			val stm = reloop(stms) ?: return removeMachineState(AstBody(AstStm.STMS(stms), body.type, locals, listOf(), body.flags), types).copy(traps = body.traps)
+			return AstBody(stm.optimize(body.flags), body.type, locals, body.traps, body.flags)
+		}
+
+		return AstBody(reloop(stms)?.optimize(body.flags) ?: return null, body.type, locals, body.traps, body.flags)
+	}
+
+	// Each group of traps sharing a protected range becomes a try/catch around the range structured on its own.
+	// Exits from the range and caught exceptions store their destination in TR, that is dispatched right after the
+	// try/catch, so the enclosing graph just sees a node with conditional edges. Ranges inside other ranges are
+	// structured first, and end up as a node of the enclosing range.
+	private fun structureTraps(stms: List<AstStm>, traps: List<AstTrap>, locals: MutableList<AstLocal>, types: AstTypes): List<AstStm>? {
+		class Range(val start: Int, val end: Int, val handler: AstLabel, val exception: AstType.REF, val priority: Int)
+		class Region(val start: Int, val end: Int, val ranges: List<Range>) {
+			val children = arrayListOf<Region>()
+			operator fun contains(that: Region) = start <= that.start && that.end <= end
+		}
+
+		val trapState = AstLocal(-1, "TR", AstType.INT)
+		val regionState = AstLocal(-1, "TG", AstType.INT)
+		var usesRegionState = false
+
+		val labelPositions = hashMapOf<AstLabel, Int>()
+		for ((index, stm) in stms.withIndex()) {
+			if (stm is AstStm.STM_LABEL) labelPositions[stm.label] = index
+		}
+		fun labelAt(position: Int) = (stms[position] as AstStm.STM_LABEL).label
+
+		var ranges = traps.withIndex().map {
+			val (index, trap) = it
+			Range(labelPositions[trap.start] ?: return null, labelPositions[trap.end] ?: return null, trap.handler, trap.exception, index)
+		}
+		if (ranges.any { it.end <= it.start }) return null
+
+		// Ranges are split until any two of them are disjoint, the same, or nested with the traps of the inner one first in
+		// the exception table, as in the code javac emits. The traps that apply only depend on the statement that
+		// throws, so this doesn't change what is caught.
+		fun split(range: Range, vararg at: Int): List<Range> {
+			val bounds = (listOf(range.start, range.end) + at.filter { it > range.start && it < range.end }).sorted()
+			return (0 until bounds.size - 1).map { Range(bounds[it], bounds[it + 1], range.handler, range.exception, range.priority) }
+		}
+		fun crosses(a: Range, b: Range) = a.start < b.start && b.start < a.end && a.end < b.end
+		fun encloses(a: Range, b: Range) = a.start <= b.start && b.end <= a.end && (a.start != b.start || a.end != b.end)
+		while (true) {
+			val pair = ranges.flatMap { a -> ranges.map { b -> a to b } }.firstOrNull {
+				crosses(it.first, it.second) || (encloses(it.first, it.second) && it.first.priority < it.second.priority)
+			} ?: break
+			val a = pair.first
+			val b = pair.second
+			ranges = ranges.filter { it !== a && it !== b } + split(a, b.start, b.end) + split(b, a.start, a.end)
+		}
+
+		val regions = ranges.groupBy { it.start to it.end }
+			.map { Region(it.key.first, it.key.second, it.value.sortedBy { it.priority }) }
+			.sortedWith(compareBy<Region> { it.start }.thenByDescending { it.end })
+
+		val roots = arrayListOf<Region>()
+		val open = arrayListOf<Region>()
+		for (region in regions) {
+			while (open.isNotEmpty() && region !in open.last()) open.removeAt(open.size - 1)
+			(open.lastOrNull()?.children ?: roots) += region
+			open += region
+		}
+
+		fun setState(state: Int) = AstStm.SET_LOCAL(AstExpr.LOCAL(trapState), AstExpr.LITERAL(state, types))
+
+		var regionCount = 0
+
+		// inner: the statements of the range, with the ranges nested in it already structured
+		fun structureRegion(region: Region, inner: List<AstStm>): List<AstStm> {
+			val index = regionCount++
+			val innerLabels = inner.filterIsInstance<AstStm.STM_LABEL>().map { it.label }.toSet()
+
+			val states = LinkedHashMap<AstLabel, Int>()
+			fun stateFor(label: AstLabel) = states.getOrPut(label) { states.size }
+			val exitLabels = LinkedHashMap<AstLabel, AstLabel>()
+			fun exitFor(label: AstLabel): AstLabel {
+				if (label in innerLabels) return label
+				return exitLabels.getOrPut(label) { AstLabel("trap${index}_exit${exitLabels.size}") }
+			}
+
+			val regionEnd = AstLabel("trap${index}_end")
+			val body = arrayListOf<AstStm>()
+			for (stm in inner) {
+				body += when (stm) {
+					is AstStm.GOTO -> AstStm.GOTO(exitFor(stm.label))
+					is AstStm.IF_GOTO -> AstStm.IF_GOTO(exitFor(stm.label), stm.cond.value)
+					is AstStm.SWITCH_GOTO -> AstStm.SWITCH_GOTO(stm.subject.value, exitFor(stm.default), stm.cases.map { it.first to exitFor(it.second) })
+					else -> stm
+				}
+			}
+			// Falling through the end of the range
+			body += setState(stateFor(labelAt(region.end)))
+			body += AstStm.GOTO(regionEnd)
+			for ((label, exitLabel) in exitLabels) {
+				body += AstStm.STM_LABEL(exitLabel)
+				body += setState(stateFor(label))
+				body += AstStm.GOTO(regionEnd)
+			}
+			body += AstStm.STM_LABEL(regionEnd)
+
+			// The handler javac emits for synchronized blocks and finally is covered by a trap of its own,
+			// that runs the handler again from its start
+			var retries = false
+			var catch: AstStm = AstStm.RETHROW()
+			for (range in region.ranges.reversed()) {
+				val handle = if (range.handler == labelAt(region.start)) {
+					retries = true
+					AstStm.CONTINUE()
+				} else {
+					setState(stateFor(range.handler))
+				}
+				catch = AstStm.IF_ELSE(AstExpr.CAUGHT_EXCEPTION() instanceof range.exception, handle, catch)
+			}
+
+			var trystm = reloop(body)
+			if (trystm == null) {
+				usesRegionState = true
+				trystm = loopMachine(body, regionEnd, regionState, types)
+			}
+			val out = arrayListOf<AstStm>()
+			if (retries) {
+				out += AstStm.WHILE(AstExpr.LITERAL(true, types), AstStm.STMS(AstStm.TRY_CATCH(trystm, catch), AstStm.BREAK()))
+			} else {
+				out += AstStm.TRY_CATCH(trystm, catch)
+			}
+			val targets = states.entries.toList()
+			for ((label, state) in targets.dropLast(1)) {
+				out += AstStm.IF_GOTO(label, AstExpr.BINOP(AstType.BOOL, AstExpr.LOCAL(trapState), AstBinop.EQ, AstExpr.LITERAL(state, types)))
+			}
+			out += AstStm.GOTO(targets.last().key)
+			return out
+		}
+
+		// Statements from..until, with the regions in them turned into try/catch blocks
+		fun flatten(from: Int, until: Int, regions: List<Region>): List<AstStm>? {
+			val out = arrayListOf<AstStm>()
+			var pos = from
+			for (region in regions) {
+				// A range starting with its enclosing one leaves the start label to it
+				if (region.start >= pos) out += stms.subList(pos, region.start + 1)
+				out += structureRegion(region, flatten(region.start + 1, region.end, region.children) ?: return null)
+				pos = region.end
+			}
+			out += stms.subList(pos, until)
+			return out
+		}
+
+		val out = flatten(0, stms.size, roots) ?: return null
+
+		// Gotos into the middle of a range from outside it are left as exits up to here, where nothing defines them
+		val labels = out.filterIsInstance<AstStm.STM_LABEL>().map { it.label }.toSet()
+		for (stm in out) {
+			val targets = when (stm) {
+				is AstStm.GOTO -> listOf(stm.label)
+				is AstStm.IF_GOTO -> listOf(stm.label)
+				is AstStm.SWITCH_GOTO -> listOf(stm.default) + stm.cases.map { it.second }
+				else -> listOf()
+			}
+			if (targets.any { it !in labels }) return null
+		}
+
+		locals += trapState
+		if (usesRegionState) locals += regionState
+		return out
+	}
+
+	// The part of a try block the relooper can't render (loops and switches) becomes a state machine on its own,
+	// that runs until it reaches the end label
+	private fun loopMachine(stms: List<AstStm>, end: AstLabel, regionState: AstLocal, types: AstTypes): AstStm {
+		val states = hashMapOf<AstLabel, Int>()
+		for (stm in stms) {
+			if (stm is AstStm.STM_LABEL) states.getOrPut(stm.label) { states.size + 1 }
+		}
+		val state = AstExpr.LOCAL(regionState)
+		val cases = machineCases(stms, state, { states[it]!! }, types)
+		return AstStm.STMS(
+			AstStm.SET_LOCAL(AstExpr.LOCAL(regionState), AstExpr.LITERAL(0, types)),
+			AstStm.WHILE(AstExpr.BINOP(AstType.BOOL, AstExpr.LOCAL(regionState), AstBinop.NE, AstExpr.LITERAL(states[end]!!, types)),
+				AstStm.SWITCH(AstExpr.LOCAL(regionState), AstStm.NOP("no default"), cases)
+			)
+		)
+	}
+
+	private fun reloop(stms: List<AstStm>): AstStm? {
 		class BasicBlock(var index: Int) {
 			var node: Relooper.Node? = null
 			val stms = arrayListOf<AstStm>()
@@ -50,11 +244,6 @@ class GotosFeature : AstMethodFeature() {
 			override fun toString(): String = "BasicBlock($index)"
 		}
 
-		val entryStm = body.stm as? AstStm.STMS ?: return null
-		// Not relooping single statements
-		if (body.traps.isNotEmpty()) return null // Not relooping functions with traps by the moment
-
-		val stms = entryStm.stms
 		val bblist = arrayListOf<BasicBlock>()
 		val bbs = hashMapOf<AstLabel, BasicBlock>()
 		fun createBB(): BasicBlock {
@@ -69,8 +258,7 @@ class GotosFeature : AstMethodFeature() {
 
 		val entry = createBB()
 		var current = entry
-		for (stmBox in stms) {
-			val stm = stmBox.value
+		for (stm in stms) {
 			when (stm) {
 				is AstStm.STM_LABEL -> {
 					val prev = current
@@ -120,12 +308,70 @@ class GotosFeature : AstMethodFeature() {
 		}
 
 		try {
-			return AstBody(relooper.render(bblist[0].node!!)?.optimize(body.flags) ?: return null, body.type, body.locals, body.traps, body.flags)
+			return relooper.render(bblist[0].node!!)
 		} catch (e: RelooperException) {
 			//println("RelooperException: ${e.message}")
 			return null
 		}
-		//return AstBody(relooper.render(bblist[0].node!!) ?: return null, body.locals, body.traps)
+	}
+
+	// Splits stms at their labels into the cases of a switch on gotostate, that runs inside a while: gotos set the
+	// state of their label and continue the while
+	private fun machineCases(stms: List<AstStm>, gotostate: AstExpr.LOCAL, getStateFromLabel: (AstLabel) -> Int, types: AstTypes): List<Pair<Int, AstStm>> {
+		var stateIndex2 = 0
+		var stateStms = arrayListOf<AstStm>()
+		val cases = arrayListOf<Pair<Int, AstStm>>()
+
+		fun flush() {
+			cases.add(Pair(stateIndex2, AstStm.STMS(stateStms)))
+			stateIndex2 = -1
+			stateStms = arrayListOf<AstStm>()
+		}
+
+		fun simulateGotoLabel(label: AstLabel) = listOf(
+			AstStm.SET_LOCAL(gotostate, AstExpr.LITERAL(getStateFromLabel(label), types)),
+			AstStm.CONTINUE()
+		)
+
+		for (s in stms) {
+			when (s) {
+				is AstStm.STM_LABEL -> {
+					val nextIndex = getStateFromLabel(s.label)
+					val lastStm = stateStms.lastOrNull()
+					if ((lastStm !is AstStm.CONTINUE) && (lastStm !is AstStm.BREAK) && (lastStm !is AstStm.RETURN)) {
+						stateStms.addAll(simulateGotoLabel(s.label))
+					}
+					flush()
+					stateIndex2 = nextIndex
+					stateStms = arrayListOf<AstStm>()
+				}
+				is AstStm.IF_GOTO -> {
+					stateStms.add(AstStm.IF(
+						s.cond.value,
+						AstStm.STMS(simulateGotoLabel(s.label))
+					))
+				}
+				is AstStm.GOTO -> {
+					stateStms.addAll(simulateGotoLabel(s.label))
+				}
+				is AstStm.SWITCH_GOTO -> {
+					//throw NotImplementedError("Must implement switch goto ")
+					stateStms.add(AstStm.SWITCH(
+						s.subject.value,
+						AstStm.STMS(simulateGotoLabel(s.default)),
+						s.cases.map {
+							Pair(it.first, AstStm.STMS(simulateGotoLabel(it.second)))
+						}
+					))
+				}
+				else -> {
+					stateStms.add(s)
+				}
+			}
+		}
+
+		flush()
+		return cases
 	}
 
 	fun removeMachineState(body: AstBody, types: AstTypes): AstBody {
@@ -159,62 +405,12 @@ class GotosFeature : AstMethodFeature() {
 				else {
 					hasLabels = true
 					val stms = stm.stms
-					var stateIndex2 = 0
-					var stateStms = arrayListOf<AstStm>()
-					val cases = arrayListOf<Pair<Int, AstStm>>()
-
-					fun flush() {
-						cases.add(Pair(stateIndex2, AstStm.STMS(stateStms)))
-						stateIndex2 = -1
-						stateStms = arrayListOf<AstStm>()
-					}
-
-					fun simulateGotoLabel(index: Int) = listOf(
-						AstStm.SET_LOCAL(gotostate, AstExpr.LITERAL(index, types)),
-						AstStm.CONTINUE()
-					)
-
-					fun simulateGotoLabel(label: AstLabel) = simulateGotoLabel(getStateFromLabel(label))
-
+					// States follow label order, so trap ranges can be checked with comparisons
 					for (ss in stms) {
 						val s = ss.value
-						when (s) {
-							is AstStm.STM_LABEL -> {
-								val nextIndex = getStateFromLabel(s.label)
-								val lastStm = stateStms.lastOrNull()
-								if ((lastStm !is AstStm.CONTINUE) && (lastStm !is AstStm.BREAK) && (lastStm !is AstStm.RETURN)) {
-									stateStms.addAll(simulateGotoLabel(s.label))
-								}
-								flush()
-								stateIndex2 = nextIndex
-								stateStms = arrayListOf<AstStm>()
-							}
-							is AstStm.IF_GOTO -> {
-								stateStms.add(AstStm.IF(
-									s.cond.value,
-									AstStm.STMS(simulateGotoLabel(s.label))
-								))
-							}
-							is AstStm.GOTO -> {
-								stateStms.addAll(simulateGotoLabel(s.label))
-							}
-							is AstStm.SWITCH_GOTO -> {
-								//throw NotImplementedError("Must implement switch goto ")
-								stateStms.add(AstStm.SWITCH(
-									s.subject.value,
-									AstStm.STMS(simulateGotoLabel(s.default)),
-									s.cases.map {
-										Pair(it.first, AstStm.STMS(simulateGotoLabel(it.second)))
-									}
-								))
-							}
-							else -> {
-								stateStms.add(s)
-							}
-						}
+						if (s is AstStm.STM_LABEL) getStateFromLabel(s.label)
 					}
-
-					flush()
+					val cases = machineCases(stms.map { it.value }, gotostate, { getStateFromLabel(it) }, types)
 
 					fun extraReturn() = when (body.type.ret) {
 						is AstType.VOID -> AstStm.RETURN_VOID()
@@ -243,8 +439,8 @@ class GotosFeature : AstMethodFeature() {
 							val handlerState = getStateFromLabel(trap.handler)
 
 							AstStm.IF(
-								(gotostate ge AstExpr.LITERAL(startState, types)) band (gotostate le AstExpr.LITERAL(endState, types)) band (AstExpr.CAUGHT_EXCEPTION() instanceof trap.exception),
-								AstStm.STMS(simulateGotoLabel(handlerState))
+								(gotostate ge AstExpr.LITERAL(startState, types)) band (gotostate lt AstExpr.LITERAL(endState, types)) band (AstExpr.CAUGHT_EXCEPTION() instanceof trap.exception),
+								AstStm.STMS(AstStm.SET_LOCAL(gotostate, AstExpr.LITERAL(handlerState, types)), AstStm.CONTINUE())
 							)
 						}
 
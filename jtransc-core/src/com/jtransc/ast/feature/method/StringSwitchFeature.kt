@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Carlos Ballesteros Velasco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jtransc.ast.feature.method
+
+import com.jtransc.ast.*
+
+/**
+ * javac compiles a switch over strings into a switch over String.hashCode() followed by String.equals chains:
+ *
+ * SWITCH_GOTO(s.hashCode(), Ld, [h0 -> L0, ...])
+ * L0: IF_GOTO(L0b, !s.equals("a")); actions; GOTO X
+ * L0b: IF_GOTO(Ld, !s.equals("b")); actions; GOTO X
+ *
+ * Targets supporting this feature get instead a single SWITCH_GOTO over an STRING_SWITCH expression
+ * that they can map to a native string switch or hash lookup, without computing hashCode() or calling equals.
+ * Must run before GotosFeature since it works with the flat label form.
+ */
+@Suppress("UNUSED_PARAMETER")
+class StringSwitchFeature : AstMethodFeature() {
+	override fun add(method: AstMethod, body: AstBody, settings: AstBuildSettings, types: AstTypes): AstBody {
+		val entryStm = body.stm as? AstStm.STMS ?: return body
+		val stms = entryStm.stms.map { it.value }
+		if (stms.none { it is AstStm.SWITCH_GOTO }) return body
+
+		val labelPositions = hashMapOf<AstLabel, Int>()
+		val labelRefs = hashMapOf<AstLabel, Int>()
+		fun ref(label: AstLabel) {
+			labelRefs[label] = (labelRefs[label] ?: 0) + 1
+		}
+
+		for ((index, stm) in stms.withIndex()) {
+			when (stm) {
+				is AstStm.STM_LABEL -> labelPositions[stm.label] = index
+				is AstStm.GOTO -> ref(stm.label)
+				is AstStm.IF_GOTO -> ref(stm.label)
+				is AstStm.SWITCH_GOTO -> {
+					ref(stm.default)
+					for (case in stm.cases) ref(case.second)
+				}
+			}
+		}
+		val pinnedLabels = body.traps.flatMap { listOf(it.start, it.end, it.handler) }.toSet()
+
+		val removed = BooleanArray(stms.size)
+		val replaced = hashMapOf<Int, List<AstStm>>()
+		var lastLabelId = 0
+
+		for ((index, stm) in stms.withIndex()) {
+			if (stm !is AstStm.SWITCH_GOTO) continue
+			val subject = getHashCodeSubject(stm.subject.value) ?: continue
+
+			class Case(val value: String, val actions: List<AstStm>, val exit: AstLabel?)
+
+			val cases = arrayListOf<Case>()
+			val ranges = arrayListOf<IntRange>()
+
+			// Label of a case block that is only reached from the hashCode switch or the equals chain
+			fun removablePosition(label: AstLabel): Int? {
+				val pos = labelPositions[label] ?: return null
+				if (label in pinnedLabels || labelRefs[label] != 1) return null
+				if (pos > 0 && !stms[pos - 1].isBranching()) return null
+				return pos
+			}
+
+			fun parseChain(hash: Int, start: AstLabel): Boolean {
+				var label = start
+				while (true) {
+					val labelPos = removablePosition(label) ?: return false
+					var pos = labelPos + 1
+					while (pos < stms.size && stms[pos] is AstStm.LINE) pos++
+					val check = stms.getOrNull(pos) as? AstStm.IF_GOTO ?: return false
+					val value = getNotEqualsLiteral(check.cond.value, subject.local) ?: return false
+					if (value.hashCode() != hash || cases.any { it.value == value }) return false
+					pos++
+					val actions = arrayListOf<AstStm>()
+					var exit: AstLabel? = null
+					while (true) {
+						val action = stms.getOrNull(pos) ?: return false
+						if (action is AstStm.STM_LABEL) {
+							// Falls through into the label, that stays in place
+							exit = action.label
+							pos--
+							break
+						}
+						if (action is AstStm.GOTO) {
+							exit = action.label
+							break
+						}
+						if (action.isBranching() || action is AstStm.IF_GOTO) return false
+						actions += action
+						pos++
+					}
+					cases += Case(value, actions, exit)
+					ranges += labelPos..pos
+					if (check.label == stm.default) return true
+					label = check.label
+				}
+			}
+
+			if (!stm.cases.all { parseChain(it.first, it.second) }) continue
+
+			for (range in ranges) for (n in range) removed[n] = true
+			val caseLabels = cases.map { AstLabel("strswitch_${++lastLabelId}") }
+			val out = arrayListOf<AstStm>()
+			out += AstStm.SWITCH_GOTO(
+				AstExpr.STRING_SWITCH(subject, cases.withIndex().map { it.value.value to it.index }),
+				stm.default,
+				caseLabels.withIndex().map { it.index to it.value }
+			)
+			for ((case, label) in cases.zip(caseLabels)) {
+				out += AstStm.STM_LABEL(label)
+				out += case.actions
+				out += AstStm.GOTO(case.exit!!)
+			}
+			replaced[index] = out
+		}
+
+		if (replaced.isEmpty()) return body
+
+		val out = arrayListOf<AstStm>()
+		for ((index, stm) in stms.withIndex()) {
+			val replacement = replaced[index]
+			when {
+				replacement != null -> out += replacement
+				!removed[index] -> out += stm
+			}
+		}
+		return AstBody(AstStm.STMS(out), body.type, body.locals, body.traps, body.flags)
+	}
+
+	private fun AstStm.isBranching(): Boolean = when (this) {
+		is AstStm.GOTO, is AstStm.SWITCH_GOTO, is AstStm.RETURN, is AstStm.RETURN_VOID, is AstStm.THROW, is AstStm.RETHROW -> true
+		else -> false
+	}
+
+	private fun getHashCodeSubject(expr: AstExpr): AstExpr.LOCAL? {
+		val call = expr as? AstExpr.CALL_BASE ?: return null
+		if (call.method.fid != "java.lang.String:hashCode:()I") return null
+		return call.getObj() as? AstExpr.LOCAL
+	}
+
+	// Matches the IFEQ generated for equals: (int)s.equals("literal") == 0
+	private fun getNotEqualsLiteral(expr: AstExpr, local: AstLocal): String? {
+		val binop = expr as? AstExpr.BINOP ?: return null
+		if (binop.op != AstBinop.EQ) return null
+		if ((binop.right.value as? AstExpr.LITERAL)?.value != 0) return null
+		val left = binop.left.value
+		val call = (if (left is AstExpr.CAST) left.expr.value else left) as? AstExpr.CALL_BASE ?: return null
+		if (call.method.fid != "java.lang.String:equals:(Ljava/lang/Object;)Z") return null
+		if ((call.getObj() as? AstExpr.LOCAL)?.local != local) return null
+		return (call.args[0].value as? AstExpr.LITERAL)?.value as? String
+	}
+
+	private fun AstExpr.CALL_BASE.getObj(): AstExpr? = when (this) {
+		is AstExpr.CALL_INSTANCE -> this.obj.value
+		is AstExpr.CALL_SUPER -> this.obj.value
+		else -> null
+	}
+}
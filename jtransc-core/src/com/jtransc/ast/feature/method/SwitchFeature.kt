@@ -16,7 +16,151 @@
 
 package com.jtransc.ast.feature.method
 
-import com.jtransc.ast.AstMethodFeature
+import com.jtransc.ast.*
+import java.util.*
 
+/**
+ * Targets supporting this feature get SWITCH and SWITCH_GOTO as they are, so their compilers or JITs
+ * can choose between jump tables and binary searches themselves.
+ *
+ * Removing it lowers switches into binary search trees over the sorted keys, checking runs of consecutive keys
+ * going to the same place with a single range check, instead of a linear chain of comparisons.
+ */
+@Suppress("UNUSED_PARAMETER")
 class SwitchFeature : AstMethodFeature() {
-}
\ No newline at end of file
+	override fun remove(method: AstMethod, body: AstBody, settings: AstBuildSettings, types: AstTypes): AstBody {
+		val locals = body.locals.toCollection(arrayListOf<AstLocal>())
+		var lastLabelId = 0
+
+		fun subjectLocal(subject: AstExpr, out: ArrayList<AstStm>): AstExpr.LOCAL {
+			if (subject is AstExpr.LOCAL) return subject
+			val local = AstLocal(-1, "SW${locals.size}", subject.type)
+			locals += local
+			out += AstStm.SET_LOCAL(AstExpr.LOCAL(local), subject)
+			return AstExpr.LOCAL(local)
+		}
+
+		fun cmp(local: AstExpr.LOCAL, op: AstBinop, value: Int) = AstExpr.BINOP(AstType.BOOL, AstExpr.LOCAL(local.local), op, AstExpr.LITERAL(value, types))
+
+		fun lowerGoto(stm: AstStm.SWITCH_GOTO): AstStm {
+			val out = arrayListOf<AstStm>()
+			val local = subjectLocal(stm.subject.value, out)
+			val ranges = groupRanges(stm.cases)
+
+			fun tree(from: Int, to: Int) {
+				if (to - from <= LINEAR_CASES) {
+					for (n in from until to) {
+						val range = ranges[n]
+						out += AstStm.IF_GOTO(range.target, range.check(local, types))
+					}
+					out += AstStm.GOTO(stm.default)
+				} else {
+					val mid = (from + to) / 2
+					val right = AstLabel("switch_${++lastLabelId}")
+					out += AstStm.IF_GOTO(right, cmp(local, AstBinop.GE, ranges[mid].min))
+					tree(from, mid)
+					out += AstStm.STM_LABEL(right)
+					tree(mid, to)
+				}
+			}
+
+			tree(0, ranges.size)
+			return AstStm.STMS(out)
+		}
+
+		fun lower(stm: AstStm.SWITCH): AstStm {
+			// Cases can't be turned into ifs when they break out of the switch
+			if ((stm.cases.map { it.second } + stm.default).any { it.value.hasFreeBreak() }) return stm
+			val out = arrayListOf<AstStm>()
+			val local = subjectLocal(stm.subject.value, out)
+			val ranges = groupRanges(stm.cases.map { it.first to it.second.value })
+
+			// The default statement can only be placed once, so non empty defaults get a single chain
+			val linearCases = if (stm.default.value.let { it is AstStm.NOP || it.isEmpty() }) LINEAR_CASES else ranges.size
+
+			fun tree(from: Int, to: Int): AstStm {
+				if (to - from <= linearCases) {
+					var result = if (to == ranges.size) stm.default.value else AstStm.NOP("no default")
+					for (n in (from until to).reversed()) {
+						val range = ranges[n]
+						result = AstStm.IF_ELSE(range.check(local, types), range.target, result)
+					}
+					return result
+				} else {
+					val mid = (from + to) / 2
+					return AstStm.IF_ELSE(cmp(local, AstBinop.LT, ranges[mid].min), tree(from, mid), tree(mid, to))
+				}
+			}
+
+			out += tree(0, ranges.size)
+			return AstStm.STMS(out)
+		}
+
+		val loweredGotos = hashSetOf<AstStm>()
+
+		object : AstVisitor() {
+			override fun visit(stm: AstStm.SWITCH) {
+				super.visit(stm)
+				stm.box.value = lower(stm)
+			}
+
+			override fun visit(stm: AstStm.SWITCH_GOTO) {
+				super.visit(stm)
+				val lowered = lowerGoto(stm)
+				loweredGotos += lowered
+				stm.box.value = lowered
+			}
+		}.visit(body.stm)
+
+		// Lowered gotos add labels, that must stay at the top level of the flat body
+		val stm = body.stm.box.value
+		val out = if (stm is AstStm.STMS && loweredGotos.isNotEmpty()) {
+			AstStm.STMS(stm.stms.flatMap { if (it.value in loweredGotos) it.value.expand() else listOf(it.value) })
+		} else {
+			stm
+		}
+
+		return AstBody(out, body.type, locals, body.traps, body.flags)
+	}
+
+	private class Range<T>(val min: Int, var max: Int, val target: T) {
+		fun check(local: AstExpr.LOCAL, types: AstTypes): AstExpr = if (min == max) {
+			AstExpr.BINOP(AstType.BOOL, AstExpr.LOCAL(local.local), AstBinop.EQ, AstExpr.LITERAL(min, types))
+		} else {
+			(AstExpr.LOCAL(local.local) ge AstExpr.LITERAL(min, types)) band (AstExpr.LOCAL(local.local) le AstExpr.LITERAL(max, types))
+		}
+	}
+
+	// Sorted keys, joining consecutive keys with the same target
+	private fun <T> groupRanges(cases: List<Pair<Int, T>>): List<Range<T>> {
+		val out = arrayListOf<Range<T>>()
+		for ((key, target) in cases.sortedBy { it.first }) {
+			val last = out.lastOrNull()
+			if (last != null && last.max + 1 == key && last.target == target) {
+				last.max = key
+			} else {
+				out += Range(key, key, target)
+			}
+		}
+		return out
+	}
+
+	private fun AstStm.hasFreeBreak(): Boolean {
+		var found = false
+		object : AstVisitor() {
+			override fun visit(stm: AstStm.BREAK) {
+				found = true
+			}
+
+			// Breaks inside nested loops and switches are bound to them
+			override fun visit(stm: AstStm.WHILE) = Unit
+			override fun visit(stm: AstStm.SWITCH) = Unit
+		}.visit(this)
+		return found
+	}
+
+	companion object {
+		// Below this many ranges, a chain of comparisons is cheaper than another level in the tree
+		const val LINEAR_CASES = 3
+	}
+}
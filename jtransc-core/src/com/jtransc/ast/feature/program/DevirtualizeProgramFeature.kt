@@ -0,0 +1,18 @@
+package com.jtransc.ast.feature.program
+
+import com.jtransc.ast.AstBuildSettings
+import com.jtransc.ast.AstProgram
+import com.jtransc.ast.AstProgramFeature
+import com.jtransc.ast.AstTypes
+import com.jtransc.ast.optimize.AstDevirtualizer
+import com.jtransc.log.log
+
+// Supported by targets generating CALL_SUPER on any object. Can be disabled with the "devirtualize" extra setting set to "false".
+class DevirtualizeProgramFeature : AstProgramFeature() {
+	override fun onSupported(program: AstProgram, settings: AstBuildSettings, types: AstTypes) {
+		if (settings.extra["devirtualize"] == "false") return
+		val devirtualizer = AstDevirtualizer(program)
+		devirtualizer.run()
+		log.info("Devirtualized calls: ${devirtualizer.monomorphicCalls} monomorphic, ${devirtualizer.bimorphicCalls} bimorphic")
+	}
+}
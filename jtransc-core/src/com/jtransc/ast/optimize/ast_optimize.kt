@@ -10,6 +10,7 @@ import com.jtransc.log.log
 // @TODO: rewrite using method.transformInplace
 class AstOptimizer(val flags: AstBodyFlags) : AstVisitor() {
 	val types: AstTypes = flags.types
+	private val annotateExpressions = AstAnnotateExpressions()
 	private var stm: AstStm? = null
 
 	override fun visit(stm: AstStm?) {
@@ -45,7 +46,7 @@ class AstOptimizer(val flags: AstBodyFlags) : AstVisitor() {
 						val equals = expr.op == AstBinop.EQ
 
 						box.value = if (toZero xor equals) leftExpr else AstExpr.UNOP(AstUnop.NOT, leftExpr)
-						AstAnnotateExpressions.visitExprWithStm(stm, box)
+						annotateExpressions.visitExprWithStm(stm, box)
 					}
 				}
 			}
@@ -275,7 +276,7 @@ class AstOptimizer(val flags: AstBodyFlags) : AstVisitor() {
 		if (expr is AstExpr.CAST && stm.local.type == expr.from) {
 			val exprBox = expr.box
 			exprBox.value = expr.expr.value
-			AstAnnotateExpressions.visitExprWithStm(stm, exprBox)
+			annotateExpressions.visitExprWithStm(stm, exprBox)
 			return
 		}
 	}
@@ -327,7 +328,7 @@ class AstOptimizer(val flags: AstBodyFlags) : AstVisitor() {
 					AstType.FLOAT -> box2.value = AstExpr.LITERAL(literalValue.toFloat(), types)
 					AstType.DOUBLE -> box2.value = AstExpr.LITERAL(literalValue.toDouble(), types)
 				}
-				AstAnnotateExpressions.visitExprWithStm(stm, box2)
+				annotateExpressions.visitExprWithStm(stm, box2)
 				return
 			}
 		}
@@ -380,6 +381,7 @@ fun AstExpr.isPure(): Boolean = when (this) {
 	is AstExpr.FIELD_INSTANCE_ACCESS -> this.expr.isPure()
 	is AstExpr.INSTANCE_OF -> this.expr.isPure()
 	is AstExpr.TERNARY -> this.cond.isPure() && this.etrue.isPure() && this.efalse.isPure()
+	is AstExpr.STRING_SWITCH -> false // Throws on null
 	is AstExpr.CAUGHT_EXCEPTION -> true
 	is AstExpr.FIELD_STATIC_ACCESS -> true
 	is AstExpr.LITERAL -> true
@@ -397,7 +399,8 @@ fun AstExpr.isPure(): Boolean = when (this) {
 	}
 }
 
-object AstAnnotateExpressions : AstVisitor() {
+// Not shared between bodies: it keeps the statement being visited, and bodies can be generated concurrently
+class AstAnnotateExpressions : AstVisitor() {
 	private var stm: AstStm? = null
 
 	fun visitExprWithStm(stm: AstStm?, box: AstExpr.Box) {
@@ -417,17 +420,17 @@ object AstAnnotateExpressions : AstVisitor() {
 }
 
 fun AstBody.optimize() = this.apply {
-	AstAnnotateExpressions.visit(this)
+	AstAnnotateExpressions().visit(this)
 	AstOptimizer(this.flags).visit(this)
 }
 
 fun AstStm.Box.optimize(flags: AstBodyFlags) = this.apply {
-	AstAnnotateExpressions.visit(this)
+	AstAnnotateExpressions().visit(this)
 	AstOptimizer(flags).visit(this)
 }
 
 fun AstExpr.Box.optimize(flags: AstBodyFlags) = this.apply {
-	AstAnnotateExpressions.visit(this)
+	AstAnnotateExpressions().visit(this)
 	AstOptimizer(flags).visit(this)
 }
 
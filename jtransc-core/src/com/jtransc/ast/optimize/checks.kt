@@ -0,0 +1,498 @@
+package com.jtransc.ast.optimize
+
+import com.jtransc.ast.*
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Proves array accesses in bounds and dereferences not null, so targets can omit those checks.
+ *
+ * A forward analysis over the control flow graph of flat bodies collects facts about the locals that hold at every
+ * statement in all the paths reaching it: not null, non negative, smaller than the length of an array or than a
+ * constant, equal to the length of an array. They come from allocations, from previous dereferences that must have
+ * succeeded, from the conditions of the branches taken (loop conditions against ARRAY_LENGTH or a local holding it),
+ * and from simple arithmetic like masks and increments of bounded locals.
+ *
+ * Results are stored in the notNull and inBounds flags of the accesses. Bodies with structured statements are skipped,
+ * and exception handlers start without facts. Bodies must be analyzed after their method features are applied:
+ * those can remove the dereferences a fact comes from. Several bodies can be analyzed at once from different threads.
+ */
+class AstCheckElimination(val program: AstProgram) {
+	private val arrayAccessesCount = AtomicInteger()
+	private val inBoundsAccessesCount = AtomicInteger()
+	private val dereferencesCount = AtomicInteger()
+	private val notNullDereferencesCount = AtomicInteger()
+
+	val arrayAccesses: Int get() = arrayAccessesCount.get()
+	val inBoundsAccesses: Int get() = inBoundsAccessesCount.get()
+	val dereferences: Int get() = dereferencesCount.get()
+	val notNullDereferences: Int get() = notNullDereferencesCount.get()
+
+	fun analyze(body: AstBody) {
+		BodyAnalyzer(body).run()
+	}
+
+	fun report(): String = "Proven in bounds: $inBoundsAccesses/$arrayAccesses array accesses, " +
+		"proven not null: $notNullDereferences/$dereferences dereferences"
+
+	private data class NotNull(val local: AstLocal)
+	private data class NonNegative(val local: AstLocal)
+	private data class BelowLength(val local: AstLocal, val array: AstLocal)
+	private data class Below(val local: AstLocal, val value: Int)
+	private data class LengthOf(val local: AstLocal, val array: AstLocal)
+	private data class Length(val array: AstLocal, val value: Int)
+
+	private fun mentions(fact: Any, local: AstLocal): Boolean = when (fact) {
+		is NotNull -> fact.local == local
+		is NonNegative -> fact.local == local
+		is BelowLength -> fact.local == local || fact.array == local
+		is Below -> fact.local == local
+		is LengthOf -> fact.local == local || fact.array == local
+		is Length -> fact.array == local
+		else -> false
+	}
+
+	private fun rename(fact: Any, from: AstLocal, to: AstLocal): Any {
+		fun r(local: AstLocal) = if (local == from) to else local
+		return when (fact) {
+			is NotNull -> NotNull(r(fact.local))
+			is NonNegative -> NonNegative(r(fact.local))
+			is BelowLength -> BelowLength(r(fact.local), r(fact.array))
+			is Below -> Below(r(fact.local), fact.value)
+			is LengthOf -> LengthOf(r(fact.local), r(fact.array))
+			is Length -> Length(r(fact.array), fact.value)
+			else -> fact
+		}
+	}
+
+	private class Block(val index: Int) {
+		val stms = arrayListOf<AstStm>()
+		var input: HashSet<Any>? = null
+	}
+
+	private inner class BodyAnalyzer(val body: AstBody) {
+		val stms = arrayListOf<AstStm>()
+		val blocks = arrayListOf<Block>()
+		val labelBlocks = hashMapOf<AstLabel, Block>()
+
+		fun run() {
+			if (!flatten(body.stm)) return
+			if (!createBlocks()) return
+
+			val entries = listOf(blocks[0]) + body.traps.map { labelBlocks[it.handler] ?: return }.distinct()
+			val queue = ArrayDeque<Block>()
+			for (entry in entries) {
+				entry.input = hashSetOf()
+				queue += entry
+			}
+			while (queue.isNotEmpty()) {
+				val block = queue.removeFirst()
+				val state = HashSet(block.input!!)
+				for (stm in block.stms) transfer(stm, state)
+				for ((target, facts) in successors(block, state)) {
+					val old = target.input
+					val merged = if (old != null) HashSet(old.filter { it in facts }) else facts
+					if (old == null || merged.size != old.size) {
+						// Entries never get facts from their predecessors
+						target.input = if (target in entries) hashSetOf() else merged
+						if (target !in queue) queue += target
+					}
+				}
+			}
+
+			for (block in blocks) {
+				val state = HashSet(block.input ?: continue)
+				for (stm in block.stms) {
+					mark(stm, state)
+					transfer(stm, state)
+				}
+			}
+		}
+
+		private fun flatten(stm: AstStm): Boolean = when (stm) {
+			is AstStm.STMS -> stm.stms.all { flatten(it.value) }
+			is AstStm.IF, is AstStm.IF_ELSE, is AstStm.WHILE, is AstStm.TRY_CATCH, is AstStm.SWITCH,
+			is AstStm.BREAK, is AstStm.CONTINUE -> false
+			else -> {
+				stms += stm
+				true
+			}
+		}
+
+		private fun AstStm.isBlockEnd(): Boolean = when (this) {
+			is AstStm.GOTO, is AstStm.IF_GOTO, is AstStm.SWITCH_GOTO, is AstStm.RETURN, is AstStm.RETURN_VOID, is AstStm.THROW, is AstStm.RETHROW -> true
+			else -> false
+		}
+
+		private fun createBlocks(): Boolean {
+			var current = Block(0)
+			blocks += current
+			for (stm in stms) {
+				if (stm is AstStm.STM_LABEL && current.stms.isNotEmpty()) {
+					current = Block(blocks.size)
+					blocks += current
+				}
+				if (stm is AstStm.STM_LABEL) labelBlocks[stm.label] = current
+				current.stms += stm
+				if (stm.isBlockEnd()) {
+					current = Block(blocks.size)
+					blocks += current
+				}
+			}
+			return stms.all {
+				when (it) {
+					is AstStm.GOTO -> it.label in labelBlocks
+					is AstStm.IF_GOTO -> it.label in labelBlocks
+					is AstStm.SWITCH_GOTO -> it.default in labelBlocks && it.cases.all { it.second in labelBlocks }
+					else -> true
+				}
+			}
+		}
+
+		// Successors with the facts holding when entering them
+		private fun successors(block: Block, state: HashSet<Any>): List<Pair<Block, HashSet<Any>>> {
+			val next = blocks.getOrNull(block.index + 1)
+			val last = block.stms.lastOrNull()
+			return when (last) {
+				is AstStm.GOTO -> listOf(labelBlocks[last.label]!! to state)
+				is AstStm.RETURN, is AstStm.RETURN_VOID, is AstStm.THROW, is AstStm.RETHROW -> listOf()
+				is AstStm.IF_GOTO -> {
+					val taken = labelBlocks[last.label]!! to HashSet(state).apply { addAll(conditionFacts(last.cond.value, true, state)) }
+					if (next != null) listOf(taken, next to HashSet(state).apply { addAll(conditionFacts(last.cond.value, false, state)) }) else listOf(taken)
+				}
+				is AstStm.SWITCH_GOTO -> (listOf(last.default) + last.cases.map { it.second }).distinct().map { labelBlocks[it]!! to state }
+				else -> if (next != null) listOf(next to state) else listOf()
+			}
+		}
+
+		private fun transfer(stm: AstStm, state: HashSet<Any>) {
+			val dereferenced = dereferencedLocals(stm)
+			when (stm) {
+				is AstStm.SET_LOCAL -> {
+					val local = stm.local.local
+					val facts = assignmentFacts(local, stm.expr.value, state)
+					state.addAll(dereferenced.map { NotNull(it) })
+					state.removeAll { mentions(it, local) }
+					state.addAll(facts)
+				}
+				is AstStm.SET_NEW_WITH_CONSTRUCTOR -> {
+					state.addAll(dereferenced.map { NotNull(it) })
+					val local = (stm.local as? AstExpr.LOCAL)?.local
+					if (local != null) {
+						state.removeAll { mentions(it, local) }
+						state += NotNull(local)
+					}
+				}
+				else -> state.addAll(dereferenced.map { NotNull(it) })
+			}
+		}
+
+		// Locals that are dereferenced whenever the statement completes normally
+		private fun dereferencedLocals(stm: AstStm): List<AstLocal> {
+			val out = arrayListOf<AstLocal>()
+			fun deref(expr: AstExpr) {
+				val local = getLocal(expr)
+				if (local != null) out += local
+			}
+			object : AstVisitor() {
+				override fun visit(expr: AstExpr.TERNARY) {
+					visit(expr.cond)
+				}
+
+				override fun visit(expr: AstExpr.BINOP) {
+					if (expr.op == AstBinop.BAND || expr.op == AstBinop.BOR) visit(expr.left) else super.visit(expr)
+				}
+
+				override fun visit(expr: AstExpr.ARRAY_ACCESS) {
+					super.visit(expr)
+					deref(expr.array.value)
+				}
+
+				override fun visit(expr: AstExpr.ARRAY_LENGTH) {
+					super.visit(expr)
+					deref(expr.array.value)
+				}
+
+				override fun visit(expr: AstExpr.FIELD_INSTANCE_ACCESS) {
+					super.visit(expr)
+					deref(expr.expr.value)
+				}
+
+				override fun visit(expr: AstExpr.CALL_INSTANCE) {
+					super.visit(expr)
+					deref(expr.obj.value)
+				}
+
+				override fun visit(stm: AstStm.SET_ARRAY) {
+					super.visit(stm)
+					deref(stm.array.value)
+				}
+
+				override fun visit(stm: AstStm.SET_FIELD_INSTANCE) {
+					super.visit(stm)
+					deref(stm.left.value)
+				}
+			}.visit(stm)
+			return out
+		}
+
+		private fun assignmentFacts(local: AstLocal, expr: AstExpr, state: Set<Any>): List<Any> {
+			val out = arrayListOf<Any>()
+			if (local.type == AstType.CHAR) out += NonNegative(local)
+			when (expr) {
+				is AstExpr.THIS, is AstExpr.NEW, is AstExpr.NEW_WITH_CONSTRUCTOR, is AstExpr.INTARRAY_LITERAL, is AstExpr.STRINGARRAY_LITERAL -> out += NotNull(local)
+				is AstExpr.NEW_ARRAY -> {
+					out += NotNull(local)
+					if (expr.counts.size == 1) {
+						val count = expr.counts[0].value
+						val length = getInt(count)
+						val countLocal = getLocal(count)
+						if (length != null) out += Length(local, length)
+						if (countLocal != null && countLocal != local) out += LengthOf(countLocal, local)
+					}
+				}
+				is AstExpr.LITERAL -> {
+					val value = expr.value
+					if (value is Int) {
+						if (value >= 0) out += NonNegative(local)
+						if (value < Int.MAX_VALUE) out += Below(local, value + 1)
+					} else if (value != null) {
+						out += NotNull(local)
+					}
+				}
+				is AstExpr.LOCAL -> if (expr.local != local) {
+					for (fact in state) if (mentions(fact, expr.local)) out += rename(fact, expr.local, local)
+				}
+				is AstExpr.ARRAY_LENGTH -> {
+					out += NonNegative(local)
+					val array = getLocal(expr.array.value)
+					if (array != null && array != local) out += LengthOf(local, array)
+				}
+				is AstExpr.CAST -> if (expr.expr.value.type == AstType.CHAR && isIntLike(expr.to)) {
+					out += NonNegative(local)
+					out += Below(local, 65536)
+				}
+				is AstExpr.BINOP -> if (isIntLike(expr.type)) out.addAll(binopFacts(local, expr, state))
+			}
+			return out
+		}
+
+		private fun binopFacts(local: AstLocal, expr: AstExpr.BINOP, state: Set<Any>): List<Any> {
+			val out = arrayListOf<Any>()
+			val left = expr.left.value
+			val right = expr.right.value
+			when (expr.op) {
+				AstBinop.AND -> {
+					val mask = getInt(right) ?: getInt(left)
+					if (mask != null && mask >= 0) {
+						out += NonNegative(local)
+						if (mask < Int.MAX_VALUE) out += Below(local, mask + 1)
+					}
+				}
+				AstBinop.USHR -> {
+					val shift = getInt(right)
+					if (shift != null && (shift and 31) != 0) out += NonNegative(local)
+				}
+				AstBinop.ADD -> {
+					val operand = getLocal(left) ?: getLocal(right)
+					val k = getInt(right) ?: getInt(left)
+					if (operand != null && k != null && k >= 0) {
+						val belows = state.filterIsInstance<Below>().filter { it.local == operand }
+						val noOverflow = (k <= 1 && state.any { it is BelowLength && it.local == operand }) ||
+							belows.any { it.value.toLong() + k - 1 <= Int.MAX_VALUE }
+						if (NonNegative(operand) in state && noOverflow) out += NonNegative(local)
+						for (below in belows) if (below.value.toLong() + k <= Int.MAX_VALUE) out += Below(local, below.value + k)
+					}
+				}
+				AstBinop.SUB -> {
+					val k = getInt(right)
+					if (k != null && k >= 0) {
+						val operand = getLocal(left)
+						// No underflow: the operand is non negative
+						if (operand != null && NonNegative(operand) in state) {
+							for (fact in state) {
+								if (fact is BelowLength && fact.local == operand) out += BelowLength(local, fact.array)
+								if (fact is Below && fact.local == operand) out += Below(local, fact.value)
+							}
+						}
+						if (k >= 1) {
+							// array.length - k
+							val array = if (left is AstExpr.ARRAY_LENGTH) getLocal(left.array.value) else null
+							if (array != null) out += BelowLength(local, array)
+							if (operand != null) {
+								for (fact in state) if (fact is LengthOf && fact.local == operand) out += BelowLength(local, fact.array)
+							}
+						}
+					}
+				}
+				else -> Unit
+			}
+			return out
+		}
+
+		// Facts that hold when the condition has the given value
+		private fun conditionFacts(cond: AstExpr, value: Boolean, state: Set<Any>): List<Any> {
+			if (cond is AstExpr.UNOP && cond.op == AstUnop.NOT) return conditionFacts(cond.right.value, !value, state)
+			if (cond !is AstExpr.BINOP) return listOf()
+			val op = if (value) cond.op else when (cond.op) {
+				AstBinop.EQ -> AstBinop.NE
+				AstBinop.NE -> AstBinop.EQ
+				AstBinop.LT -> AstBinop.GE
+				AstBinop.GE -> AstBinop.LT
+				AstBinop.GT -> AstBinop.LE
+				AstBinop.LE -> AstBinop.GT
+				else -> return listOf()
+			}
+			val left = cond.left.value
+			val right = cond.right.value
+			if (op == AstBinop.NE) {
+				val local = if (isNull(right)) getLocal(left) else if (isNull(left)) getLocal(right) else null
+				return if (local != null) listOf(NotNull(local)) else listOf()
+			}
+			if (!isIntLike(left.type) || !isIntLike(right.type)) return listOf()
+			return when (op) {
+				AstBinop.LT -> lessFacts(left, right, true, state)
+				AstBinop.LE -> lessFacts(left, right, false, state)
+				AstBinop.GT -> lessFacts(right, left, true, state)
+				AstBinop.GE -> lessFacts(right, left, false, state)
+				else -> listOf()
+			}
+		}
+
+		// Facts from left < right (or left <= right when not strict)
+		private fun lessFacts(left: AstExpr, right: AstExpr, strict: Boolean, state: Set<Any>): List<Any> {
+			val out = arrayListOf<Any>()
+			val lower = getInt(left)
+			val upperLocal = getLocal(right)
+			if (lower != null && upperLocal != null && (lower >= 0 || (strict && lower == -1))) out += NonNegative(upperLocal)
+
+			val local = getLocal(left) ?: return out
+			val bound = getInt(right)
+			if (bound != null) {
+				val limit = if (strict) bound.toLong() else bound.toLong() + 1
+				if (limit <= Int.MAX_VALUE) out += Below(local, limit.toInt())
+			}
+			if (!strict) return out
+			if (right is AstExpr.ARRAY_LENGTH) {
+				val array = getLocal(right.array.value)
+				if (array != null) out += BelowLength(local, array)
+			}
+			if (upperLocal != null) {
+				for (fact in state) {
+					if (fact is LengthOf && fact.local == upperLocal) out += BelowLength(local, fact.array)
+					if (fact is BelowLength && fact.local == upperLocal) out += BelowLength(local, fact.array)
+					if (fact is Below && fact.local == upperLocal) out += Below(local, fact.value)
+				}
+			}
+			return out
+		}
+
+		// Sets the flags of the accesses of the statement, with the facts holding before it
+		private fun mark(stm: AstStm, state: Set<Any>) {
+			object : AstVisitor() {
+				override fun visit(expr: AstExpr.ARRAY_ACCESS) {
+					super.visit(expr)
+					expr.notNull = isNotNull(expr.array.value, state)
+					expr.inBounds = isInBounds(expr.array.value, expr.index.value, state)
+					countArray(expr.notNull, expr.inBounds)
+				}
+
+				override fun visit(stm: AstStm.SET_ARRAY) {
+					super.visit(stm)
+					stm.notNull = isNotNull(stm.array.value, state)
+					stm.inBounds = isInBounds(stm.array.value, stm.index.value, state)
+					countArray(stm.notNull, stm.inBounds)
+				}
+
+				override fun visit(expr: AstExpr.ARRAY_LENGTH) {
+					super.visit(expr)
+					expr.notNull = isNotNull(expr.array.value, state)
+					count(expr.notNull)
+				}
+
+				override fun visit(expr: AstExpr.FIELD_INSTANCE_ACCESS) {
+					super.visit(expr)
+					expr.notNull = isNotNull(expr.expr.value, state)
+					count(expr.notNull)
+				}
+
+				override fun visit(stm: AstStm.SET_FIELD_INSTANCE) {
+					super.visit(stm)
+					stm.notNull = isNotNull(stm.left.value, state)
+					count(stm.notNull)
+				}
+
+				override fun visit(expr: AstExpr.CALL_INSTANCE) {
+					super.visit(expr)
+					expr.notNull = isNotNull(expr.obj.value, state)
+					count(expr.notNull)
+				}
+			}.visit(stm)
+		}
+
+		private fun count(notNull: Boolean) {
+			dereferencesCount.incrementAndGet()
+			if (notNull) notNullDereferencesCount.incrementAndGet()
+		}
+
+		private fun countArray(notNull: Boolean, inBounds: Boolean) {
+			count(notNull)
+			arrayAccessesCount.incrementAndGet()
+			if (inBounds) inBoundsAccessesCount.incrementAndGet()
+		}
+
+		private fun isNotNull(expr: AstExpr, state: Set<Any>): Boolean = when (expr) {
+			is AstExpr.CAST -> isNotNull(expr.expr.value, state)
+			is AstExpr.THIS, is AstExpr.NEW, is AstExpr.NEW_WITH_CONSTRUCTOR, is AstExpr.NEW_ARRAY -> true
+			is AstExpr.LITERAL -> expr.value != null
+			is AstExpr.LOCAL -> NotNull(expr.local) in state
+			else -> false
+		}
+
+		private fun isInBounds(arrayExpr: AstExpr, index: AstExpr, state: Set<Any>): Boolean {
+			val array = getLocal(arrayExpr) ?: return false
+			return isNonNegative(index, state) && isBelowLength(index, array, state)
+		}
+
+		private fun isNonNegative(index: AstExpr, state: Set<Any>): Boolean = when (index) {
+			is AstExpr.LITERAL -> (index.value as? Int ?: -1) >= 0
+			is AstExpr.LOCAL -> index.local.type == AstType.CHAR || NonNegative(index.local) in state
+			is AstExpr.CAST -> index.expr.value.type == AstType.CHAR
+			is AstExpr.BINOP -> when (index.op) {
+				AstBinop.AND -> (getInt(index.right.value) ?: getInt(index.left.value) ?: -1) >= 0
+				AstBinop.USHR -> ((getInt(index.right.value) ?: 0) and 31) != 0
+				else -> false
+			}
+			else -> false
+		}
+
+		private fun isBelowLength(index: AstExpr, array: AstLocal, state: Set<Any>): Boolean {
+			val lengths = state.filterIsInstance<Length>().filter { it.array == array }.map { it.value }
+			val length = lengths.max() ?: -1
+			return when (index) {
+				is AstExpr.LITERAL -> (index.value as? Int ?: Int.MAX_VALUE) < length
+				is AstExpr.LOCAL -> BelowLength(index.local, array) in state || state.any { it is Below && it.local == index.local && it.value <= length }
+				is AstExpr.CAST -> index.expr.value.type == AstType.CHAR && length >= 65536
+				is AstExpr.BINOP -> index.op == AstBinop.AND && (getInt(index.right.value) ?: getInt(index.left.value) ?: Int.MAX_VALUE) < length
+				else -> false
+			}
+		}
+
+		private fun isIntLike(type: AstType) = type == AstType.INT || type == AstType.CHAR || type == AstType.SHORT || type == AstType.BYTE
+
+		private fun isNull(expr: AstExpr): Boolean = when (expr) {
+			is AstExpr.CAST -> isNull(expr.expr.value)
+			is AstExpr.LITERAL -> expr.value == null
+			else -> false
+		}
+
+		private fun getInt(expr: AstExpr): Int? = (expr as? AstExpr.LITERAL)?.value as? Int
+
+		private fun getLocal(expr: AstExpr): AstLocal? = when (expr) {
+			is AstExpr.LOCAL -> expr.local
+			// Only casts keeping the value
+			is AstExpr.CAST -> if (expr.to is AstType.Reference || expr.to == expr.from || (expr.to == AstType.INT && isIntLike(expr.from))) getLocal(expr.expr.value) else null
+			else -> null
+		}
+	}
+}
@@ -0,0 +1,543 @@
+package com.jtransc.ast.optimize
+
+import com.jtransc.ast.*
+import java.util.*
+
+/**
+ * Global optimizations over the flat bodies (labels and gotos) generated from the bytecode, before the method
+ * features turn them into structured code:
+ *
+ * - Conditional constant and copy propagation: a forward analysis over the control flow graph tracks whether each
+ *   local holds a constant or a copy of another local, only following the branches that can be taken with the values
+ *   known so far. Reads are replaced with the constants and the copied locals and constant expressions are folded.
+ * - Branches with constant conditions become gotos, and the blocks never reached are removed.
+ * - Dead store elimination: a backwards liveness analysis removes side effect free assignments to locals that are
+ *   not read afterwards.
+ *
+ * Bodies with traps or structured statements are left as they are.
+ */
+class AstDataflowOptimizer(val program: AstProgram) {
+	class Pass(val name: String) {
+		var count = 0
+		var nanos = 0L
+
+		override fun toString() = "$name: $count (${nanos / 1000000}ms)"
+	}
+
+	val propagation = Pass("propagated reads")
+	val branches = Pass("folded branches")
+	val unreachable = Pass("unreachable statements")
+	val deadStores = Pass("dead stores")
+
+	var optimizedBodies = 0
+		private set
+	var stmsBefore = 0
+		private set
+	var stmsAfter = 0
+		private set
+
+	fun run() {
+		for (clazz in program.classes) {
+			if (clazz.isNative) continue
+			for (method in clazz.methods) {
+				if (method.bodyRef != null) continue
+				val body = method.body ?: continue
+				optimize(body)
+			}
+		}
+	}
+
+	fun optimize(body: AstBody) {
+		BodyOptimizer(body).run()
+	}
+
+	fun report(): String = "Dataflow: $optimizedBodies bodies, $stmsBefore -> $stmsAfter statements, " +
+		listOf(propagation, branches, unreachable, deadStores).joinToString(", ")
+
+	// Values of the analysis. Locals missing in a state have not been assigned yet in any path reaching it.
+	private object Unknown
+
+	private data class Copy(val local: AstLocal)
+
+	private class Block(val index: Int) {
+		val stms = arrayListOf<AstStm>()
+		var input: HashMap<AstLocal, Any>? = null
+	}
+
+	private inner class BodyOptimizer(val body: AstBody) {
+		val types = body.flags.types
+		val stms = arrayListOf<AstStm>()
+		val blocks = arrayListOf<Block>()
+		val labelBlocks = hashMapOf<AstLabel, Block>()
+		val annotateExpressions = AstAnnotateExpressions()
+
+		fun run() {
+			if (body.traps.isNotEmpty()) return
+			if (!flatten(body.stm)) return
+			if (stms.none { it is AstStm.SET_LOCAL }) return
+			if (!createBlocks()) return
+
+			optimizedBodies++
+			stmsBefore += stms.size
+
+			measure(propagation) { propagate() }
+			measure(branches) { foldBranches() }
+			measure(unreachable) { removeUnreachable() }
+			measure(deadStores) { removeDeadStores() }
+
+			val out = blocks.flatMap { it.stms }
+			stmsAfter += out.size
+			body.stm = AstStm.STMS(out)
+		}
+
+		private inline fun measure(pass: Pass, callback: () -> Unit) {
+			val start = System.nanoTime()
+			callback()
+			pass.nanos += System.nanoTime() - start
+		}
+
+		private fun flatten(stm: AstStm): Boolean = when (stm) {
+			is AstStm.STMS -> stm.stms.all { flatten(it.value) }
+			is AstStm.IF, is AstStm.IF_ELSE, is AstStm.WHILE, is AstStm.TRY_CATCH, is AstStm.SWITCH,
+			is AstStm.BREAK, is AstStm.CONTINUE, is AstStm.RETHROW -> false
+			is AstStm.SET_NEW_WITH_CONSTRUCTOR -> {
+				stms += stm
+				stm.local is AstExpr.LOCAL
+			}
+			else -> {
+				stms += stm
+				true
+			}
+		}
+
+		private fun AstStm.isBlockEnd(): Boolean = when (this) {
+			is AstStm.GOTO, is AstStm.IF_GOTO, is AstStm.SWITCH_GOTO, is AstStm.RETURN, is AstStm.RETURN_VOID, is AstStm.THROW -> true
+			else -> false
+		}
+
+		private fun createBlocks(): Boolean {
+			var current = Block(0)
+			blocks += current
+			for (stm in stms) {
+				if (stm is AstStm.STM_LABEL && current.stms.isNotEmpty()) {
+					current = Block(blocks.size)
+					blocks += current
+				}
+				if (stm is AstStm.STM_LABEL) labelBlocks[stm.label] = current
+				current.stms += stm
+				if (stm.isBlockEnd()) {
+					current = Block(blocks.size)
+					blocks += current
+				}
+			}
+			return stms.all {
+				when (it) {
+					is AstStm.GOTO -> it.label in labelBlocks
+					is AstStm.IF_GOTO -> it.label in labelBlocks
+					is AstStm.SWITCH_GOTO -> it.default in labelBlocks && it.cases.all { it.second in labelBlocks }
+					else -> true
+				}
+			}
+		}
+
+		private fun successors(block: Block, state: Map<AstLocal, Any>?): List<Block> {
+			val next = blocks.getOrNull(block.index + 1)
+			val last = block.stms.lastOrNull()
+			return when (last) {
+				is AstStm.GOTO -> listOf(labelBlocks[last.label]!!)
+				is AstStm.RETURN, is AstStm.RETURN_VOID, is AstStm.THROW -> listOf()
+				is AstStm.IF_GOTO -> {
+					val target = labelBlocks[last.label]!!
+					when (if (state != null) eval(last.cond.value, state) else null) {
+						true -> listOf(target)
+						false -> listOf(next).filterNotNull()
+						else -> listOf(target, next).filterNotNull()
+					}
+				}
+				is AstStm.SWITCH_GOTO -> {
+					val value = if (state != null) asInt(eval(last.subject.value, state)) else null
+					if (value != null) {
+						listOf(labelBlocks[last.cases.firstOrNull { it.first == value }?.second ?: last.default]!!)
+					} else {
+						(listOf(last.default) + last.cases.map { it.second }).distinct().map { labelBlocks[it]!! }
+					}
+				}
+				else -> listOf(next).filterNotNull()
+			}
+		}
+
+		// Conditional constant and copy propagation
+
+		private fun propagate() {
+			blocks[0].input = hashMapOf()
+			val queue = ArrayDeque<Block>()
+			val queued = hashSetOf<Block>()
+			queue += blocks[0]
+			queued += blocks[0]
+			while (queue.isNotEmpty()) {
+				val block = queue.removeFirst()
+				queued -= block
+				val state = HashMap(block.input!!)
+				for (stm in block.stms) transfer(stm, state)
+				for (target in successors(block, state)) {
+					val old = target.input
+					val merged = if (old != null) meet(old, state) else HashMap(state)
+					if (merged != old) {
+						target.input = merged
+						if (queued.add(target)) queue += target
+					}
+				}
+			}
+
+			for (block in blocks) {
+				val state = HashMap(block.input ?: continue)
+				for (stm in block.stms) {
+					rewrite(stm, state)
+					transfer(stm, state)
+				}
+			}
+		}
+
+		private fun meet(a: Map<AstLocal, Any>, b: Map<AstLocal, Any>): HashMap<AstLocal, Any> {
+			val out = HashMap(a)
+			for (entry in b.entries) {
+				val prev = out[entry.key]
+				out[entry.key] = if (prev == null || prev == entry.value) entry.value else Unknown
+			}
+			return out
+		}
+
+		private fun transfer(stm: AstStm, state: HashMap<AstLocal, Any>) {
+			when (stm) {
+				is AstStm.SET_LOCAL -> assign(stm.local.local, valueOf(stm.expr.value, state), state)
+				is AstStm.SET_NEW_WITH_CONSTRUCTOR -> assign((stm.local as AstExpr.LOCAL).local, Unknown, state)
+			}
+		}
+
+		private fun assign(local: AstLocal, value: Any, state: HashMap<AstLocal, Any>) {
+			val copy = Copy(local)
+			for (entry in state.entries) if (entry.value == copy) entry.setValue(Unknown)
+			state[local] = when {
+				value == copy -> Unknown
+				value is Copy -> if (value.local.type == local.type) value else Unknown
+				isConstant(value) -> if (types.fromConstant(value) == local.type) value else Unknown
+				else -> Unknown
+			}
+		}
+
+		private fun valueOf(expr: AstExpr, state: Map<AstLocal, Any>): Any {
+			if (expr is AstExpr.LOCAL) {
+				val value = state[expr.local]
+				return if (value == null || value == Unknown) Copy(expr.local) else value
+			}
+			return eval(expr, state) ?: Unknown
+		}
+
+		// Replaces the reads of the statement and folds its constant expressions
+		private fun rewrite(stm: AstStm, state: Map<AstLocal, Any>) {
+			val reads = arrayListOf<AstExpr.Box>()
+			object : AstVisitor() {
+				override fun visit(stm: AstStm.SET_LOCAL) {
+					visit(stm.expr)
+				}
+
+				override fun visitExprsBox(exprs: List<AstExpr.Box>?) {
+					if (exprs != null) for (e in exprs) visit(e)
+				}
+
+				override fun visit(expr: AstExpr.Box?) {
+					super.visit(expr)
+					if (expr != null) reads += expr
+				}
+			}.visit(stm)
+
+			for (box in reads) {
+				val replacement = getReplacement(box.value, state) ?: continue
+				box.value = replacement
+				annotateExpressions.visitExprWithStm(stm, box)
+			}
+		}
+
+		private fun getReplacement(expr: AstExpr, state: Map<AstLocal, Any>): AstExpr? {
+			if (expr is AstExpr.LOCAL) {
+				val value = state[expr.local]
+				if (value == null || value == Unknown) return null
+				expr.local.reads.remove(expr)
+				propagation.count++
+				return if (value is Copy) AstExpr.LOCAL(value.local).apply { value.local.read(this) } else AstExpr.LITERAL(value, types)
+			}
+			if (expr is AstExpr.BINOP || expr is AstExpr.UNOP || expr is AstExpr.CAST) {
+				val value = eval(expr, state) ?: return null
+				if (types.fromConstant(value) != expr.type) return null
+				detach(expr)
+				return AstExpr.LITERAL(value, types)
+			}
+			return null
+		}
+
+		// Constant evaluation, with the same semantics as the JVM
+
+		private fun isConstant(value: Any?) = value is Boolean || value is Byte || value is Char || value is Short || value is Int || value is Long
+
+		private fun asInt(value: Any?): Int? = when (value) {
+			is Byte -> value.toInt()
+			is Char -> value.toInt()
+			is Short -> value.toInt()
+			is Int -> value
+			else -> null
+		}
+
+		private fun eval(expr: AstExpr, state: Map<AstLocal, Any>): Any? = when (expr) {
+			is AstExpr.LITERAL -> if (isConstant(expr.value)) expr.value else null
+			is AstExpr.LOCAL -> state[expr.local].let { if (isConstant(it)) it else null }
+			is AstExpr.CAST -> cast(eval(expr.expr.value, state), expr.to)
+			is AstExpr.UNOP -> unop(expr.op, eval(expr.right.value, state))
+			is AstExpr.BINOP -> binop(eval(expr.left.value, state), expr.op, eval(expr.right.value, state))
+			else -> null
+		}
+
+		private fun cast(value: Any?, to: AstType): Any? {
+			if (value is Boolean) {
+				return when (to) {
+					AstType.BOOL -> value
+					AstType.INT -> if (value) 1 else 0
+					else -> null
+				}
+			}
+			val v = if (value is Long) value else asInt(value)?.toLong() ?: return null
+			return when (to) {
+				AstType.BYTE -> v.toByte()
+				AstType.CHAR -> v.toChar()
+				AstType.SHORT -> v.toShort()
+				AstType.INT -> v.toInt()
+				AstType.LONG -> v
+				else -> null
+			}
+		}
+
+		private fun unop(op: AstUnop, value: Any?): Any? {
+			if (value is Boolean) return if (op == AstUnop.NOT) !value else null
+			if (value is Long) {
+				return when (op) {
+					AstUnop.NEG -> -value
+					AstUnop.INV -> value.inv()
+					else -> null
+				}
+			}
+			val v = asInt(value) ?: return null
+			return when (op) {
+				AstUnop.NEG -> -v
+				AstUnop.INV -> v.inv()
+				else -> null
+			}
+		}
+
+		private fun binop(l: Any?, op: AstBinop, r: Any?): Any? {
+			if (l == null || r == null) return null
+			if (l is Boolean || r is Boolean) {
+				if (l !is Boolean || r !is Boolean) return null
+				return when (op) {
+					AstBinop.EQ -> l == r
+					AstBinop.NE -> l != r
+					AstBinop.AND, AstBinop.BAND -> l && r
+					AstBinop.OR, AstBinop.BOR -> l || r
+					AstBinop.XOR -> l xor r
+					else -> null
+				}
+			}
+			if (l is Long) {
+				if (op in AstBinop.SHIFTS) {
+					val s = asInt(r) ?: return null
+					return when (op) {
+						AstBinop.SHL -> l shl s
+						AstBinop.SHR -> l shr s
+						else -> l ushr s
+					}
+				}
+				if (r !is Long) return null
+				return when (op) {
+					AstBinop.ADD -> l + r
+					AstBinop.SUB -> l - r
+					AstBinop.MUL -> l * r
+					AstBinop.DIV -> if (r != 0L) l / r else null
+					AstBinop.REM -> if (r != 0L) l % r else null
+					AstBinop.AND -> l and r
+					AstBinop.OR -> l or r
+					AstBinop.XOR -> l xor r
+					AstBinop.LCMP -> if (l < r) -1 else if (l > r) 1 else 0
+					else -> compare(op, l.compareTo(r))
+				}
+			}
+			val a = asInt(l) ?: return null
+			val b = asInt(r) ?: return null
+			return when (op) {
+				AstBinop.ADD -> a + b
+				AstBinop.SUB -> a - b
+				AstBinop.MUL -> a * b
+				AstBinop.DIV -> if (b != 0) a / b else null
+				AstBinop.REM -> if (b != 0) a % b else null
+				AstBinop.AND -> a and b
+				AstBinop.OR -> a or b
+				AstBinop.XOR -> a xor b
+				AstBinop.SHL -> a shl b
+				AstBinop.SHR -> a shr b
+				AstBinop.USHR -> a ushr b
+				else -> compare(op, a.compareTo(b))
+			}
+		}
+
+		private fun compare(op: AstBinop, result: Int): Boolean? = when (op) {
+			AstBinop.EQ -> result == 0
+			AstBinop.NE -> result != 0
+			AstBinop.LT -> result < 0
+			AstBinop.LE -> result <= 0
+			AstBinop.GT -> result > 0
+			AstBinop.GE -> result >= 0
+			else -> null
+		}
+
+		// Branches and unreachable blocks
+
+		private fun foldBranches() {
+			for (block in blocks) {
+				if (block.input == null) continue
+				val last = block.stms.lastOrNull()
+				val replacement = when (last) {
+					is AstStm.IF_GOTO -> {
+						val cond = last.cond.value as? AstExpr.LITERAL
+						when (cond?.value) {
+							true -> AstStm.GOTO(last.label)
+							false -> AstStm.NOP("folded branch")
+							else -> null
+						}
+					}
+					is AstStm.SWITCH_GOTO -> {
+						val value = asInt((last.subject.value as? AstExpr.LITERAL)?.value)
+						if (value != null) AstStm.GOTO(last.cases.firstOrNull { it.first == value }?.second ?: last.default) else null
+					}
+					else -> null
+				} ?: continue
+				detach(last!!)
+				block.stms[block.stms.size - 1] = replacement
+				branches.count++
+			}
+		}
+
+		private fun removeUnreachable() {
+			for (block in blocks) {
+				if (block.input != null) continue
+				for (stm in block.stms) {
+					if (stm !is AstStm.STM_LABEL) unreachable.count++
+					detach(stm)
+				}
+				block.stms.clear()
+			}
+			val referenced = hashSetOf<AstLabel>()
+			for (block in blocks) for (stm in block.stms) {
+				when (stm) {
+					is AstStm.GOTO -> referenced += stm.label
+					is AstStm.IF_GOTO -> referenced += stm.label
+					is AstStm.SWITCH_GOTO -> {
+						referenced += stm.default
+						referenced += stm.cases.map { it.second }
+					}
+				}
+			}
+			for (block in blocks) block.stms.removeAll { it is AstStm.STM_LABEL && it.label !in referenced }
+		}
+
+		// Unregisters the reads and writes of removed code
+		private fun detach(node: AstStm) {
+			if (node is AstStm.SET_LOCAL) node.local.local.writes.remove(node)
+			object : AstVisitor() {
+				override fun visit(stm: AstStm.SET_LOCAL) {
+					visit(stm.expr)
+				}
+
+				override fun visit(expr: AstExpr.LOCAL) {
+					expr.local.reads.remove(expr)
+				}
+			}.visit(node)
+		}
+
+		private fun detach(node: AstExpr) {
+			object : AstVisitor() {
+				override fun visit(expr: AstExpr.LOCAL) {
+					expr.local.reads.remove(expr)
+				}
+			}.visit(node)
+		}
+
+		// Dead stores
+
+		private fun removeDeadStores() {
+			val liveIn = blocks.map { hashSetOf<AstLocal>() }
+			var changed = true
+			while (changed) {
+				changed = false
+				for (block in blocks.reversed()) {
+					val live = liveOut(block, liveIn)
+					for (stm in block.stms.reversed()) liveness(stm, live)
+					if (live != liveIn[block.index]) {
+						liveIn[block.index].addAll(live)
+						changed = true
+					}
+				}
+			}
+
+			for (block in blocks) {
+				val live = liveOut(block, liveIn)
+				for (n in block.stms.indices.reversed()) {
+					val stm = block.stms[n]
+					if (stm is AstStm.SET_LOCAL && stm.local.local !in live && stm.expr.value.canBeRemoved()) {
+						detach(stm)
+						block.stms.removeAt(n)
+						deadStores.count++
+					} else {
+						liveness(stm, live)
+					}
+				}
+			}
+		}
+
+		private fun liveOut(block: Block, liveIn: List<Set<AstLocal>>): HashSet<AstLocal> {
+			val out = hashSetOf<AstLocal>()
+			for (target in successors(block, null)) out += liveIn[target.index]
+			return out
+		}
+
+		private fun liveness(stm: AstStm, live: HashSet<AstLocal>) {
+			when (stm) {
+				is AstStm.SET_LOCAL -> live -= stm.local.local
+				is AstStm.SET_NEW_WITH_CONSTRUCTOR -> live -= (stm.local as AstExpr.LOCAL).local
+			}
+			object : AstVisitor() {
+				override fun visit(stm: AstStm.SET_LOCAL) {
+					visit(stm.expr)
+				}
+
+				override fun visit(stm: AstStm.SET_NEW_WITH_CONSTRUCTOR) {
+					visitExprsBox(stm.args)
+				}
+
+				override fun visit(expr: AstExpr.LOCAL) {
+					live += expr.local
+				}
+			}.visit(stm)
+		}
+
+		// Stricter than isPure: removing the store can't remove an exception
+		private fun AstExpr.canBeRemoved(): Boolean = when (this) {
+			is AstExpr.LITERAL, is AstExpr.LOCAL, is AstExpr.PARAM, is AstExpr.THIS -> true
+			is AstExpr.UNOP -> this.right.value.canBeRemoved()
+			is AstExpr.BINOP -> {
+				val divisor = (this.right.value as? AstExpr.LITERAL)?.value
+				val canThrow = (this.op == AstBinop.DIV || this.op == AstBinop.REM) && (this.type == AstType.INT || this.type == AstType.LONG) && (divisor == null || divisor == 0 || divisor == 0L)
+				!canThrow && this.left.value.canBeRemoved() && this.right.value.canBeRemoved()
+			}
+			is AstExpr.CAST -> (this.from == AstType.NULL || (this.from is AstType.Primitive && this.to is AstType.Primitive)) && this.expr.value.canBeRemoved()
+			is AstExpr.INSTANCE_OF -> this.expr.value.canBeRemoved()
+			else -> false
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.jtransc.ast.optimize
+
+import com.jtransc.ast.*
+import java.util.*
+
+/**
+ * Class hierarchy analysis over the closed world left by tree shaking.
+ *
+ * Virtual calls that can only reach one implementation are replaced with direct calls (CALL_SUPER on the
+ * original object), and calls reaching two implementations with trivial operands are replaced with a type
+ * test choosing between two direct calls. Methods that no class overrides are marked as effectively final.
+ *
+ * Targets running it must generate CALL_SUPER on objects other than this as a non-virtual call on that object.
+ */
+class AstDevirtualizer(val program: AstProgram) {
+	// Classes that can be instantiated, by each of the classes and interfaces they are assignable to
+	private val receivers = hashMapOf<AstClass, ArrayList<AstClass>>()
+	private val implementations = hashMapOf<AstMethodRef, List<AstMethod>?>()
+
+	var monomorphicCalls = 0
+		private set
+	var bimorphicCalls = 0
+		private set
+
+	init {
+		for (clazz in program.classes) {
+			if (!clazz.isNormal) continue
+			for (related in clazz.getAllRelatedTypes()) receivers.getOrPut(related) { arrayListOf() } += clazz
+		}
+	}
+
+	fun run() {
+		markEffectivelyFinal()
+		for (clazz in program.classes) {
+			if (clazz.isNative) continue
+			for (method in clazz.methods) {
+				if (method.bodyRef != null || method.body == null) continue
+				method.transformInplace {
+					if (it is AstExpr.CALL_INSTANCE) devirtualize(method, it) ?: it else it
+				}
+			}
+		}
+	}
+
+	// Only analyzes the hierarchy, so it can run on targets that don't support the rewritten calls
+	fun markEffectivelyFinal() {
+		for (clazz in program.classes) {
+			for (method in clazz.methods) {
+				if (!method.isStatic && !method.isClassOrInstanceInit) {
+					method.isEffectivelyFinal = getImplementations(method.ref)?.all { it == method } ?: false
+				}
+			}
+		}
+	}
+
+	// Distinct implementations reached by a virtual call, or null when they can't be known
+	private fun getImplementations(ref: AstMethodRef): List<AstMethod>? {
+		if (ref !in implementations) implementations[ref] = findImplementations(ref)
+		return implementations[ref]
+	}
+
+	private fun findImplementations(ref: AstMethodRef): List<AstMethod>? {
+		val clazz = program.getOrNull(ref.containingClass)
+		// Methods called on java.lang.Object can also be called on arrays
+		if (clazz == null || clazz.isNative || clazz.isJavaLangObject) return null
+		val out = LinkedHashSet<AstMethod>()
+		for (receiver in receivers[clazz] ?: listOf<AstClass>()) {
+			if (receiver.isNative) return null
+			val impl = receiver.getMethodInAncestors(ref.withoutClass) ?: return null
+			if (impl.isStatic || impl.modifiers.isAbstract || impl.containingClass.isInterface || impl.containingClass.isNative) return null
+			if (impl.nativeMethod != null || impl.getterField != null || impl.setterField != null) return null
+			out += impl
+		}
+		return out.toList()
+	}
+
+	private fun devirtualize(caller: AstMethod, call: AstExpr.CALL_INSTANCE): AstExpr? {
+		if (call.isSpecial) return null
+		val obj = call.obj.value
+		if (obj is AstExpr.LITERAL) return null
+		val impls = getImplementations(call.method) ?: return null
+		if (isThis(obj) && impls.any { !caller.containingClass.isSubtypeOf(it.containingClass) }) return null
+		return when (impls.size) {
+			1 -> {
+				monomorphicCalls++
+				direct(obj, impls[0], call.args.map { it.value })
+			}
+			2 -> {
+				if (!isTrivial(obj) || call.args.any { !isTrivial(it.value) }) return null
+				val (a, b) = impls
+				// Instances of the class declaring the most specific implementation go to that implementation
+				val (first, second) = if (b.containingClass.isSubtypeOf(a.containingClass)) b to a else a to b
+				bimorphicCalls++
+				AstExpr.TERNARY(
+					AstExpr.INSTANCE_OF(copy(obj), first.containingClass.ref),
+					direct(copy(obj), first, call.args.map { copy(it.value) }),
+					direct(obj, second, call.args.map { it.value }),
+					program.types
+				)
+			}
+			else -> null
+		}
+	}
+
+	private fun direct(obj: AstExpr, impl: AstMethod, args: List<AstExpr>) = AstExpr.CALL_SUPER(obj, impl.containingClass.name, impl.ref, args)
+
+	private fun isThis(e: AstExpr): Boolean = when (e) {
+		is AstExpr.THIS -> true
+		is AstExpr.CAST -> isThis(e.expr.value)
+		else -> false
+	}
+
+	// Expressions that can be evaluated twice without side effects
+	private fun isTrivial(e: AstExpr): Boolean = when (e) {
+		is AstExpr.THIS, is AstExpr.LOCAL, is AstExpr.PARAM, is AstExpr.LITERAL -> true
+		else -> false
+	}
+
+	private fun copy(e: AstExpr): AstExpr = when (e) {
+		is AstExpr.LOCAL -> AstExpr.LOCAL(e.local).apply { e.local.read(this) }
+		is AstExpr.LITERAL -> AstExpr.LITERAL(e.value, e.types)
+		else -> e.clone()
+	}
+}
@@ -0,0 +1,335 @@
+package com.jtransc.ast.optimize
+
+import com.jtransc.annotation.JTranscMethodBodyList
+import com.jtransc.annotation.haxe.HaxeMethodBodyList
+import com.jtransc.ast.*
+import com.jtransc.ast.serialization.AstRead
+import com.jtransc.ast.serialization.AstWriter
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.util.*
+
+/**
+ * Scalar replacement of objects that don't escape the method allocating them.
+ *
+ * An allocation stored in a local is replaced when that local is assigned only there and it is only used to read and
+ * write fields of the object: it is never passed to a call, returned, stored, compared, cast or used as a monitor.
+ * The fields of the object become locals, and the constructor is replaced with a copy of its body writing those locals.
+ *
+ * Only constructors that can be seen through are supported: the class extends Object directly, has no static
+ * initializer (allocating would initialize it) and its constructor just calls Object() and assigns fields without
+ * letting this escape. Skipping Object() only changes the identity hash codes given to later objects.
+ *
+ * The fields are initialized to their default values, so AstDataflowOptimizer should run afterwards to propagate and
+ * remove what is not used.
+ */
+class AstScalarReplacer(val program: AstProgram) {
+	companion object {
+		const val MAX_CONSTRUCTOR_SIZE = 16
+	}
+
+	private class Constructor(val method: AstMethod, val data: ByteArray)
+
+	private val constructors = hashMapOf<AstMethodRef, Constructor?>()
+
+	var replacedAllocations = 0
+		private set
+
+	// Bodies changed by the last run
+	val replacedBodies = arrayListOf<AstBody>()
+
+	fun run() {
+		for (clazz in program.classes) {
+			if (clazz.isNative) continue
+			for (method in clazz.methods) {
+				if (method.bodyRef != null) continue
+				val body = method.body ?: continue
+				if (BodyReplacer(body).run()) replacedBodies += body
+			}
+		}
+	}
+
+	private fun getConstructor(ref: AstMethodRef): Constructor? {
+		if (ref !in constructors) constructors[ref] = createConstructor(ref)
+		return constructors[ref]
+	}
+
+	private fun createConstructor(ref: AstMethodRef): Constructor? {
+		val method = program.getOrNull(ref.containingClass)?.getMethodInAncestorsAndInterfaces(ref.nameDesc) ?: return null
+		val clazz = method.containingClass
+		if (!method.isInstanceInit || clazz.name != ref.containingClass) return null
+		if (clazz.isNative || clazz.isInterface || clazz.isAbstract || clazz.hasStaticInit) return null
+		if (clazz.extending?.fqname != "java.lang.Object") return null
+		if (method.modifiers.isNative || method.nativeMethod != null || method.bodyRef != null) return null
+		val annotations = method.annotationsList
+		if (annotations.getTypedList(JTranscMethodBodyList::value).isNotEmpty()) return null
+		if (annotations.getTypedList(HaxeMethodBodyList::value).isNotEmpty()) return null
+		val body = method.body ?: return null
+		if (body.traps.isNotEmpty() || body.flags.hasDynamicInvoke) return null
+		val stms = flatten(body.stm)
+		if (stms.size > MAX_CONSTRUCTOR_SIZE || !isSimpleConstructor(clazz, stms)) return null
+		val data = try {
+			AstWriter.serialize { writeBody(body) }
+		} catch (e: Throwable) {
+			return null
+		}
+		return Constructor(method, data)
+	}
+
+	private fun isSimpleConstructor(clazz: AstClass, stms: List<AstStm>): Boolean {
+		var superCalled = false
+		for ((index, stm) in stms.withIndex()) {
+			val valid = when (stm) {
+				is AstStm.LINE, is AstStm.NOP -> true
+				is AstStm.RETURN_VOID -> index == stms.size - 1
+				is AstStm.SET_LOCAL -> !usesThis(clazz, stm.expr.value)
+				is AstStm.SET_FIELD_INSTANCE -> isThis(stm.left.value) && stm.field.containingClass == clazz.name && !usesThis(clazz, stm.expr.value)
+				is AstStm.STM_EXPR -> {
+					val expr = stm.expr.value
+					if (isObjectInit(expr)) {
+						superCalled = true
+						true
+					} else {
+						!usesThis(clazz, expr)
+					}
+				}
+				else -> false
+			}
+			if (!valid) return false
+		}
+		return superCalled
+	}
+
+	private fun isObjectInit(expr: AstExpr): Boolean {
+		if (expr !is AstExpr.CALL_INSTANCE && expr !is AstExpr.CALL_SUPER) return false
+		val call = expr as AstExpr.CALL_BASE
+		val obj = if (call is AstExpr.CALL_INSTANCE) call.obj.value else (call as AstExpr.CALL_SUPER).obj.value
+		return call.method.name == "<init>" && call.method.containingClass.fqname == "java.lang.Object" && isThis(obj)
+	}
+
+	// Uses of this other than reading its fields
+	private fun usesThis(clazz: AstClass, expr: AstExpr): Boolean {
+		var found = false
+		object : AstVisitor() {
+			override fun visit(expr: AstExpr.FIELD_INSTANCE_ACCESS) {
+				if (!isThis(expr.expr.value) || expr.field.containingClass != clazz.name) super.visit(expr)
+			}
+
+			override fun visit(expr: AstExpr.THIS) {
+				found = true
+			}
+		}.visit(expr)
+		return found
+	}
+
+	private fun flatten(stm: AstStm): List<AstStm> = if (stm is AstStm.STMS) stm.stms.flatMap { flatten(it.value) } else listOf(stm)
+
+	private fun isThis(e: AstExpr): Boolean = when (e) {
+		is AstExpr.THIS -> true
+		is AstExpr.CAST -> isThis(e.expr.value)
+		else -> false
+	}
+
+	private fun getLocal(e: AstExpr): AstExpr.LOCAL? = when (e) {
+		is AstExpr.LOCAL -> e
+		is AstExpr.CAST -> getLocal(e.expr.value)
+		else -> null
+	}
+
+	private fun getDefault(type: AstType): Any? = when (type) {
+		AstType.BOOL -> false
+		AstType.BYTE -> 0.toByte()
+		AstType.CHAR -> 0.toChar()
+		AstType.SHORT -> 0.toShort()
+		AstType.INT -> 0
+		AstType.LONG -> 0L
+		AstType.FLOAT -> 0f
+		AstType.DOUBLE -> 0.0
+		else -> null
+	}
+
+	private fun cast(e: AstExpr, type: AstType): AstExpr = if (e.type != type) AstExpr.CAST(e, type) else e
+
+	private inner class BodyReplacer(val body: AstBody) {
+		private val types = body.flags.types
+		private val allocations = hashMapOf<AstLocal, ArrayList<AstStm>>()
+		private val fieldAccesses = hashMapOf<AstLocal, HashSet<AstFieldRef>>()
+		private val escaped = hashSetOf<AstLocal>()
+		private val newLocals = arrayListOf<AstLocal>()
+		private var nextLocalIndex = (body.locals.map { it.index }.max() ?: -1) + 1
+		private var replaceId = 0
+
+		fun run(): Boolean {
+			analyze()
+			val replaced = hashMapOf<AstLocal, Replacement>()
+			for (local in allocations.keys) {
+				if (local in escaped) continue
+				val site = allocations[local]!!.singleOrNull() ?: continue
+				val ref = getConstructorRef(site)
+				val constructor = getConstructor(ref) ?: continue
+				val clazz = constructor.method.containingClass
+				if (fieldAccesses[local].orEmpty().any { it.containingClass != clazz.name }) continue
+				replaced[local] = Replacement(local, site, constructor)
+			}
+			if (replaced.isEmpty()) return false
+
+			for (replacement in replaced.values) replacement.replaceAllocation()
+			object : AstVisitor() {
+				override fun visit(stm: AstStm?) {
+					super.visit(stm)
+					if (stm is AstStm.SET_FIELD_INSTANCE) {
+						val local = getLocal(stm.left.value)
+						val replacement = if (local != null) replaced[local.local] else null
+						if (replacement != null) {
+							local!!.local.reads.remove(local)
+							val fieldLocal = replacement.fields[stm.field.name]!!
+							stm.box.value = AstStm.SET_LOCAL(AstExpr.LOCAL(fieldLocal), cast(stm.expr.value, fieldLocal.type)).apply { fieldLocal.write(this) }
+						}
+					}
+				}
+
+				override fun visit(expr: AstExpr?) {
+					super.visit(expr)
+					if (expr is AstExpr.FIELD_INSTANCE_ACCESS) {
+						val local = getLocal(expr.expr.value)
+						val replacement = if (local != null) replaced[local.local] else null
+						if (replacement != null) {
+							local!!.local.reads.remove(local)
+							val fieldLocal = replacement.fields[expr.field.name]!!
+							expr.box.value = AstExpr.LOCAL(fieldLocal).apply { fieldLocal.read(this) }
+						}
+					}
+				}
+			}.visit(body.stm)
+
+			body.locals += newLocals.filter { it.isUsed }
+			AstAnnotateExpressions().visit(body)
+			replacedAllocations += replaced.size
+			return true
+		}
+
+		private fun getConstructorRef(site: AstStm): AstMethodRef = when (site) {
+			is AstStm.SET_NEW_WITH_CONSTRUCTOR -> site.method
+			is AstStm.SET_LOCAL -> (site.expr.value as AstExpr.NEW_WITH_CONSTRUCTOR).constructor
+			else -> throw IllegalStateException("Not an allocation: $site")
+		}
+
+		private fun getConstructorArgs(site: AstStm): List<AstExpr> = when (site) {
+			is AstStm.SET_NEW_WITH_CONSTRUCTOR -> site.args.map { it.value }
+			is AstStm.SET_LOCAL -> (site.expr.value as AstExpr.NEW_WITH_CONSTRUCTOR).args.map { it.value }
+			else -> throw IllegalStateException("Not an allocation: $site")
+		}
+
+		// Finds the allocations stored in locals, and the locals used for something else than accessing fields
+		private fun analyze() {
+			fun allocation(local: AstLocal, site: AstStm) {
+				allocations.getOrPut(local) { arrayListOf() } += site
+			}
+
+			object : AstVisitor() {
+				override fun visit(stm: AstStm.SET_NEW_WITH_CONSTRUCTOR) {
+					val local = stm.local
+					if (local is AstExpr.LOCAL) {
+						allocation(local.local, stm)
+						visitExprsBox(stm.args)
+					} else {
+						super.visit(stm)
+					}
+				}
+
+				override fun visit(stm: AstStm.SET_LOCAL) {
+					val expr = stm.expr.value
+					if (expr is AstExpr.NEW_WITH_CONSTRUCTOR) {
+						allocation(stm.local.local, stm)
+						visitExprsBox(expr.args)
+					} else {
+						escaped += stm.local.local
+						visit(stm.expr)
+					}
+				}
+
+				override fun visit(stm: AstStm.SET_FIELD_INSTANCE) {
+					val local = getLocal(stm.left.value)
+					if (local != null) {
+						fieldAccesses.getOrPut(local.local) { hashSetOf() } += stm.field
+					} else {
+						visit(stm.left)
+					}
+					visit(stm.expr)
+				}
+
+				override fun visit(expr: AstExpr.FIELD_INSTANCE_ACCESS) {
+					val local = getLocal(expr.expr.value)
+					if (local != null) {
+						fieldAccesses.getOrPut(local.local) { hashSetOf() } += expr.field
+					} else {
+						super.visit(expr)
+					}
+				}
+
+				override fun visit(expr: AstExpr.LOCAL) {
+					escaped += expr.local
+				}
+			}.visit(body.stm)
+		}
+
+		private inner class Replacement(val local: AstLocal, val site: AstStm, val constructor: Constructor) {
+			val id = replaceId++
+			val fields = constructor.method.containingClass.fields.filter { !it.isStatic }.map {
+				it.name to AstLocal(nextLocalIndex++, "${local.name}_${it.name}_s$id", it.type).apply { newLocals += this }
+			}.toMap()
+
+			fun replaceAllocation() {
+				val stms = arrayListOf<AstStm>()
+				val method = constructor.method
+				// Arguments are evaluated once and in order, before the fields are initialized
+				val args = getConstructorArgs(site).zip(method.methodType.args).map {
+					val temp = AstLocal(nextLocalIndex++, "${it.second.name}_s$id", it.second.type)
+					newLocals += temp
+					stms += AstStm.SET_LOCAL(AstExpr.LOCAL(temp), cast(it.first, temp.type)).apply { temp.write(this) }
+					temp
+				}
+				for (fieldLocal in fields.values) {
+					stms += AstStm.SET_LOCAL(AstExpr.LOCAL(fieldLocal), cast(AstExpr.LITERAL(getDefault(fieldLocal.type), types), fieldLocal.type)).apply { fieldLocal.write(this) }
+				}
+				for (stm in copyConstructor(args)) {
+					stms += when (stm) {
+						is AstStm.SET_FIELD_INSTANCE -> {
+							val fieldLocal = fields[stm.field.name]!!
+							AstStm.SET_LOCAL(AstExpr.LOCAL(fieldLocal), cast(stm.expr.value, fieldLocal.type)).apply { fieldLocal.write(this) }
+						}
+						is AstStm.STM_EXPR -> if (isObjectInit(stm.expr.value)) AstStm.NOP("Object()") else stm
+						is AstStm.RETURN_VOID -> AstStm.NOP("constructor end")
+						else -> stm
+					}
+				}
+				if (site is AstStm.SET_LOCAL) local.writes.remove(site)
+				site.box.value = AstStm.STMS(stms)
+			}
+
+			// Copy of the constructor body with fresh locals, the params replaced with args and the fields of this with locals
+			private fun copyConstructor(args: List<AstLocal>): List<AstStm> {
+				val reader = AstRead(program.types, DataInputStream(ByteArrayInputStream(constructor.data))) { index, name, type ->
+					AstLocal(nextLocalIndex++, "${name}_s$id", type).apply { newLocals += this }
+				}
+				val copied = reader.readBody()
+				object : AstVisitor() {
+					override fun visit(expr: AstExpr?) {
+						super.visit(expr)
+						when (expr) {
+							is AstExpr.PARAM -> {
+								val arg = args[expr.argument.index]
+								expr.box.value = AstExpr.LOCAL(arg).apply { arg.read(this) }
+							}
+							is AstExpr.FIELD_INSTANCE_ACCESS -> if (isThis(expr.expr.value)) {
+								val fieldLocal = fields[expr.field.name]!!
+								expr.box.value = AstExpr.LOCAL(fieldLocal).apply { fieldLocal.read(this) }
+							}
+						}
+					}
+				}.visit(copied.stm)
+				return flatten(copied.stm)
+			}
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package com.jtransc.ast.optimize
+
+import com.jtransc.annotation.JTranscMethodBodyList
+import com.jtransc.annotation.haxe.HaxeMethodBodyList
+import com.jtransc.ast.*
+import com.jtransc.ast.serialization.AstRead
+import com.jtransc.ast.serialization.AstWriter
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+
+/**
+ * Replaces calls to small methods with their bodies. Methods annotated with @JTranscInline are inlined up to a much
+ * bigger size.
+ *
+ * Only calls whose implementation is known are inlined: static calls, CALL_SUPER (including the ones created by
+ * AstDevirtualizer) and instance calls to final, private or effectively final methods. Instance calls need the object
+ * to be this, or the body to be a getter, so the null check of the call is kept. Effectively final methods are found
+ * with the class hierarchy analysis of AstDevirtualizer, that runs here too, so they are inlined on every target and
+ * not only on the ones devirtualizing calls.
+ *
+ * Calls used as statements, assigned to a local or returned are replaced with the whole body. Other calls are only
+ * replaced when the body is a single return and the arguments are trivial. Methods with bodies provided by the targets,
+ * traps, labels, monitors or returns that are not the last statement are never inlined.
+ *
+ * The inlined bodies are copies of the ones before running, so inlining never recurses.
+ */
+class AstInliner(val program: AstProgram) {
+	companion object {
+		const val MAX_SIZE = 16
+		const val MAX_FORCED_SIZE = 256
+	}
+
+	private class Inlinable(val method: AstMethod, val data: ByteArray, val privateAccess: Boolean, val expression: AstExpr?)
+
+	private val inlinables = hashMapOf<AstMethod, Inlinable>()
+
+	var inlinedCalls = 0
+		private set
+
+	fun run() {
+		AstDevirtualizer(program).markEffectivelyFinal()
+		for (clazz in program.classes) {
+			if (clazz.isNative) continue
+			for (method in clazz.methods) {
+				val inlinable = createInlinable(method)
+				if (inlinable != null) inlinables[method] = inlinable
+			}
+		}
+		if (inlinables.isEmpty()) return
+		for (clazz in program.classes) {
+			if (clazz.isNative) continue
+			for (method in clazz.methods) {
+				if (method.bodyRef != null) continue
+				val body = method.body ?: continue
+				CallerInliner(method, body).run()
+			}
+		}
+	}
+
+	private fun createInlinable(method: AstMethod): Inlinable? {
+		if (method.isClassOrInstanceInit || method.bodyRef != null) return null
+		if (method.modifiers.isAbstract || method.modifiers.isNative || method.modifiers.isSynchronized) return null
+		if (method.nativeMethod != null || method.getterField != null || method.setterField != null) return null
+		val annotations = method.annotationsList
+		if (annotations.getTypedList(JTranscMethodBodyList::value).isNotEmpty()) return null
+		if (annotations.getTypedList(HaxeMethodBodyList::value).isNotEmpty()) return null
+		val body = method.body ?: return null
+		if (body.traps.isNotEmpty() || body.flags.hasDynamicInvoke) return null
+
+		val info = BodyInfo()
+		info.visit(body.stm)
+		if (!info.valid) return null
+		if (info.size > (if (method.isInline) MAX_FORCED_SIZE else MAX_SIZE)) return null
+		if (!hasOnlyTailReturns(body.stm)) return null
+
+		val data = try {
+			AstWriter.serialize { writeBody(body) }
+		} catch (e: Throwable) {
+			return null
+		}
+		val returns = flatten(body.stm).filter { it !is AstStm.LINE && it !is AstStm.NOP }
+		val expression = if (body.locals.none { it.isUsed }) ((returns.singleOrNull() as? AstStm.RETURN)?.retval?.value) else null
+		return Inlinable(method, data, info.privateAccess, expression)
+	}
+
+	private inner class BodyInfo : AstVisitor() {
+		var size = 0
+		var valid = true
+		var privateAccess = false
+
+		override fun visit(stm: AstStm?) {
+			when (stm) {
+				is AstStm.LINE, is AstStm.NOP, is AstStm.STMS -> Unit
+				is AstStm.STM_LABEL, is AstStm.GOTO, is AstStm.IF_GOTO, is AstStm.SWITCH_GOTO,
+				is AstStm.TRY_CATCH, is AstStm.RETHROW, is AstStm.MONITOR_ENTER, is AstStm.MONITOR_EXIT -> valid = false
+				else -> size++
+			}
+			super.visit(stm)
+		}
+
+		override fun visit(expr: AstExpr?) {
+			when (expr) {
+				is AstExpr.CAUGHT_EXCEPTION, is AstExpr.INVOKE_DYNAMIC_METHOD -> valid = false
+				is AstExpr.CAST -> Unit
+				else -> size++
+			}
+			super.visit(expr)
+		}
+
+		override fun visit(ref: AstFieldRef) {
+			super.visit(ref)
+			if (isPrivate { program[ref].modifiers }) privateAccess = true
+		}
+
+		override fun visit(ref: AstMethodRef) {
+			super.visit(ref)
+			if (isPrivate { program[ref]?.modifiers }) privateAccess = true
+		}
+
+		private fun isPrivate(modifiers: () -> AstModifiers?): Boolean = try {
+			modifiers()?.isPrivate ?: true
+		} catch (e: Throwable) {
+			true
+		}
+	}
+
+	// Returns can only be the last statement, or the last statement of both branches of a last IF_ELSE
+	private fun hasOnlyTailReturns(stm: AstStm): Boolean = when (stm) {
+		is AstStm.STMS -> stm.stms.dropLast(1).none { containsReturn(it.value) } && (stm.stms.isEmpty() || hasOnlyTailReturns(stm.stms.last().value))
+		is AstStm.IF_ELSE -> hasOnlyTailReturns(stm.strue.value) && hasOnlyTailReturns(stm.sfalse.value)
+		is AstStm.RETURN, is AstStm.RETURN_VOID -> true
+		else -> !containsReturn(stm)
+	}
+
+	private fun containsReturn(stm: AstStm): Boolean {
+		var found = false
+		object : AstVisitor() {
+			override fun visit(stm: AstStm?) {
+				if (stm is AstStm.RETURN || stm is AstStm.RETURN_VOID) found = true
+				super.visit(stm)
+			}
+		}.visit(stm)
+		return found
+	}
+
+	private fun flatten(stm: AstStm): List<AstStm> = if (stm is AstStm.STMS) stm.stms.flatMap { flatten(it.value) } else listOf(stm)
+
+	private fun isThis(e: AstExpr): Boolean = when (e) {
+		is AstExpr.THIS -> true
+		is AstExpr.CAST -> isThis(e.expr.value)
+		else -> false
+	}
+
+	// Expressions that can be evaluated several times, or not at all, without side effects
+	private fun isTrivial(e: AstExpr): Boolean = when (e) {
+		is AstExpr.THIS, is AstExpr.LOCAL, is AstExpr.PARAM, is AstExpr.LITERAL -> true
+		is AstExpr.CAST -> isThis(e)
+		else -> false
+	}
+
+	private fun copy(e: AstExpr): AstExpr = when (e) {
+		is AstExpr.LOCAL -> AstExpr.LOCAL(e.local).apply { e.local.read(this) }
+		is AstExpr.LITERAL -> AstExpr.LITERAL(e.value, e.types)
+		else -> e.clone()
+	}
+
+	private fun cast(e: AstExpr, type: AstType): AstExpr = if (e.type != type) AstExpr.CAST(e, type) else e
+
+	private inner class CallerInliner(val caller: AstMethod, val body: AstBody) {
+		private val newLocals = arrayListOf<AstLocal>()
+		private var nextLocalIndex = (body.locals.map { it.index }.max() ?: -1) + 1
+		private var inlineId = 0
+
+		fun run() {
+			val inlinedBefore = inlinedCalls
+			caller.transformInplace {
+				when (it) {
+					is AstExpr.CALL_BASE -> inlineExpression(it) ?: it
+					is AstStm.STM_EXPR -> {
+						val call = it.expr.value
+						if (call is AstExpr.CALL_BASE) inlineStatement(call) { e -> if (e == null || isTrivial(e)) AstStm.NOP("inlined") else AstStm.STM_EXPR(e) } ?: it else it
+					}
+					is AstStm.SET_LOCAL -> {
+						val call = it.expr.value
+						val target = it.local.local
+						val result = if (call is AstExpr.CALL_BASE) inlineStatement(call) { e -> AstStm.SET_LOCAL(AstExpr.LOCAL(target), cast(e!!, target.type)).apply { target.write(this) } } else null
+						if (result != null) target.writes.remove(it)
+						result ?: it
+					}
+					is AstStm.RETURN -> {
+						val call = it.retval.value
+						if (call is AstExpr.CALL_BASE) inlineStatement(call) { e -> AstStm.RETURN(cast(e!!, caller.methodType.ret)) } ?: it else it
+					}
+					else -> it
+				}
+			}
+			if (inlinedCalls != inlinedBefore) {
+				body.locals += newLocals.filter { it.isUsed }
+				AstAnnotateExpressions().visit(body)
+			}
+		}
+
+		// The inlinable method always reached by the call, when its receiver allows inlining
+		private fun getInlinable(call: AstExpr.CALL_BASE, expression: Boolean): Inlinable? {
+			// Bodies can still reference classes removed by tree shaking
+			val method = program.getOrNull(call.method.containingClass)?.getMethodInAncestorsAndInterfaces(call.method.nameDesc) ?: return null
+			val inlinable = inlinables[method] ?: return null
+			if (method == caller) return null
+			if (inlinable.privateAccess && method.containingClass != caller.containingClass) return null
+			val obj = when (call) {
+				is AstExpr.CALL_STATIC -> {
+					if (!method.isStatic) return null
+					// Calling a static method initializes its class, and inlining it would skip that
+					if (method.containingClass != caller.containingClass && method.containingClass.thisAndAncestors.any { it.hasStaticInit }) return null
+					null
+				}
+				is AstExpr.CALL_SUPER -> call.obj.value
+				is AstExpr.CALL_INSTANCE -> {
+					val exact = method.modifiers.isPrivate || method.modifiers.isFinal || method.containingClass.modifiers.isFinal || method.isEffectivelyFinal
+					if (!exact || (call.isSpecial && !method.modifiers.isPrivate)) return null
+					call.obj.value
+				}
+				else -> return null
+			}
+			if (obj != null) {
+				if (method.isStatic) return null
+				// Null objects must still throw: this is never null, and getters dereference the object first
+				if (!isThis(obj) && !(expression && isTrivial(obj) && isGetter(inlinable))) return null
+			}
+			return inlinable
+		}
+
+		private fun isGetter(inlinable: Inlinable): Boolean {
+			var e = inlinable.expression ?: return false
+			while (e is AstExpr.CAST) e = e.expr.value
+			return e is AstExpr.FIELD_INSTANCE_ACCESS && isThis(e.expr.value)
+		}
+
+		private fun getObj(call: AstExpr.CALL_BASE): AstExpr? = when (call) {
+			is AstExpr.CALL_SUPER -> call.obj.value
+			is AstExpr.CALL_INSTANCE -> call.obj.value
+			else -> null
+		}
+
+		private fun inlineExpression(call: AstExpr.CALL_BASE): AstExpr? {
+			val inlinable = getInlinable(call, expression = true) ?: return null
+			if (inlinable.expression == null) return null
+			val args = call.args.map { it.value }
+			if (args.any { !isTrivial(it) }) return null
+			val copied = copyBody(inlinable, getObj(call), args)
+			val ret = flatten(copied.stm).first { it is AstStm.RETURN } as AstStm.RETURN
+			discard(call)
+			inlinedCalls++
+			return cast(ret.retval.value, call.type)
+		}
+
+		private fun inlineStatement(call: AstExpr.CALL_BASE, onReturn: (AstExpr?) -> AstStm): AstStm? {
+			val inlinable = getInlinable(call, expression = false) ?: return null
+			val id = inlineId
+			val stms = arrayListOf<AstStm>()
+			// Arguments are evaluated once and in order, before the body
+			val args = call.args.map { it.value }.zip(inlinable.method.methodType.args).map {
+				val (arg, param) = it
+				if (isTrivial(arg)) {
+					arg
+				} else {
+					val temp = AstLocal(nextLocalIndex++, "${param.name}_i$id", param.type)
+					newLocals += temp
+					stms += AstStm.SET_LOCAL(AstExpr.LOCAL(temp), cast(arg, param.type)).apply { temp.write(this) }
+					AstExpr.LOCAL(temp)
+				}
+			}
+			val copied = copyBody(inlinable, getObj(call), args)
+			discard(call)
+			stms += rewriteTail(copied.stm, onReturn)
+			inlinedCalls++
+			return AstStm.STMS(stms)
+		}
+
+		// The original trivial arguments are replaced with copies
+		private fun discard(call: AstExpr.CALL_BASE) {
+			for (arg in call.args.map { it.value } + listOfNotNull(getObj(call))) {
+				if (arg is AstExpr.LOCAL) arg.local.reads.remove(arg)
+			}
+		}
+
+		// Copy of the body of the inlined method, with fresh locals, its params replaced with args and this with obj
+		private fun copyBody(inlinable: Inlinable, obj: AstExpr?, args: List<AstExpr>): AstBody {
+			val id = inlineId++
+			val reader = AstRead(program.types, DataInputStream(ByteArrayInputStream(inlinable.data))) { index, name, type ->
+				AstLocal(nextLocalIndex++, "${name}_i$id", type).apply { newLocals += this }
+			}
+			val copied = reader.readBody()
+			object : AstVisitor() {
+				override fun visit(expr: AstExpr?) {
+					super.visit(expr)
+					when (expr) {
+						is AstExpr.PARAM -> expr.box.value = copy(args[expr.argument.index])
+						is AstExpr.THIS -> expr.box.value = copy(obj!!)
+					}
+				}
+			}.visit(copied.stm)
+			return copied
+		}
+
+		private fun rewriteTail(stm: AstStm, onReturn: (AstExpr?) -> AstStm): AstStm = when (stm) {
+			is AstStm.STMS -> stm.apply { if (stms.isNotEmpty()) stms.last().value = rewriteTail(stms.last().value, onReturn) }
+			is AstStm.IF_ELSE -> stm.apply {
+				strue.value = rewriteTail(strue.value, onReturn)
+				sfalse.value = rewriteTail(sfalse.value, onReturn)
+			}
+			is AstStm.RETURN -> onReturn(stm.retval.value)
+			is AstStm.RETURN_VOID -> onReturn(null)
+			else -> stm
+		}
+	}
+}
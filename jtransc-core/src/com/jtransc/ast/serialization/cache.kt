@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Carlos Ballesteros Velasco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jtransc.ast.serialization
+
+import com.jtransc.ast.*
+import com.jtransc.crypto.digestHex
+import com.jtransc.injector.Singleton
+import com.jtransc.log.log
+import java.io.File
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * On-disk cache of the AstClass generated from a class file, method bodies included.
+ * Entries are keyed by the class file contents, the jtransc version, the backend and a hash of the jtransc
+ * code generating the AST, so they never need to be invalidated, even between builds of the same version.
+ * Enabled with the "astCache" extra setting set to "true", and moved with "astCacheFolder".
+ */
+@Singleton
+class AstClassCache(val settings: AstBuildSettings, val types: AstTypes) {
+	val enabled = settings.extra["astCache"] == "true"
+	val folder by lazy { File(settings.extra["astCacheFolder"] ?: File(System.getProperty("java.io.tmpdir"), "jtransc-ast-cache").absolutePath) }
+
+	// Classes generated from class files, waiting for their bodies to be generated to be stored
+	private val pending = ConcurrentHashMap<AstClass, String>()
+
+	private fun file(key: String) = File(folder, "${key.substring(0, 2)}/$key.ast")
+
+	fun key(classBytes: ByteArray, backend: String): String? {
+		if (!enabled) return null
+		val digest = MessageDigest.getInstance("SHA1")
+		digest.update("$AST_FORMAT_VERSION:${settings.jtranscVersion}:$codeHash:$backend:".toByteArray(Charsets.UTF_8))
+		return digest.digestHex(classBytes)
+	}
+
+	// Hash of the jar or the class folder containing the AST builders, computed once per build
+	private val codeHash by lazy {
+		val digest = MessageDigest.getInstance("SHA1")
+		val location = AstClassCache::class.java.protectionDomain?.codeSource?.location
+		val root = if (location != null) File(location.toURI()) else null
+		if (root != null && root.isFile) {
+			digest.update(root.readBytes())
+		} else if (root != null && root.isDirectory) {
+			for (file in root.walkTopDown().filter { it.isFile && it.name.endsWith(".class") }.sortedBy { it.path }) {
+				digest.update(file.relativeTo(root).path.toByteArray(Charsets.UTF_8))
+				digest.update(file.readBytes())
+			}
+		}
+		digest.digestHex(byteArrayOf())
+	}
+
+	/**
+	 * Returns the part of the cached class generation that changes the program, or null when not cached.
+	 * Method bodies that fail to deserialize remove the entry and are generated again with regenerateBody.
+	 */
+	fun get(program: AstProgram, key: String?, regenerateBody: (containingClass: AstClass, name: String, signature: String) -> AstBody?): (() -> AstClass)? {
+		if (key == null) return null
+		val data = try {
+			file(key).readBytes()
+		} catch (e: Throwable) {
+			return null
+		}
+		if (!AstClassSerializer.isValid(data)) return null
+		return {
+			AstClassSerializer.read(program, types, data) { containingClass, name, signature, e ->
+				log.warn("Invalid cached body of ${containingClass.name}::$name$signature, generating it again: $e")
+				file(key).delete()
+				regenerateBody(containingClass, name, signature)
+			}
+		}
+	}
+
+	fun storeWhenGenerated(clazz: AstClass, key: String?) {
+		if (key != null) pending[clazz] = key
+	}
+
+	/**
+	 * Stores a class previously registered with storeWhenGenerated. Generates its method bodies if they weren't already.
+	 */
+	fun store(clazz: AstClass) {
+		val key = pending.remove(clazz) ?: return
+		try {
+			val data = AstClassSerializer.write(clazz) ?: return
+			val file = file(key)
+			file.parentFile.mkdirs()
+			// Written apart and renamed so concurrent builds never read partial entries
+			val temp = File(file.parentFile, "${file.name}.${Thread.currentThread().id}.tmp")
+			temp.writeBytes(data)
+			if (!temp.renameTo(file)) temp.delete()
+		} catch (e: Throwable) {
+			log.warn("Can't cache ${clazz.name}: ${e.message}")
+		}
+	}
+}
+
+object AstClassSerializer {
+	private const val MAGIC = 0x4A544153 // JTAS
+
+	fun isValid(data: ByteArray): Boolean {
+		if (data.size < 8) return false
+		val magic = ((data[0].toInt() and 0xFF) shl 24) or ((data[1].toInt() and 0xFF) shl 16) or ((data[2].toInt() and 0xFF) shl 8) or (data[3].toInt() and 0xFF)
+		val version = ((data[4].toInt() and 0xFF) shl 24) or ((data[5].toInt() and 0xFF) shl 16) or ((data[6].toInt() and 0xFF) shl 8) or (data[7].toInt() and 0xFF)
+		return magic == MAGIC && version == AST_FORMAT_VERSION
+	}
+
+	// Returns null for classes that can't be cached, like the ones with bodies that failed to generate
+	fun write(clazz: AstClass): ByteArray? {
+		val bodies = clazz.methods.map { method ->
+			if (method.modifiers.isConcrete) {
+				val body = method.body ?: return null
+				AstWriter.serialize { writeBody(body) }
+			} else {
+				null
+			}
+		}
+
+		return AstWriter.serialize {
+			s.writeInt(MAGIC)
+			s.writeInt(AST_FORMAT_VERSION)
+			writeString(clazz.source)
+			writeFqname(clazz.name)
+			s.writeInt(clazz.modifiers.acc)
+			writeStringOrNull(clazz.extending?.fqname)
+			writeList(clazz.implementing) { writeFqname(it) }
+			writeAnnotations(clazz.annotations)
+			writeList(clazz.methods.zip(bodies)) {
+				val (method, body) = it
+				writeString(method.name)
+				writeType(method.methodType)
+				writeAnnotations(method.annotations)
+				writeList(method.parameterAnnotations) { writeAnnotations(it) }
+				writeString(method.signature)
+				writeStringOrNull(method.genericSignature)
+				writeValue(method.defaultTag)
+				s.writeInt(method.modifiers.acc)
+				s.writeBoolean(body != null)
+				if (body != null) {
+					s.writeInt(body.size)
+					s.write(body)
+				}
+			}
+			writeList(clazz.fields) {
+				writeString(it.name)
+				writeAnnotations(it.annotations)
+				writeString(it.desc)
+				writeStringOrNull(it.genericSignature)
+				s.writeInt(it.modifiers.acc)
+				writeValue(it.constantValue)
+			}
+		}
+	}
+
+	// Creates the class like BaseAsmToAst does: the class first, then its methods and then its fields.
+	// Method bodies are deserialized lazily, and invalid ones are replaced with the result of onInvalidBody.
+	fun read(
+		program: AstProgram, types: AstTypes, data: ByteArray,
+		onInvalidBody: (containingClass: AstClass, name: String, signature: String, e: Throwable) -> AstBody?
+	): AstClass = AstRead.deserialize(types, data) {
+		s.readInt()
+		s.readInt()
+		val astClass = AstClass(
+			source = readString(),
+			program = program,
+			name = readFqname(),
+			modifiers = AstModifiers(s.readInt()),
+			extending = readStringOrNull()?.let { FqName(it) },
+			implementing = readList { readFqname() },
+			annotations = readAnnotations()
+		)
+		program.add(astClass)
+
+		for (n in 0 until s.readInt()) {
+			val name = readString()
+			val methodType = readMethodType()
+			val annotations = readAnnotations()
+			val parameterAnnotations = readList { readAnnotations() }
+			val signature = readString()
+			val genericSignature = readStringOrNull()
+			val defaultTag = readValue()
+			val modifiers = AstModifiers(s.readInt())
+			val body = if (s.readBoolean()) ByteArray(s.readInt()).apply { s.readFully(this) } else null
+			astClass.add(AstMethod(
+				containingClass = astClass,
+				annotations = annotations,
+				parameterAnnotations = parameterAnnotations,
+				name = name,
+				methodType = methodType,
+				signature = signature,
+				genericSignature = genericSignature,
+				defaultTag = defaultTag,
+				modifiers = modifiers,
+				types = types,
+				generateBody = {
+					if (body != null) {
+						try {
+							AstRead.deserialize(types, body) { readBody() }
+						} catch (e: Throwable) {
+							onInvalidBody(astClass, name, signature, e)
+						}
+					} else {
+						null
+					}
+				}
+			))
+		}
+
+		for (n in 0 until s.readInt()) {
+			val name = readString()
+			val annotations = readAnnotations()
+			val desc = readString()
+			astClass.add(AstField(
+				containingClass = astClass,
+				name = name,
+				annotations = annotations,
+				type = types.demangle(desc),
+				desc = desc,
+				genericSignature = readStringOrNull(),
+				modifiers = AstModifiers(s.readInt()),
+				constantValue = readValue(),
+				types = types
+			))
+		}
+
+		astClass
+	}
+}
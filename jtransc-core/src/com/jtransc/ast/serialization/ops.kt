@@ -1,5 +1,8 @@
 package com.jtransc.ast.serialization
 
+// Bump when the format or the AST produced by the backends changes, so cached classes are not reused
+const val AST_FORMAT_VERSION = 2
+
 object AstExprOp {
 	const val THIS = 0
 	const val LIT_REF_NULL = 1
@@ -17,7 +20,41 @@ object AstExprOp {
 	const val LIT_INT_BYTE = 13
 	const val LIT_INT_SHORT = 14
 	const val LIT_INT_INT = 15
+	const val LIT_CHAR = 16
+	const val LIT_LONG = 17
+	const val LIT_FLOAT = 18
+	const val LIT_DOUBLE = 19
+	const val LIT_STRING = 20
+	const val LIT_TYPE = 21
+	const val LIT_METHOD_HANDLE = 22
+	const val LIT_REFNAME = 23
+
+	const val LOCAL = 30
+	const val PARAM = 31
+	const val CAUGHT_EXCEPTION = 32
+	const val CALL_INSTANCE = 33
+	const val CALL_SUPER = 34
+	const val CALL_STATIC = 35
+	const val ARRAY_LENGTH = 36
+	const val ARRAY_ACCESS = 37
+	const val FIELD_INSTANCE_ACCESS = 38
+	const val FIELD_STATIC_ACCESS = 39
+	const val INSTANCE_OF = 40
+	const val CAST = 41
+	const val NEW = 42
+	const val NEW_WITH_CONSTRUCTOR = 43
+	const val NEW_ARRAY = 44
+	const val INTARRAY_LITERAL = 45
+	const val STRINGARRAY_LITERAL = 46
+	const val INVOKE_DYNAMIC_METHOD = 47
+	const val TERNARY = 48
+	const val STRING_SWITCH = 49
+	const val UNOP_NEG = 50
+	const val UNOP_NOT = 51
+	const val UNOP_INV = 52
 
+	// BIN_* = BINOP + AstBinop.ordinal
+	const val BINOP = 100
 	const val BIN_ADD = 100
 	const val BIN_SUB = 101
 	const val BIN_MUL = 102
@@ -31,4 +68,60 @@ object AstExprOp {
 
 object AstStmOp {
 	const val EXPR = 0
+	const val STMS = 1
+	const val NOP = 2
+	const val LINE = 3
+	const val SET_LOCAL = 4
+	const val SET_ARRAY = 5
+	const val SET_ARRAY_LITERALS = 6
+	const val SET_FIELD_STATIC = 7
+	const val SET_FIELD_INSTANCE = 8
+	const val SET_NEW_WITH_CONSTRUCTOR = 9
+	const val IF = 10
+	const val IF_ELSE = 11
+	const val WHILE = 12
+	const val RETURN = 13
+	const val RETURN_VOID = 14
+	const val THROW = 15
+	const val RETHROW = 16
+	const val TRY_CATCH = 17
+	const val BREAK = 18
+	const val CONTINUE = 19
+	const val SWITCH = 20
+	const val STM_LABEL = 21
+	const val SWITCH_GOTO = 22
+	const val IF_GOTO = 23
+	const val GOTO = 24
+	const val MONITOR_ENTER = 25
+	const val MONITOR_EXIT = 26
+}
+
+object AstTypeOp {
+	const val MANGLED = 0
+	const val NULL = 1
+	const val UNKNOWN = 2
+}
+
+// Annotation element values and field constant values
+object AstValueOp {
+	const val NULL = 0
+	const val BOOL = 1
+	const val BYTE = 2
+	const val CHAR = 3
+	const val SHORT = 4
+	const val INT = 5
+	const val LONG = 6
+	const val FLOAT = 7
+	const val DOUBLE = 8
+	const val STRING = 9
+	const val LIST = 10
+	const val ANNOTATION = 11
+	const val ENUM = 12
+	const val ASM_TYPE = 13
+}
+
+// Reads and writes of a local that are still part of the body tree, or that were detached by an optimization
+object AstLocalAccessOp {
+	const val IN_TREE = 0
+	const val DETACHED = 1
 }
@@ -17,35 +17,233 @@
 package com.jtransc.ast.serialization
 
 import com.jtransc.ast.*
+import com.jtransc.ast.optimize.AstAnnotateExpressions
 import com.jtransc.error.invalidOp
-import com.jtransc.error.noImpl
-import com.jtransc.io.i8
-import java.io.InputStream
+import com.jtransc.org.objectweb.asm.Type
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.util.*
 
-class AstRead(val types: AstTypes) {
-	val current = FqName("java.lang.Object")
+// Reads what AstWriter wrote, in the same order. createLocal allows renaming the locals of copied bodies.
+class AstRead(
+	val types: AstTypes,
+	val s: DataInputStream,
+	val createLocal: (index: Int, name: String, type: AstType) -> AstLocal = { index, name, type -> AstLocal(index, name, type) }
+) {
+	private val locals = arrayListOf<AstLocal>()
+	private val localReads = arrayListOf<AstExpr.LOCAL>()
+	private val localWrites = arrayListOf<AstStm.SET_LOCAL>()
 
-	fun readBinop(s: InputStream, op:AstBinop): AstExpr {
-		val l = readExpr(s)
-		val r = readExpr(s)
-		return AstExpr.BINOP(l.type, l, AstBinop.ADD, r)
+	companion object {
+		fun <T> deserialize(types: AstTypes, data: ByteArray, callback: AstRead.() -> T): T {
+			return DataInputStream(ByteArrayInputStream(data)).use { AstRead(types, it).callback() }
+		}
+	}
+
+	fun readString(): String {
+		val chars = CharArray(s.readInt())
+		for (n in 0 until chars.size) chars[n] = s.readChar()
+		return String(chars)
+	}
+
+	fun readStringOrNull(): String? = if (s.readBoolean()) readString() else null
+
+	fun <T> readList(read: () -> T): List<T> {
+		val count = s.readInt()
+		val out = ArrayList<T>(count)
+		for (n in 0 until count) out += read()
+		return out
 	}
 
-	fun readStm(s: InputStream): AstStm {
-		return when (s.i8()) {
-			AstStmOp.EXPR -> AstStm.STM_EXPR(readExpr(s))
-			else -> noImpl
+	fun readFqname(): FqName = FqName(readString())
+
+	fun readType(): AstType = when (s.readUnsignedByte()) {
+		AstTypeOp.MANGLED -> types.demangle(readString())
+		AstTypeOp.NULL -> AstType.NULL
+		AstTypeOp.UNKNOWN -> AstType.UNKNOWN
+		else -> invalidOp("Invalid serialized type")
+	}
+
+	fun readRefType(): AstType.REF = readType() as AstType.REF
+	fun readMethodType(): AstType.METHOD = readType() as AstType.METHOD
+
+	fun readMethodRef(): AstMethodRef = AstMethodRef(readFqname(), readString(), readMethodType())
+
+	fun readFieldRef(): AstFieldRef = AstFieldRef(readFqname(), readString(), readType())
+
+	fun readLabel(): AstLabel = AstLabel(readString())
+
+	fun readLocal(): AstLocal {
+		val id = s.readInt()
+		if (id == locals.size) {
+			val index = s.readInt()
+			val name = readString()
+			locals += createLocal(index, name, readType())
 		}
+		return locals[id]
 	}
 
-	fun readExpr(s: InputStream): AstExpr {
-		return when (s.i8()) {
-			AstExprOp.THIS -> AstExpr.THIS(current)
-			AstExprOp.LIT_BOOL_FALSE -> AstExpr.LITERAL(false, types)
+	fun readBody(): AstBody {
+		val type = readMethodType()
+		val strictfp = s.readBoolean()
+		val hasDynamicInvoke = s.readBoolean()
+		val bodyLocals = readList { readLocal() }
+		val traps = readList { AstTrap(readLabel(), readLabel(), readLabel(), readRefType()) }
+		val stm = readStm()
+
+		var n = 0
+		while (n < locals.size) {
+			val local = locals[n++]
+			local.reads += readList {
+				when (s.readUnsignedByte()) {
+					AstLocalAccessOp.IN_TREE -> localReads[s.readInt()]
+					else -> AstExpr.LOCAL(local)
+				}
+			}
+			local.writes += readList {
+				when (s.readUnsignedByte()) {
+					AstLocalAccessOp.IN_TREE -> localWrites[s.readInt()]
+					else -> readStm() as AstStm.SET_LOCAL
+				}
+			}
+		}
+
+		val body = AstBody(stm, type, bodyLocals, traps, AstBodyFlags(strictfp = strictfp, types = types, hasDynamicInvoke = hasDynamicInvoke))
+		AstAnnotateExpressions().visit(body)
+		return body
+	}
+
+	fun readStm(): AstStm {
+		return when (s.readUnsignedByte()) {
+			AstStmOp.EXPR -> AstStm.STM_EXPR(readExpr())
+			AstStmOp.STMS -> AstStm.STMS(readList { readStm() })
+			AstStmOp.NOP -> AstStm.NOP(readString())
+			AstStmOp.LINE -> AstStm.LINE(readString(), s.readInt())
+			AstStmOp.SET_LOCAL -> {
+				val stm = AstStm.SET_LOCAL(readExpr() as AstExpr.LOCAL, readExpr())
+				localWrites += stm
+				stm
+			}
+			AstStmOp.SET_ARRAY -> AstStm.SET_ARRAY(readExpr(), readExpr(), readExpr())
+			AstStmOp.SET_ARRAY_LITERALS -> AstStm.SET_ARRAY_LITERALS(readExpr(), s.readInt(), readList { readExpr().box })
+			AstStmOp.SET_FIELD_STATIC -> AstStm.SET_FIELD_STATIC(readFieldRef(), readExpr())
+			AstStmOp.SET_FIELD_INSTANCE -> AstStm.SET_FIELD_INSTANCE(readFieldRef(), readExpr(), readExpr())
+			AstStmOp.SET_NEW_WITH_CONSTRUCTOR -> AstStm.SET_NEW_WITH_CONSTRUCTOR(readExpr() as AstExpr.LocalExpr, readRefType(), readMethodRef(), readList { readExpr() })
+			AstStmOp.IF -> AstStm.IF(readExpr(), readStm())
+			AstStmOp.IF_ELSE -> AstStm.IF_ELSE(readExpr(), readStm(), readStm())
+			AstStmOp.WHILE -> AstStm.WHILE(readExpr(), readStm())
+			AstStmOp.RETURN -> AstStm.RETURN(readExpr())
+			AstStmOp.RETURN_VOID -> AstStm.RETURN_VOID()
+			AstStmOp.THROW -> AstStm.THROW(readExpr())
+			AstStmOp.RETHROW -> AstStm.RETHROW()
+			AstStmOp.TRY_CATCH -> AstStm.TRY_CATCH(readStm(), readStm())
+			AstStmOp.BREAK -> AstStm.BREAK()
+			AstStmOp.CONTINUE -> AstStm.CONTINUE()
+			AstStmOp.SWITCH -> AstStm.SWITCH(readExpr(), readStm(), readList { s.readInt() to readStm() })
+			AstStmOp.STM_LABEL -> AstStm.STM_LABEL(readLabel())
+			AstStmOp.SWITCH_GOTO -> AstStm.SWITCH_GOTO(readExpr(), readLabel(), readList { s.readInt() to readLabel() })
+			AstStmOp.IF_GOTO -> AstStm.IF_GOTO(readLabel(), readExpr())
+			AstStmOp.GOTO -> AstStm.GOTO(readLabel())
+			AstStmOp.MONITOR_ENTER -> AstStm.MONITOR_ENTER(readExpr())
+			AstStmOp.MONITOR_EXIT -> AstStm.MONITOR_EXIT(readExpr())
+			else -> invalidOp("Invalid serialized statement")
+		}
+	}
+
+	fun readExpr(): AstExpr {
+		val op = s.readUnsignedByte()
+		if (op >= AstExprOp.BINOP) {
+			val binop = AstBinop.values()[op - AstExprOp.BINOP]
+			return AstExpr.BINOP(readType(), readExpr(), binop, readExpr())
+		}
+		return when (op) {
+			AstExprOp.THIS -> AstExpr.THIS(readFqname())
+			AstExprOp.LIT_REF_NULL -> AstExpr.LITERAL(null, types)
 			AstExprOp.LIT_BOOL_TRUE -> AstExpr.LITERAL(true, types)
-			AstExprOp.BIN_ADD -> readBinop(s, AstBinop.ADD)
-			AstExprOp.BIN_SUB -> readBinop(s, AstBinop.SUB)
-			else -> noImpl
+			AstExprOp.LIT_BOOL_FALSE -> AstExpr.LITERAL(false, types)
+			AstExprOp.LIT_BYTE -> AstExpr.LITERAL(s.readByte(), types)
+			AstExprOp.LIT_SHORT -> AstExpr.LITERAL(s.readShort(), types)
+			AstExprOp.LIT_INT_M1 -> AstExpr.LITERAL(-1, types)
+			AstExprOp.LIT_INT_0 -> AstExpr.LITERAL(0, types)
+			AstExprOp.LIT_INT_1 -> AstExpr.LITERAL(1, types)
+			AstExprOp.LIT_INT_2 -> AstExpr.LITERAL(2, types)
+			AstExprOp.LIT_INT_3 -> AstExpr.LITERAL(3, types)
+			AstExprOp.LIT_INT_4 -> AstExpr.LITERAL(4, types)
+			AstExprOp.LIT_INT_5 -> AstExpr.LITERAL(5, types)
+			AstExprOp.LIT_INT_BYTE -> AstExpr.LITERAL(s.readByte().toInt(), types)
+			AstExprOp.LIT_INT_SHORT -> AstExpr.LITERAL(s.readShort().toInt(), types)
+			AstExprOp.LIT_INT_INT -> AstExpr.LITERAL(s.readInt(), types)
+			AstExprOp.LIT_CHAR -> AstExpr.LITERAL(s.readChar(), types)
+			AstExprOp.LIT_LONG -> AstExpr.LITERAL(s.readLong(), types)
+			AstExprOp.LIT_FLOAT -> AstExpr.LITERAL(java.lang.Float.intBitsToFloat(s.readInt()), types)
+			AstExprOp.LIT_DOUBLE -> AstExpr.LITERAL(java.lang.Double.longBitsToDouble(s.readLong()), types)
+			AstExprOp.LIT_STRING -> AstExpr.LITERAL(readString(), types)
+			AstExprOp.LIT_TYPE -> AstExpr.LITERAL(readType(), types)
+			AstExprOp.LIT_METHOD_HANDLE -> AstExpr.LITERAL(AstMethodHandle(readMethodType(), readMethodRef(), AstMethodHandle.Kind.fromId(s.readInt())), types)
+			AstExprOp.LIT_REFNAME -> AstExpr.LITERAL_REFNAME(readType(), types)
+			AstExprOp.LOCAL -> {
+				val expr = AstExpr.LOCAL(readLocal())
+				localReads += expr
+				expr
+			}
+			AstExprOp.PARAM -> AstExpr.PARAM(AstArgument(s.readInt(), readType(), readString(), s.readBoolean()))
+			AstExprOp.CAUGHT_EXCEPTION -> AstExpr.CAUGHT_EXCEPTION(readType())
+			AstExprOp.UNOP_NEG -> AstExpr.UNOP(AstUnop.NEG, readExpr())
+			AstExprOp.UNOP_NOT -> AstExpr.UNOP(AstUnop.NOT, readExpr())
+			AstExprOp.UNOP_INV -> AstExpr.UNOP(AstUnop.INV, readExpr())
+			AstExprOp.CALL_INSTANCE -> AstExpr.CALL_INSTANCE(readExpr(), readMethodRef(), readList { readExpr() }, s.readBoolean())
+			AstExprOp.CALL_SUPER -> AstExpr.CALL_SUPER(readExpr(), readFqname(), readMethodRef(), readList { readExpr() }, s.readBoolean())
+			AstExprOp.CALL_STATIC -> AstExpr.CALL_STATIC(readRefType(), readMethodRef(), readList { readExpr() }, s.readBoolean())
+			AstExprOp.ARRAY_LENGTH -> AstExpr.ARRAY_LENGTH(readExpr())
+			AstExprOp.ARRAY_ACCESS -> AstExpr.ARRAY_ACCESS(readExpr(), readExpr())
+			AstExprOp.FIELD_INSTANCE_ACCESS -> AstExpr.FIELD_INSTANCE_ACCESS(readFieldRef(), readExpr())
+			AstExprOp.FIELD_STATIC_ACCESS -> AstExpr.FIELD_STATIC_ACCESS(readFieldRef())
+			AstExprOp.INSTANCE_OF -> AstExpr.INSTANCE_OF(readExpr(), readType() as AstType.Reference)
+			AstExprOp.CAST -> AstExpr.CAST(readExpr(), readType())
+			AstExprOp.NEW -> AstExpr.NEW(readRefType())
+			AstExprOp.NEW_WITH_CONSTRUCTOR -> AstExpr.NEW_WITH_CONSTRUCTOR(readMethodRef(), readList { readExpr() })
+			AstExprOp.NEW_ARRAY -> AstExpr.NEW_ARRAY(readType() as AstType.ARRAY, readList { readExpr() })
+			AstExprOp.INTARRAY_LITERAL -> AstExpr.INTARRAY_LITERAL(readList { s.readInt() })
+			AstExprOp.STRINGARRAY_LITERAL -> AstExpr.STRINGARRAY_LITERAL(readList { readString() })
+			AstExprOp.INVOKE_DYNAMIC_METHOD -> {
+				val expr = AstExpr.INVOKE_DYNAMIC_METHOD(readMethodRef(), readMethodRef(), s.readInt())
+				expr.startArgs = readList { readExpr() }
+				expr
+			}
+			AstExprOp.TERNARY -> AstExpr.TERNARY(readExpr(), readExpr(), readExpr(), types)
+			AstExprOp.STRING_SWITCH -> AstExpr.STRING_SWITCH(readExpr(), readList { readString() to s.readInt() })
+			else -> invalidOp("Invalid serialized expression")
 		}
 	}
-}
\ No newline at end of file
+
+	fun readAnnotations(): List<AstAnnotation> = readList { readAnnotation() }
+
+	fun readAnnotation(): AstAnnotation {
+		val type = readRefType()
+		val runtimeVisible = s.readBoolean()
+		val elements = hashMapOf<String, Any?>()
+		for (n in 0 until s.readInt()) {
+			val key = readString()
+			elements[key] = readValue()
+		}
+		return AstAnnotation(type, elements, runtimeVisible)
+	}
+
+	fun readValue(): Any? = when (s.readUnsignedByte()) {
+		AstValueOp.NULL -> null
+		AstValueOp.BOOL -> s.readBoolean()
+		AstValueOp.BYTE -> s.readByte()
+		AstValueOp.CHAR -> s.readChar()
+		AstValueOp.SHORT -> s.readShort()
+		AstValueOp.INT -> s.readInt()
+		AstValueOp.LONG -> s.readLong()
+		AstValueOp.FLOAT -> java.lang.Float.intBitsToFloat(s.readInt())
+		AstValueOp.DOUBLE -> java.lang.Double.longBitsToDouble(s.readLong())
+		AstValueOp.STRING -> readString()
+		AstValueOp.LIST -> readList { readValue() }
+		AstValueOp.ANNOTATION -> readAnnotation()
+		AstValueOp.ENUM -> AstFieldWithoutTypeRef(readFqname(), readString())
+		AstValueOp.ASM_TYPE -> Type.getType(readString())
+		else -> invalidOp("Invalid serialized value")
+	}
+}
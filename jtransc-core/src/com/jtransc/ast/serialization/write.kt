@@ -16,86 +16,537 @@
 
 package com.jtransc.ast.serialization
 
-import com.jtransc.ast.AstBinop
-import com.jtransc.ast.AstExpr
-import com.jtransc.ast.AstStm
-import com.jtransc.error.noImpl
-import com.jtransc.io.i16
-import com.jtransc.io.i32
-import com.jtransc.io.i8
-import java.io.OutputStream
-
-class AstWriter {
-	fun writeStm(stm: AstStm.Box, s: OutputStream) {
-		writeStm(stm.value, s)
+import com.jtransc.ast.*
+import com.jtransc.error.invalidOp
+import com.jtransc.org.objectweb.asm.Type
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.util.*
+
+// Writes one body or class. Locals and local accesses are numbered in write order, so AstRead must read
+// the same elements in the same order.
+class AstWriter(val s: DataOutputStream) {
+	private val localIds = IdentityHashMap<AstLocal, Int>()
+	private val locals = arrayListOf<AstLocal>()
+	private val localReadIds = IdentityHashMap<AstExpr.LOCAL, Int>()
+	private val localWriteIds = IdentityHashMap<AstStm.SET_LOCAL, Int>()
+
+	companion object {
+		fun serialize(callback: AstWriter.() -> Unit): ByteArray {
+			val bytes = ByteArrayOutputStream()
+			DataOutputStream(bytes).use { AstWriter(it).callback() }
+			return bytes.toByteArray()
+		}
+	}
+
+	fun writeString(str: String) {
+		s.writeInt(str.length)
+		for (c in str) s.writeChar(c.toInt())
+	}
+
+	fun writeStringOrNull(str: String?) {
+		s.writeBoolean(str != null)
+		if (str != null) writeString(str)
 	}
 
-	fun writeExpr(expr: AstExpr.Box, s: OutputStream) {
-		writeExpr(expr.value, s)
+	fun <T> writeList(list: List<T>, write: (T) -> Unit) {
+		s.writeInt(list.size)
+		for (item in list) write(item)
+	}
+
+	fun writeFqname(name: FqName) = writeString(name.fqname)
+
+	fun writeType(type: AstType) {
+		// By identity: AstType.METHOD.equals can't compare with other types
+		when {
+			type === AstType.NULL -> s.writeByte(AstTypeOp.NULL)
+			type === AstType.UNKNOWN -> s.writeByte(AstTypeOp.UNKNOWN)
+			else -> {
+				s.writeByte(AstTypeOp.MANGLED)
+				writeString(type.mangle())
+			}
+		}
+	}
+
+	fun writeMethodRef(ref: AstMethodRef) {
+		writeFqname(ref.containingClass)
+		writeString(ref.name)
+		writeType(ref.type)
+	}
+
+	fun writeFieldRef(ref: AstFieldRef) {
+		writeFqname(ref.containingClass)
+		writeString(ref.name)
+		writeType(ref.type)
+	}
+
+	fun writeLabel(label: AstLabel) = writeString(label.name)
+
+	fun writeLocal(local: AstLocal) {
+		val id = localIds[local]
+		if (id != null) {
+			s.writeInt(id)
+		} else {
+			localIds[local] = locals.size
+			s.writeInt(locals.size)
+			locals += local
+			s.writeInt(local.index)
+			writeString(local.name)
+			writeType(local.type)
+		}
+	}
+
+	fun writeBody(body: AstBody) {
+		writeType(body.type)
+		s.writeBoolean(body.flags.strictfp)
+		s.writeBoolean(body.flags.hasDynamicInvoke)
+		writeList(body.locals) { writeLocal(it) }
+		writeList(body.traps) {
+			writeLabel(it.start)
+			writeLabel(it.end)
+			writeLabel(it.handler)
+			writeType(it.exception)
+		}
+		writeStm(body.stm)
+
+		// The optimizer relies on the reads and writes registered in each local, including the ones it
+		// already detached from the tree, so they are kept as they are
+		var n = 0
+		while (n < locals.size) {
+			val local = locals[n++]
+			writeList(local.reads) {
+				val id = localReadIds[it]
+				if (id != null) {
+					s.writeByte(AstLocalAccessOp.IN_TREE)
+					s.writeInt(id)
+				} else {
+					s.writeByte(AstLocalAccessOp.DETACHED)
+				}
+			}
+			writeList(local.writes) {
+				val id = localWriteIds[it]
+				if (id != null) {
+					s.writeByte(AstLocalAccessOp.IN_TREE)
+					s.writeInt(id)
+				} else {
+					s.writeByte(AstLocalAccessOp.DETACHED)
+					writeStm(it)
+				}
+			}
+		}
 	}
 
-	fun writeStm(stm: AstStm, s: OutputStream) {
+	fun writeStm(stm: AstStm.Box) = writeStm(stm.value)
+
+	fun writeExpr(expr: AstExpr.Box) = writeExpr(expr.value)
+
+	fun writeStm(stm: AstStm) {
 		when (stm) {
 			is AstStm.STM_EXPR -> {
-				s.i8(AstStmOp.EXPR)
-				writeExpr(stm.expr.value, s)
+				s.writeByte(AstStmOp.EXPR)
+				writeExpr(stm.expr)
+			}
+			is AstStm.STMS -> {
+				s.writeByte(AstStmOp.STMS)
+				writeList(stm.stms) { writeStm(it) }
+			}
+			is AstStm.NOP -> {
+				s.writeByte(AstStmOp.NOP)
+				writeString(stm.reason)
+			}
+			is AstStm.LINE -> {
+				s.writeByte(AstStmOp.LINE)
+				writeString(stm.file)
+				s.writeInt(stm.line)
+			}
+			is AstStm.SET_LOCAL -> {
+				s.writeByte(AstStmOp.SET_LOCAL)
+				localWriteIds[stm] = localWriteIds.size
+				writeExpr(stm.local)
+				writeExpr(stm.expr)
+			}
+			is AstStm.SET_ARRAY -> {
+				s.writeByte(AstStmOp.SET_ARRAY)
+				writeExpr(stm.array)
+				writeExpr(stm.index)
+				writeExpr(stm.expr)
+			}
+			is AstStm.SET_ARRAY_LITERALS -> {
+				s.writeByte(AstStmOp.SET_ARRAY_LITERALS)
+				writeExpr(stm.array)
+				s.writeInt(stm.startIndex)
+				writeList(stm.values) { writeExpr(it) }
+			}
+			is AstStm.SET_FIELD_STATIC -> {
+				s.writeByte(AstStmOp.SET_FIELD_STATIC)
+				writeFieldRef(stm.field)
+				writeExpr(stm.expr)
+			}
+			is AstStm.SET_FIELD_INSTANCE -> {
+				s.writeByte(AstStmOp.SET_FIELD_INSTANCE)
+				writeFieldRef(stm.field)
+				writeExpr(stm.left)
+				writeExpr(stm.expr)
+			}
+			is AstStm.SET_NEW_WITH_CONSTRUCTOR -> {
+				s.writeByte(AstStmOp.SET_NEW_WITH_CONSTRUCTOR)
+				writeExpr(stm.local)
+				writeType(stm.target)
+				writeMethodRef(stm.method)
+				writeList(stm.args) { writeExpr(it) }
+			}
+			is AstStm.IF -> {
+				s.writeByte(AstStmOp.IF)
+				writeExpr(stm.cond)
+				writeStm(stm.strue)
+			}
+			is AstStm.IF_ELSE -> {
+				s.writeByte(AstStmOp.IF_ELSE)
+				writeExpr(stm.cond)
+				writeStm(stm.strue)
+				writeStm(stm.sfalse)
+			}
+			is AstStm.WHILE -> {
+				s.writeByte(AstStmOp.WHILE)
+				writeExpr(stm.cond)
+				writeStm(stm.iter)
+			}
+			is AstStm.RETURN -> {
+				s.writeByte(AstStmOp.RETURN)
+				writeExpr(stm.retval)
 			}
-			else -> noImpl
+			is AstStm.RETURN_VOID -> s.writeByte(AstStmOp.RETURN_VOID)
+			is AstStm.THROW -> {
+				s.writeByte(AstStmOp.THROW)
+				writeExpr(stm.value)
+			}
+			is AstStm.RETHROW -> s.writeByte(AstStmOp.RETHROW)
+			is AstStm.TRY_CATCH -> {
+				s.writeByte(AstStmOp.TRY_CATCH)
+				writeStm(stm.trystm)
+				writeStm(stm.catch)
+			}
+			is AstStm.BREAK -> s.writeByte(AstStmOp.BREAK)
+			is AstStm.CONTINUE -> s.writeByte(AstStmOp.CONTINUE)
+			is AstStm.SWITCH -> {
+				s.writeByte(AstStmOp.SWITCH)
+				writeExpr(stm.subject)
+				writeStm(stm.default)
+				writeList(stm.cases) {
+					s.writeInt(it.first)
+					writeStm(it.second)
+				}
+			}
+			is AstStm.STM_LABEL -> {
+				s.writeByte(AstStmOp.STM_LABEL)
+				writeLabel(stm.label)
+			}
+			is AstStm.SWITCH_GOTO -> {
+				s.writeByte(AstStmOp.SWITCH_GOTO)
+				writeExpr(stm.subject)
+				writeLabel(stm.default)
+				writeList(stm.cases) {
+					s.writeInt(it.first)
+					writeLabel(it.second)
+				}
+			}
+			is AstStm.IF_GOTO -> {
+				s.writeByte(AstStmOp.IF_GOTO)
+				writeLabel(stm.label)
+				writeExpr(stm.cond)
+			}
+			is AstStm.GOTO -> {
+				s.writeByte(AstStmOp.GOTO)
+				writeLabel(stm.label)
+			}
+			is AstStm.MONITOR_ENTER -> {
+				s.writeByte(AstStmOp.MONITOR_ENTER)
+				writeExpr(stm.expr)
+			}
+			is AstStm.MONITOR_EXIT -> {
+				s.writeByte(AstStmOp.MONITOR_EXIT)
+				writeExpr(stm.expr)
+			}
+			else -> invalidOp("Can't serialize $stm")
 		}
 	}
 
-	fun writeExpr(expr: AstExpr, s: OutputStream) {
+	fun writeExpr(expr: AstExpr) {
 		when (expr) {
-			is AstExpr.THIS -> s.i8(AstExprOp.THIS)
-			is AstExpr.LITERAL -> {
-				val value = expr.value
+			is AstExpr.THIS -> {
+				s.writeByte(AstExprOp.THIS)
+				writeFqname(expr.ref)
+			}
+			is AstExpr.LOCAL -> {
+				s.writeByte(AstExprOp.LOCAL)
+				localReadIds[expr] = localReadIds.size
+				writeLocal(expr.local)
+			}
+			is AstExpr.PARAM -> {
+				s.writeByte(AstExprOp.PARAM)
+				s.writeInt(expr.argument.index)
+				writeType(expr.argument.type)
+				writeString(expr.argument.name)
+				s.writeBoolean(expr.argument.optional)
+			}
+			is AstExpr.LITERAL -> writeLiteral(expr.value)
+			is AstExpr.LITERAL_REFNAME -> {
+				val value = expr.value as? AstType.REF ?: invalidOp("Can't serialize refname ${expr.value}")
+				s.writeByte(AstExprOp.LIT_REFNAME)
+				writeType(value)
+			}
+			is AstExpr.CAUGHT_EXCEPTION -> {
+				s.writeByte(AstExprOp.CAUGHT_EXCEPTION)
+				writeType(expr.type)
+			}
+			is AstExpr.BINOP -> {
+				s.writeByte(AstExprOp.BINOP + expr.op.ordinal)
+				writeType(expr.type)
+				writeExpr(expr.left)
+				writeExpr(expr.right)
+			}
+			is AstExpr.UNOP -> {
+				s.writeByte(when (expr.op) {
+					AstUnop.NEG -> AstExprOp.UNOP_NEG
+					AstUnop.NOT -> AstExprOp.UNOP_NOT
+					AstUnop.INV -> AstExprOp.UNOP_INV
+				})
+				writeExpr(expr.right)
+			}
+			is AstExpr.CALL_INSTANCE -> {
+				s.writeByte(AstExprOp.CALL_INSTANCE)
+				writeExpr(expr.obj)
+				writeMethodRef(expr.method)
+				writeList(expr.args) { writeExpr(it) }
+				s.writeBoolean(expr.isSpecial)
+			}
+			is AstExpr.CALL_SUPER -> {
+				s.writeByte(AstExprOp.CALL_SUPER)
+				writeExpr(expr.obj)
+				writeFqname(expr.target)
+				writeMethodRef(expr.method)
+				writeList(expr.args) { writeExpr(it) }
+				s.writeBoolean(expr.isSpecial)
+			}
+			is AstExpr.CALL_STATIC -> {
+				s.writeByte(AstExprOp.CALL_STATIC)
+				writeType(expr.clazz)
+				writeMethodRef(expr.method)
+				writeList(expr.args) { writeExpr(it) }
+				s.writeBoolean(expr.isSpecial)
+			}
+			is AstExpr.ARRAY_LENGTH -> {
+				s.writeByte(AstExprOp.ARRAY_LENGTH)
+				writeExpr(expr.array)
+			}
+			is AstExpr.ARRAY_ACCESS -> {
+				s.writeByte(AstExprOp.ARRAY_ACCESS)
+				writeExpr(expr.array)
+				writeExpr(expr.index)
+			}
+			is AstExpr.FIELD_INSTANCE_ACCESS -> {
+				s.writeByte(AstExprOp.FIELD_INSTANCE_ACCESS)
+				writeFieldRef(expr.field)
+				writeExpr(expr.expr)
+			}
+			is AstExpr.FIELD_STATIC_ACCESS -> {
+				s.writeByte(AstExprOp.FIELD_STATIC_ACCESS)
+				writeFieldRef(expr.field)
+			}
+			is AstExpr.INSTANCE_OF -> {
+				s.writeByte(AstExprOp.INSTANCE_OF)
+				writeExpr(expr.expr)
+				writeType(expr.checkType)
+			}
+			is AstExpr.CAST -> {
+				s.writeByte(AstExprOp.CAST)
+				writeExpr(expr.expr)
+				writeType(expr.to)
+			}
+			is AstExpr.NEW -> {
+				s.writeByte(AstExprOp.NEW)
+				writeType(expr.target)
+			}
+			is AstExpr.NEW_WITH_CONSTRUCTOR -> {
+				s.writeByte(AstExprOp.NEW_WITH_CONSTRUCTOR)
+				writeMethodRef(expr.constructor)
+				writeList(expr.args) { writeExpr(it) }
+			}
+			is AstExpr.NEW_ARRAY -> {
+				s.writeByte(AstExprOp.NEW_ARRAY)
+				writeType(expr.arrayType)
+				writeList(expr.counts) { writeExpr(it) }
+			}
+			is AstExpr.INTARRAY_LITERAL -> {
+				s.writeByte(AstExprOp.INTARRAY_LITERAL)
+				writeList(expr.values) { s.writeInt(it) }
+			}
+			is AstExpr.STRINGARRAY_LITERAL -> {
+				s.writeByte(AstExprOp.STRINGARRAY_LITERAL)
+				writeList(expr.values) { writeString(it) }
+			}
+			is AstExpr.INVOKE_DYNAMIC_METHOD -> {
+				s.writeByte(AstExprOp.INVOKE_DYNAMIC_METHOD)
+				writeMethodRef(expr.methodInInterfaceRef)
+				writeMethodRef(expr.methodToConvertRef)
+				s.writeInt(expr.extraArgCount)
+				writeList(expr.startArgs) { writeExpr(it) }
+			}
+			is AstExpr.TERNARY -> {
+				s.writeByte(AstExprOp.TERNARY)
+				writeExpr(expr.cond)
+				writeExpr(expr.etrue)
+				writeExpr(expr.efalse)
+			}
+			is AstExpr.STRING_SWITCH -> {
+				s.writeByte(AstExprOp.STRING_SWITCH)
+				writeExpr(expr.subject)
+				writeList(expr.cases) {
+					writeString(it.first)
+					s.writeInt(it.second)
+				}
+			}
+			else -> invalidOp("Can't serialize $expr")
+		}
+	}
+
+	fun writeLiteral(value: Any?) {
+		when (value) {
+			null -> s.writeByte(AstExprOp.LIT_REF_NULL)
+			is Boolean -> s.writeByte(if (value) AstExprOp.LIT_BOOL_TRUE else AstExprOp.LIT_BOOL_FALSE)
+			is Byte -> {
+				s.writeByte(AstExprOp.LIT_BYTE)
+				s.writeByte(value.toInt())
+			}
+			is Short -> {
+				s.writeByte(AstExprOp.LIT_SHORT)
+				s.writeShort(value.toInt())
+			}
+			is Char -> {
+				s.writeByte(AstExprOp.LIT_CHAR)
+				s.writeChar(value.toInt())
+			}
+			is Int -> {
 				when (value) {
-					null -> s.i8(AstExprOp.LIT_REF_NULL)
-					is Boolean -> s.i8(if (value) AstExprOp.LIT_BOOL_TRUE else AstExprOp.LIT_BOOL_FALSE)
-					is Byte -> {
-						s.i8(AstExprOp.LIT_BYTE)
-						s.i8(value.toInt())
-					}
-					is Short -> {
-						s.i8(AstExprOp.LIT_SHORT)
-						s.i16(value.toInt())
-					}
-					is Int -> {
-						when (value) {
-							-1 -> s.i8(AstExprOp.LIT_INT_M1)
-							0 -> s.i8(AstExprOp.LIT_INT_0)
-							1 -> s.i8(AstExprOp.LIT_INT_1)
-							2 -> s.i8(AstExprOp.LIT_INT_2)
-							3 -> s.i8(AstExprOp.LIT_INT_3)
-							4 -> s.i8(AstExprOp.LIT_INT_4)
-							5 -> s.i8(AstExprOp.LIT_INT_5)
-							else -> {
-								if (value.toByte().toInt() == value) {
-									s.i8(AstExprOp.LIT_INT_BYTE)
-									s.i8(value)
-								} else if (value.toShort().toInt() == value) {
-									s.i8(AstExprOp.LIT_INT_SHORT)
-									s.i16(value)
-								} else {
-									s.i8(AstExprOp.LIT_INT_INT)
-									s.i32(value)
-								}
-							}
+					-1 -> s.writeByte(AstExprOp.LIT_INT_M1)
+					0 -> s.writeByte(AstExprOp.LIT_INT_0)
+					1 -> s.writeByte(AstExprOp.LIT_INT_1)
+					2 -> s.writeByte(AstExprOp.LIT_INT_2)
+					3 -> s.writeByte(AstExprOp.LIT_INT_3)
+					4 -> s.writeByte(AstExprOp.LIT_INT_4)
+					5 -> s.writeByte(AstExprOp.LIT_INT_5)
+					else -> {
+						if (value.toByte().toInt() == value) {
+							s.writeByte(AstExprOp.LIT_INT_BYTE)
+							s.writeByte(value)
+						} else if (value.toShort().toInt() == value) {
+							s.writeByte(AstExprOp.LIT_INT_SHORT)
+							s.writeShort(value)
+						} else {
+							s.writeByte(AstExprOp.LIT_INT_INT)
+							s.writeInt(value)
 						}
 					}
-					else -> noImpl
 				}
 			}
-			is AstExpr.BINOP -> {
-				when (expr.op) {
-					AstBinop.ADD -> s.i8(AstExprOp.BIN_ADD)
-					AstBinop.SUB -> s.i8(AstExprOp.BIN_SUB)
-					else -> noImpl
-				}
-				writeExpr(expr.left.value, s)
-				writeExpr(expr.right.value, s)
+			is Long -> {
+				s.writeByte(AstExprOp.LIT_LONG)
+				s.writeLong(value)
+			}
+			is Float -> {
+				s.writeByte(AstExprOp.LIT_FLOAT)
+				s.writeInt(java.lang.Float.floatToRawIntBits(value))
+			}
+			is Double -> {
+				s.writeByte(AstExprOp.LIT_DOUBLE)
+				s.writeLong(java.lang.Double.doubleToRawLongBits(value))
+			}
+			is String -> {
+				s.writeByte(AstExprOp.LIT_STRING)
+				writeString(value)
+			}
+			is AstType -> {
+				s.writeByte(AstExprOp.LIT_TYPE)
+				writeType(value)
+			}
+			is AstMethodHandle -> {
+				s.writeByte(AstExprOp.LIT_METHOD_HANDLE)
+				writeType(value.type)
+				writeMethodRef(value.methodRef)
+				s.writeInt(value.kind.id)
+			}
+			else -> invalidOp("Can't serialize literal $value")
+		}
+	}
+
+	fun writeAnnotations(annotations: List<AstAnnotation>) = writeList(annotations) { writeAnnotation(it) }
+
+	fun writeAnnotation(annotation: AstAnnotation) {
+		writeType(annotation.type)
+		s.writeBoolean(annotation.runtimeVisible)
+		writeList(annotation.elements.entries.toList()) {
+			writeString(it.key)
+			writeValue(it.value)
+		}
+	}
+
+	fun writeValue(value: Any?) {
+		when (value) {
+			null -> s.writeByte(AstValueOp.NULL)
+			is Boolean -> {
+				s.writeByte(AstValueOp.BOOL)
+				s.writeBoolean(value)
+			}
+			is Byte -> {
+				s.writeByte(AstValueOp.BYTE)
+				s.writeByte(value.toInt())
+			}
+			is Char -> {
+				s.writeByte(AstValueOp.CHAR)
+				s.writeChar(value.toInt())
+			}
+			is Short -> {
+				s.writeByte(AstValueOp.SHORT)
+				s.writeShort(value.toInt())
+			}
+			is Int -> {
+				s.writeByte(AstValueOp.INT)
+				s.writeInt(value)
+			}
+			is Long -> {
+				s.writeByte(AstValueOp.LONG)
+				s.writeLong(value)
+			}
+			is Float -> {
+				s.writeByte(AstValueOp.FLOAT)
+				s.writeInt(java.lang.Float.floatToRawIntBits(value))
+			}
+			is Double -> {
+				s.writeByte(AstValueOp.DOUBLE)
+				s.writeLong(java.lang.Double.doubleToRawLongBits(value))
+			}
+			is String -> {
+				s.writeByte(AstValueOp.STRING)
+				writeString(value)
+			}
+			is List<*> -> {
+				s.writeByte(AstValueOp.LIST)
+				writeList(value) { writeValue(it) }
+			}
+			is AstAnnotation -> {
+				s.writeByte(AstValueOp.ANNOTATION)
+				writeAnnotation(value)
+			}
+			is AstFieldWithoutTypeRef -> {
+				s.writeByte(AstValueOp.ENUM)
+				writeFqname(value.containingClass)
+				writeString(value.name)
+			}
+			is Type -> {
+				s.writeByte(AstValueOp.ASM_TYPE)
+				writeString(value.descriptor)
 			}
-			else -> noImpl
+			else -> invalidOp("Can't serialize value $value")
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package com.jtransc.backend
 
 import com.jtransc.ast.*
+import com.jtransc.ast.serialization.AstClassCache
 import com.jtransc.backend.asm1.AsmToAstMethodBody1
 import com.jtransc.ds.Concat
 import com.jtransc.ds.cast
@@ -17,16 +18,31 @@ import java.io.IOException
 import java.util.*
 
 @Singleton
-abstract class BaseAsmToAst(val types: AstTypes) : AstClassGenerator {
-	override fun generateClass(program: AstProgram, fqname: FqName): AstClass {
-		val cr = try {
-			ClassReader(program.getClassBytes(fqname))
+abstract class BaseAsmToAst(val types: AstTypes, val cache: AstClassCache) : AstClassGenerator {
+	override fun generateClass(program: AstProgram, fqname: FqName): AstClass = prepareClass(program, fqname)()
+
+	override fun prepareClass(program: AstProgram, fqname: FqName): () -> AstClass {
+		val classBytes = try {
+			program.getClassBytes(fqname)
 		} catch (e: IOException) {
 			invalidOp("Can't find class $fqname")
 		}
-		val classNode = ClassNode()
-		cr.accept(classNode, ClassReader.SKIP_FRAMES)
+		val cacheKey = cache.key(classBytes, this.javaClass.simpleName)
+		val classNode = lazy {
+			val cr = ClassReader(classBytes)
+			ClassNode().apply { cr.accept(this, ClassReader.SKIP_FRAMES) }
+		}
+		// Cached bodies that can't be read are generated again from the class file
+		val cached = cache.get(program, cacheKey) { containingClass, name, signature ->
+			val method = classNode.value.getMethods().firstOrNull { it.name == name && it.astRef(containingClass.ref, types).type.mangle() == signature }
+			if (method != null) generateBody(containingClass, method) else null
+		}
+		if (cached != null) return cached
+
+		return { generateClass(program, classNode.value).apply { cache.storeWhenGenerated(this, cacheKey) } }
+	}
 
+	fun generateClass(program: AstProgram, classNode: ClassNode): AstClass {
 		// SourceFile
 
 		//val cw = ClassWriter(cr, ClassWriter.COMPUTE_MAXS or ClassWriter.COMPUTE_FRAMES);
@@ -63,22 +79,21 @@ abstract class BaseAsmToAst(val types: AstTypes) : AstClassGenerator {
 			defaultTag = AstAnnotationValue(method.annotationDefault, visible = true, types = types),
 			modifiers = mods,
 			types = types,
-			generateBody = {
-				if (mods.isConcrete) {
-					try {
-						genBody(containingClass.ref, method, types, containingClass.source)
-					} catch (e: Throwable) {
-						println("Error trying to generate ${containingClass.name}::${method.name} ${method.desc}")
-						e.printStackTrace()
-						null
-					}
-				} else {
-					null
-				}
-			}
+			generateBody = { generateBody(containingClass, method) }
 		)
 	}
 
+	fun generateBody(containingClass: AstClass, method: MethodNode): AstBody? {
+		if (!AstModifiers(method.access).isConcrete) return null
+		return try {
+			genBody(containingClass.ref, method, types, containingClass.source)
+		} catch (e: Throwable) {
+			println("Error trying to generate ${containingClass.name}::${method.name} ${method.desc}")
+			e.printStackTrace()
+			null
+		}
+	}
+
 	abstract fun genBody(classRef: AstType.REF, methodNode: MethodNode, types: AstTypes, source: String): AstBody
 
 	fun generateField(containingClass: AstClass, field: FieldNode): AstField = AstField(
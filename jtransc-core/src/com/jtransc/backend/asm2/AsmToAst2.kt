@@ -3,13 +3,14 @@ package com.jtransc.backend.asm2
 import com.jtransc.ast.AstBody
 import com.jtransc.ast.AstType
 import com.jtransc.ast.AstTypes
+import com.jtransc.ast.serialization.AstClassCache
 import com.jtransc.backend.asm1.AsmToAstMethodBody1
 import com.jtransc.backend.BaseAsmToAst
 import com.jtransc.injector.Singleton
 import com.jtransc.org.objectweb.asm.tree.MethodNode
 
 @Singleton
-class AsmToAst2(types: AstTypes) : BaseAsmToAst(types) {
+class AsmToAst2(types: AstTypes, cache: AstClassCache) : BaseAsmToAst(types, cache) {
 	override fun genBody(classRef: AstType.REF, methodNode: MethodNode, types: AstTypes, source: String): AstBody {
 		return AsmToAstMethodBody1(classRef, methodNode, types, source)
 	}
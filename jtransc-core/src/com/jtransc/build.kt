@@ -18,10 +18,13 @@ package com.jtransc
 
 import com.jtransc.ast.*
 import com.jtransc.ast.dependency.genStaticInitOrder
+import com.jtransc.ast.optimize.AstDataflowOptimizer
+import com.jtransc.ast.optimize.AstInliner
+import com.jtransc.ast.optimize.AstScalarReplacer
+import com.jtransc.ast.serialization.AstClassCache
 import com.jtransc.ast.treeshaking.TreeShaking
 import com.jtransc.backend.asm1.AsmToAst1
 import com.jtransc.backend.asm2.AsmToAst2
-import com.jtransc.error.InvalidOperationException
 import com.jtransc.error.invalidOp
 import com.jtransc.gen.GenTargetDescriptor
 import com.jtransc.gen.GenTargetSubDescriptor
@@ -155,6 +158,27 @@ class JTranscBuild(
 		for (featureClass in MissingFeatureClasses) AllPluginFeaturesMap[featureClass]!!.onMissing(program, settings, types)
 		for (featureClass in SupportedFeatureClasses) AllPluginFeaturesMap[featureClass]!!.onSupported(program, settings, types)
 
+		// After the program features, so the calls they devirtualize can be inlined too
+		if (settings.extra["inline"] != "false") {
+			val inliner = AstInliner(program)
+			inliner.run()
+			log("Inlined calls: ${inliner.inlinedCalls}")
+		}
+
+		// After inlining, that exposes constant arguments and copies of the parameters
+		val dataflow = if (settings.extra["dataflow"] != "false") AstDataflowOptimizer(program) else null
+		dataflow?.run()
+
+		if (settings.extra["scalarReplace"] != "false") {
+			val replacer = AstScalarReplacer(program)
+			replacer.run()
+			// The fields of the replaced objects are now locals that can be propagated and removed
+			if (dataflow != null) for (body in replacer.replacedBodies) dataflow.optimize(body)
+			log("Scalar replaced allocations: ${replacer.replacedAllocations}")
+		}
+
+		if (dataflow != null) log(dataflow.report())
+
 		genStaticInitOrder(program)
 
 		//val programDced = measureProcess("Simplifying AST") { SimpleDCE(program, programDependencies) }
@@ -166,6 +190,7 @@ class JTranscBuild(
 		val configClassNames: ConfigInitialClasses = injector.get()
 		val configMainClass: ConfigMainClass = injector.get()
 		val generator: AstClassGenerator = injector.get()
+		val classCache: AstClassCache = injector.get()
 		val classNames = configClassNames.initialClasses
 		val mainClass = configMainClass.mainClass
 
@@ -188,33 +213,14 @@ class JTranscBuild(
 		log("Processing classes...")
 
 		val targetName = TargetName(target.name)
+		val loadThreads = settings.extra["loadThreads"]?.toInt() ?: Runtime.getRuntime().availableProcessors()
 
 		val (elapsed) = measureTime {
 			for (plugin in plugins) plugin.onStartBuilding(program)
 
-			while (true) {
-				if (!program.hasClassToGenerate()) {
-					for (plugin in plugins) plugin.onAfterAllClassDiscovered(program)
-
-					if (!program.hasClassToGenerate()) {
-						break;
-					}
-				}
-				val className = program.readClassToGenerate()
-
-				for (plugin in plugins) plugin.onAfterClassDiscovered(className, program)
-
-				val time = measureTime {
-					try {
-						val generatedClass = generator.generateClass(program, className.name)
-						for (ref in References.get(generatedClass, targetName)) program.addReference(ref, className)
-					} catch (e: InvalidOperationException) {
-						System.err.println("ERROR! : " + e.message)
-					}
-				}
-
-				//println("Ok(${time.time})");
-			}
+			AstProgramLoader(program, generator, plugins, loadThreads) { generatedClass ->
+				References.get(generatedClass, targetName).apply { classCache.store(generatedClass) }
+			}.run()
 
 			// Reference default methods
 			for (clazz in program.classes) {
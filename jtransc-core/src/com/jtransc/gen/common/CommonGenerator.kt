@@ -18,6 +18,7 @@ import com.jtransc.gen.MinimizedNames
 import com.jtransc.gen.TargetName
 import com.jtransc.injector.Injector
 import com.jtransc.io.ProcessResult2
+import com.jtransc.log.log
 import com.jtransc.lang.high
 import com.jtransc.lang.low
 import com.jtransc.template.Minitemplate
@@ -29,6 +30,10 @@ import com.jtransc.vfs.MergeVfs
 import com.jtransc.vfs.SyncVfsFile
 import java.io.File
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
 import kotlin.reflect.KMutableProperty1
 
 class ConfigSrcFolder(val srcFolder: SyncVfsFile)
@@ -70,8 +75,30 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	val features = injector.get<AstMethodFeatures>()
 
 	val types: AstTypes = program.types
-	val context = AstGenContext()
-	val refs = References()
+	// State of the class and method being generated. Each thread has its own instance so classes can be
+	// generated in parallel (see genPerClass). Targets with extra per-body state extend GenState.
+	open class GenState {
+		val context = AstGenContext()
+		val refs = References()
+		lateinit var mutableBody: MutableBody
+		lateinit var stm: AstStm
+		lateinit var currentClass: FqName
+		lateinit var currentMethod: AstMethodRef
+		val trapsByStart = hashMapOf<AstLabel, ArrayList<AstTrap>>()
+		val trapsByEnd = hashMapOf<AstLabel, ArrayList<AstTrap>>()
+		// Template params snapshot including CLASS, set by setCurrentClass
+		var params: HashMap<String, Any?>? = null
+	}
+
+	open fun createGenState(): GenState = GenState()
+
+	private val genStates = object : ThreadLocal<GenState>() {
+		override fun initialValue(): GenState = createGenState()
+	}
+
+	val genState: GenState get() = genStates.get()
+	val context: AstGenContext get() = genState.context
+	val refs: References get() = genState.refs
 
 	open fun buildSource(): Unit {
 		val targetFolder = configTargetFolder.targetFolder
@@ -113,7 +140,8 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	open fun writeProgram(output: SyncVfsFile) {
 	}
 
-	val indenterPerClass = hashMapOf<AstClass, Indenter>()
+	// Generated characters per class, filled by writeClassesWithoutAppends
+	val classSizes = hashMapOf<AstClass, Long>()
 
 	open fun genClasses(output: SyncVfsFile): Indenter = Indenter.gen {
 		val concatFilesTrans = copyFiles(output)
@@ -124,13 +152,172 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	}
 
 	open fun genClassesWithoutAppends(output: SyncVfsFile): Indenter = Indenter.gen {
-		for (clazz in sortedClasses) {
-			val indenter = if (clazz.implCode != null) Indenter(clazz.implCode!!) else genClass(clazz)
-			indenterPerClass[clazz] = indenter
-			line(indenter)
+		genPerClass(sortedClasses, { genClassOrImplCode(it) }) { clazz, indenter -> line(indenter) }
+	}
+
+	// Streaming version of genClassesWithoutAppends: each class is serialized as soon as it is generated,
+	// so its Indenter tree can be collected before generating the next one
+	open fun writeClassesWithoutAppends(writer: Indenter.Writer) {
+		val incremental = incrementalChunks
+		if (incremental != null) {
+			writeClassesIncremental(writer, incremental)
+			return
+		}
+		genPerClass(sortedClasses, { genClassOrImplCode(it) }) { clazz, indenter ->
+			val start = writer.length
+			writer.write(indenter)
+			classSizes[clazz] = writer.length - start
 		}
 	}
 
+	// Set by openIncrementalChunks when the "incremental" extra setting is "true"
+	var incrementalChunks: IncrementalChunks? = null
+		private set
+
+	// Loads the classes generated by the previous build from file. Must be called before generating any class.
+	fun openIncrementalChunks(file: SyncVfsFile): IncrementalChunks? {
+		if (settings.extra["incremental"] != "true") return null
+		if (minimize) {
+			log.warn("Incremental builds require minimizeNames to be disabled, building everything")
+			return null
+		}
+		val chunks = IncrementalChunks(file, program, targetName, "${targetName.name}:$settings")
+		chunks.load()
+		for (str in chunks.previousStrings) stringPoolGlobal.alloc(str)
+		incrementalChunks = chunks
+		return chunks
+	}
+
+	private fun writeClassesIncremental(writer: Indenter.Writer, incremental: IncrementalChunks) {
+		genPerClass(sortedClasses, { clazz -> incremental.getOrGenerate(clazz) { genClassOrImplCode(clazz) } }) { clazz, chunk ->
+			val start = writer.length
+			val startLine = writer.line
+			writer.writeRaw(chunk.text)
+			for (mark in chunk.marks) writer.markHandler?.invoke(startLine + mark.line, AstStm.LINE(mark.file, mark.sourceLine))
+			classSizes[clazz] = writer.length - start
+			incremental.add(clazz, chunk)
+		}
+	}
+
+	// Threads used by genPerClass. Can be set with the "genThreads" extra setting
+	val generationThreads: Int = settings.extra["genThreads"]?.toInt() ?: Runtime.getRuntime().availableProcessors()
+
+	// Targets keeping all their per-class and per-method state in GenState can generate classes in parallel
+	open val parallelClassGeneration: Boolean = false
+
+	// Calls generate for every class, on a thread pool when the target supports it, and consume with the results
+	// in the order of classes. Only a window of classes is prepared and generated ahead of consume, to bound memory usage.
+	fun <T> genPerClass(classes: List<AstClass>, generate: (AstClass) -> T, consume: (AstClass, T) -> Unit) {
+		if (!parallelClassGeneration || generationThreads <= 1 || classes.size <= 1) {
+			for (clazz in classes) consume(clazz, generate(clazz))
+			return
+		}
+
+		val pool = ForkJoinPool(generationThreads)
+		try {
+			preallocateNames(classes)
+
+			// Each class first gets the features applied to its bodies, then its strings are allocated in classes
+			// order, and only then it is generated. So generation never allocates a string.
+			val window = generationThreads * 4
+			val preparing = ArrayDeque<Pair<AstClass, Future<List<AstBody>>>>()
+			val generating = ArrayDeque<Pair<AstClass, Future<T>>>()
+			val iterator = classes.iterator()
+			fun prepareNext() {
+				if (iterator.hasNext()) {
+					val clazz = iterator.next()
+					preparing += clazz to pool.submit(Callable { prepareBodies(clazz) })
+				}
+			}
+			fun consumeNext() {
+				val (clazz, future) = generating.removeFirst()
+				consume(clazz, future.await())
+				releaseBodies(clazz)
+			}
+			repeat(window) { prepareNext() }
+			while (preparing.isNotEmpty()) {
+				val (clazz, future) = preparing.removeFirst()
+				allocStrings(clazz, future.await())
+				generating += clazz to pool.submit(Callable { generate(clazz) })
+				if (generating.size >= window) consumeNext()
+				prepareNext()
+			}
+			while (generating.isNotEmpty()) consumeNext()
+		} finally {
+			pool.shutdownNow()
+			synchronized(preparedBodies) { preparedBodies.clear() }
+		}
+	}
+
+	private fun <T> Future<T>.await(): T = try {
+		get()
+	} catch (e: ExecutionException) {
+		throw e.cause ?: e
+	}
+
+	// Names are allocated on first use. Allocating them up front in classes order makes them independent of
+	// which thread reaches a class first. Strings are allocated in the same order by allocStrings.
+	private fun preallocateNames(classes: List<AstClass>) {
+		for (clazz in classes) allocNames(clazz)
+	}
+
+	// Target names are allocated the first time they are read
+	private fun allocNames(clazz: AstClass): List<String> {
+		return listOf(clazz.name.targetName) + clazz.fields.map { it.targetName } + clazz.methods.map { it.targetName }
+	}
+
+	private fun allocStrings(clazz: AstClass, bodies: List<AstBody>) {
+		for (field in clazz.fields) {
+			val value = field.constantValue
+			if (value is String) allocString(clazz.name, value)
+		}
+		val literals = object : AstVisitor() {
+			override fun visit(expr: AstExpr.LITERAL) {
+				super.visit(expr)
+				val value = expr.value
+				if (value is String) allocString(clazz.name, value)
+			}
+
+			override fun visit(expr: AstExpr.LITERAL_REFNAME) {
+				super.visit(expr)
+				allocString(clazz.name, literalRefName(expr.value))
+			}
+		}
+		for (body in bodies) literals.visit(body)
+	}
+
+	// Methods whose bodies genMethod generates for the class. Bodies referenced with bodyRef belong to other classes.
+	private fun bodyMethods(clazz: AstClass): List<AstMethod> {
+		return clazz.methods.map { it.bodyRef?.resolve(program) ?: it }.filter { it.body != null }.distinct()
+	}
+
+	// Bodies with their features applied, for the classes in the genPerClass window, with the number of those
+	// classes using each one. Features are applied once even when several classes share a body.
+	private class PreparedBody(val body: AstBody, var users: Int)
+
+	private val preparedBodies = IdentityHashMap<AstBody, PreparedBody>()
+
+	private fun prepareBodies(clazz: AstClass): List<AstBody> = bodyMethods(clazz).map { method ->
+		val body = method.body!!
+		synchronized(body) {
+			val prepared = synchronized(preparedBodies) { preparedBodies[body]?.apply { users++ } }
+			prepared?.body ?: applyFeatures(method, body).apply {
+				synchronized(preparedBodies) { preparedBodies[body] = PreparedBody(this, 1) }
+			}
+		}
+	}
+
+	private fun releaseBodies(clazz: AstClass) {
+		synchronized(preparedBodies) {
+			for (method in bodyMethods(clazz)) {
+				val prepared = preparedBodies[method.body!!] ?: continue
+				if (--prepared.users == 0) preparedBodies.remove(method.body!!)
+			}
+		}
+	}
+
+	fun genClassOrImplCode(clazz: AstClass): Indenter = if (clazz.implCode != null) Indenter(clazz.implCode!!) else genClass(clazz)
+
 	open fun genClass(clazz: AstClass): Indenter = Indenter.gen {
 		setCurrentClass(clazz)
 
@@ -249,7 +436,7 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	protected fun setCurrentClass(clazz: AstClass) {
 		context.clazz = clazz
 		currentClass = clazz.name
-		params["CLASS"] = clazz.fqname
+		genState.params = HashMap(params).apply { this["CLASS"] = clazz.fqname }
 	}
 
 	protected fun setCurrentMethod(method: AstMethod) {
@@ -294,6 +481,7 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	open fun genExpr2(e: AstExpr): String = when (e) {
 		is AstExpr.THIS -> genExprThis(e)
 		is AstExpr.TERNARY -> genExprTernary(e)
+		is AstExpr.STRING_SWITCH -> genExprStringSwitch(e)
 		is AstExpr.LITERAL -> genExprLiteral(e)
 		is AstExpr.LITERAL_REFNAME -> genExprLiteralRefName(e)
 		is AstExpr.CAST -> genExprCast(e)
@@ -373,8 +561,12 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 
 	fun String.template(type: String = "template"): String = gen(this, context, type)
 
-	lateinit var mutableBody: MutableBody
-	lateinit var stm: AstStm
+	var mutableBody: MutableBody
+		get() = genState.mutableBody
+		set(value) { genState.mutableBody = value }
+	var stm: AstStm
+		get() = genState.stm
+		set(value) { genState.stm = value }
 
 	fun AstExpr.genExpr(): String = genExpr2(this)
 	fun AstExpr.Box.genExpr(): String = genExpr2(this.value)
@@ -451,11 +643,21 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	fun AstBody.genBody(): Indenter = genBody2(this)
 	fun AstBody.genBodyWithFeatures(method: AstMethod): Indenter = genBody2WithFeatures(method, this)
 
-	open fun genBody2WithFeatures(method: AstMethod, body: AstBody): Indenter {
-		if (body.traps.isNotEmpty()) {
-			return features.apply(method, body, methodFeaturesWithTraps, settings, types).genBody()
-		} else {
-			return features.apply(method, body, methodFeatures, settings, types).genBody()
+	open fun genBody2WithFeatures(method: AstMethod, body: AstBody): Indenter = bodyWithFeatures(method, body).genBody()
+
+	// The body prepared by genPerClass, or a new one with the features applied
+	fun bodyWithFeatures(method: AstMethod, body: AstBody): AstBody {
+		return synchronized(preparedBodies) { preparedBodies[body]?.body } ?: applyFeatures(method, body)
+	}
+
+	fun applyFeatures(method: AstMethod, body: AstBody): AstBody {
+		// Bodies referenced with bodyRef can be shared by several methods, so don't transform one from two threads at once
+		return synchronized(body) {
+			if (body.traps.isNotEmpty()) {
+				features.apply(method, body, methodFeaturesWithTraps, settings, types)
+			} else {
+				features.apply(method, body, methodFeatures, settings, types)
+			}
 		}
 	}
 
@@ -468,8 +670,8 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 
 	val allAnnotationTypes = program.allAnnotations.flatMap { it.getAllDescendantAnnotations() }.map { it.type }.distinct().map { program[it.name] }.toSet()
 
-	val trapsByStart = hashMapOf<AstLabel, ArrayList<AstTrap>>()
-	val trapsByEnd = hashMapOf<AstLabel, ArrayList<AstTrap>>()
+	val trapsByStart: HashMap<AstLabel, ArrayList<AstTrap>> get() = genState.trapsByStart
+	val trapsByEnd: HashMap<AstLabel, ArrayList<AstTrap>> get() = genState.trapsByEnd
 
 	open fun genBody2(body: AstBody): Indenter {
 		val method = context.method
@@ -917,6 +1119,8 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 
 	open fun genStmNop(stm: AstStm.NOP) = Indenter.EMPTY
 
+	// Only generated for targets supporting StringSwitchFeature
+	open fun genExprStringSwitch(e: AstExpr.STRING_SWITCH): String = noImpl("Expression $e")
 	open fun genExprTernary(e: AstExpr.TERNARY): String = "((${e.cond.genExpr()}) ? (${e.etrue.genExpr()}) : (${e.efalse.genExpr()}))"
 	open fun genExprThis(e: AstExpr.THIS): String = "this"
 	open fun genExprLiteral(e: AstExpr.LITERAL): String {
@@ -938,14 +1142,13 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 		}
 	}
 
-	open fun genExprLiteralRefName(e: AstExpr.LITERAL_REFNAME): String {
-		val value = e.value
-		return when (value) {
-			is AstType.REF -> value.targetName
-			is AstMethodRef -> value.targetName
-			is AstFieldRef -> value.targetName
-			else -> invalidOp("Unknown AstExpr.LITERAL_REFNAME value type : ${value?.javaClass} : $value")
-		}.escapedConstant
+	open fun genExprLiteralRefName(e: AstExpr.LITERAL_REFNAME): String = literalRefName(e.value).escapedConstant
+
+	fun literalRefName(value: Any?): String = when (value) {
+		is AstType.REF -> value.targetName
+		is AstMethodRef -> value.targetName
+		is AstFieldRef -> value.targetName
+		else -> invalidOp("Unknown AstExpr.LITERAL_REFNAME value type : ${value?.javaClass} : $value")
 	}
 
 	class MutableBody(val method: AstMethod) {
@@ -1347,10 +1550,12 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 		for ((key, value) in map) this.params[key] = value
 	}
 
-	private fun getOrReplaceVar(name: String): String = if (name.startsWith("#")) params[name.substring(1)].toString() else name
+	// Params seen by templates: the ones of the class being generated in this thread, or the global ones
+	val templateParams: HashMap<String, Any?> get() = genState.params ?: params
 
-	private fun evalReference(type: String, desc: String): String {
-		val ref = CommonTagHandler.getRef(program, type, desc, params)
+	private fun getOrReplaceVar(name: String): String = if (name.startsWith("#")) templateParams[name.substring(1)].toString() else name
+
+	private fun evalReference(ref: CommonTagHandler.Result): String {
 		return when (ref) {
 			is CommonTagHandler.SINIT -> buildStaticInit(ref.method.containingClass.name) ?: ""
 			is CommonTagHandler.CONSTRUCTOR -> buildConstructor(ref.method)
@@ -1362,8 +1567,14 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	}
 
 	class ProgramRefNode(val ts: CommonGenerator, val type: String, val desc: String) : Minitemplate.BlockNode {
+		// Parsed templates are cached, so references not depending on #params are only resolved once
+		@Volatile private var resolved: CommonTagHandler.Result? = null
+
 		override fun eval(context: Minitemplate.Context) {
-			context.write(ts.evalReference(type, desc))
+			val ref = resolved ?: CommonTagHandler.getRef(ts.program, type, desc, ts.templateParams).apply {
+				if ('#' !in desc) resolved = this
+			}
+			context.write(ts.evalReference(ref))
 		}
 	}
 
@@ -1379,10 +1590,10 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	)
 
 	override fun gen(template: String): String = gen(template, extra = hashMapOf())
-	fun gen(template: String, extra: HashMap<String, Any?> = hashMapOf()): String = Minitemplate(template, miniConfig).invoke(HashMap(params + extra))
-	fun gen(template: String, process: Boolean): String = if (process) Minitemplate(template, miniConfig).invoke(params) else template
+	fun gen(template: String, extra: HashMap<String, Any?> = hashMapOf()): String = Minitemplate(template, miniConfig).invoke(if (extra.isEmpty()) templateParams else HashMap(templateParams).apply { putAll(extra) })
+	fun gen(template: String, process: Boolean): String = if (process) Minitemplate(template, miniConfig).invoke(templateParams) else template
 	@Suppress("UNUSED_PARAMETER")
-	fun gen(template: String, context: AstGenContext, type: String): String = context.rethrowWithContext { Minitemplate(template, miniConfig).invoke(params) }
+	fun gen(template: String, context: AstGenContext, type: String): String = context.rethrowWithContext { Minitemplate(template, miniConfig).invoke(templateParams) }
 
 	///////////////////////////////////////////////////////////////////////
 	///////////////////////////////////////////////////////////////////////
@@ -1391,8 +1602,8 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	private var minClassLastId: Int = 0
 	private var minMemberLastId: Int = 0
 
-	fun allocClassName(): String = keywords.runUntilNotInSet { MinimizedNames.getTypeNameById(minClassLastId++) }
-	fun allocMemberName(): String = keywords.runUntilNotInSet { MinimizedNames.getIdNameById(minMemberLastId++) }
+	fun allocClassName(): String = synchronized(namesLock) { keywords.runUntilNotInSet { MinimizedNames.getTypeNameById(minClassLastId++) } }
+	fun allocMemberName(): String = synchronized(namesLock) { keywords.runUntilNotInSet { MinimizedNames.getIdNameById(minMemberLastId++) } }
 
 	private fun <T> Set<T>.runUntilNotInSet(callback: () -> T): T {
 		while (true) {
@@ -1401,8 +1612,12 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 		}
 	}
 
-	lateinit var currentClass: FqName
-	lateinit var currentMethod: AstMethodRef
+	var currentClass: FqName
+		get() = genState.currentClass
+		set(value) { genState.currentClass = value }
+	var currentMethod: AstMethodRef
+		get() = genState.currentMethod
+		set(value) { genState.currentMethod = value }
 
 	val perClassNameAllocator = hashMapOf<FqName, PerClassNameAllocator>()
 
@@ -1413,9 +1628,9 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 		val name = "STRINGLIT_$id"
 	}
 
-	fun getClassNameAllocator(clazz: FqName) = perClassNameAllocator.getOrPut(clazz) { PerClassNameAllocator() }
+	fun getClassNameAllocator(clazz: FqName) = synchronized(perClassNameAllocator) { perClassNameAllocator.getOrPut(clazz) { PerClassNameAllocator() } }
 
-	private fun getPerClassStrings(clazz: FqName) = stringPoolPerClass.getOrPut(clazz) { StringPool() }
+	private fun getPerClassStrings(clazz: FqName) = synchronized(stringPoolPerClass) { stringPoolPerClass.getOrPut(clazz) { StringPool() } }
 
 	fun getGlobalStrings(): List<StringInPool> = when (stringPoolType) {
 		StringPool.Type.GLOBAL -> stringPoolGlobal.getAllSorted()
@@ -1439,10 +1654,12 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 
 	val normalizeNameCache = hashMapOf<String, String>()
 
-	open fun normalizeName(name: String): String {
+	open fun normalizeName(name: String): String = synchronized(normalizeNameCache) { _normalizeName(name) }
+
+	private fun _normalizeName(name: String): String {
 		if (name.isNullOrEmpty()) return ""
 		if (name !in normalizeNameCache) {
-			if (name in keywords) return normalizeName("_$name")
+			if (name in keywords) return _normalizeName("_$name")
 			val chars = name.toCharArray()
 			for (i in chars.indices) {
 				var c = chars[i]
@@ -1593,7 +1810,7 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 			// No cache
 			realmethod.nativeName ?: method.name
 		} else {
-			methodNames.getOrPut2(method.objectToCache) {
+			synchronized(namesLock) { methodNames.getOrPut2(method.objectToCache) {
 				if (minimize && !realmethod.keepName) {
 					allocMemberName()
 				} else {
@@ -1608,7 +1825,7 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 						cleanMethodName(name)
 					}
 				}
-			}
+			} }
 		}
 	}
 
@@ -1657,7 +1874,7 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 		return if (static) (clazz + buildAccessName(name, static = true)) else name
 	}
 
-	fun buildConstructor(method: AstMethod): String {
+	open fun buildConstructor(method: AstMethod): String {
 		val clazz = method.containingClass.name.targetName
 		val methodName = method.targetName
 		return "(new $clazz())" + buildAccessName(methodName, static = false)
@@ -1667,6 +1884,8 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 	// Field names
 	//////////////////////////////////////////////////
 
+	// Guards the name caches below and the minimized name counters
+	protected val namesLock = Any()
 	protected val fieldNames = hashMapOf<Any?, String>()
 	protected val methodNames = hashMapOf<Any?, String>()
 	protected val classNames = hashMapOf<Any?, String>()
@@ -1684,7 +1903,7 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 		return if (realclass.isNative) {
 			realfield.nativeName ?: normalizedFieldName
 		} else {
-			fieldNames.getOrPut2(keyToUse) {
+			synchronized(namesLock) { fieldNames.getOrPut2(keyToUse) {
 				if (minimize && !realfield.keepName) {
 					allocMemberName()
 				} else {
@@ -1710,7 +1929,7 @@ open class CommonGenerator(val injector: Injector) : IProgramTemplate {
 					}
 					cachedFieldNames[field] ?: unexpected("Unexpected. Not cached: $field")
 				}
-			}
+			} }
 		}
 	}
 
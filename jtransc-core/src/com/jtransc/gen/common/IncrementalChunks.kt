@@ -0,0 +1,209 @@
+package com.jtransc.gen.common
+
+import com.jtransc.ast.*
+import com.jtransc.ast.serialization.AstClassSerializer
+import com.jtransc.ast.serialization.AstWriter
+import com.jtransc.crypto.digestHex
+import com.jtransc.gen.TargetName
+import com.jtransc.log.log
+import com.jtransc.text.Indenter
+import com.jtransc.vfs.SyncVfsFile
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Code generated for each class in the previous build, stored next to the output file.
+ * A class is only generated again when its AST or the declarations of the classes it depends on changed.
+ * Requires names not to be minimized, since minimized names depend on the set of classes being generated.
+ * Chunks must not include class ids for the same reason, so inserting a class doesn't invalidate the ones after it.
+ * Only code generation is incremental: discovery, tree shaking, the program features and the whole program
+ * optimizations run on every build, since what they do to a class depends on the rest of the program.
+ */
+class IncrementalChunks(val file: SyncVfsFile, val program: AstProgram, val targetName: TargetName, val config: String) {
+	// LINE markers of the chunk, relative to its first line
+	class Mark(val line: Int, val file: String, val sourceLine: Int)
+
+	class Chunk(val key: String?, val text: String, val marks: List<Mark>)
+
+	// Removed once looked up, so the previous text is released as classes are generated
+	private val previousChunks = ConcurrentHashMap<String, Chunk>()
+	// Global string pool of the previous build, in id order. Allocated again first so reused chunks refer to the same ids.
+	val previousStrings = arrayListOf<String>()
+	// Chunks of this build are written to a temporary file as they are added instead of being kept in memory
+	private var chunksFile: File? = null
+	private var chunksStream: DataOutputStream? = null
+	private var chunkCount = 0
+	private val declarationHashes = ConcurrentHashMap<AstClass, ByteArray>()
+	private val reused = AtomicInteger()
+
+	fun load() {
+		val data = file.readOrNull() ?: return
+		try {
+			val s = DataInputStream(ByteArrayInputStream(data))
+			if (s.readInt() != MAGIC || s.readInt() != VERSION || s.readUTF8() != config) return
+			while (s.readBoolean()) {
+				val fqname = s.readUTF8()
+				val key = s.readUTF8()
+				val text = s.readUTF8()
+				val marks = (0 until s.readInt()).map { Mark(s.readInt(), s.readUTF8(), s.readInt()) }
+				previousChunks[fqname] = Chunk(key, text, marks)
+			}
+			for (n in 0 until s.readInt()) previousStrings += s.readPoolString()
+		} catch (e: Throwable) {
+			log.warn("Ignoring invalid $file: ${e.message}")
+			previousStrings.clear()
+			previousChunks.clear()
+		}
+	}
+
+	/**
+	 * Returns the chunk of the previous build when still valid, or renders the one generated by generate.
+	 * Thread-safe, can be called from genPerClass workers.
+	 */
+	fun getOrGenerate(clazz: AstClass, generate: () -> Indenter): Chunk {
+		val key = key(clazz)
+		val previous = previousChunks.remove(clazz.fqname)
+		if (key != null && previous != null && previous.key == key) {
+			reused.incrementAndGet()
+			return previous
+		}
+		val marks = arrayListOf<Mark>()
+		val sb = StringBuilder()
+		Indenter.Writer(sb) { line, data ->
+			if (data is AstStm.LINE) marks += Mark(line, data.file, data.line)
+		}.write(generate())
+		return Chunk(key, sb.toString(), marks)
+	}
+
+	// Called in classes order after writing the chunk
+	fun add(clazz: AstClass, chunk: Chunk) {
+		chunkCount++
+		if (chunk.key == null) return
+		val s = chunksStream ?: openChunksStream()
+		s.writeBoolean(true)
+		s.writeUTF8(clazz.fqname)
+		s.writeUTF8(chunk.key)
+		s.writeUTF8(chunk.text)
+		s.writeInt(chunk.marks.size)
+		for (mark in chunk.marks) {
+			s.writeInt(mark.line)
+			s.writeUTF8(mark.file)
+			s.writeInt(mark.sourceLine)
+		}
+	}
+
+	private fun openChunksStream(): DataOutputStream {
+		val tempFile = File.createTempFile("jtransc-chunks", ".tmp")
+		tempFile.deleteOnExit()
+		val s = DataOutputStream(tempFile.outputStream().buffered())
+		s.writeInt(MAGIC)
+		s.writeInt(VERSION)
+		s.writeUTF8(config)
+		chunksFile = tempFile
+		chunksStream = s
+		return s
+	}
+
+	fun save(strings: List<String>) {
+		log.info("Incremental: reused ${reused.get()} of $chunkCount classes")
+		val s = chunksStream ?: openChunksStream()
+		s.writeBoolean(false)
+		s.writeInt(strings.size)
+		for (str in strings) s.writePoolString(str)
+		s.close()
+		chunksStream = null
+		val tempFile = chunksFile!!
+		try {
+			file.ensureParentDir().writeStream { out -> tempFile.inputStream().use { it.copyTo(out) } }
+		} finally {
+			tempFile.delete()
+			chunksFile = null
+		}
+	}
+
+	// Null when the class can't be reused, like when it has bodies copied from other classes
+	private fun key(clazz: AstClass): String? {
+		if (clazz.methods.any { it.bodyRef != null }) return null
+		return try {
+			val classData = AstClassSerializer.write(clazz) ?: return null
+			val digest = MessageDigest.getInstance("SHA1")
+			digest.update(config.toByteArray(Charsets.UTF_8))
+			for (dependency in dependencies(clazz).sortedBy { it.fqname }) digest.update(declarationHash(dependency))
+			digest.digestHex(classData)
+		} catch (e: Throwable) {
+			null
+		}
+	}
+
+	// Classes whose declarations end in the generated code: the referenced ones and all their ancestors and interfaces
+	private fun dependencies(clazz: AstClass): Set<AstClass> {
+		val out = LinkedHashSet<AstClass>()
+		fun addWithRelated(c: AstClass) {
+			if (out.add(c)) out += c.getAllRelatedTypes()
+		}
+		addWithRelated(clazz)
+		for (ref in References.get(clazz, targetName)) {
+			val c = program.getOrNull(ref.name)
+			if (c != null) addWithRelated(c)
+		}
+		return out
+	}
+
+	private fun declarationHash(clazz: AstClass): ByteArray = declarationHashes.getOrPut(clazz) {
+		MessageDigest.getInstance("SHA1").digest(AstWriter.serialize {
+			writeFqname(clazz.name)
+			s.writeInt(clazz.modifiers.acc)
+			writeStringOrNull(clazz.extending?.fqname)
+			writeList(clazz.implementing) { writeFqname(it) }
+			writeAnnotations(clazz.annotations)
+			writeList(clazz.methods) {
+				writeString(it.name)
+				writeType(it.methodType)
+				s.writeInt(it.modifiers.acc)
+				writeAnnotations(it.annotations)
+			}
+			writeList(clazz.fields) {
+				writeString(it.name)
+				writeString(it.desc)
+				s.writeInt(it.modifiers.acc)
+				writeAnnotations(it.annotations)
+				writeValue(it.constantValue)
+			}
+		})
+	}
+
+	companion object {
+		private const val MAGIC = 0x4A54494E // JTIN
+		private const val VERSION = 2
+
+		private fun DataOutputStream.writeUTF8(str: String) {
+			val bytes = str.toByteArray(Charsets.UTF_8)
+			writeInt(bytes.size)
+			write(bytes)
+		}
+
+		// Pool strings may have unpaired surrogates that don't survive UTF-8
+		private fun DataOutputStream.writePoolString(str: String) {
+			writeInt(str.length)
+			writeChars(str)
+		}
+
+		private fun DataInputStream.readPoolString(): String {
+			val chars = CharArray(readInt())
+			for (n in 0 until chars.size) chars[n] = readChar()
+			return String(chars)
+		}
+
+		private fun DataInputStream.readUTF8(): String {
+			val bytes = ByteArray(readInt())
+			readFully(bytes)
+			return String(bytes, Charsets.UTF_8)
+		}
+	}
+}
@@ -4,7 +4,7 @@ class PerClassNameAllocator {
 	val usedNames = hashSetOf<String>()
 	val allocatedNames = hashMapOf<Any, String>()
 
-	fun allocate(key: Any, requestedName: () -> String): String {
+	@Synchronized fun allocate(key: Any, requestedName: () -> String): String {
 		if (key !in allocatedNames) {
 			var finalName = requestedName()
 			while (finalName in usedNames) finalName += "_"
@@ -0,0 +1,93 @@
+package com.jtransc
+
+import com.jtransc.ast.AstClass
+import com.jtransc.ast.AstClassGenerator
+import com.jtransc.ast.AstProgram
+import com.jtransc.ast.AstType
+import com.jtransc.error.InvalidOperationException
+import com.jtransc.plugin.JTranscPlugin
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Generates every class referenced from the program, following the references of the generated classes.
+ *
+ * The whole discovery frontier is processed at once: classes are parsed on a pool, registered in the program
+ * in discovery order, and then their references are collected on the pool (this generates the method bodies).
+ * Plugins are notified and the references are added in discovery order too, so classes are discovered and get
+ * their ids in the same order as generating them one by one, whatever the number of threads.
+ */
+class AstProgramLoader(
+	val program: AstProgram,
+	val generator: AstClassGenerator,
+	val plugins: List<JTranscPlugin>,
+	val threads: Int,
+	val references: (AstClass) -> List<AstType.REF>
+) {
+	fun run() {
+		val pool = if (threads > 1) ForkJoinPool(threads) else null
+		try {
+			while (true) {
+				if (!program.hasClassToGenerate()) {
+					for (plugin in plugins) plugin.onAfterAllClassDiscovered(program)
+
+					if (!program.hasClassToGenerate()) {
+						break;
+					}
+				}
+
+				val classNames = program.readClassesToGenerate()
+
+				val preparedClasses = pool.mapInOrder(classNames) { className ->
+					try {
+						generator.prepareClass(program, className.name)
+					} catch (e: InvalidOperationException) {
+						System.err.println("ERROR! : " + e.message)
+						null
+					}
+				}
+
+				// Registering classes allocates class, method and field ids so it is kept sequential
+				val generatedClasses = preparedClasses.map { prepared ->
+					try {
+						prepared?.invoke()
+					} catch (e: InvalidOperationException) {
+						System.err.println("ERROR! : " + e.message)
+						null
+					}
+				}
+
+				val classReferences = pool.mapInOrder(generatedClasses) { generatedClass ->
+					try {
+						if (generatedClass != null) references(generatedClass) else listOf()
+					} catch (e: InvalidOperationException) {
+						System.err.println("ERROR! : " + e.message)
+						listOf<AstType.REF>()
+					}
+				}
+
+				// References added by the plugins for a class go before the references of that class, like when
+				// the plugins were called before generating each class
+				for ((className, refs) in classNames.zip(classReferences)) {
+					for (plugin in plugins) plugin.onAfterClassDiscovered(className, program)
+					for (ref in refs) program.addReference(ref, className)
+				}
+			}
+		} finally {
+			pool?.shutdown()
+		}
+	}
+
+	// Maps items on the pool (or on the current thread without one) keeping the order of items
+	private fun <T, R> ForkJoinPool?.mapInOrder(items: List<T>, transform: (T) -> R): List<R> {
+		if (this == null || items.size <= 1) return items.map(transform)
+		return items.map { item -> this.submit(Callable { transform(item) }) }.map { future ->
+			try {
+				future.get()
+			} catch (e: ExecutionException) {
+				throw e.cause ?: e
+			}
+		}
+	}
+}
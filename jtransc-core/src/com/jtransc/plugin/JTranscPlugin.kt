@@ -12,6 +12,8 @@ abstract class JTranscPlugin {
 	open fun onAfterAllClassDiscovered(program: AstProgram): Unit {
 	}
 
+	// Called once per class in discovery order, after the classes discovered with it have been generated and
+	// right before its references are added to the program
 	open fun onAfterClassDiscovered(clazz: AstType.REF, program: AstProgram): Unit {
 	}
 
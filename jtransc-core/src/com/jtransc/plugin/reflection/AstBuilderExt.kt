@@ -2,9 +2,9 @@ package com.jtransc.plugin.reflection
 
 import com.jtransc.ast.*
 
-fun AstProgram.createClass(name: FqName, parent: FqName? = "java.lang.Object".fqname, interfaces: List<FqName> = listOf(), gen: AstClass.() -> Unit = { }): AstClass {
+fun AstProgram.createClass(name: FqName, parent: FqName? = "java.lang.Object".fqname, interfaces: List<FqName> = listOf(), modifiers: AstModifiers = AstModifiers.withFlags(AstModifiers.ACC_PUBLIC), gen: AstClass.() -> Unit = { }): AstClass {
 	val program = this
-	val clazz = AstClass("source", program, name, AstModifiers.withFlags(AstModifiers.ACC_PUBLIC), parent, interfaces)
+	val clazz = AstClass("source", program, name, modifiers, parent, interfaces)
 	clazz.gen()
 	program.add(clazz)
 	return clazz
@@ -14,14 +14,14 @@ fun AstClass.hasMethod(name: String, desc: AstType.METHOD): Boolean {
 	return this.getMethod(name, desc.desc) != null
 }
 
-fun AstClass.createMethod(name: String, desc: AstType.METHOD, isStatic: Boolean = false, body: AstBuilder2.(args: List<AstArgument>) -> Unit = { RETURN() }): AstMethod {
+fun AstClass.createMethod(name: String, desc: AstType.METHOD, isStatic: Boolean = false, annotations: List<AstAnnotation> = listOf(), body: AstBuilder2.(args: List<AstArgument>) -> Unit = { RETURN() }): AstMethod {
 	val clazz = this
 	val types: AstTypes = this.program.types
 	val method = AstMethod(
 		containingClass = clazz,
 		name = name,
 		methodType = desc,
-		annotations = listOf(),
+		annotations = annotations,
 		parameterAnnotations = listOf(),
 		modifiers = AstModifiers(AstModifiers.ACC_PUBLIC or if (isStatic) AstModifiers.ACC_STATIC else 0),
 		generateBody = { AstBody(types, AstBuilder2(types).apply { body(desc.args) }.genstm(), desc) },
@@ -308,56 +308,87 @@ class MetaReflectionJTranscPlugin : JTranscPlugin() {
 		}
 
 
-		// @TODO: We should create a submethod per class to avoid calling ::SI (static initialization) for all the classes
-		ProgramReflectionClass.getMethodWithoutOverrides(ProgramReflection::dynamicInvoke.name)?.replaceBodyOptBuild {
-			val (classId, methodId, obj, args) = it
-
-			SWITCH(methodId.expr) {
-				for (method in visibleClasses.flatMap { it.methodsWithoutConstructors.filter { it.mustReflect() } }.sortedBy { it.id }) {
-					val params = method.methodType.args.map {
-						cast(AstExpr.ARRAY_ACCESS(args.expr, it.index.lit), it.type)
-					}
-
-					val callExprUncasted = if (method.isStatic) {
-						AstExpr.CALL_STATIC(method.containingClass.ref, method.ref, params)
-					} else {
-						AstExpr.CALL_INSTANCE(obj.expr.castTo(method.containingClass.ref), method.ref, params)
+		/**
+		 * Replaces the body of the ProgramReflection method [name] with a switch on its classId argument, calling a
+		 * method created per class that switches on the member id (the second argument) of that class.
+		 * Dense switches on ids are jump tables in the targets, and each per class method only references its own class,
+		 * so a reflective access only triggers the static initialization of the class being accessed.
+		 */
+		fun <T : AstMember> genPerClassDispatch(name: String, members: List<T>, memberId: (T) -> Int, genCase: AstBuilder2.(member: T, args: List<AstArgument>) -> Unit) {
+			val method = ProgramReflectionClass.getMethodWithoutOverrides(name) ?: return
+			val methodType = method.methodType
+			fun AstBuilder2.genDefault() = if (methodType.retVoid) RETURN() else RETURN(NULL)
+
+			val dispatchers = members.groupBy { it.containingClass }.toList().sortedBy { it.first.classId }.map {
+				val (clazz, classMembers) = it
+				val dispatcher = ProgramReflectionClass.createMethod("$name\$${clazz.classId}", methodType, isStatic = true)
+				dispatcher.extraVisible = false
+				dispatcher.replaceBodyOptBuild { args ->
+					SWITCH(args[1].expr) {
+						for (member in classMembers.sortedBy(memberId)) {
+							CASE(memberId(member)) { genCase(member, args) }
+						}
 					}
+					genDefault()
+				}
+				clazz to dispatcher
+			}
 
-					CASE(method.id) {
-						if (method.methodType.retVoid) {
-							STM(callExprUncasted)
-							RETURN(NULL)
-						} else {
-							//LOGSTR("dynamicInvoke: $methodId".lit),
-							RETURN(callExprUncasted.castTo(OBJECT))
+			method.replaceBodyOptBuild { args ->
+				SWITCH(args[0].expr) {
+					for ((clazz, dispatcher) in dispatchers) {
+						CASE(clazz.classId) {
+							val call = AstExpr.CALL_STATIC(ProgramReflectionClass.ref, dispatcher.ref, args.map { it.expr })
+							if (methodType.retVoid) {
+								STM(call)
+								RETURN()
+							} else {
+								RETURN(call)
+							}
 						}
 					}
 				}
+				genDefault()
 			}
-
-			RETURN(NULL)
 		}
 
-		// @TODO: We should create a submethod per class to avoid calling ::SI (static initialization) for all the classes
-		ProgramReflectionClass.getMethodWithoutOverrides(ProgramReflection::dynamicNew.name)?.replaceBodyOptBuild {
-			val (classId, methodId, args) = it
+		genPerClassDispatch(
+			ProgramReflection::dynamicInvoke.name,
+			visibleClasses.flatMap { it.methodsWithoutConstructors.filter { it.mustReflect() } },
+			{ it.id }
+		) { method, args ->
+			val (classId, methodId, obj, params) = args
 
-			SWITCH(methodId.expr) {
-				for (constructor in visibleClasses.filter { !it.isAbstract && !it.isInterface }.flatMap { it.constructors.filter { it.mustReflect() } }.sortedBy { it.id }) {
-					CASE(constructor.id) {
-						val params = constructor.methodType.args.map {
-							cast(AstExpr.ARRAY_ACCESS(args.expr, it.index.lit), it.type)
-						}
+			val callArgs = method.methodType.args.map {
+				cast(AstExpr.ARRAY_ACCESS(params.expr, it.index.lit), it.type)
+			}
 
-						val callExprUncasted = AstExpr.NEW_WITH_CONSTRUCTOR(constructor.ref, params)
+			val callExprUncasted = if (method.isStatic) {
+				AstExpr.CALL_STATIC(method.containingClass.ref, method.ref, callArgs)
+			} else {
+				AstExpr.CALL_INSTANCE(obj.expr.castTo(method.containingClass.ref), method.ref, callArgs)
+			}
 
-						RETURN(callExprUncasted.castTo(OBJECT))
-					}
-				}
+			if (method.methodType.retVoid) {
+				STM(callExprUncasted)
+				RETURN(NULL)
+			} else {
+				RETURN(callExprUncasted.castTo(OBJECT))
 			}
+		}
 
-			RETURN(NULL)
+		genPerClassDispatch(
+			ProgramReflection::dynamicNew.name,
+			visibleClasses.filter { !it.isAbstract && !it.isInterface }.flatMap { it.constructors.filter { it.mustReflect() } },
+			{ it.id }
+		) { constructor, args ->
+			val (classId, constructorId, params) = args
+
+			val callArgs = constructor.methodType.args.map {
+				cast(AstExpr.ARRAY_ACCESS(params.expr, it.index.lit), it.type)
+			}
+
+			RETURN(AstExpr.NEW_WITH_CONSTRUCTOR(constructor.ref, callArgs).castTo(OBJECT))
 		}
 
 		// Member information (constructors, methods and fields)
@@ -437,44 +468,37 @@ class MetaReflectionJTranscPlugin : JTranscPlugin() {
 			}
 
 			// ProgramReflectionClass.dynamicGet
-			ProgramReflectionClass.getMethodWithoutOverrides(ProgramReflection::dynamicGet.name)?.replaceBodyOptBuild {
-				val (classId, fieldId, objParam) = it
-
-				SWITCH(fieldId.expr) {
-					for (field in visibleClasses.flatMap { it.fields.filter { it.mustReflect() } }.sortedBy { it.id }) {
-						val expr = if (field.isStatic) {
-							AstExpr.FIELD_STATIC_ACCESS(field.ref)
-						} else {
-							AstExpr.FIELD_INSTANCE_ACCESS(field.ref, objParam.expr.castTo(field.containingClass.astType))
-						}
-
-						CASE(field.id) {
-							RETURN(expr.castTo(OBJECT))
-						}
-					}
+			genPerClassDispatch(
+				ProgramReflection::dynamicGet.name,
+				visibleClasses.flatMap { it.fields.filter { it.mustReflect() } },
+				{ it.id }
+			) { field, args ->
+				val (classId, fieldId, objParam) = args
+
+				val expr = if (field.isStatic) {
+					AstExpr.FIELD_STATIC_ACCESS(field.ref)
+				} else {
+					AstExpr.FIELD_INSTANCE_ACCESS(field.ref, objParam.expr.castTo(field.containingClass.astType))
 				}
 
-				RETURN(NULL)
+				RETURN(expr.castTo(OBJECT))
 			}
 
 			// ProgramReflectionClass.dynamicSet
-			ProgramReflectionClass.getMethodWithoutOverrides(ProgramReflection::dynamicSet.name)?.replaceBodyOptBuild {
-				val (classIdParam, fieldIdParam, objParam, valueParam) = it
-
-				SWITCH(fieldIdParam.expr) {
-					for (field in visibleClasses.flatMap { it.fields.filter { it.mustReflect() } }.sortedBy { it.id }) {
-						val expr = AstExpr.CAST(valueParam.expr, field.type)
-
-						CASE(field.id) {
-							if (field.isStatic) {
-								STM(AstStm.SET_FIELD_STATIC(field.ref, expr))
-							} else {
-								STM(AstStm.SET_FIELD_INSTANCE(field.ref, objParam.expr.castTo(field.containingClass.astType), expr))
-							}
-						}
-					}
+			genPerClassDispatch(
+				ProgramReflection::dynamicSet.name,
+				visibleClasses.flatMap { it.fields.filter { it.mustReflect() } },
+				{ it.id }
+			) { field, args ->
+				val (classIdParam, fieldIdParam, objParam, valueParam) = args
+
+				val expr = AstExpr.CAST(valueParam.expr, field.type)
+
+				if (field.isStatic) {
+					STM(AstStm.SET_FIELD_STATIC(field.ref, expr))
+				} else {
+					STM(AstStm.SET_FIELD_INSTANCE(field.ref, objParam.expr.castTo(field.containingClass.astType), expr))
 				}
-
 				RETURN()
 			}
 		}
@@ -0,0 +1,87 @@
+import com.jtransc.ast.*
+import com.jtransc.ast.optimize.AstCheckElimination
+import com.jtransc.ast.optimize.AstOptimizer
+import org.junit.Assert
+import org.junit.Test
+
+class CheckEliminationTest {
+	val types = AstTypes()
+	val program = testProgram(types)
+
+	val a = AstLocal(0, "a", AstType.ARRAY(AstType.INT))
+	val b = AstLocal(1, "b", AstType.ARRAY(AstType.INT))
+	val i = AstLocal(2, "i", AstType.INT)
+	val n = AstLocal(3, "n", AstType.INT)
+
+	// i = start; loop: if (!cond) goto end; before(); a[i] = 0; i = i + 1; goto loop; end: return
+	fun loop(start: Int, cond: AstBuilder2.() -> AstExpr, before: AstBuilder2.() -> Unit = {}, init: AstBuilder2.() -> Unit = {}): AstStm.SET_ARRAY {
+		val loop = AstLabel("loop")
+		val end = AstLabel("end")
+		val body = types.build2 {
+			init()
+			SET(i, start.lit)
+			STM(AstStm.STM_LABEL(loop))
+			STM(AstStm.IF_GOTO(end, cond().not()))
+			before()
+			SET_ARRAY(a, i.expr, 0.lit)
+			SET(i, i.expr + 1.lit)
+			STM(AstStm.GOTO(loop))
+			STM(AstStm.STM_LABEL(end))
+			RETURN()
+			AstBody(types, genstm(), AstType.METHOD(AstType.VOID, listOf()))
+		}
+		AstCheckElimination(program).analyze(body)
+		return (body.stm as AstStm.STMS).stms.map { it.value }.filterIsInstance<AstStm.SET_ARRAY>().single()
+	}
+
+	fun lt(l: AstExpr, r: AstExpr) = AstExpr.BINOP(AstType.BOOL, l, AstBinop.LT, r)
+
+	@Test fun testLoopBelowLength() {
+		Assert.assertTrue(loop(0, { lt(i.expr, AstExpr.ARRAY_LENGTH(a.expr)) }).inBounds)
+	}
+
+	@Test fun testLoopBelowLengthLocal() {
+		Assert.assertTrue(loop(0, { lt(i.expr, n.expr) }, init = { SET(n, AstExpr.ARRAY_LENGTH(a.expr)) }).inBounds)
+	}
+
+	@Test fun testLoopNewArray() {
+		val access = loop(0, { lt(i.expr, 10.lit) }, init = { SET(a, NEW_ARRAY(ARRAY(INT), 10.lit)) })
+		Assert.assertTrue(access.inBounds)
+		Assert.assertTrue(access.notNull)
+	}
+
+	@Test fun testLoopOffByOne() {
+		Assert.assertFalse(loop(0, { i.expr le AstExpr.ARRAY_LENGTH(a.expr) }).inBounds)
+		Assert.assertFalse(loop(0, { lt(i.expr, 11.lit) }, init = { SET(a, NEW_ARRAY(ARRAY(INT), 10.lit)) }).inBounds)
+	}
+
+	@Test fun testLoopArrayReassigned() {
+		Assert.assertFalse(loop(0, { lt(i.expr, AstExpr.ARRAY_LENGTH(a.expr)) }, before = { SET(a, b.expr) }).inBounds)
+	}
+
+	@Test fun testLoopNegativeStart() {
+		Assert.assertFalse(loop(-1, { lt(i.expr, AstExpr.ARRAY_LENGTH(a.expr)) }).inBounds)
+	}
+
+	// a.length; a[0] = 0: the length read proves a not null only while it is still in the body
+	fun derefThenStore(optimize: Boolean): AstStm.SET_ARRAY {
+		val body = types.build2 {
+			STM(AstStm.STM_EXPR(AstExpr.ARRAY_LENGTH(a.expr)))
+			SET_ARRAY(a, 0.lit, 0.lit)
+			RETURN()
+			AstBody(types, genstm(), AstType.METHOD(AstType.VOID, listOf()))
+		}
+		if (optimize) AstOptimizer(AstBodyFlags(false, types)).visit(body)
+		AstCheckElimination(program).analyze(body)
+		return (body.stm as AstStm.STMS).stms.map { it.value }.filterIsInstance<AstStm.SET_ARRAY>().single()
+	}
+
+	@Test fun testPreviousDereference() {
+		Assert.assertTrue(derefThenStore(optimize = false).notNull)
+	}
+
+	@Test fun testRemovedDereference() {
+		// The optimizer removes the pure length read, so nothing proves a not null anymore
+		Assert.assertFalse(derefThenStore(optimize = true).notNull)
+	}
+}
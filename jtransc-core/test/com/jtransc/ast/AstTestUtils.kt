@@ -0,0 +1,32 @@
+package com.jtransc.ast
+
+import com.jtransc.ConfigEntryPoint
+import com.jtransc.ConfigResourcesVfs
+import com.jtransc.injector.Injector
+import com.jtransc.plugin.reflection.createClass
+import com.jtransc.plugin.reflection.createMethod
+import com.jtransc.vfs.MemoryVfs
+
+// Fixtures shared by the AST tests
+
+// An empty program with a Test entry point and no class path
+fun testProgram(types: AstTypes) = AstProgram(ConfigResourcesVfs(MemoryVfs()), ConfigEntryPoint("Test".fqname), types, Injector())
+
+// A static method Test.test, for the method features that need the method of the body they transform
+fun AstProgram.testMethod(type: AstType.METHOD = AstType.METHOD(AstType.INT, listOf())): AstMethod {
+	return createClass("Test".fqname) { createMethod("test", type, isStatic = true) }.methods.first()
+}
+
+// Number of statements of the given class in stm, nested ones included
+fun AstStm.count(clazz: Class<out AstStm>): Int {
+	var count = 0
+	object : AstVisitor() {
+		override fun visit(stm: AstStm?) {
+			if (stm != null && clazz.isInstance(stm)) count++
+			super.visit(stm)
+		}
+	}.visit(this)
+	return count
+}
+
+fun AstStm.contains(clazz: Class<out AstStm>): Boolean = count(clazz) > 0
@@ -1,6 +1,7 @@
 package com.jtransc.graph
 
 import com.jtransc.ast.*
+import com.jtransc.ast.feature.method.GotosFeature
 import com.jtransc.ast.optimize.optimize
 import com.jtransc.ast.dump
 import org.junit.Assert
@@ -67,4 +68,190 @@ class RelooperTest {
 		//Assert.assertEquals("{ a = 1; if ((a == 1)) { b = 1; } else { c = 1; } d = 1; }", dump(relooper.render(A)).toString(doIndent = false).trim())
 	}
 	*/
-}
\ No newline at end of file
+
+	val program = testProgram(types)
+	val method = program.testMethod()
+
+	val a = AstLocal(0, "a", AstType.INT)
+	val x = AstLocal(1, "x", AstType.INT)
+	val e = AstLocal(2, "e", AstType.THROWABLE)
+
+	fun structureTraps(traps: List<AstTrap>, callback: AstBuilder2.() -> Unit): AstBody {
+		val body = types.build2 {
+			callback()
+			AstBody(types, genstm(), AstType.METHOD(AstType.INT, listOf()))
+		}
+		return GotosFeature().remove(method, body.copy(traps = traps), AstBuildSettings(relooper = true), types)
+	}
+
+	fun assertStructured(body: AstBody, tryCatches: Int, whiles: Int) {
+		Assert.assertEquals(tryCatches, body.stm.count(AstStm.TRY_CATCH::class.java))
+		Assert.assertEquals(whiles, body.stm.count(AstStm.WHILE::class.java))
+		Assert.assertEquals(0, body.stm.count(AstStm.STM_LABEL::class.java))
+		Assert.assertEquals(0, body.stm.count(AstStm.GOTO::class.java) + body.stm.count(AstStm.IF_GOTO::class.java))
+		Assert.assertTrue(body.locals.any { it.name == "TR" })
+		Assert.assertTrue(body.locals.none { it.name == "G" })
+	}
+
+	// start: a = 10 / x; if (a == 0) goto end; a = a + 1; end: return a; handler: return -1
+	@Test fun testStructureTraps() {
+		val start = AstLabel("start")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val body = structureTraps(listOf(AstTrap(start, end, handler, AstType.THROWABLE))) {
+			STM(AstStm.STM_LABEL(start))
+			SET(a, AstExpr.BINOP(AstType.INT, 10.lit, AstBinop.DIV, x.expr))
+			STM(AstStm.IF_GOTO(end, AstExpr.BINOP(AstType.BOOL, a.expr, AstBinop.EQ, 0.lit)))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.ADD, 1.lit))
+			STM(AstStm.STM_LABEL(end))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN((-1).lit)
+		}
+		assertStructured(body, tryCatches = 1, whiles = 0)
+	}
+
+	// outerStart: a = 10 / x; innerStart: a = a / x; innerEnd: a = a + 1; outerEnd: return a; handler: return -1
+	@Test fun testStructureTrapsNestedRanges() {
+		val outerStart = AstLabel("outerStart")
+		val innerStart = AstLabel("innerStart")
+		val innerEnd = AstLabel("innerEnd")
+		val outerEnd = AstLabel("outerEnd")
+		val handler = AstLabel("handler")
+		val body = structureTraps(listOf(
+			AstTrap(innerStart, innerEnd, handler, AstType.THROWABLE),
+			AstTrap(outerStart, outerEnd, handler, AstType.THROWABLE)
+		)) {
+			STM(AstStm.STM_LABEL(outerStart))
+			SET(a, AstExpr.BINOP(AstType.INT, 10.lit, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(innerStart))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(innerEnd))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.ADD, 1.lit))
+			STM(AstStm.STM_LABEL(outerEnd))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN((-1).lit)
+		}
+		assertStructured(body, tryCatches = 2, whiles = 0)
+	}
+
+	// Ranges crossing each other are split where they cross
+	// firstStart: a = 10 / x; secondStart: a = a / x; firstEnd: a = a + 1; secondEnd: return a; handler: return -1
+	@Test fun testStructureTrapsCrossingRanges() {
+		val firstStart = AstLabel("firstStart")
+		val secondStart = AstLabel("secondStart")
+		val firstEnd = AstLabel("firstEnd")
+		val secondEnd = AstLabel("secondEnd")
+		val handler = AstLabel("handler")
+		val body = structureTraps(listOf(
+			AstTrap(firstStart, firstEnd, handler, AstType.THROWABLE),
+			AstTrap(secondStart, secondEnd, handler, AstType.THROWABLE)
+		)) {
+			STM(AstStm.STM_LABEL(firstStart))
+			SET(a, AstExpr.BINOP(AstType.INT, 10.lit, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(secondStart))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(firstEnd))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.ADD, 1.lit))
+			STM(AstStm.STM_LABEL(secondEnd))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN((-1).lit)
+		}
+		// [firstStart, secondStart), [secondStart, firstEnd) with both traps, and [firstEnd, secondEnd)
+		assertStructured(body, tryCatches = 3, whiles = 0)
+	}
+
+	// What javac emits for synchronized blocks: the handler releases the monitor and rethrows, and it is covered
+	// by a trap of its own that runs it again
+	// start: a = 10 / x; end: return a; handler: e = caught; a = 0; handlerEnd: throw e
+	@Test fun testStructureTrapsSynchronizedHandler() {
+		val start = AstLabel("start")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val handlerEnd = AstLabel("handlerEnd")
+		val body = structureTraps(listOf(
+			AstTrap(start, end, handler, AstType.THROWABLE),
+			AstTrap(handler, handlerEnd, handler, AstType.THROWABLE)
+		)) {
+			STM(AstStm.STM_LABEL(start))
+			SET(a, AstExpr.BINOP(AstType.INT, 10.lit, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(end))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			SET(e, AstExpr.CAUGHT_EXCEPTION(AstType.THROWABLE))
+			SET(a, 0.lit)
+			STM(AstStm.STM_LABEL(handlerEnd))
+			STM(AstStm.THROW(e.expr))
+		}
+		// The handler range retries in a while of its own
+		assertStructured(body, tryCatches = 2, whiles = 1)
+		Assert.assertEquals(1, body.stm.count(AstStm.CONTINUE::class.java))
+	}
+
+	// The relooper doesn't handle cycles, so a loop inside a try block becomes a state machine inside the try/catch
+	// start: loop: a = a / x; if (a != 0) goto loop; end: return a; handler: return -1
+	@Test fun testStructureTrapsLoopInRange() {
+		val start = AstLabel("start")
+		val loop = AstLabel("loop")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val body = structureTraps(listOf(AstTrap(start, end, handler, AstType.THROWABLE))) {
+			STM(AstStm.STM_LABEL(start))
+			STM(AstStm.STM_LABEL(loop))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.DIV, x.expr))
+			STM(AstStm.IF_GOTO(loop, AstExpr.BINOP(AstType.BOOL, a.expr, AstBinop.NE, 0.lit)))
+			STM(AstStm.STM_LABEL(end))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN((-1).lit)
+		}
+		assertStructured(body, tryCatches = 1, whiles = 1)
+		Assert.assertTrue(body.locals.any { it.name == "TG" })
+	}
+
+	// A loop around a try block keeps the try/catch, and only the loop uses the state machine, that doesn't check traps
+	// loop: start: a = a / x; end: if (a != 0) goto loop; return a; handler: return -1
+	@Test fun testStructureTrapsLoopAroundRange() {
+		val loop = AstLabel("loop")
+		val start = AstLabel("start")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val body = structureTraps(listOf(AstTrap(start, end, handler, AstType.THROWABLE))) {
+			STM(AstStm.STM_LABEL(loop))
+			STM(AstStm.STM_LABEL(start))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(end))
+			STM(AstStm.IF_GOTO(loop, AstExpr.BINOP(AstType.BOOL, a.expr, AstBinop.NE, 0.lit)))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN((-1).lit)
+		}
+		Assert.assertEquals(1, body.stm.count(AstStm.TRY_CATCH::class.java))
+		Assert.assertTrue(body.locals.any { it.name == "TR" })
+		Assert.assertTrue(body.locals.any { it.name == "G" })
+	}
+
+	// Entering a range other than through its start label keeps the state machine for the whole method
+	// if (x == 0) goto middle; start: a = 10 / x; middle: a = a + 1; end: return a; handler: return -1
+	@Test fun testStructureTrapsJumpIntoRangeUsesStateMachine() {
+		val start = AstLabel("start")
+		val middle = AstLabel("middle")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val body = structureTraps(listOf(AstTrap(start, end, handler, AstType.THROWABLE))) {
+			STM(AstStm.IF_GOTO(middle, AstExpr.BINOP(AstType.BOOL, x.expr, AstBinop.EQ, 0.lit)))
+			STM(AstStm.STM_LABEL(start))
+			SET(a, AstExpr.BINOP(AstType.INT, 10.lit, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(middle))
+			SET(a, AstExpr.BINOP(AstType.INT, a.expr, AstBinop.ADD, 1.lit))
+			STM(AstStm.STM_LABEL(end))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN((-1).lit)
+		}
+		Assert.assertTrue(body.locals.none { it.name == "TR" })
+		Assert.assertTrue(body.locals.any { it.name == "G" })
+	}
+}
@@ -0,0 +1,114 @@
+import com.jtransc.ast.*
+import com.jtransc.ast.optimize.AstDataflowOptimizer
+import org.junit.Assert
+import org.junit.Test
+
+class DataflowOptimizerTest {
+	val types = AstTypes()
+	val program = testProgram(types)
+
+	val a = AstLocal(0, "a", AstType.INT)
+	val b = AstLocal(1, "b", AstType.INT)
+	val c = AstLocal(2, "c", AstType.INT)
+	val i = AstLocal(3, "i", AstType.INT)
+	val x = AstLocal(4, "x", AstType.INT)
+	val y = AstLocal(5, "y", AstType.INT)
+
+	val elseLabel = AstLabel("else")
+	val join = AstLabel("join")
+
+	fun body(callback: AstBuilder2.() -> Unit): AstBody = types.build2 {
+		callback()
+		AstBody(types, genstm(), AstType.METHOD(AstType.INT, listOf()))
+	}
+
+	fun lines(body: AstBody) = dump(body.stm).toString().lines().map { it.trim() }.filter { it != "" && it != "{" && it != "}" }
+
+	fun optimize(body: AstBody): List<String> {
+		AstDataflowOptimizer(program).optimize(body)
+		return lines(body)
+	}
+
+	fun binop(l: AstExpr, op: AstBinop, r: AstExpr) = AstExpr.BINOP(AstType.INT, l, op, r)
+
+	// a = 1; c = x; if (x == 0) goto else; b = a; goto join; else: b = <other>; join: return (b + a) + c
+	fun branches(other: AstBuilder2.() -> AstExpr) = body {
+		SET(a, 1.lit)
+		SET(c, x.expr)
+		STM(AstStm.IF_GOTO(elseLabel, AstExpr.BINOP(AstType.BOOL, x.expr, AstBinop.EQ, 0.lit)))
+		SET(b, a.expr)
+		STM(AstStm.GOTO(join))
+		STM(AstStm.STM_LABEL(elseLabel))
+		SET(b, other())
+		STM(AstStm.STM_LABEL(join))
+		RETURN(binop(binop(b.expr, AstBinop.ADD, a.expr), AstBinop.ADD, c.expr))
+	}
+
+	@Test fun testPropagationAcrossBranches() {
+		Assert.assertEquals("return (2 + x);", optimize(branches { 1.lit }).last())
+	}
+
+	@Test fun testNoPropagationOfDifferentValuesAcrossBranches() {
+		Assert.assertEquals("return ((b + 1) + x);", optimize(branches { 2.lit }).last())
+	}
+
+	@Test fun testConstantBranchFolded() {
+		val out = optimize(body {
+			SET(a, 0.lit)
+			STM(AstStm.IF_GOTO(elseLabel, AstExpr.BINOP(AstType.BOOL, a.expr, AstBinop.EQ, 0.lit)))
+			RETURN(1.lit)
+			STM(AstStm.STM_LABEL(elseLabel))
+			RETURN(2.lit)
+		})
+		Assert.assertEquals(listOf("goto else;", ":else", "return 2;"), out)
+	}
+
+	// i = 0; loop: if (i >= 10) goto end; i = i + 1; goto loop; end: return i
+	@Test fun testNoPropagationPastReassignmentInLoop() {
+		val loop = AstLabel("loop")
+		val end = AstLabel("end")
+		val out = optimize(body {
+			SET(i, 0.lit)
+			STM(AstStm.STM_LABEL(loop))
+			STM(AstStm.IF_GOTO(end, i.expr ge 10.lit))
+			SET(i, binop(i.expr, AstBinop.ADD, 1.lit))
+			STM(AstStm.GOTO(loop))
+			STM(AstStm.STM_LABEL(end))
+			RETURN(i.expr)
+		})
+		Assert.assertEquals(listOf(
+			"i = 0;", ":loop", "if ((i >= 10)) goto end;", "i = (i + 1);", "goto loop;", ":end", "return i;"
+		), out)
+	}
+
+	@Test fun testDeadStore() {
+		val out = optimize(body {
+			SET(a, x.expr)
+			SET(a, 1.lit)
+			RETURN(a.expr)
+		})
+		Assert.assertEquals(listOf("return 1;"), out)
+	}
+
+	// a = 1; start: a = x / y; a = 2; end: return a; handler: return a
+	// The first store is read by the handler when the division throws, although no normal path reads it
+	@Test fun testExceptionEdgeLiveness() {
+		val start = AstLabel("start")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val stms = body {
+			SET(a, 1.lit)
+			STM(AstStm.STM_LABEL(start))
+			SET(a, binop(x.expr, AstBinop.DIV, y.expr))
+			SET(a, 2.lit)
+			STM(AstStm.STM_LABEL(end))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN(a.expr)
+		}
+		val body = stms.copy(traps = listOf(AstTrap(start, end, handler, AstType.THROWABLE)))
+		val before = lines(body)
+		Assert.assertEquals(before, optimize(body))
+		Assert.assertTrue("a = 1;" in before)
+	}
+}
@@ -0,0 +1,112 @@
+import com.jtransc.ast.*
+import com.jtransc.ast.optimize.AstDevirtualizer
+import com.jtransc.plugin.reflection.createClass
+import com.jtransc.plugin.reflection.createMethod
+import org.junit.Assert
+import org.junit.Test
+
+class DevirtualizerTest {
+	val types = AstTypes()
+	val program = testProgram(types).apply { createClass("java.lang.Object".fqname, parent = null) }
+
+	val valueType = AstType.METHOD(AstType.INT, listOf())
+
+	// Adds an int value() method returning the constant
+	fun AstClass.value(value: Int) = createMethod("value", valueType) { RETURN(value.lit) }
+
+	fun method(clazz: String, name: String) = program[clazz.fqname].methodsByName[name]!!.first()
+
+	// Adds a static Test.test method calling value() on a local of the class, and devirtualizes the whole program
+	fun devirtualize(clazz: String, callback: AstBuilder2.(AstLocal) -> Unit = {}): Pair<AstDevirtualizer, AstBody> {
+		val obj = AstLocal(0, "obj", AstType.REF(clazz))
+		val test = program.testMethod()
+		test.replaceBody {
+			types.build2 {
+				callback(obj)
+				RETURN(AstExpr.CALL_INSTANCE(obj.expr, AstMethodRef(clazz.fqname, "value", valueType), listOf()))
+			}
+		}
+		val devirtualizer = AstDevirtualizer(program)
+		devirtualizer.run()
+		return Pair(devirtualizer, test.body!!)
+	}
+
+	// Classes declaring the value() implementations called directly, in order
+	fun directCalls(body: AstBody): List<String> {
+		val out = arrayListOf<String>()
+		object : AstVisitor() {
+			override fun visit(expr: AstExpr.CALL_SUPER) {
+				super.visit(expr)
+				out += expr.target.simpleName
+			}
+		}.visit(body.stm)
+		return out
+	}
+
+	fun virtualCalls(body: AstBody): Int {
+		var count = 0
+		object : AstVisitor() {
+			override fun visit(expr: AstExpr.CALL_INSTANCE) {
+				super.visit(expr)
+				count++
+			}
+		}.visit(body.stm)
+		return count
+	}
+
+	// class Leaf { int value() { return 3; } }
+	@Test fun testSingleImplementation() {
+		program.createClass("Leaf".fqname) { value(3) }
+		val (devirtualizer, body) = devirtualize("Leaf")
+		Assert.assertEquals(1, devirtualizer.monomorphicCalls)
+		Assert.assertEquals(listOf("Leaf"), directCalls(body))
+		Assert.assertEquals(0, virtualCalls(body))
+		Assert.assertTrue(method("Leaf", "value").isEffectivelyFinal)
+	}
+
+	// class Base { int value() { return 1; } }, class Sub extends Base { int value() { return 2; } }
+	@Test fun testOverriddenMethod() {
+		program.createClass("Base".fqname) { value(1) }
+		program.createClass("Sub".fqname, parent = "Base".fqname) { value(2) }
+		val (devirtualizer, body) = devirtualize("Base")
+		// Sub instances are tested first, since Sub.value is the most specific implementation
+		Assert.assertEquals(1, devirtualizer.bimorphicCalls)
+		Assert.assertEquals(listOf("Sub", "Base"), directCalls(body))
+		Assert.assertFalse(method("Base", "value").isEffectivelyFinal)
+		Assert.assertTrue(method("Sub", "value").isEffectivelyFinal)
+	}
+
+	// Like testOverriddenMethod plus class Other extends Base { int value() { return 3; } }
+	@Test fun testMegamorphicCallStaysVirtual() {
+		program.createClass("Base".fqname) { value(1) }
+		program.createClass("Sub".fqname, parent = "Base".fqname) { value(2) }
+		program.createClass("Other".fqname, parent = "Base".fqname) { value(3) }
+		val (devirtualizer, body) = devirtualize("Base")
+		Assert.assertEquals(0, devirtualizer.monomorphicCalls + devirtualizer.bimorphicCalls)
+		Assert.assertEquals(1, virtualCalls(body))
+	}
+
+	// interface Named { default int value() { return 1; } }, class Impl implements Named { }
+	@Test fun testInterfaceDefaultMethod() {
+		program.createClass("Named".fqname, modifiers = AstModifiers.withFlags(AstModifiers.ACC_PUBLIC, AstModifiers.ACC_INTERFACE, AstModifiers.ACC_ABSTRACT)) { value(1) }
+		program.createClass("Impl".fqname, interfaces = listOf("Named".fqname))
+		val (devirtualizer, body) = devirtualize("Named")
+		// Default methods aren't resolved through the class ancestors, so the call must stay virtual
+		Assert.assertEquals(0, devirtualizer.monomorphicCalls + devirtualizer.bimorphicCalls)
+		Assert.assertEquals(1, virtualCalls(body))
+		Assert.assertFalse(method("Named", "value").isEffectivelyFinal)
+	}
+
+	// class Base { int value() { return 1; } }, class Reflected extends Base { int value() { return 2; } }
+	@Test fun testClassOnlyInstantiatedByReflection() {
+		program.createClass("Base".fqname) { value(1) }
+		// Never created with new, as if it was only created with Class.newInstance, but it is still in the program
+		program.createClass("Reflected".fqname, parent = "Base".fqname) { value(2) }
+		val (_, body) = devirtualize("Base") { obj ->
+			SET(obj, AstExpr.NEW(AstType.REF("Base")))
+		}
+		// Every class kept by tree shaking is a possible receiver, so Reflected.value is still reachable
+		Assert.assertEquals(listOf("Reflected", "Base"), directCalls(body))
+		Assert.assertFalse(method("Base", "value").isEffectivelyFinal)
+	}
+}
@@ -0,0 +1,107 @@
+import com.jtransc.ast.*
+import com.jtransc.ast.optimize.AstScalarReplacer
+import com.jtransc.plugin.reflection.createClass
+import com.jtransc.plugin.reflection.createConstructor
+import com.jtransc.plugin.reflection.createField
+import com.jtransc.plugin.reflection.createMethod
+import org.junit.Assert
+import org.junit.Test
+
+class ScalarReplacementTest {
+	val types = AstTypes()
+	val program = testProgram(types)
+
+	val objectInit = AstMethodRef("java.lang.Object".fqname, "<init>", AstType.METHOD(AstType.VOID, listOf()))
+	val pointArgs = listOf(AstArgument(0, AstType.INT), AstArgument(1, AstType.INT))
+	val pointInit = AstMethodRef("Point".fqname, "<init>", AstType.METHOD(pointArgs, AstType.VOID))
+
+	// class Point { int x, y; Point(int x, int y) { super(); this.x = x; this.y = y; } }
+	val point = program.createClass("Point".fqname) {
+		val x = createField("x", AstType.INT)
+		val y = createField("y", AstType.INT)
+		createConstructor(AstType.METHOD(pointArgs, AstType.VOID)) {
+			STM(AstExpr.CALL_SUPER(THIS, "java.lang.Object".fqname, objectInit, listOf(), isSpecial = true))
+			STM(AstStm.SET_FIELD_INSTANCE(x.ref, THIS, pointArgs[0].expr))
+			STM(AstStm.SET_FIELD_INSTANCE(y.ref, THIS, pointArgs[1].expr))
+			RETURN()
+		}
+	}
+	val x = point.fieldsByName["x"]!!.ref
+	val y = point.fieldsByName["y"]!!.ref
+
+	// class Holder { static Object value; static void use(Object o) }
+	val holder = program.createClass("Holder".fqname) {
+		createField("value", AstType.OBJECT, isStatic = true)
+		createMethod("use", AstType.METHOD(AstType.VOID, listOf(AstType.OBJECT)), isStatic = true)
+	}
+	val value = holder.fieldsByName["value"]!!.ref
+	val use = holder.methodsByName["use"]!!.first().ref
+
+	val p = AstLocal(0, "p", point.astType)
+
+	// p = new Point(1, 2); <uses>; return p.x + p.y
+	fun replace(uses: AstBuilder2.() -> Unit): Pair<AstScalarReplacer, AstBody> {
+		val method = program.createClass("Test".fqname) {
+			createMethod("test", AstType.METHOD(AstType.INT, listOf()), isStatic = true) {
+				SET(p, AstExpr.NEW_WITH_CONSTRUCTOR(pointInit, listOf(1.lit, 2.lit)))
+				uses()
+				RETURN(AstExpr.BINOP(AstType.INT, AstExpr.FIELD_INSTANCE_ACCESS(x, p.expr), AstBinop.ADD, AstExpr.FIELD_INSTANCE_ACCESS(y, p.expr)))
+			}
+		}.methodsByName["test"]!!.first()
+		val replacer = AstScalarReplacer(program)
+		replacer.run()
+		return Pair(replacer, method.body!!)
+	}
+
+	fun allocations(body: AstBody): Int {
+		var count = 0
+		object : AstVisitor() {
+			override fun visit(expr: AstExpr.NEW_WITH_CONSTRUCTOR) {
+				super.visit(expr)
+				count++
+			}
+		}.visit(body.stm)
+		return count
+	}
+
+	@Test fun testNonEscapingAllocation() {
+		val (replacer, body) = replace { STM(AstStm.SET_FIELD_INSTANCE(x, p.expr, 3.lit)) }
+		val out = dump(body.stm).toString()
+		Assert.assertEquals(1, replacer.replacedAllocations)
+		Assert.assertEquals(0, allocations(body))
+		Assert.assertFalse(out, out.contains("Point"))
+		Assert.assertFalse(out, out.contains("p."))
+		Assert.assertTrue(out, out.contains("return (p_x_s0 + p_y_s0);"))
+	}
+
+	fun assertNotReplaced(uses: AstBuilder2.() -> Unit) {
+		val (replacer, body) = replace(uses)
+		Assert.assertEquals(0, replacer.replacedAllocations)
+		Assert.assertEquals(1, allocations(body))
+		Assert.assertTrue(p.isUsed)
+	}
+
+	@Test fun testEscapeThroughFieldStore() {
+		assertNotReplaced { STM(AstStm.SET_FIELD_STATIC(value, p.expr)) }
+	}
+
+	@Test fun testEscapeThroughReturn() {
+		assertNotReplaced {
+			val label = AstLabel("end")
+			STM(AstStm.IF_GOTO(label, AstExpr.BINOP(AstType.BOOL, 1.lit, AstBinop.EQ, 1.lit)))
+			STM(AstStm.RETURN(p.expr))
+			STM(AstStm.STM_LABEL(label))
+		}
+	}
+
+	@Test fun testEscapeThroughCallArgument() {
+		assertNotReplaced { STM(AstExpr.CALL_STATIC(use, listOf(p.expr))) }
+	}
+
+	@Test fun testEscapeThroughMonitor() {
+		assertNotReplaced {
+			STM(AstStm.MONITOR_ENTER(p.expr))
+			STM(AstStm.MONITOR_EXIT(p.expr))
+		}
+	}
+}
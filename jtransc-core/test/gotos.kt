@@ -0,0 +1,126 @@
+import com.jtransc.ast.*
+import com.jtransc.ast.feature.method.GotosFeature
+import org.junit.Assert
+import org.junit.Test
+
+// The while/switch state machine GotosFeature emits without relooper
+class GotosFeatureTest {
+	val types = AstTypes()
+	val program = testProgram(types)
+	val method = program.testMethod()
+
+	val a = AstLocal(0, "a", AstType.INT)
+	val x = AstLocal(1, "x", AstType.INT)
+	val e = AstLocal(2, "e", AstType.THROWABLE)
+
+	fun removeGotos(traps: List<AstTrap>, callback: AstBuilder2.() -> Unit): AstBody {
+		val body = types.build2 {
+			callback()
+			AstBody(types, genstm(), AstType.METHOD(AstType.INT, listOf()))
+		}
+		return GotosFeature().remove(method, body.copy(traps = traps), AstBuildSettings(relooper = false), types)
+	}
+
+	// State of the switch case holding the first statement that matches
+	fun stateOf(body: AstBody, predicate: (AstStm) -> Boolean): Int {
+		var state: Int? = null
+		object : AstVisitor() {
+			override fun visit(stm: AstStm.SWITCH) {
+				for ((index, case) in stm.cases) {
+					object : AstVisitor() {
+						override fun visit(stm: AstStm?) {
+							if (state == null && stm != null && predicate(stm)) state = index
+							super.visit(stm)
+						}
+					}.visit(case)
+				}
+			}
+		}.visit(body)
+		return state!!
+	}
+
+	// Whether an exception thrown in the state goes to a handler, evaluating the trap checks of the catch block
+	fun isCaught(body: AstBody, state: Int): Boolean {
+		fun eval(expr: AstExpr): Any = when (expr) {
+			is AstExpr.LITERAL -> expr.value!!
+			// The state local is the only one the checks read
+			is AstExpr.LOCAL -> state
+			// Every trap in these tests catches Throwable
+			is AstExpr.INSTANCE_OF -> true
+			is AstExpr.BINOP -> {
+				val l = eval(expr.left.value)
+				val r = eval(expr.right.value)
+				when (expr.op) {
+					AstBinop.GE -> (l as Int) >= (r as Int)
+					AstBinop.LT -> (l as Int) < (r as Int)
+					AstBinop.LE -> (l as Int) <= (r as Int)
+					AstBinop.BAND -> (l as Boolean) && (r as Boolean)
+					else -> throw IllegalArgumentException("${expr.op}")
+				}
+			}
+			else -> throw IllegalArgumentException("$expr")
+		}
+
+		var caught = false
+		object : AstVisitor() {
+			override fun visit(stm: AstStm.TRY_CATCH) {
+				object : AstVisitor() {
+					override fun visit(stm: AstStm.IF) {
+						if (eval(stm.cond.value) == true) caught = true
+					}
+				}.visit(stm.catch)
+			}
+		}.visit(body)
+		return caught
+	}
+
+	// What javac emits for synchronized blocks: the handler releases the monitor and rethrows, and it is covered
+	// by a trap of its own that ends right before the rethrow.
+	// start: a = 10 / x; end: return a; handler: e = caught; a = 0; handlerEnd: throw e
+	@Test fun testSynchronizedHandlerDoesNotCatchItsRethrow() {
+		val start = AstLabel("start")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val handlerEnd = AstLabel("handlerEnd")
+		val body = removeGotos(listOf(
+			AstTrap(start, end, handler, AstType.THROWABLE),
+			AstTrap(handler, handlerEnd, handler, AstType.THROWABLE)
+		)) {
+			STM(AstStm.STM_LABEL(start))
+			SET(a, AstExpr.BINOP(AstType.INT, 10.lit, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(end))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			SET(e, AstExpr.CAUGHT_EXCEPTION(AstType.THROWABLE))
+			SET(a, 0.lit)
+			STM(AstStm.STM_LABEL(handlerEnd))
+			STM(AstStm.THROW(e.expr))
+		}
+		Assert.assertTrue(isCaught(body, stateOf(body) { it is AstStm.SET_LOCAL && it.local.local == a && it.expr.value is AstExpr.BINOP }))
+		Assert.assertTrue(isCaught(body, stateOf(body) { it is AstStm.SET_LOCAL && it.local.local == e }))
+		// The end label of a range is not protected
+		Assert.assertFalse(isCaught(body, stateOf(body) { it is AstStm.RETURN }))
+		Assert.assertFalse(isCaught(body, stateOf(body) { it is AstStm.THROW }))
+	}
+
+	// A goto reaching a later label first must not change the state order the trap ranges are compared with
+	// first: if (x == 0) goto last; middle: a = 10 / x; last: return a; handler: return -1
+	@Test fun testForwardGotoKeepsStatesInLabelOrder() {
+		val first = AstLabel("first")
+		val middle = AstLabel("middle")
+		val last = AstLabel("last")
+		val handler = AstLabel("handler")
+		val body = removeGotos(listOf(AstTrap(middle, last, handler, AstType.THROWABLE))) {
+			STM(AstStm.STM_LABEL(first))
+			STM(AstStm.IF_GOTO(last, AstExpr.BINOP(AstType.BOOL, x.expr, AstBinop.EQ, 0.lit)))
+			STM(AstStm.STM_LABEL(middle))
+			SET(a, AstExpr.BINOP(AstType.INT, 10.lit, AstBinop.DIV, x.expr))
+			STM(AstStm.STM_LABEL(last))
+			RETURN(a.expr)
+			STM(AstStm.STM_LABEL(handler))
+			RETURN((-1).lit)
+		}
+		Assert.assertTrue(isCaught(body, stateOf(body) { it is AstStm.SET_LOCAL && it.local.local == a }))
+		Assert.assertFalse(isCaught(body, stateOf(body) { it is AstStm.RETURN && (it.retval.value as? AstExpr.LOCAL)?.local == a }))
+	}
+}
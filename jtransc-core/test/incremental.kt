@@ -0,0 +1,80 @@
+import com.jtransc.ast.*
+import com.jtransc.gen.TargetName
+import com.jtransc.gen.common.IncrementalChunks
+import com.jtransc.plugin.reflection.createClass
+import com.jtransc.plugin.reflection.createMethod
+import com.jtransc.text.Indenter
+import com.jtransc.vfs.MemoryVfs
+import org.junit.Assert
+import org.junit.Test
+
+class IncrementalChunksTest {
+	val file = MemoryVfs()["program.js.chunks"]
+	val valueType = AstType.METHOD(AstType.INT, listOf())
+
+	// class B { static int value() { return 0; } }, class A { static int value() { return B.value() + aValue; } }
+	// The extra classes go first, so they change the ids of A and B
+	fun program(extra: List<String> = listOf(), aValue: Int = 1, bMethods: List<String> = listOf("value")): AstProgram {
+		val program = testProgram(AstTypes())
+		program.createClass("java.lang.Object".fqname, parent = null)
+		for (name in extra) program.createClass(name.fqname)
+		program.createClass("B".fqname) {
+			for (name in bMethods) createMethod(name, valueType, isStatic = true) { RETURN(0.lit) }
+		}
+		program.createClass("A".fqname) {
+			createMethod("value", valueType, isStatic = true) {
+				RETURN(AstExpr.BINOP(AstType.INT, AstExpr.CALL_STATIC(AstMethodRef("B".fqname, "value", valueType), listOf()), AstBinop.ADD, aValue.lit))
+			}
+		}
+		return program
+	}
+
+	// Writes every class with the chunks of the previous build, and returns the ones that were generated again
+	fun build(program: AstProgram): List<String> {
+		val chunks = IncrementalChunks(file, program, TargetName("js"), "js:test")
+		chunks.load()
+		val generated = arrayListOf<String>()
+		for (clazz in program.classes) {
+			val chunk = chunks.getOrGenerate(clazz) {
+				generated += clazz.fqname
+				Indenter.gen { line("// ${clazz.fqname}") }
+			}
+			Assert.assertTrue(chunk.text, chunk.text.contains("// ${clazz.fqname}"))
+			chunks.add(clazz, chunk)
+		}
+		chunks.save(listOf("hello"))
+		return generated
+	}
+
+	@Test fun testUnchangedClassesReused() {
+		Assert.assertEquals(listOf("java.lang.Object", "B", "A"), build(program()))
+		Assert.assertEquals(listOf<String>(), build(program()))
+		val chunks = IncrementalChunks(file, program(), TargetName("js"), "js:test")
+		chunks.load()
+		Assert.assertEquals(listOf("hello"), chunks.previousStrings)
+	}
+
+	@Test fun testBodyChangeInvalidatesClass() {
+		build(program())
+		Assert.assertEquals(listOf("A"), build(program(aValue = 2)))
+	}
+
+	@Test fun testDeclarationChangeInvalidatesDependents() {
+		build(program())
+		// A calls B, so it is generated again when the declaration of B changes
+		Assert.assertEquals(listOf("B", "A"), build(program(bMethods = listOf("value", "other"))))
+	}
+
+	@Test fun testInsertedClassKeepsOtherChunks() {
+		build(program())
+		// A and B get new class ids, that chunks don't include
+		Assert.assertEquals(listOf("Extra"), build(program(extra = listOf("Extra"))))
+	}
+
+	@Test fun testConfigChangeInvalidatesEverything() {
+		build(program())
+		val chunks = IncrementalChunks(file, program(), TargetName("js"), "js:other")
+		chunks.load()
+		Assert.assertEquals(listOf<String>(), chunks.previousStrings)
+	}
+}
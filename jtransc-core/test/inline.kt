@@ -0,0 +1,153 @@
+import com.jtransc.annotation.JTranscInline
+import com.jtransc.ast.*
+import com.jtransc.ast.optimize.AstInliner
+import com.jtransc.plugin.reflection.createClass
+import com.jtransc.plugin.reflection.createMethod
+import org.junit.Assert
+import org.junit.Test
+
+class InlinerTest {
+	val types = AstTypes()
+	val program = testProgram(types).apply { createClass("java.lang.Object".fqname, parent = null) }
+
+	val x = AstLocal(0, "x", AstType.INT)
+	val r = AstLocal(1, "r", AstType.INT)
+	val e = AstLocal(2, "e", AstType.THROWABLE)
+
+	val intArgs = listOf(AstArgument(0, AstType.INT), AstArgument(1, AstType.INT))
+
+	// Calls to classes that aren't in the program are never inlined, so they work as opaque calls with side effects
+	fun opaque(name: String) = AstExpr.CALL_STATIC(AstMethodRef("Missing".fqname, name, AstType.METHOD(AstType.INT, listOf())), listOf())
+
+	// A big enough sum of the argument, so only @JTranscInline makes it inlinable
+	fun AstBuilder2.bigBody(args: List<AstArgument>) {
+		var sum: AstExpr = args[0].expr
+		for (n in 0 until 20) sum = AstExpr.BINOP(AstType.INT, sum, AstBinop.ADD, args[0].expr)
+		RETURN(sum)
+	}
+
+	val lib = program.createClass("Lib".fqname) {
+		// static int sub(int a, int b) { return b - a; }
+		createMethod("sub", AstType.METHOD(intArgs, AstType.INT), isStatic = true) { args ->
+			RETURN(AstExpr.BINOP(AstType.INT, args[1].expr, AstBinop.SUB, args[0].expr))
+		}
+		// static int ignore(int a) { return 0; }
+		createMethod("ignore", AstType.METHOD(intArgs.take(1), AstType.INT), isStatic = true) {
+			RETURN(0.lit)
+		}
+		// static int rec(int n) { return rec(n) + 1; }
+		createMethod("rec", AstType.METHOD(intArgs.take(1), AstType.INT), isStatic = true) { args ->
+			RETURN(AstExpr.BINOP(AstType.INT, AstExpr.CALL_STATIC(AstMethodRef("Lib".fqname, "rec", AstType.METHOD(intArgs.take(1), AstType.INT)), listOf(args[0].expr)), AstBinop.ADD, 1.lit))
+		}
+		// static void fail(Throwable e) { throw e; }
+		createMethod("fail", AstType.METHOD(listOf(AstArgument(0, AstType.THROWABLE)), AstType.VOID), isStatic = true) { args ->
+			STM(AstStm.THROW(args[0].expr))
+		}
+		createMethod("big", AstType.METHOD(intArgs.take(1), AstType.INT), isStatic = true) { args -> bigBody(args) }
+		createMethod("bigInline", AstType.METHOD(intArgs.take(1), AstType.INT), isStatic = true,
+			annotations = listOf(AstAnnotation(AstType.REF(JTranscInline::class.java.name), mapOf(), true))
+		) { args -> bigBody(args) }
+	}
+
+	fun method(clazz: String, name: String) = program[clazz.fqname].methodsByName[name]!!.first()
+
+	// Adds a static Test.test method with the body, inlines the whole program and returns the new body
+	fun inline(callback: AstBuilder2.() -> Unit): Pair<AstInliner, AstBody> {
+		val method = program.testMethod()
+		method.replaceBody { types.build2 { callback(); genstm() } }
+		val inliner = AstInliner(program)
+		inliner.run()
+		return Pair(inliner, method.body!!)
+	}
+
+	fun calls(body: AstBody, name: String): Int {
+		var count = 0
+		object : AstVisitor() {
+			override fun visit(expr: AstExpr.CALL_BASE) {
+				super.visit(expr)
+				if (expr.method.name == name) count++
+			}
+		}.visit(body.stm)
+		return count
+	}
+
+	@Test fun testArgumentsEvaluatedInOrder() {
+		// sub reads its parameters in reverse order, the calls must still run first then second
+		val (inliner, body) = inline { RETURN(AstExpr.CALL_STATIC(method("Lib", "sub").ref, listOf(opaque("first"), opaque("second")))) }
+		val out = dump(body.stm).toString()
+		Assert.assertEquals(1, inliner.inlinedCalls)
+		Assert.assertEquals(0, calls(body, "sub"))
+		Assert.assertTrue(out, out.indexOf("first") >= 0 && out.indexOf("first") < out.indexOf("second"))
+	}
+
+	@Test fun testUnusedArgumentStillEvaluated() {
+		val (inliner, body) = inline { RETURN(AstExpr.CALL_STATIC(method("Lib", "ignore").ref, listOf(opaque("first")))) }
+		Assert.assertEquals(1, inliner.inlinedCalls)
+		Assert.assertEquals(0, calls(body, "ignore"))
+		Assert.assertEquals(1, calls(body, "first"))
+	}
+
+	@Test fun testRecursionInlinedOnce() {
+		val (_, body) = inline { SET(r, AstExpr.CALL_STATIC(method("Lib", "rec").ref, listOf(x.expr))); RETURN(r) }
+		// The copy of rec still calls rec, and that call is not inlined again
+		Assert.assertEquals(1, calls(body, "rec"))
+		// Neither is the call of rec to itself
+		Assert.assertEquals(1, calls(method("Lib", "rec").body!!, "rec"))
+	}
+
+	@Test fun testThrowInsideTrapRange() {
+		val start = AstLabel("start")
+		val end = AstLabel("end")
+		val handler = AstLabel("handler")
+		val fail = method("Lib", "fail").ref
+		val test = program.testMethod()
+		test.generateBody = {
+			types.build2 {
+				STM(AstStm.STM_LABEL(start))
+				STM(AstExpr.CALL_STATIC(fail, listOf(e.expr)))
+				STM(AstStm.STM_LABEL(end))
+				RETURN(0.lit)
+				STM(AstStm.STM_LABEL(handler))
+				RETURN(1.lit)
+				AstBody(types, genstm(), test.methodType).copy(traps = listOf(AstTrap(start, end, handler, AstType.THROWABLE)))
+			}
+		}
+		AstInliner(program).run()
+		val body = test.body!!
+		// The inlined throw stays between the labels of the range, so the handler still catches it
+		val lines = dump(body.stm).toString().lines().map { it.trim() }
+		val throwLine = lines.indexOfFirst { it.startsWith("throw") }
+		Assert.assertEquals(0, calls(body, "fail"))
+		Assert.assertTrue(lines.toString(), throwLine > lines.indexOf(":start"))
+		Assert.assertTrue(lines.toString(), throwLine < lines.indexOf(":end"))
+	}
+
+	@Test fun testJTranscInlineAllowsBiggerBodies() {
+		val (_, body) = inline {
+			SET(r, AstExpr.CALL_STATIC(method("Lib", "big").ref, listOf(x.expr)))
+			SET(r, AstExpr.CALL_STATIC(method("Lib", "bigInline").ref, listOf(x.expr)))
+			RETURN(r)
+		}
+		Assert.assertEquals(1, calls(body, "big"))
+		Assert.assertEquals(0, calls(body, "bigInline"))
+	}
+
+	// class Leaf { int value() { return 3; } int test() { return this.value(); } }
+	// class Base { int value() { return 1; } int test() { return this.value(); } }, class Sub extends Base { int value() { return 2; } }
+	@Test fun testEffectivelyFinalWithoutDevirtualizer() {
+		fun AstClass.valueAndTest(value: Int) {
+			createMethod("value", AstType.METHOD(AstType.INT, listOf())) { RETURN(value.lit) }
+			if (name.simpleName != "Sub") {
+				createMethod("test", AstType.METHOD(AstType.INT, listOf())) {
+					RETURN(AstExpr.CALL_INSTANCE(AstExpr.THIS(name), AstMethodRef(name, "value", AstType.METHOD(AstType.INT, listOf())), listOf()))
+				}
+			}
+		}
+		program.createClass("Leaf".fqname) { valueAndTest(3) }
+		program.createClass("Base".fqname) { valueAndTest(1) }
+		program.createClass("Sub".fqname, parent = "Base".fqname) { valueAndTest(2) }
+		AstInliner(program).run()
+		Assert.assertEquals(0, calls(method("Leaf", "test").body!!, "value"))
+		Assert.assertEquals(1, calls(method("Base", "test").body!!, "value"))
+	}
+}
@@ -0,0 +1,93 @@
+import com.jtransc.AstProgramLoader
+import com.jtransc.ast.*
+import com.jtransc.plugin.JTranscPlugin
+import com.jtransc.plugin.reflection.createClass
+import com.jtransc.plugin.reflection.createMethod
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class AstProgramLoaderTest {
+	// A -> B, C; B -> D, E; C -> E, F; D -> A; F -> G
+	val graph = mapOf(
+		"A" to listOf("B", "C"),
+		"B" to listOf("D", "E"),
+		"C" to listOf("E", "F"),
+		"D" to listOf("A"),
+		"F" to listOf("G")
+	)
+
+	// Creates the classes of the graph. Parsing takes longer for some classes, so the threads finish out of order
+	class GraphGenerator : AstClassGenerator {
+		override fun generateClass(program: AstProgram, fqname: FqName): AstClass = prepareClass(program, fqname)()
+
+		override fun prepareClass(program: AstProgram, fqname: FqName): () -> AstClass {
+			Thread.sleep((('Z' - fqname.fqname[0]) % 4).toLong())
+			return { program.createClass(fqname, parent = null) { createMethod("run", AstType.METHOD(AstType.VOID, listOf())) } }
+		}
+	}
+
+	// Plugin adding Extra when A is discovered, and recording the discovered classes
+	class RecordingPlugin : JTranscPlugin() {
+		val discovered = arrayListOf<String>()
+
+		override fun onAfterClassDiscovered(clazz: AstType.REF, program: AstProgram) {
+			discovered += clazz.name.fqname
+			if (clazz.name.fqname == "A") program.addReference(AstType.REF("Extra"), clazz)
+		}
+	}
+
+	fun load(threads: Int, plugin: JTranscPlugin? = null): AstProgram {
+		val program = testProgram(AstTypes())
+		program.addReference(AstType.REF("A"), AstType.REF("A"))
+		AstProgramLoader(program, GraphGenerator(), listOfNotNull(plugin), threads) { clazz ->
+			// Generates the bodies from the pool threads, like References.get
+			clazz.methods.forEach { it.body }
+			(graph[clazz.name.fqname] ?: listOf()).map { AstType.REF(it) }
+		}.run()
+		return program
+	}
+
+	fun classIds(program: AstProgram) = program.classes.map { it.name.fqname to it.classId }
+
+	@Test fun testSameOrderAsSequential() {
+		val sequential = load(1)
+		Assert.assertEquals(listOf("A", "B", "C", "D", "E", "F", "G"), sequential.classes.map { it.name.fqname })
+		for (threads in listOf(2, 4, 8)) Assert.assertEquals(classIds(sequential), classIds(load(threads)))
+	}
+
+	@Test fun testOnAfterClassDiscoveredOrder() {
+		for (threads in listOf(1, 4)) {
+			val plugin = RecordingPlugin()
+			val program = load(threads, plugin)
+			// Each class once and in discovery order. Extra, added for A, is discovered before the references of A
+			Assert.assertEquals(listOf("A", "Extra", "B", "C", "D", "E", "F", "G"), plugin.discovered)
+			Assert.assertEquals(plugin.discovered, program.classes.map { it.name.fqname })
+		}
+	}
+
+	@Test fun testBodyGeneratedOnceFromSeveralThreads() {
+		val program = testProgram(AstTypes())
+		val generated = AtomicInteger()
+		val method = program.testMethod()
+		val threads = 8
+		method.generateBody = {
+			generated.incrementAndGet()
+			Thread.sleep(10)
+			AstBody(program.types, AstStm.RETURN(0.lit), method.methodType)
+		}
+		val start = CountDownLatch(1)
+		val executor = Executors.newFixedThreadPool(threads)
+		try {
+			val bodies = (0 until threads).map { executor.submit(Callable { start.await(); method.body }) }
+			start.countDown()
+			Assert.assertEquals(1, bodies.map { it.get() }.distinct().size)
+			Assert.assertEquals(1, generated.get())
+		} finally {
+			executor.shutdown()
+		}
+	}
+}
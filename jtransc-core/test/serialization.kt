@@ -0,0 +1,72 @@
+import com.jtransc.ast.*
+import com.jtransc.ast.serialization.AstClassSerializer
+import com.jtransc.ast.serialization.AstRead
+import com.jtransc.ast.serialization.AstWriter
+import org.junit.Assert
+import org.junit.Test
+
+class SerializationTest {
+	val types = AstTypes()
+
+	fun roundTrip(body: AstBody): AstBody {
+		val data = AstWriter.serialize { writeBody(body) }
+		return AstRead.deserialize(types, data) { readBody() }
+	}
+
+	@Test fun testBody() {
+		val body = types.build2 {
+			val a = AstLocal(0, "a", INT)
+			SET(a, 10.lit)
+			IF(a.expr ne 0.lit) {
+				RETURN(a.expr + 1.lit)
+			}
+			RETURN(AstExpr.CALL_STATIC(AstMethodRef("Test".fqname, "test", AstType.METHOD(INT, listOf(LONG))), listOf(7L.lit)))
+			AstBody(types, genstm(), AstType.METHOD(INT, listOf()))
+		}
+		val read = roundTrip(body)
+		Assert.assertEquals(dump(body).toString(), dump(read).toString())
+		Assert.assertEquals(body.locals.map { it.name }, read.locals.map { it.name })
+		Assert.assertEquals(body.locals[0].writesCount, read.locals[0].writesCount)
+		Assert.assertEquals(body.locals[0].readCount, read.locals[0].readCount)
+	}
+
+	@Test fun testLiterals() {
+		val values = listOf(null, true, 1.toByte(), 1000.toShort(), 'a', -1, 100, 100000, Long.MIN_VALUE, 1.5f, Double.NaN, "hello\u0000\uD800", AstType.ARRAY(AstType.INT))
+		val body = AstBody(types, AstStm.STMS(values.map { AstStm.STM_EXPR(AstExpr.LITERAL(it, types)) }), AstType.METHOD(AstType.VOID, listOf()))
+		val read = roundTrip(body)
+		Assert.assertEquals(values, (read.stm as AstStm.STMS).stms.map { ((it.value as AstStm.STM_EXPR).expr.value as AstExpr.LITERAL).value })
+	}
+
+	@Test fun testInvalidCachedBody() {
+		val body = types.build2 {
+			RETURN(7.lit)
+			AstBody(types, genstm(), AstType.METHOD(INT, listOf()))
+		}
+		val program = testProgram(types)
+		val clazz = AstClass("Test.java", program, "Test".fqname, AstModifiers.withFlags(AstModifiers.ACC_PUBLIC))
+		program.add(clazz)
+		clazz.add(AstMethod(
+			clazz, name = "test", methodType = body.type, annotations = listOf(), signature = body.type.mangle(),
+			genericSignature = null, defaultTag = null, modifiers = AstModifiers.withFlags(AstModifiers.ACC_PUBLIC, AstModifiers.ACC_STATIC),
+			generateBody = { body }, types = types
+		))
+		val data = AstClassSerializer.write(clazz)!!
+
+		// Corrupts the serialized body
+		val bodyData = AstWriter.serialize { writeBody(body) }
+		val offset = (0..data.size - bodyData.size).first { start -> bodyData.indices.all { data[start + it] == bodyData[it] } }
+		for (n in bodyData.indices) data[offset + n] = -1
+
+		val regenerated = types.build2 {
+			RETURN(8.lit)
+			AstBody(types, genstm(), AstType.METHOD(INT, listOf()))
+		}
+		val invalid = arrayListOf<String>()
+		val read = AstClassSerializer.read(testProgram(types), types, data) { containingClass, name, signature, e ->
+			invalid += "${containingClass.name}::$name$signature"
+			regenerated
+		}
+		Assert.assertSame(regenerated, read.methods.single().body)
+		Assert.assertEquals(listOf("Test::test()I"), invalid)
+	}
+}
@@ -0,0 +1,124 @@
+import com.jtransc.ast.*
+import com.jtransc.ast.feature.method.SwitchFeature
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+// Targets declare SwitchFeature, so these tests remove it explicitly to check the lowering
+class SwitchFeatureTest {
+	val types = AstTypes()
+	val program = testProgram(types)
+	val method = program.testMethod()
+
+	val x = AstLocal(0, "x", AstType.INT)
+	val r = AstLocal(1, "r", AstType.INT)
+
+	fun remove(stms: List<AstStm>): AstBody {
+		val body = AstBody(types, AstStm.STMS(stms), AstType.METHOD(AstType.INT, listOf()))
+		return SwitchFeature().remove(method, body, AstBuildSettings(), types)
+	}
+
+	fun eval(expr: AstExpr, locals: Map<AstLocal, Int>): Any = when (expr) {
+		is AstExpr.LITERAL -> expr.value!!
+		is AstExpr.LOCAL -> locals[expr.local]!!
+		is AstExpr.BINOP -> {
+			val l = eval(expr.left.value, locals)
+			val r = eval(expr.right.value, locals)
+			when (expr.op) {
+				AstBinop.ADD -> (l as Int) + (r as Int)
+				AstBinop.EQ -> l == r
+				AstBinop.LT -> (l as Int) < (r as Int)
+				AstBinop.LE -> (l as Int) <= (r as Int)
+				AstBinop.GE -> (l as Int) >= (r as Int)
+				AstBinop.BAND -> (l as Boolean) && (r as Boolean)
+				else -> throw IllegalArgumentException("${expr.op}")
+			}
+		}
+		else -> throw IllegalArgumentException("$expr")
+	}
+
+	// Runs flat code with labels and gotos
+	fun runFlat(stms: List<AstStm>, value: Int): Int {
+		val locals = hashMapOf(x to value)
+		val labels = stms.withIndex().filter { it.value is AstStm.STM_LABEL }.map { (it.value as AstStm.STM_LABEL).label to it.index }.toMap()
+		var pc = 0
+		while (true) {
+			val stm = stms[pc++]
+			when (stm) {
+				is AstStm.SET_LOCAL -> locals[stm.local.local] = eval(stm.expr.value, locals) as Int
+				is AstStm.GOTO -> pc = labels[stm.label]!!
+				is AstStm.IF_GOTO -> if (eval(stm.cond.value, locals) as Boolean) pc = labels[stm.label]!!
+				is AstStm.RETURN -> return eval(stm.retval.value, locals) as Int
+				is AstStm.STM_LABEL, is AstStm.NOP -> Unit
+				else -> throw IllegalArgumentException("$stm")
+			}
+		}
+	}
+
+	// Runs structured code without loops
+	fun runStructured(stm: AstStm, locals: HashMap<AstLocal, Int>): Int? {
+		when (stm) {
+			is AstStm.STMS -> for (s in stm.stms) return runStructured(s.value, locals) ?: continue
+			is AstStm.SET_LOCAL -> locals[stm.local.local] = eval(stm.expr.value, locals) as Int
+			is AstStm.IF_ELSE -> return runStructured(if (eval(stm.cond.value, locals) as Boolean) stm.strue.value else stm.sfalse.value, locals)
+			is AstStm.RETURN -> return eval(stm.retval.value, locals) as Int
+			is AstStm.NOP -> Unit
+			else -> throw IllegalArgumentException("$stm")
+		}
+		return null
+	}
+
+	val keys = listOf(1, 2, 3, 5, 7, 8, 20, 21, 22, 100)
+
+	// 1..3, 20..22 and 7..8 share their targets, so they become range checks
+	fun expected(value: Int) = when (value) {
+		1, 2, 3 -> 10
+		5 -> 11
+		7, 8 -> 12
+		20, 21, 22 -> 13
+		100 -> 14
+		else -> -1
+	}
+
+	@Test fun testSwitchGotoLoweredToFlatCode() {
+		val labels = (10..14).map { it to AstLabel("L$it") }.toMap()
+		val default = AstLabel("default")
+		val stms = arrayListOf<AstStm>()
+		stms += AstStm.SWITCH_GOTO(AstExpr.BINOP(AstType.INT, AstExpr.LOCAL(x), AstBinop.ADD, AstExpr.LITERAL(0, types)), default, keys.map { it to labels[expected(it)]!! })
+		for ((value, label) in labels) {
+			stms += AstStm.STM_LABEL(label)
+			stms += AstStm.RETURN(AstExpr.LITERAL(value, types))
+		}
+		stms += AstStm.STM_LABEL(default)
+		stms += AstStm.RETURN(AstExpr.LITERAL(-1, types))
+
+		val body = remove(stms)
+		Assert.assertFalse(body.stm.contains(AstStm.SWITCH_GOTO::class.java))
+		// Labels must not end nested in another STMS, GotosFeature only looks at the top level
+		val top = (body.stm as AstStm.STMS).stms.map { it.value }
+		Assert.assertTrue(top.none { it is AstStm.STMS })
+		Assert.assertEquals(listOf("x", "SW1"), body.locals.map { it.name })
+		for (value in -2..102) Assert.assertEquals("$value", expected(value), runFlat(top, value))
+	}
+
+	@Test fun testSwitchLoweredToIfs() {
+		val body = remove(listOf(
+			AstStm.SWITCH(AstExpr.LOCAL(x), AstStm.SET_LOCAL(AstExpr.LOCAL(r), AstExpr.LITERAL(-1, types)), keys.map {
+				it to AstStm.SET_LOCAL(AstExpr.LOCAL(r), AstExpr.LITERAL(expected(it), types))
+			}),
+			AstStm.RETURN(AstExpr.LOCAL(r))
+		))
+		Assert.assertFalse(body.stm.contains(AstStm.SWITCH::class.java))
+		for (value in -2..102) Assert.assertEquals("$value", expected(value), runStructured(body.stm, hashMapOf(x to value)))
+	}
+
+	@Test fun testSwitchWithBreakKept() {
+		val body = remove(listOf(
+			AstStm.SWITCH(AstExpr.LOCAL(x), AstStm.NOP("default"), listOf(
+				1 to AstStm.STMS(AstStm.SET_LOCAL(AstExpr.LOCAL(r), AstExpr.LITERAL(1, types)), AstStm.BREAK())
+			)),
+			AstStm.RETURN(AstExpr.LOCAL(r))
+		))
+		Assert.assertTrue(body.stm.contains(AstStm.SWITCH::class.java))
+	}
+}
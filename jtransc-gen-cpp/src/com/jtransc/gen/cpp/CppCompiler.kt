@@ -29,6 +29,7 @@ object CppCompiler {
 			cmdAndArgs += "-Wno-parentheses-equality"
 			cmdAndArgs += "-Wimplicitly-unsigned-literal"
 			cmdAndArgs += "-frtti"
+			if (!JTranscSystem.isWindows()) cmdAndArgs += "-pthread"
 			cmdAndArgs += programFile.absolutePath
 			for (lib in libs) cmdAndArgs += "-l$lib"
 			return cmdAndArgs
@@ -45,6 +46,7 @@ object CppCompiler {
 			cmdAndArgs += if (debug) "-O0" else "-O3"
 			cmdAndArgs += "-fexceptions"
 			cmdAndArgs += "-frtti"
+			if (!JTranscSystem.isWindows()) cmdAndArgs += "-pthread"
 			cmdAndArgs += programFile.absolutePath
 			for (lib in libs) cmdAndArgs += "-l$lib"
 			return cmdAndArgs
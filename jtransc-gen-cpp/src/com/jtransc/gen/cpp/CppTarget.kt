@@ -11,6 +11,8 @@ import com.jtransc.ast.feature.method.GotosFeature
 import com.jtransc.ast.feature.method.OptimizeFeature
 import com.jtransc.ast.feature.method.SimdFeature
 import com.jtransc.ast.feature.method.SwitchFeature
+import com.jtransc.ast.feature.program.DevirtualizeProgramFeature
+import com.jtransc.ast.optimize.AstCheckElimination
 import com.jtransc.error.invalidOp
 import com.jtransc.error.noImpl
 import com.jtransc.gen.GenTargetDescriptor
@@ -19,6 +21,7 @@ import com.jtransc.gen.common.*
 import com.jtransc.injector.Injector
 import com.jtransc.injector.Singleton
 import com.jtransc.io.ProcessResult2
+import com.jtransc.log.log
 import com.jtransc.target.Cpp
 import com.jtransc.text.Indenter
 import com.jtransc.text.quote
@@ -35,6 +38,22 @@ const val TRACING_JUST_ENTER = false
 
 data class ConfigCppOutput(val cppOutput: SyncVfsFile)
 
+// Memory management used by the generated program. Selected with the "gc" key of the extra settings.
+enum class CppGcMode(val id: String, val libs: List<String>) {
+	// std::shared_ptr handles: deterministic destruction, but atomic refcounting on every copy and cycles leak
+	REFCOUNT("refcount", listOf()),
+	// Raw pointer handles over a conservative mark-sweep collector (libgc)
+	BOEHM("boehm", listOf("gc"));
+
+	companion object {
+		val DEFAULT = REFCOUNT
+		fun fromSettings(settings: AstBuildSettings): CppGcMode {
+			val id = settings.extra["gc"] ?: return DEFAULT
+			return values().firstOrNull { it.id == id } ?: invalidOp("Unsupported cpp gc '$id' (${values().map { it.id }})")
+		}
+	}
+}
+
 // @TODO: http://en.cppreference.com/w/cpp/language/eval_order
 // @TODO: Use std::array to ensure it is deleted
 class CppTarget : GenTargetDescriptor() {
@@ -43,6 +62,7 @@ class CppTarget : GenTargetDescriptor() {
 	override val extraLibraries = listOf<String>()
 	override val extraClasses = listOf<String>()
 	override val runningAvailable: Boolean = true
+	override val programFeatures: Set<Class<out AstProgramFeature>> = setOf(DevirtualizeProgramFeature::class.java)
 
 	override fun getGenerator(injector: Injector): CommonGenerator {
 		val settings = injector.get<AstBuildSettings>()
@@ -70,8 +90,8 @@ class CppTarget : GenTargetDescriptor() {
 
 @Singleton
 class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
-	override val methodFeatures = setOf(SwitchFeature::class.java, GotosFeature::class.java)
-	override val methodFeaturesWithTraps = setOf(SwitchFeature::class.java)
+	override val methodFeaturesWithTraps = setOf(OptimizeFeature::class.java, SwitchFeature::class.java, SimdFeature::class.java)
+	override val methodFeatures = methodFeaturesWithTraps + GotosFeature::class.java
 	override val keywords = setOf(
 		"alignas", "alignof", "and", "and_eq", "asm", "atomic_cancel", "atomic_commit", "atomic_noexcept", "auto",
 		"bitand", "bitor", "bool", "break",
@@ -99,7 +119,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 			//programFile = File(configOutputFile.output),
 			programFile = configTargetFolder.targetFolder[configOutputFile.output].realfile,
 			debug = settings.debug,
-			libs = injector.get<ConfigLibraries>().libs
+			libs = injector.get<ConfigLibraries>().libs + gcMode.libs
 		)
 	}
 
@@ -111,33 +131,77 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 	}
 
 	override val allowAssignItself = true
+	val gcMode = CppGcMode.fromSettings(settings)
 	val lastClassId = program.classes.map { it.classId }.max() ?: 0
 
+	// Classes are numbered in preorder over the class hierarchy, so A is a subclass of B when pre(A) is in [pre(B), post(B)].
+	// Interfaces get an index in a per class bitset. Both tests are constant time.
+	class TypeInterval(val pre: Int, val post: Int)
+
+	// Arrays use the entry after the last class of the type table. Their preorder number is only inside the interval of java.lang.Object
+	val arrayTypeId = lastClassId + 1
+	var arrayPre = -1
+
+	val classIntervals: Map<AstClass, TypeInterval> = Unit.let {
+		val children = program.classes.filter { it.parentClass != null }.groupBy { it.parentClass!! }
+		val out = hashMapOf<AstClass, TypeInterval>()
+		var index = 0
+		fun explore(clazz: AstClass) {
+			val pre = index++
+			for (child in children[clazz] ?: listOf()) explore(child)
+			if (clazz.fqname == "java.lang.Object") arrayPre = index++
+			out[clazz] = TypeInterval(pre, index - 1)
+		}
+		for (root in program.classes.filter { it.parentClass == null }) explore(root)
+		out
+	}
+
+	val interfaceIndices: Map<AstClass, Int> = program.classes.filter { it.isInterface }.withIndex().associate { it.value to it.index }
+	val interfaceWords = Math.max(1, (interfaceIndices.size + 31) / 32)
+
+	fun AstClass.getInterfacesBitset(): List<Int> = getInterfacesBitset((if (this.isInterface) listOf(this) else listOf()) + this.allInterfacesInAncestors)
+
+	fun getInterfacesBitset(interfaces: List<AstClass>): List<Int> {
+		val words = IntArray(interfaceWords)
+		for (i in interfaces) {
+			val index = interfaceIndices[i] ?: continue
+			words[index / 32] = words[index / 32] or (1 shl (index % 32))
+		}
+		return words.toList()
+	}
+
 	fun generateTypeTableHeader() = Indenter.gen {
-		line("struct TYPE_INFO", after2 = ";") { line("const int *subtypes;") }
-		line("struct TYPE_TABLE { static int count; static TYPE_INFO TABLE[$lastClassId]; };")
-		line("const int TABLE_INFO_NULL[1] = {0};")
+		line("struct TYPE_INFO", after2 = ";") {
+			line("int pre;")
+			line("int post;")
+			line("const uint32_t *interfaces;")
+		}
+		line("struct TYPE_TABLE { static const int ARRAY = $arrayTypeId; static int count; static TYPE_INFO TABLE[${arrayTypeId + 1}]; };")
 	}
 
 	fun generateTypeTableFooter() = Indenter.gen {
 		for (clazz in ordereredClasses) {
-			val ids = clazz.getAllRelatedTypesIdsWith0AtEnd()
-			line("const int ${clazz.cppName}::TABLE_INFO[] = { ${ids.joinToString(", ")} };")
+			line("const uint32_t ${clazz.cppName}::INTERFACES[] = { ${clazz.getInterfacesBitset().map { "0x%08XU".format(it) }.joinToString(", ")} };")
 		}
 
-		line("int TYPE_TABLE::count = $lastClassId;")
-		line("TYPE_INFO TYPE_TABLE::TABLE[$lastClassId] =", after2 = ";") {
+		val arrayInterfaces = listOf("java.lang.Cloneable", "java.io.Serializable").mapNotNull { program.getOrNull(it.fqname) }
+		line("const uint32_t TYPE_TABLE_ARRAY_INTERFACES[] = { ${getInterfacesBitset(arrayInterfaces).map { "0x%08XU".format(it) }.joinToString(", ")} };")
+
+		line("int TYPE_TABLE::count = ${arrayTypeId + 1};")
+		line("TYPE_INFO TYPE_TABLE::TABLE[${arrayTypeId + 1}] =", after2 = ";") {
 			val classesById = program.classes.map { it.classId to it }.toMap()
 
 			@Suppress("LoopToCallChain")
-			for (n in 0 until lastClassId) {
+			for (n in 0..lastClassId) {
 				val clazz = classesById[n]
 				if (clazz != null) {
-					line("{ ${clazz.cppName}::TABLE_INFO },")
+					val interval = classIntervals[clazz]!!
+					line("{ ${interval.pre}, ${interval.post}, ${clazz.cppName}::INTERFACES },")
 				} else {
-					line("{ NULL },")
+					line("{ -1, -2, NULL },")
 				}
 			}
+			line("{ $arrayPre, $arrayPre, TYPE_TABLE_ARRAY_INTERFACES },")
 		}
 	}
 
@@ -166,8 +230,19 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		out.toList()
 	}
 
-	var prefixTempId = 0
-	val bodyPrefixes = arrayListOf<String>()
+	class CppGenState : GenState() {
+		var prefixTempId = 0
+		val bodyPrefixes = arrayListOf<String>()
+	}
+
+	override fun createGenState(): GenState = CppGenState()
+	override val parallelClassGeneration = true
+
+	val cppState: CppGenState get() = genState as CppGenState
+	var prefixTempId: Int
+		get() = cppState.prefixTempId
+		set(value) { cppState.prefixTempId = value }
+	val bodyPrefixes: ArrayList<String> get() = cppState.bodyPrefixes
 
 	override fun resetLocalsPrefix() {
 		prefixTempId = 0
@@ -255,13 +330,9 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		}
 
 		val impls = Indenter.gen {
-			for (clazz in ordereredClasses.filter { !it.isNative }) {
-				if (clazz.implCode != null) {
-					line(clazz.implCode!!)
-				} else {
-					line(writeClassImpl(clazz))
-				}
-			}
+			genPerClass(ordereredClasses.filter { !it.isNative }, { clazz ->
+				if (clazz.implCode != null) Indenter(clazz.implCode!!) else writeClassImpl(clazz)
+			}) { clazz, impl -> line(impl) }
 		}
 
 		val STRINGS = Indenter.gen {
@@ -286,6 +357,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 			}
 			if (TRACING_JUST_ENTER) line("#define TRACING_JUST_ENTER")
 			if (TRACING) line("#define TRACING")
+			if (gcMode == CppGcMode.BOEHM) line("#define JTRANSC_GC_BOEHM 1")
 			line(gen(program.resourcesVfs["cpp/Base.cpp"].readString(), extra = hashMapOf(
 				"HEADER" to HEADER.toString(),
 				"CLASS_REFERENCES" to CLASS_REFERENCES.toString(),
@@ -302,6 +374,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 
 
 		output[outputFile] = classesIndenter.toString()
+		if (checkElimination != null) log(checkElimination.report())
 
 		injector.mapInstance(ConfigCppOutput(output[outputFile]))
 
@@ -357,7 +430,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		val parts = if (clazz.isInterface) {
 			""
 		} else if (clazz.fqname == "java.lang.Object") {
-			"public std::enable_shared_from_this<java_lang_Object>"
+			"JTRANSC_OBJECT_BASE"
 		} else {
 			directExtendingAndImplementing.map { "public ${it.cppName}" }.joinToString(", ")
 		}
@@ -370,7 +443,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 
 			if (clazz.fqname == "java.lang.Object") {
 				line("int __INSTANCE_CLASS_ID;")
-				line("SOBJ sptr() { return shared_from_this(); };")
+				line("SOBJ sptr() { return SOBJ_FROM_THIS; };")
 			}
 			for (field in clazz.fields) {
 				val normalStatic = if (field.isStatic) "static " else ""
@@ -421,8 +494,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 			line("static bool SI_once;")
 			line("static void SI();")
 
-			val ids = (clazz.thisAndAncestors + clazz.allInterfacesInAncestors).distinct().map { it.classId }.filterNotNull() + listOf(-1)
-			line("static const int TABLE_INFO[${ids.size}];")
+			line("static const uint32_t INTERFACES[$interfaceWords];")
 
 			line("static ${clazz.cppName} *GET(java_lang_Object *obj);")
 			line("static ${clazz.cppName} *GET_npe(java_lang_Object *obj, const wchar_t *location);")
@@ -480,15 +552,13 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		}
 	}
 
-	val FEATURE_FOR_FUNCTION_WITH_TRAPS = setOf(OptimizeFeature::class.java, SwitchFeature::class.java, SimdFeature::class.java)
-	val FEATURE_FOR_FUNCTION_WITHOUT_TRAPS = (FEATURE_FOR_FUNCTION_WITH_TRAPS + GotosFeature::class.java)
+	val checkElimination = if (settings.extra["checkElimination"] != "false") AstCheckElimination(program) else null
 
 	override fun genBody2WithFeatures(method: AstMethod, body: AstBody): Indenter {
-		if (body.traps.isNotEmpty()) {
-			return features.apply(method, body, FEATURE_FOR_FUNCTION_WITH_TRAPS, settings, types).genBody()
-		} else {
-			return features.apply(method, body, FEATURE_FOR_FUNCTION_WITHOUT_TRAPS, settings, types).genBody()
-		}
+		val transformed = bodyWithFeatures(method, body)
+		// On the final body, so no later pass can remove a dereference that proves a fact
+		if (checkElimination != null) synchronized(body) { checkElimination.analyze(transformed) }
+		return transformed.genBody()
 	}
 
 	fun writeMethod(method: AstMethod): Indenter = Indenter.gen {
@@ -509,6 +579,16 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 			line("""const wchar_t *FUNCTION_NAME = L"${method.containingClass.name}::${method.name}::${method.desc}";""")
 			line("""TRACE_REGISTER(FUNCTION_NAME);""")
 
+			if (method.modifiers.isSynchronized) {
+				if (method.isStatic) {
+					// Resolved once, the first time the method is entered
+					line("static SOBJ __monitorClass = ${clazz.astType.escapeType};")
+					line("JT_MONITOR_GUARD __monitor(__monitorClass);")
+				} else {
+					line("JT_MONITOR_GUARD __monitor(this->sptr());")
+				}
+			}
+
 			setCurrentMethod(method)
 			val body = method.body
 
@@ -549,16 +629,36 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 	override fun genBodyLocal(local: AstLocal) = Indenter("${local.type.cppString} ${local.targetName} = ${local.type.nativeDefaultString};")
 
 	override fun genExprArrayLength(e: AstExpr.ARRAY_LENGTH): String = "((JA_0*)${e.array.genNotNull()}.get())->length"
+
+	override fun genExprArrayAccess(e: AstExpr.ARRAY_ACCESS): String {
+		return arrayGet(e.array.type as AstType.ARRAY, e.array.genNotNull(), e.index.genExpr(), e.notNull, e.inBounds)
+	}
+
+	override fun genStmSetArray(stm: AstStm.SET_ARRAY): Indenter {
+		return Indenter.single(arraySet(stm.array.type as AstType.ARRAY, stm.array.genNotNull(), stm.index.genExpr(), stm.expr.genExpr(), stm.notNull, stm.inBounds))
+	}
+
 	override fun N_AGET_T(arrayType: AstType.ARRAY, elementType: AstType, array: String, index: String): String {
-		val getMethod = if (context.useUnsafeArrays) "get" else "fastGet"
-		return "((${getUnderlyingType(arrayType)})(N::ensureNpe($array, FUNCTION_NAME).get()))->$getMethod($index)"
+		return arrayGet(arrayType, array, index, notNull = false, inBounds = false)
 	}
 
 	override fun N_ASET_T(arrayType: AstType.ARRAY, elementType: AstType, array: String, index: String, value: String): String {
-		val setMethod = if (context.useUnsafeArrays) "set" else "fastSet"
-		return "((${getUnderlyingType(arrayType)})(N::ensureNpe($array, FUNCTION_NAME).get()))->$setMethod($index, $value);"
+		return arraySet(arrayType, array, index, value, notNull = false, inBounds = false)
 	}
 
+	// Accesses are bounds checked unless AstCheckElimination proves them in bounds or the method is @JTranscUnsafeFastArrays
+	private fun arrayGet(arrayType: AstType.ARRAY, array: String, index: String, notNull: Boolean, inBounds: Boolean): String {
+		val getMethod = if (inBounds || context.useUnsafeArrays) "uncheckedGet" else "get"
+		return "((${getUnderlyingType(arrayType)})(${ensureNotNull(array, notNull)}.get()))->$getMethod($index)"
+	}
+
+	private fun arraySet(arrayType: AstType.ARRAY, array: String, index: String, value: String, notNull: Boolean, inBounds: Boolean): String {
+		val setMethod = if (inBounds || context.useUnsafeArrays) "uncheckedSet" else "set"
+		return "((${getUnderlyingType(arrayType)})(${ensureNotNull(array, notNull)}.get()))->$setMethod($index, $value);"
+	}
+
+	private fun ensureNotNull(objStr: String, notNull: Boolean): String = if (notNull) "($objStr)" else "N::ensureNpe($objStr, FUNCTION_NAME)"
+
 	private fun isThisOrThisWithCast(e: AstExpr): Boolean {
 		return when (e) {
 			is AstExpr.THIS -> true
@@ -571,11 +671,11 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		}
 	}
 
-	private fun getPtr(clazz: AstClass, objStr: String): String {
+	private fun getPtr(clazz: AstClass, objStr: String, notNull: Boolean = false): String {
 		if (clazz.isInterface) {
-			return "(dynamic_cast<${clazz.cppName}*>(N::ensureNpe($objStr, FUNCTION_NAME).get()))"
+			return "(dynamic_cast<${clazz.cppName}*>(${ensureNotNull(objStr, notNull)}.get()))"
 		} else {
-			return "(static_cast<${clazz.cppName}*>(N::ensureNpe($objStr, FUNCTION_NAME).get()))"
+			return "(static_cast<${clazz.cppName}*>(${ensureNotNull(objStr, notNull)}.get()))"
 		}
 	}
 
@@ -585,13 +685,24 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 			return "this$methodAccess(${args.joinToString(", ")})"
 		} else {
 			val objStr = e2.obj.genNotNull()
-			return "${getPtr(refMethodClass, objStr)}$methodAccess(${args.joinToString(", ")})"
+			return "${getPtr(refMethodClass, objStr, e2.notNull)}$methodAccess(${args.joinToString(", ")})"
 		}
 	}
 
 	override fun genExprCallBaseSuper(e2: AstExpr.CALL_SUPER, clazz: AstType.REF, refMethodClass: AstClass, method: AstMethodRef, methodAccess: String, args: List<String>): String {
 		val superMethod = refMethodClass[method.withoutClass] ?: invalidOp("Can't find super for method : $method")
-		return "${refMethodClass.ref.cppName}::${superMethod.targetName}(${args.joinToString(", ")})"
+		val call = "${refMethodClass.ref.cppName}::${superMethod.targetName}(${args.joinToString(", ")})"
+		if (isThisWithAnyCast(e2.obj.value)) return call
+		// Calls devirtualized by AstDevirtualizer are non-virtual calls on other objects. They always target a class
+		// (never an interface), and classes have a single java_lang_Object base, so a static_cast is enough
+		if (refMethodClass.isInterface) invalidOp("Can't call $method non-virtually on an interface")
+		return "${getPtr(refMethodClass, e2.obj.genNotNull())}->$call"
+	}
+
+	private fun isThisWithAnyCast(e: AstExpr): Boolean = when (e) {
+		is AstExpr.THIS -> true
+		is AstExpr.CAST -> isThisWithAnyCast(e.expr.value)
+		else -> false
 	}
 
 	override fun genExprCallBaseStatic(e2: AstExpr.CALL_STATIC, clazz: AstType.REF, refMethodClass: AstClass, method: AstMethodRef, methodAccess: String, args: List<String>): String {
@@ -679,8 +790,31 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		line("return (${context.method.returnTypeWithThis.cppString})${stm.retval.genExpr()};")
 	}
 
+	override fun genExprInstanceOf(e: AstExpr.INSTANCE_OF): String {
+		val exprType = e.expr.type
+		val checkType = e.checkType
+		if (exprType is AstType.REF && checkType is AstType.REF) {
+			val exprClass = program.getOrNull(exprType.name)
+			if (exprClass != null && exprClass.isSubtypeOf(program[checkType.name])) {
+				// Statically known to be a subtype: just a null check
+				refs.add(checkType)
+				return "((${e.expr.genExpr()}).get() != NULL)"
+			}
+		}
+		return super.genExprInstanceOf(e)
+	}
+
 	override fun N_is(a: String, b: AstType.Reference): String = when (b) {
-		is AstType.REF -> N_func("is", "($a), ${program[b.name].classId}")
+		is AstType.REF -> {
+			val clazz = program[b.name]
+			val index = interfaceIndices[clazz]
+			if (index != null) {
+				N_func("isInterface", "($a), ${index / 32}, ${"0x%08XU".format(1 shl (index % 32))}")
+			} else {
+				val interval = classIntervals[clazz]!!
+				N_func("isClass", "($a), ${interval.pre}, ${interval.post}")
+			}
+		}
 		is AstType.ARRAY -> N_func("isArray", "($a), L${b.mangle().quote()}")
 		else -> N_func("isUnknown", """$a, "Unsupported $b"""")
 	}
@@ -689,7 +823,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		if (isThisOrThisWithCast(e.expr.value)) {
 			return buildInstanceField("this", fixField(e.field))
 		} else {
-			return buildInstanceField("((" + e.field.containingTypeRef.underlyingCppString + ")(N::ensureNpe(" + e.expr.genNotNull() + ", FUNCTION_NAME).get()))", fixField(e.field))
+			return buildInstanceField("((" + e.field.containingTypeRef.underlyingCppString + ")(" + ensureNotNull(e.expr.genNotNull(), e.notNull) + ".get()))", fixField(e.field))
 		}
 	}
 
@@ -697,7 +831,7 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		val left2 = if (stm.left.value is AstExpr.THIS) {
 			buildInstanceField("this", fixField(stm.field))
 		} else {
-			buildInstanceField("((${stm.field.containingTypeRef.underlyingCppString})N::ensureNpe(" + stm.left.genExpr() + ", FUNCTION_NAME).get())", fixField(stm.field))
+			buildInstanceField("((${stm.field.containingTypeRef.underlyingCppString})" + ensureNotNull(stm.left.genExpr(), stm.notNull) + ".get())", fixField(stm.field))
 		}
 		val right2 = "(${stm.field.type.cppString})((${stm.field.type.cppString})(" + stm.expr.genExpr() + "))"
 
@@ -773,11 +907,20 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 
 	override fun genStmThrow(stm: AstStm.THROW): Indenter = Indenter.gen {
 		//line("""std::wcout << L"THROWING! ${context.clazz}:${context.method.name}" << L"\n";""")
-		line(super.genStmThrow(stm))
+		line("throw ${genThrown(stm.value.genExpr())};")
 	}
 
-	override fun genStmRethrow(stm: AstStm.RETHROW): Indenter {
-		return super.genStmRethrow(stm)
+	override fun genStmRethrow(stm: AstStm.RETHROW): Indenter = Indenter("throw ${genThrown("J__i__exception__")};")
+
+	// With the collector, thrown objects are kept alive while the C++ runtime holds them (N::throwing)
+	fun genThrown(expr: String): String = if (gcMode == CppGcMode.BOEHM) "N::throwing($expr)" else expr
+
+	override fun genStmMonitorEnter(stm: AstStm.MONITOR_ENTER) = indent {
+		line("N::monitorEnter(" + stm.expr.genExpr() + ");")
+	}
+
+	override fun genStmMonitorExit(stm: AstStm.MONITOR_EXIT) = indent {
+		line("N::monitorExit(" + stm.expr.genExpr() + ");")
 	}
 
 	override fun genStmLine(stm: AstStm.LINE) = indent {
@@ -806,6 +949,12 @@ class CppGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 
 	override fun buildAccessName(name: String, static: Boolean): String = if (static) "::$name" else "->$name"
 
+	// The object must be owned by a SOBJ before its constructor calls sptr()
+	override fun buildConstructor(method: AstMethod): String {
+		val clazz = method.containingClass.name.targetName
+		return "(static_cast<$clazz*>(SOBJ(new $clazz()).get()))" + buildAccessName(method.targetName, static = false)
+	}
+
 	fun getTypeStringForCpp(type: AstType): String = when (type) {
 		AstType.VOID -> "void"
 		AstType.BOOL -> "int8_t"
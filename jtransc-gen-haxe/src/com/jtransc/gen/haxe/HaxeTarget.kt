@@ -8,6 +8,7 @@ import com.jtransc.annotation.JTranscKeep
 import com.jtransc.annotation.haxe.*
 import com.jtransc.ast.*
 import com.jtransc.ast.feature.method.GotosFeature
+import com.jtransc.ast.feature.method.StringSwitchFeature
 import com.jtransc.ast.feature.method.SwitchFeature
 import com.jtransc.ds.concatNotNull
 import com.jtransc.ds.getOrPut2
@@ -105,9 +106,9 @@ class HaxeGenerator(injector: Injector) : FilePerClassCommonGenerator(injector)
 
 	val subtarget = injector.get<ConfigSubtarget>().subtarget
 	override val methodFeatures = if (ENABLE_HXCPP_GOTO_HACK && (subtarget in setOf("cpp", "windows", "linux", "mac", "android"))) {
-		super.methodFeatures + setOf(SwitchFeature::class.java, GotosFeature::class.java)
+		super.methodFeatures + setOf(SwitchFeature::class.java, StringSwitchFeature::class.java, GotosFeature::class.java)
 	} else {
-		super.methodFeatures + setOf(SwitchFeature::class.java)
+		super.methodFeatures + setOf(SwitchFeature::class.java, StringSwitchFeature::class.java)
 	}
 	override val keywords = super.keywords + setOf(
 		//////////////////////
@@ -357,6 +358,11 @@ class HaxeGenerator(injector: Injector) : FilePerClassCommonGenerator(injector)
 
 	override fun genExprThis(e: AstExpr.THIS): String = "this"
 
+	override fun genExprStringSwitch(e: AstExpr.STRING_SWITCH): String {
+		val cases = e.cases.map { "case ${it.first.quote()}: ${it.second};" }.joinToString(" ")
+		return "(switch (N.istr(N.checkNotNull(${e.subject.genExpr()}))) { $cases default: -1; })"
+	}
+
 	private fun getStringId(id: Int) = "__str$id"
 	override val String.escapeString: String get() = getStringId(allocString(context.clazz.name, this))
 
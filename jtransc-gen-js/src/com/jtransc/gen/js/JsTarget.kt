@@ -4,7 +4,9 @@ import com.jtransc.ConfigOutputFile
 import com.jtransc.ConfigTargetDirectory
 import com.jtransc.annotation.JTranscCustomMainList
 import com.jtransc.ast.*
+import com.jtransc.ast.feature.method.StringSwitchFeature
 import com.jtransc.ast.feature.method.SwitchFeature
+import com.jtransc.ast.optimize.AstCheckElimination
 import com.jtransc.ds.Allocator
 import com.jtransc.ds.getOrPut2
 import com.jtransc.error.invalidOp
@@ -62,15 +64,58 @@ class JsTarget() : GenTargetDescriptor() {
 
 data class ConfigJavascriptOutput(val javascriptOutput: SyncVfsFile)
 
+// Representation of java longs in the generated program. Selected with the "long" key of the extra settings.
+enum class JsLongMode(val id: String) {
+	// Int64 {high, low} objects: runs everywhere, but every long operation allocates
+	INT64("int64"),
+	// Native BigInt values and BigInt64Array for long[]: requires node >= 10.4 or a recent browser
+	BIGINT("bigint");
+
+	companion object {
+		val DEFAULT = INT64
+		fun fromSettings(settings: AstBuildSettings): JsLongMode {
+			val id = settings.extra["long"] ?: return DEFAULT
+			return values().firstOrNull { it.id == id } ?: invalidOp("Unsupported js long '$id' (${values().map { it.id }})")
+		}
+	}
+}
+
+// How java.lang.Thread runs in the generated program. Selected with the "threads" key of the extra settings.
+enum class JsThreadMode(val id: String) {
+	// Started threads run in the thread that starts them, before start() returns
+	EMULATED("emulated"),
+	// Started threads run on node worker_threads, sharing primitive arrays through SharedArrayBuffer: requires node >= 12
+	WORKERS("workers");
+
+	companion object {
+		val DEFAULT = EMULATED
+		fun fromSettings(settings: AstBuildSettings): JsThreadMode {
+			val id = settings.extra["threads"] ?: return DEFAULT
+			return values().firstOrNull { it.id == id } ?: invalidOp("Unsupported js threads '$id' (${values().map { it.id }})")
+		}
+	}
+}
+
 fun hasSpecialChars(name: String): Boolean = !name.all { it.isLetterDigitOrUnderscore() }
 fun accessStr(name: String): String = if (hasSpecialChars(name)) "[${name.quote()}]" else ".$name"
 
 @Suppress("ConvertLambdaToReference")
 @Singleton
 class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
-	override val methodFeatures = super.methodFeatures + setOf(SwitchFeature::class.java)
+	override val methodFeatures = super.methodFeatures + setOf(SwitchFeature::class.java, StringSwitchFeature::class.java)
 	override val keywords = super.keywords + setOf("name", "constructor", "prototype", "__proto__", "G", "N", "S", "SS", "IO")
 	override val stringPoolType = StringPool.Type.GLOBAL
+	val longMode = JsLongMode.fromSettings(settings)
+	val bigintLongs = longMode == JsLongMode.BIGINT
+	val workers = JsThreadMode.fromSettings(settings) == JsThreadMode.WORKERS
+	override val parallelClassGeneration = true
+
+	class JsGenState : GenState() {
+		var stringSwitchId = 0
+	}
+
+	override fun createGenState(): GenState = JsGenState()
+	val jsState: JsGenState get() = genState as JsGenState
 
 	override fun compileAndRun(redirect: Boolean): ProcessResult2 = _compileRun(run = true, redirect = redirect)
 	override fun compile(): ProcessResult2 = _compileRun(run = false, redirect = false)
@@ -100,17 +145,6 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 	override fun writeProgram(output: SyncVfsFile) {
 		val concatFilesTrans = copyFiles(output)
 
-		val classesIndenter = arrayListOf<Indenter>()
-
-		classesIndenter += genClassesWithoutAppends(output)
-
-		val SHOW_SIZE_REPORT = true
-		if (SHOW_SIZE_REPORT) {
-			for ((clazz, text) in indenterPerClass.toList().map { it.first to it.second.toString() }.sortedBy { it.second.length }) {
-				log.info("CLASS SIZE: ${clazz.fqname} : ${text.length}")
-			}
-		}
-
 		val mainClassFq = program.entrypoint
 		val mainClass = mainClassFq.targetClassFqName
 		//val mainMethod = program[mainClassFq].getMethod("main", AstType.build { METHOD(VOID, ARRAY(STRING)) }.desc)!!.jsName
@@ -133,52 +167,68 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 			"mainMethod" to mainMethod
 		))
 
-		val strs = Indenter.gen {
-			val strs = getGlobalStrings()
-			val maxId = strs.maxBy { it.id }?.id ?: 0
-			line("SS = new Array($maxId);")
-			for (e in strs) line("SS[${e.id}] = ${e.str.quote()};")
-		}
+		val sources = Allocator<String>()
+		val mappings = hashMapOf<Int, Sourcemaps.MappingItem>()
+		val incremental = openIncrementalChunks(output[outputFileBaseName + ".chunks"])
+
+		// Classes are written to the file as they are generated. The string table goes after them since
+		// strings are allocated while generating, and SS is not read until __buildStrings() is called.
+		output[outputFileBaseName].ensureParentDir().writeStream { stream ->
+			val streamWriter = stream.writer(Charsets.UTF_8)
+			val writer = Indenter.Writer(streamWriter) { line, data ->
+				if (settings.debug && data is AstStm.LINE) {
+					mappings[line] = Sourcemaps.MappingItem(
+						sourceIndex = sources.allocateOnce(data.file),
+						sourceLine = data.line,
+						sourceColumn = 0,
+						targetColumn = 0
+					)
+				}
+			}
 
-		val out = Indenter.gen {
-			if (settings.debug) line("//# sourceMappingURL=program.js.map")
-			line(concatFilesTrans.prepend)
-			line(strs.toString())
-			for (indent in classesIndenter) line(indent)
-			val mainClassClass = program[mainClassFq]
-
-			line("__createJavaArrays();")
-			line("__buildStrings();")
-			line("N.linit();")
-			line(genStaticConstructorsSorted())
-			//line(buildStaticInit(mainClassFq))
-			val mainMethod2 = mainClassClass[AstMethodRef(mainClassFq, "main", AstType.METHOD(AstType.VOID, listOf(ARRAY(AstType.STRING))))]
-			val mainCall = buildMethod(mainMethod2, static = true)
-			line("$mainCall(N.strArray(N.args()));")
-			line(concatFilesTrans.append)
+			if (settings.debug) writer.write("//# sourceMappingURL=program.js.map")
+			writer.write(concatFilesTrans.prepend)
+			writeClassesWithoutAppends(writer)
+			if (incremental != null) writer.write(Indenter.gen { for (clazz in sortedClasses.filter { it.implCode == null }) line(genClassIds(clazz)) })
+			writer.write(Indenter.gen {
+				val strs = getGlobalStrings()
+				val maxId = strs.maxBy { it.id }?.id ?: 0
+				line("SS = new Array($maxId);")
+				for (e in strs) line("SS[${e.id}] = ${e.str.quote()};")
+			})
+			writer.write(Indenter.gen {
+				val mainClassClass = program[mainClassFq]
+
+				// Workers decode the objects they receive with the constructors of their classes
+				if (workers) line("N.initWorkers({ ${sortedClasses.joinToString(", ") { "${it.classId}: ${it.name.targetName}" }} });")
+				line("__createJavaArrays();")
+				line("__buildStrings();")
+				line(if (bigintLongs) "N.linitBigInt();" else "N.linit();")
+				line(genStaticConstructorsSorted())
+				//line(buildStaticInit(mainClassFq))
+				val mainMethod2 = mainClassClass[AstMethodRef(mainClassFq, "main", AstType.METHOD(AstType.VOID, listOf(ARRAY(AstType.STRING))))]
+				val mainCall = buildMethod(mainMethod2, static = true)
+				if (workers) {
+					line("if (N.isWorker()) N.workerMain(); else $mainCall(N.strArray(N.args()));")
+				} else {
+					line("$mainCall(N.strArray(N.args()));")
+				}
+				line(concatFilesTrans.append)
+			})
+			streamWriter.flush()
 		}
 
-		val sources = Allocator<String>()
-		val mappings = hashMapOf<Int, Sourcemaps.MappingItem>()
+		incremental?.save(getGlobalStrings().map { it.str })
+		if (checkElimination != null) log(checkElimination.report())
 
-		val source = out.toString { sb, line, data ->
-			if (settings.debug && data is AstStm.LINE) {
-				//println("MARKER: ${sb.length}, $line, $data, ${clazz.source}")
-				mappings[line] = Sourcemaps.MappingItem(
-					sourceIndex = sources.allocateOnce(data.file),
-					sourceLine = data.line,
-					sourceColumn = 0,
-					targetColumn = 0
-				)
-				//clazzName.internalFqname + ".java"
+		val SHOW_SIZE_REPORT = true
+		if (SHOW_SIZE_REPORT) {
+			for ((clazz, size) in classSizes.toList().sortedBy { it.second }) {
+				log.info("CLASS SIZE: ${clazz.fqname} : $size")
 			}
 		}
 
-		val sourceMap = if (settings.debug) Sourcemaps.encodeFile(sources.array, mappings) else null
-		// Generate source
-		//println("outputFileBaseName:$outputFileBaseName")
-		output[outputFileBaseName] = source
-		if (sourceMap != null) output[outputFileBaseName + ".map"] = sourceMap
+		if (settings.debug) output[outputFileBaseName + ".map"] = Sourcemaps.encodeFile(sources.array, mappings)
 
 		injector.mapInstance(ConfigJavascriptOutput(output[outputFile]))
 	}
@@ -197,6 +247,10 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		}
 	}
 
+	// Without workers there is a single thread, and monitors are not needed
+	override fun genStmMonitorEnter(stm: AstStm.MONITOR_ENTER) = if (workers) indent { line("N.monitorEnter(${stm.expr.genExpr()});") } else super.genStmMonitorEnter(stm)
+	override fun genStmMonitorExit(stm: AstStm.MONITOR_EXIT) = if (workers) indent { line("N.monitorExit(${stm.expr.genExpr()});") } else super.genStmMonitorExit(stm)
+
 	override fun genStmRethrow(stm: AstStm.RETHROW) = indent { line("throw J__i__exception__;") }
 
 	override fun genBodyLocals(locals: List<AstLocal>) = indent {
@@ -212,15 +266,52 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 		line(buildStaticInit(clazzRef.name))
 	}
 
-	override fun N_AGET_T(arrayType: AstType.ARRAY, elementType: AstType, array: String, index: String) = "($array.data[$index])"
-	override fun N_ASET_T(arrayType: AstType.ARRAY, elementType: AstType, array: String, index: String, value: String) = "$array.data[$index] = $value;"
+	val checkElimination = if (settings.extra["checkElimination"] != "false") AstCheckElimination(program) else null
+
+	override fun genBody2WithFeatures(method: AstMethod, body: AstBody): Indenter {
+		val transformed = bodyWithFeatures(method, body)
+		// On the final body, so no later pass can remove a dereference that proves a fact
+		if (checkElimination != null) synchronized(body) { checkElimination.analyze(transformed) }
+		return transformed.genBody()
+	}
+
+	override fun genExprArrayAccess(e: AstExpr.ARRAY_ACCESS): String = arrayGet(e.array.genNotNull(), e.index.genExpr(), e.notNull, e.inBounds)
+	override fun genStmSetArray(stm: AstStm.SET_ARRAY) = Indenter.single(arraySet(stm.array.genNotNull(), stm.index.genExpr(), stm.expr.genExpr(), stm.notNull, stm.inBounds))
+
+	override fun N_AGET_T(arrayType: AstType.ARRAY, elementType: AstType, array: String, index: String) = arrayGet(array, index, notNull = false, inBounds = false)
+	override fun N_ASET_T(arrayType: AstType.ARRAY, elementType: AstType, array: String, index: String, value: String) = arraySet(array, index, value, notNull = false, inBounds = false)
+
+	// As in C++: typed arrays don't throw out of bounds, so only accesses proven in bounds by AstCheckElimination
+	// or in @JTranscUnsafeFastArrays methods index them directly
+	private fun arrayGet(array: String, index: String, notNull: Boolean, inBounds: Boolean): String {
+		return if (inBounds || context.useUnsafeArrays) "(${ensureNotNull(array, notNull)}.data[$index])" else "N.aget($array, $index)"
+	}
+
+	private fun arraySet(array: String, index: String, value: String, notNull: Boolean, inBounds: Boolean): String {
+		return if (inBounds || context.useUnsafeArrays) "${ensureNotNull(array, notNull)}.data[$index] = $value;" else "N.aset($array, $index, $value);"
+	}
+
+	private fun ensureNotNull(array: String, notNull: Boolean): String = if (notNull) array else "N.checkNotNull($array)"
+
+	// Class ids depend on every class discovered before, so incremental chunks don't include them. They read
+	// the ids of the classes, that are set after writing all the chunks.
+	fun getClassId(clazz: AstClass): String {
+		return if (incrementalChunks != null) "${clazz.name.targetName}.prototype.\$\$CLASS_ID" else "${clazz.classId}"
+	}
+
+	fun genClassIds(clazz: AstClass): Indenter = Indenter.gen {
+		val classBase = clazz.name.targetName
+		val relatedTypesIds = clazz.getAllRelatedTypes().map { it.classId }
+		line("$classBase.prototype.\$\$CLASS_ID = ${clazz.classId};")
+		line("$classBase.prototype.\$\$CLASS_IDS = [${relatedTypesIds.joinToString(",")}];")
+	}
 
 	override fun N_is(a: String, b: AstType.Reference): String {
 		return when (b) {
 			is AstType.REF -> {
 				val clazz = program[b]!!
 				if (clazz.isInterface) {
-					"N.isClassId($a, ${clazz.classId})"
+					"N.isClassId($a, ${getClassId(clazz)})"
 				} else {
 					"($a instanceof ${b.targetName})"
 				}
@@ -240,7 +331,7 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 	override fun N_i2s(str: String) = "(($str)<<16>>16)" // shifts use 32-bit integers
 	override fun N_f2i(str: String) = "(($str)|0)"
 	override fun N_i2i(str: String) = N_i(str)
-	override fun N_i2j(str: String) = "N.i2j($str)"
+	override fun N_i2j(str: String) = if (bigintLongs) "BigInt($str)" else "N.i2j($str)"
 	override fun N_i2f(str: String) = "Math.fround(+($str))"
 	override fun N_i2d(str: String) = "+($str)"
 	override fun N_f2f(str: String) = "Math.fround($str)"
@@ -248,14 +339,14 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 	override fun N_d2f(str: String) = "Math.fround(+($str))"
 	override fun N_d2i(str: String) = "(($str)|0)"
 	override fun N_d2d(str: String) = "+($str)"
-	override fun N_l2i(str: String) = "N.l2i($str)"
+	override fun N_l2i(str: String) = if (bigintLongs) "Number(BigInt.asIntN(32, $str))" else "N.l2i($str)"
 	override fun N_l2l(str: String) = "($str)"
-	override fun N_l2f(str: String) = "Math.fround(N.l2d($str))"
-	override fun N_l2d(str: String) = "N.l2d($str)"
+	override fun N_l2f(str: String) = "Math.fround(${N_l2d(str)})"
+	override fun N_l2d(str: String) = if (bigintLongs) "Number($str)" else "N.l2d($str)"
 	override fun N_getFunction(str: String) = "N.getFunction($str)"
 	override fun N_c(str: String, from: AstType, to: AstType) = "($str)"
-	override fun N_lneg(str: String) = "N.lneg($str)"
-	override fun N_linv(str: String) = "N.linv($str)"
+	override fun N_lneg(str: String) = if (bigintLongs) "BigInt.asIntN(64, -($str))" else "N.lneg($str)"
+	override fun N_linv(str: String) = if (bigintLongs) "(~($str))" else "N.linv($str)"
 	override fun N_ineg(str: String) = "-($str)"
 	override fun N_iinv(str: String) = "~($str)"
 	override fun N_fneg(str: String) = "-($str)"
@@ -263,6 +354,25 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 	override fun N_znot(str: String) = "!($str)"
 	override fun N_imul(l: String, r: String): String = "Math.imul($l, $r)"
 
+	// BigInt operators are emitted inline and wrapped back to 64 bits where they can overflow.
+	// Division, remainder, comparison and double conversions keep going through N to preserve java semantics.
+	override fun N_lnew(value: Long) = if (bigintLongs) "(${value}n)" else super.N_lnew(value)
+	override fun N_ladd(l: String, r: String) = if (bigintLongs) "BigInt.asIntN(64, $l + $r)" else super.N_ladd(l, r)
+	override fun N_lsub(l: String, r: String) = if (bigintLongs) "BigInt.asIntN(64, $l - $r)" else super.N_lsub(l, r)
+	override fun N_lmul(l: String, r: String) = if (bigintLongs) "BigInt.asIntN(64, $l * $r)" else super.N_lmul(l, r)
+	override fun N_leq(l: String, r: String) = if (bigintLongs) N_c_eq(l, r) else super.N_leq(l, r)
+	override fun N_lne(l: String, r: String) = if (bigintLongs) N_c_ne(l, r) else super.N_lne(l, r)
+	override fun N_lge(l: String, r: String) = if (bigintLongs) N_c_ge(l, r) else super.N_lge(l, r)
+	override fun N_lle(l: String, r: String) = if (bigintLongs) N_c_le(l, r) else super.N_lle(l, r)
+	override fun N_llt(l: String, r: String) = if (bigintLongs) N_c_lt(l, r) else super.N_llt(l, r)
+	override fun N_lgt(l: String, r: String) = if (bigintLongs) N_c_gt(l, r) else super.N_lgt(l, r)
+	override fun N_land(l: String, r: String) = if (bigintLongs) N_c_and(l, r) else super.N_land(l, r)
+	override fun N_lor(l: String, r: String) = if (bigintLongs) N_c_or(l, r) else super.N_lor(l, r)
+	override fun N_lxor(l: String, r: String) = if (bigintLongs) N_c_xor(l, r) else super.N_lxor(l, r)
+	override fun N_lshl(l: String, r: String) = if (bigintLongs) "BigInt.asIntN(64, $l << BigInt(($r) & 63))" else super.N_lshl(l, r)
+	override fun N_lshr(l: String, r: String) = if (bigintLongs) "($l >> BigInt(($r) & 63))" else super.N_lshr(l, r)
+	override fun N_lushr(l: String, r: String) = if (bigintLongs) "BigInt.asIntN(64, BigInt.asUintN(64, $l) >> BigInt(($r) & 63))" else super.N_lushr(l, r)
+
 	override val String.escapeString: String get() = "S[" + allocString(context.clazz.name, this) + "]"
 
 	override fun genExprCallBaseSuper(e2: AstExpr.CALL_SUPER, clazz: AstType.REF, refMethodClass: AstClass, method: AstMethodRef, methodAccess: String, args: List<String>): String {
@@ -274,8 +384,18 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 
 	private fun AstMethod.getJsNativeBodies(): Map<String, Indenter> = this.getNativeBodies(target = "js")
 
+	// Maps from strings to case indices are built on first use and stored in the class
+	override fun genExprStringSwitch(e: AstExpr.STRING_SWITCH): String {
+		val classBase = context.clazz.name.targetName
+		val key = "\$\$sw${jsState.stringSwitchId++}"
+		val values = e.cases.map { it.first.quote() }.joinToString(", ")
+		val indices = e.cases.map { it.second }.joinToString(", ")
+		return "N.strSwitch($classBase${accessStr(key)} || N.strSwitchInit($classBase, ${key.quote()}, [$values], [$indices]), ${e.subject.genExpr()})"
+	}
+
 	override fun genClass(clazz: AstClass): Indenter {
 		setCurrentClass(clazz)
+		jsState.stringSwitchId = 0
 
 		val isAbstract = (clazz.classType == AstClassType.ABSTRACT)
 		refs._usedDependencies.clear()
@@ -348,9 +468,7 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 				line("$classBase.SI = function(){};")
 			}
 
-			val relatedTypesIds = clazz.getAllRelatedTypes().map { it.classId }
-			line("$classBase.prototype.\$\$CLASS_ID = ${clazz.classId};")
-			line("$classBase.prototype.\$\$CLASS_IDS = [${relatedTypesIds.joinToString(",")}];")
+			if (incrementalChunks == null) line(genClassIds(clazz))
 
 			//renderFields(clazz.fields);
 
@@ -370,8 +488,20 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 					fun renderBranch(actualBody: Indenter?) = Indenter.gen {
 						if (actualBody != null) {
 							line("$prefix = function(${margs.joinToString(", ")})", after2 = ";") {
-								line(actualBody)
-								if (method.methodVoidReturnThis) line("return this;")
+								if (workers && method.modifiers.isSynchronized) {
+									val lock = if (method.isStatic) classBase else "this"
+									line("N.monitorEnter($lock);")
+									line("try") {
+										line(actualBody)
+										if (method.methodVoidReturnThis) line("return this;")
+									}
+									line("finally") {
+										line("N.monitorExit($lock);")
+									}
+								} else {
+									line(actualBody)
+									if (method.methodVoidReturnThis) line("return this;")
+								}
 							}
 						} else {
 							line("$prefix = function() { N.methodWithoutBody('${clazz.name}.${method.name}') };")
@@ -466,7 +596,7 @@ class JsGenerator(injector: Injector) : SingleFileCommonGenerator(injector) {
 
 	override fun buildAccessName(name: String, static: Boolean): String = accessStr(name)
 
-	override val FqName.targetName: String get() = classNames.getOrPut2(this) { if (minimize) allocClassName() else this.fqname.replace('.', '_') }
+	override val FqName.targetName: String get() = synchronized(namesLock) { classNames.getOrPut2(this) { if (minimize) allocClassName() else this.fqname.replace('.', '_') } }
 
 	override fun cleanMethodName(name: String): String = name
 
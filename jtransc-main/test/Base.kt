@@ -64,6 +64,7 @@ open class Base {
 		debug: Boolean? = null,
 		log: Boolean? = null,
 		treeShaking: Boolean? = null,
+		extra: Map<String?, String?> = mapOf(),
 		noinline transformer: (String) -> String = { it },
 		noinline transformerOut: (String) -> String = { it }
 	) {
@@ -71,7 +72,7 @@ open class Base {
 			testClass(
 				minimize = minimize, analyze = analyze, lang = lang,
 				clazz = T::class.java, transformer = transformer, transformerOut = transformerOut,
-				target = target, debug = debug, treeShaking = treeShaking
+				target = target, debug = debug, treeShaking = treeShaking, extra = extra
 			)
 		}
 	}
@@ -91,12 +92,13 @@ open class Base {
 	fun <T : Any> testClass(
 		minimize: Boolean? = null, analyze: Boolean? = null, lang: String, clazz: Class<T>, debug: Boolean? = null, target: GenTargetDescriptor? = null,
 		treeShaking: Boolean? = null,
+		extra: Map<String?, String?> = mapOf(),
 		transformer: (String) -> String,
 		transformerOut: (String) -> String
 	) {
 		println(clazz.name)
 		val expected = transformer(ClassUtils.callMain(clazz))
-		val result = transformerOut(runClass(clazz, minimize = minimize, analyze = analyze, lang = lang, target = target, debug = debug, treeShaking = treeShaking))
+		val result = transformerOut(runClass(clazz, minimize = minimize, analyze = analyze, lang = lang, target = target, debug = debug, treeShaking = treeShaking, extra = extra))
 		Assert.assertEquals(normalize(expected), normalize(result))
 	}
 
@@ -127,7 +129,8 @@ open class Base {
 		analyze: Boolean?, debug: Boolean? = null,
 		treeShaking: Boolean? = null,
 		//target: GenTargetDescriptor = HaxeTarget
-		target: GenTargetDescriptor? = null
+		target: GenTargetDescriptor? = null,
+		extra: Map<String?, String?> = mapOf()
 	): String {
 		val injector = Injector()
 		val projectRoot = locateProjectRoot()
@@ -159,6 +162,7 @@ open class Base {
 					debug = debug ?: DEBUG,
 					relooper = RELOOPER,
 					analyzer = analyze ?: ANALYZER,
+					extra = extra,
 					rtAndRtCore = listOf(
 						projectRoot["jtransc-rt/target/classes"].realpathOS,
 						projectRoot["jtransc-rt/build/classes/main"].realpathOS,
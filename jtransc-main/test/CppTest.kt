@@ -17,9 +17,14 @@
 import big.HelloWorldTest
 import com.jtransc.gen.cpp.CppTarget
 import com.jtransc.gen.d.DTarget
+import javatest.lang.ArrayChecksTest
+import javatest.lang.GcTest
+import javatest.lang.InstanceOfTest
 import jtransc.jtransc.nativ.JTranscCppNativeMixedTest
 import jtransc.jtransc.nativ.JTranscDNativeMixedTest
 import org.junit.Test
+import threading.MonitorTest
+import threading.ThreadingTest
 
 class CppTest : Base() {
 	//override val TREESHAKING: Boolean = false
@@ -27,6 +32,19 @@ class CppTest : Base() {
 
 	@Test fun testHelloWorld() = testClass<HelloWorldTest>(minimize = false, target = CppTarget(), log = false)
 
+	@Test fun testThreading() = testClass<ThreadingTest>(minimize = false, target = CppTarget(), log = false)
+
+	@Test fun testMonitors() = testClass<MonitorTest>(minimize = false, target = CppTarget(), log = false)
+
+	@Test fun testInstanceOf() = testClass<InstanceOfTest>(minimize = false, target = CppTarget(), log = false)
+
+	@Test fun testArrayChecks() = testClass<ArrayChecksTest>(minimize = false, target = CppTarget(), log = false)
+
+	@Test fun testGc() = testClass<GcTest>(minimize = false, target = CppTarget(), log = false)
+
+	// Needs libgc installed
+	@Test fun testGcBoehm() = testClass<GcTest>(minimize = false, target = CppTarget(), log = false, extra = mapOf("gc" to "boehm"))
+
 	//@Test fun testMixed() = testNativeClass<JTranscCppNativeMixedTest>("""
 	//	JTranscReinterpretArrays:
 	//	bytes:8 : [0, 0, 0, 0, 0, 0, 0, 0]
@@ -16,7 +16,9 @@
 
 import big.HelloWorldTest
 import com.jtransc.gen.js.JsTarget
+import javatest.lang.ArrayChecksTest
 import javatest.misc.BenchmarkTest
+import javatest.utils.regex.RegexTest
 import jtransc.ExtraKeywordsTest
 import jtransc.ExtraRefsTest
 import jtransc.jtransc.nativ.JTranscJsNativeMixedTest
@@ -24,11 +26,15 @@ import jtransc.micro.MicroHelloWorld
 import jtransc.ref.MethodBodyReferencesTest
 import org.junit.Test
 import testservice.test.ServiceLoaderTest
+import threading.WorkerMonitorTest
 
 class JsTest : Base() {
 	@Test fun testMicroHelloWorld() = testClass<MicroHelloWorld>(minimize = false, target = JsTarget(), log = false, treeShaking = true)
 	@Test fun testHelloWorld() = testClass<HelloWorldTest>(minimize = false, target = JsTarget(), log = false)
 	@Test fun testBenchmarkTest() = testClass<BenchmarkTest>(minimize = false, target = JsTarget(), log = false)
+	@Test fun testRegex() = testClass<RegexTest>(minimize = false, target = JsTarget(), log = false)
+	@Test fun testArrayChecks() = testClass<ArrayChecksTest>(minimize = false, target = JsTarget(), log = false)
+	@Test fun testWorkerMonitors() = testClass<WorkerMonitorTest>(minimize = false, target = JsTarget(), log = false, extra = mapOf("threads" to "workers"))
 
 	@Test fun testServiceLoaderTest() = testNativeClass<ServiceLoaderTest>("""
 		TestServiceImpl1.test:ss
@@ -64,6 +64,7 @@ object BigTest {
 		JTranscStackTraceTest.main(args)
 		JTranscReflectionTest.main(args)
 		JTranscNioTest.main(args)
+		JTranscFileChannelTest.main(args)
 		JTranscArithmeticTest.main(args)
 		MathTest.main(args)
 		BasicTypesTest.main(args)
@@ -0,0 +1,60 @@
+package javatest.lang;
+
+public class ArrayChecksTest {
+	static public void main(String[] args) {
+		provenLoops();
+		outOfBounds();
+		nullArrays();
+	}
+
+	// Accesses the check elimination proves in bounds
+	static private void provenLoops() {
+		int[] ints = new int[16];
+		for (int n = 0; n < ints.length; n++) ints[n] = n * 3;
+		int sum = 0;
+		for (int n = 0; n < ints.length; n++) sum += ints[n];
+		byte[] bytes = new byte[256];
+		for (int n = 0; n < 1000; n++) bytes[n & 0xFF]++;
+		System.out.println("proven:" + sum + "," + bytes[0] + "," + bytes[255]);
+	}
+
+	static private int read(int[] array, int index) {
+		return array[index];
+	}
+
+	static private void write(Object[] array, int index, Object value) {
+		array[index] = value;
+	}
+
+	static private void outOfBounds() {
+		int[] ints = new int[4];
+		int[] indices = { -1, 4, 100, 3 };
+		for (int index : indices) {
+			try {
+				System.out.println("read:" + index + ":" + read(ints, index));
+			} catch (ArrayIndexOutOfBoundsException e) {
+				System.out.println("read:" + index + ":out of bounds");
+			}
+			try {
+				write(new String[4], index, "a");
+				System.out.println("write:" + index + ":ok");
+			} catch (ArrayIndexOutOfBoundsException e) {
+				System.out.println("write:" + index + ":out of bounds");
+			}
+		}
+	}
+
+	static private void nullArrays() {
+		try {
+			System.out.println("null.read:" + read(null, 0));
+		} catch (NullPointerException e) {
+			System.out.println("null.read:npe");
+		}
+		try {
+			write(null, 0, "a");
+			System.out.println("null.write:ok");
+		} catch (NullPointerException e) {
+			System.out.println("null.write:npe");
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package javatest.lang;
+
+import java.util.ArrayList;
+
+public class GcTest {
+	static public void main(String[] args) throws InterruptedException {
+		exceptionsWhileCollecting();
+		objectArraysWhileCollecting();
+	}
+
+	static private volatile boolean collecting;
+
+	// Another thread collects all the time, so collections happen while exceptions are being thrown
+	static private Thread startCollector() {
+		collecting = true;
+		Thread collector = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (collecting) {
+					ArrayList<int[]> garbage = new ArrayList<>();
+					for (int n = 0; n < 100; n++) garbage.add(new int[100]);
+					System.gc();
+				}
+			}
+		});
+		collector.start();
+		return collector;
+	}
+
+	static private class Payload {
+		final String text;
+
+		Payload(int n) {
+			this.text = "payload" + n;
+		}
+	}
+
+	static private class PayloadException extends RuntimeException {
+		final Payload payload;
+
+		PayloadException(int n) {
+			super("exception" + n);
+			this.payload = new Payload(n);
+		}
+	}
+
+	static private final Object lock = new Object();
+
+	static private void fail(int n, int depth) {
+		if (depth == 0) throw new PayloadException(n);
+		synchronized (lock) {
+			fail(n, depth - 1);
+		}
+	}
+
+	static private void rethrow(int n) {
+		try {
+			fail(n, 3);
+		} finally {
+			System.gc();
+		}
+	}
+
+	static private void exceptionsWhileCollecting() throws InterruptedException {
+		Thread collector = startCollector();
+		int ok = 0;
+		for (int n = 0; n < 2000; n++) {
+			try {
+				rethrow(n);
+			} catch (PayloadException e) {
+				if (e.getMessage().equals("exception" + n) && e.payload.text.equals("payload" + n)) ok++;
+			}
+		}
+		collecting = false;
+		collector.join();
+		System.out.println("exceptions.ok:" + ok);
+	}
+
+	static private void objectArraysWhileCollecting() throws InterruptedException {
+		Thread collector = startCollector();
+		Object[][] arrays = new Object[100][];
+		for (int n = 0; n < arrays.length; n++) {
+			arrays[n] = new Object[n];
+			for (int m = 0; m < n; m++) arrays[n][m] = new Payload(m);
+		}
+		System.gc();
+		int ok = 0;
+		for (int n = 0; n < arrays.length; n++) {
+			boolean same = true;
+			for (int m = 0; m < n; m++) same &= ((Payload) arrays[n][m]).text.equals("payload" + m);
+			if (same) ok++;
+		}
+		collecting = false;
+		collector.join();
+		System.out.println("arrays.ok:" + ok);
+	}
+}
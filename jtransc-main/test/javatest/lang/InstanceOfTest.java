@@ -0,0 +1,90 @@
+package javatest.lang;
+
+import java.io.Serializable;
+
+public class InstanceOfTest {
+	static public void main(String[] args) {
+		classes();
+		interfaces();
+		arrays();
+		casts();
+	}
+
+	interface Named {
+		String name();
+	}
+
+	interface Labeled extends Named {
+	}
+
+	interface Unused {
+	}
+
+	static private class A {
+	}
+
+	static private class B extends A implements Labeled {
+		public String name() {
+			return "B";
+		}
+	}
+
+	static private class C extends B {
+		public String name() {
+			return "C";
+		}
+	}
+
+	static private class D extends A implements Runnable {
+		public void run() {
+		}
+	}
+
+	static private Object[] objects() {
+		return new Object[] { new A(), new B(), new C(), new D(), "str", null };
+	}
+
+	static private void classes() {
+		for (Object o : objects()) {
+			System.out.println("classes:" + (o instanceof A) + "," + (o instanceof B) + "," + (o instanceof C) + "," + (o instanceof D) + "," + (o instanceof String) + "," + (o instanceof Object));
+		}
+	}
+
+	static private void interfaces() {
+		for (Object o : objects()) {
+			System.out.println("interfaces:" + (o instanceof Named) + "," + (o instanceof Labeled) + "," + (o instanceof Runnable) + "," + (o instanceof Unused) + "," + (o instanceof CharSequence) + "," + (o instanceof Comparable));
+		}
+	}
+
+	// Array types are only checked against their own type: the C++ target doesn't support covariant array checks (B[] instanceof A[])
+	static private void arrays() {
+		Object[] arrays = { new int[1], new long[1], new Object[1], new A[1], new int[1][1], new String[1] };
+		for (Object o : arrays) {
+			System.out.println("arrays:" + (o instanceof Object) + "," + (o instanceof Cloneable) + "," + (o instanceof Serializable) + "," + (o instanceof A) + "," + (o instanceof Named) + "," + (o instanceof Runnable));
+			System.out.println("arrays.exact:" + (o instanceof int[]) + "," + (o instanceof long[]) + "," + (o instanceof A[]) + "," + (o instanceof int[][]) + "," + (o instanceof String[]));
+		}
+		for (Object o : objects()) {
+			System.out.println("arrays.objects:" + (o instanceof Cloneable) + "," + (o instanceof int[]) + "," + (o instanceof Object[]));
+		}
+	}
+
+	// Only casts that succeed: the C++ target doesn't check reference casts, so it never throws ClassCastException
+	static private void casts() {
+		Object o = new C();
+		A a = (A) o;
+		Named named = (Named) a;
+		Labeled labeled = (Labeled) named;
+		B b = (B) labeled;
+		System.out.println("casts.interfaces:" + named.name() + "," + labeled.name() + "," + b.name() + "," + (a == o));
+
+		Object ints = new int[] { 1, 2, 3 };
+		int[] intArray = (int[]) ints;
+		Cloneable cloneable = (Cloneable) ints;
+		Serializable serializable = (Serializable) cloneable;
+		System.out.println("casts.arrays:" + intArray.length + "," + intArray[2] + "," + (serializable == ints));
+
+		Object bs = new B[] { new B(), new C() };
+		B[] bArray = (B[]) bs;
+		System.out.println("casts.objectArrays:" + bArray[0].name() + "," + bArray[1].name());
+	}
+}
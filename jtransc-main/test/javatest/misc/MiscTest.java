@@ -5,6 +5,7 @@ import com.jtransc.JTranscSystem;
 import com.jtransc.annotation.JTranscKeep;
 import com.jtransc.crypto.JTranscCrypto;
 import com.jtransc.ds.FastIntMap;
+import com.jtransc.ds.FastStringMap;
 import com.jtransc.io.JTranscConsole;
 import com.jtransc.simd.Float32x4;
 import com.jtransc.simd.MutableFloat32x4;
@@ -162,6 +163,11 @@ public class MiscTest {
 		testSwitch2(-1000);
 		testSwitch2(5050);
 		testSwitch2(3);
+		testStringSwitch("hello");
+		testStringSwitch("Aa");
+		testStringSwitch("BB");
+		testStringSwitch("world");
+		testStringSwitch("other");
 
 		Reader r = new Reader();
 		executionOrderTest(r, 10);
@@ -412,10 +418,42 @@ public class MiscTest {
 		map.remove(10);
 		System.out.println(map.has(10));
 		System.out.println(map.get(10));
+
+		// Enough keys to grow, colliding ones and key 0
+		for (int n = -100; n < 1000; n += 3) map.set(n * 1024, "v" + n);
+		for (int n = -100; n < 1000; n += 6) map.remove(n * 1024);
+		int count = 0, sum = 0;
+		for (int n = -100; n < 1000; n += 3) {
+			if (map.has(n * 1024)) {
+				count++;
+				sum += map.get(n * 1024).length();
+			}
+		}
+		System.out.println(count + "," + sum + "," + map.has(0) + "," + map.get(-97 * 1024));
 	}
 
 	private void testFastMapsString() {
 		System.out.println("testFastMapsString:");
+		FastStringMap<Integer> map = new FastStringMap<>();
+		System.out.println(map.has("a"));
+		System.out.println(map.get("a"));
+		map.set("a", 1);
+		map.set("a", 2);
+		System.out.println(map.has("a"));
+		System.out.println(map.get("a"));
+		map.remove("a");
+		System.out.println(map.has("a"));
+
+		for (int n = 0; n < 500; n++) map.set("key" + n, n);
+		for (int n = 0; n < 500; n += 2) map.remove("key" + n);
+		int count = 0, sum = 0;
+		for (int n = 0; n < 500; n++) {
+			if (map.has("key" + n)) {
+				count++;
+				sum += map.get("key" + n);
+			}
+		}
+		System.out.println(count + "," + sum + "," + map.get("key499") + "," + map.get("key498"));
 	}
 
 	private void testTime() {
@@ -876,6 +914,24 @@ public class MiscTest {
 		System.out.println("out");
 	}
 
+	// "Aa" and "BB" have the same hashCode
+	private void testStringSwitch(String s) {
+		switch (s) {
+			case "hello":
+				System.out.println("hello!");
+				break;
+			case "Aa":
+				System.out.println("Aa!");
+			case "BB":
+				System.out.println("BB!");
+				break;
+			case "world":
+				System.out.println("world!");
+			default:
+				System.out.println("default:" + s);
+		}
+	}
+
 	private void testLong1(long a, int b) {
 		System.out.println(a);
 		System.out.println(b);
@@ -13,6 +13,8 @@ public class RegexTest {
 		regexMatchesTest();
 		replaceTest();
 		testRegex();
+		alternationTest();
+		cacheTest();
 	}
 
 	private static void patternCreateTest() {
@@ -57,4 +59,27 @@ public class RegexTest {
 		System.out.println("regex.numbers[false]:" + Pattern.matches("^\\d+$", "a"));
 		System.out.println("regex.split:" + Arrays.toString(Pattern.compile(",+").split("hello,,,world,,b,,c,,d")));
 	}
+
+	// matches must anchor the whole alternation, not only its first and last branches
+	private static void alternationTest() {
+		System.out.println("alternation.string:" + "a".matches("a|b") + "," + "b".matches("a|b") + "," + "xb".matches("a|b") + "," + "ax".matches("a|b") + "," + "ab".matches("a|b"));
+		System.out.println("alternation.pattern:" + Pattern.matches("a|b", "xb") + "," + Pattern.matches("a|b", "b"));
+		System.out.println("alternation.matcher:" + Pattern.compile("cat|dog").matcher("hotdog").matches() + "," + Pattern.compile("cat|dog").matcher("dog").matches());
+		System.out.println("alternation.flags:" + Pattern.compile("a|B", Pattern.CASE_INSENSITIVE).matcher("xb").matches() + "," + Pattern.compile("a|B", Pattern.CASE_INSENSITIVE).matcher("b").matches());
+	}
+
+	// Compiled patterns are shared by regex and flags, and only the most recently used ones are kept
+	private static void cacheTest() {
+		int matched = 0;
+		for (int n = 0; n < 10; n++) if ("hello".matches("h.*o")) matched++;
+		System.out.println("cache.sameRegex:" + matched);
+		System.out.println("cache.flags:" + Pattern.compile("abc", Pattern.CASE_INSENSITIVE).matcher("ABC").matches() + "," + Pattern.compile("abc").matcher("ABC").matches());
+		// More regexes than the cache keeps, then the first ones again
+		int evicted = 0;
+		for (int n = 0; n < 100; n++) if (("x" + n).matches("x" + n)) evicted++;
+		for (int n = 0; n < 100; n++) if (("x" + n).matches("x" + n)) evicted++;
+		System.out.println("cache.evicted:" + evicted);
+		System.out.println("cache.split:" + Arrays.toString("a1b22c".split("[0-9]+")) + Arrays.toString("a1b22c".split("[0-9]+")));
+		System.out.println("cache.replaceAll:" + "a1b22c".replaceAll("[0-9]+", "-") + "," + "a1b22c".replaceAll("[0-9]+", "+"));
+	}
 }
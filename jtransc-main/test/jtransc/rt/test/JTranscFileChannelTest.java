@@ -0,0 +1,154 @@
+package jtransc.rt.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class JTranscFileChannelTest {
+	static public void main(String[] args) throws IOException {
+		File tmp = new File(System.getProperty("java.io.tmpdir"));
+		File file = new File(tmp, "jtransc-channel.bin");
+		File copy = new File(tmp, "jtransc-channel-copy.bin");
+		clear(file);
+		clear(copy);
+		roundTrip(file);
+		positional(file);
+		map(file);
+		transferTo(file, copy);
+		truncate(file);
+		reopen(file);
+		clear(file);
+		clear(copy);
+	}
+
+	// File.delete is not available on every target
+	static private void clear(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.getChannel().truncate(0L);
+		}
+	}
+
+	static private void dump(String name, ByteBuffer buffer) {
+		System.out.print(name + ":");
+		for (int n = 0; n < buffer.limit(); n++) {
+			System.out.print(buffer.get(n));
+			System.out.print(',');
+		}
+		System.out.println();
+	}
+
+	static private ByteBuffer readAll(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		channel.read(buffer, 0L);
+		buffer.flip();
+		return buffer;
+	}
+
+	static private void roundTrip(File file) throws IOException {
+		System.out.println("JTranscFileChannelTest.roundTrip:");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			System.out.println(channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8})));
+			System.out.println(channel.position());
+			System.out.println(channel.size());
+			channel.position(2L);
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			System.out.println(channel.read(buffer));
+			System.out.println(channel.position());
+			buffer.flip();
+			dump("read", buffer);
+			System.out.println(channel.read(ByteBuffer.allocate(4)));
+			System.out.println(channel.read(ByteBuffer.allocate(4)));
+		}
+	}
+
+	static private void positional(File file) throws IOException {
+		System.out.println("JTranscFileChannelTest.positional:");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			channel.position(3L);
+			System.out.println(channel.write(ByteBuffer.wrap(new byte[]{-1, -2}), 6L));
+			System.out.println(channel.position());
+			System.out.println(channel.write(ByteBuffer.wrap(new byte[]{9}), 10L));
+			System.out.println(channel.position());
+			System.out.println(channel.size());
+			ByteBuffer buffer = ByteBuffer.allocate(3);
+			System.out.println(channel.read(buffer, 5L));
+			System.out.println(channel.position());
+			buffer.flip();
+			dump("read", buffer);
+			System.out.println(channel.read(ByteBuffer.allocate(3), 20L));
+			dump("all", readAll(channel));
+		}
+	}
+
+	static private void map(File file) throws IOException {
+		System.out.println("JTranscFileChannelTest.map:");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 2L, 4L);
+			System.out.println(mapped.capacity());
+			dump("mapped", mapped);
+			mapped.put(0, (byte) 100);
+			mapped.putShort(2, (short) 0x1234);
+			mapped.force();
+			dump("file", readAll(channel));
+			MappedByteBuffer readOnly = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			System.out.println(readOnly.isReadOnly());
+			dump("remapped", readOnly);
+		}
+	}
+
+	static private void transferTo(File file, File copy) throws IOException {
+		System.out.println("JTranscFileChannelTest.transferTo:");
+		try (RandomAccessFile from = new RandomAccessFile(file, "r"); RandomAccessFile to = new RandomAccessFile(copy, "rw")) {
+			FileChannel source = from.getChannel();
+			FileChannel target = to.getChannel();
+			System.out.println(source.transferTo(1L, 5L, target));
+			System.out.println(source.position());
+			System.out.println(target.position());
+			System.out.println(source.transferTo(8L, 100L, target));
+			// Read-only buffers are written from their storage: the slice offset and the position must be kept
+			ByteBuffer readOnly = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5, 6 }, 1, 4).slice().asReadOnlyBuffer();
+			readOnly.position(1);
+			System.out.println(target.write(readOnly));
+			System.out.println(readOnly.remaining());
+			System.out.println(target.size());
+			dump("copy", readAll(target));
+		}
+	}
+
+	static private void truncate(File file) throws IOException {
+		System.out.println("JTranscFileChannelTest.truncate:");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			channel.position(9L);
+			channel.truncate(20L);
+			System.out.println(channel.size());
+			System.out.println(channel.position());
+			channel.truncate(6L);
+			System.out.println(channel.size());
+			System.out.println(channel.position());
+			dump("truncated", readAll(channel));
+		}
+		System.out.println(file.length());
+	}
+
+	static private void reopen(File file) throws IOException {
+		System.out.println("JTranscFileChannelTest.reopen:");
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			System.out.println(channel.size());
+			System.out.println(channel.position());
+			dump("contents", readAll(channel));
+			channel.position(channel.size());
+			channel.write(ByteBuffer.wrap(new byte[]{42}));
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			dump("appended", readAll(raf.getChannel()));
+		}
+	}
+}
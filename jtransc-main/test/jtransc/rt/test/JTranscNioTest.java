@@ -3,12 +3,15 @@ package jtransc.rt.test;
 import com.jtransc.JTranscBits;
 
 import java.nio.*;
+import java.util.Arrays;
 
 public class JTranscNioTest {
 	static public void main(String[] args) {
 		test1();
 		test2();
 		test3();
+		test4();
+		test5();
 	}
 
 	static private void test1() {
@@ -105,4 +108,81 @@ public class JTranscNioTest {
 			System.out.println();
 		}
 	}
+
+	static private void dumpBytes(ByteBuffer buffer, int count) {
+		for (int n = 0; n < count; n++) {
+			System.out.print(buffer.get(n));
+			System.out.print(',');
+		}
+		System.out.println();
+	}
+
+	// Bulk get/put through the views, in both byte orders
+	static private void test4() {
+		System.out.println("JTranscNioTest.test4:");
+		for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+			System.out.println(byteOrder);
+
+			ByteBuffer buffer = ByteBuffer.allocate(64).order(byteOrder);
+			IntBuffer intBuffer = buffer.asIntBuffer();
+			intBuffer.put(new int[]{0, 0x01020304, -2, Integer.MIN_VALUE, 7}, 1, 3);
+			System.out.println(intBuffer.position());
+			dumpBytes(buffer, 12);
+			int[] ints = new int[5];
+			intBuffer.position(0);
+			intBuffer.get(ints, 1, 3);
+			System.out.println(intBuffer.position());
+			System.out.println(Arrays.toString(ints));
+
+			buffer = ByteBuffer.allocate(64).order(byteOrder);
+			LongBuffer longBuffer = buffer.asLongBuffer();
+			longBuffer.put(new long[]{0x0102030405060708L, -3L, Long.MAX_VALUE});
+			dumpBytes(buffer, 24);
+			long[] longs = new long[3];
+			longBuffer.flip();
+			longBuffer.get(longs);
+			System.out.println(Arrays.toString(longs));
+
+			buffer = ByteBuffer.allocate(64).order(byteOrder);
+			DoubleBuffer doubleBuffer = buffer.asDoubleBuffer();
+			doubleBuffer.put(new double[]{1.5, -2.25, 65536.5});
+			dumpBytes(buffer, 16);
+			double[] doubles = new double[3];
+			doubleBuffer.flip();
+			doubleBuffer.get(doubles);
+			System.out.println(Arrays.toString(doubles));
+
+			buffer = ByteBuffer.allocate(64).order(byteOrder);
+			CharBuffer charBuffer = buffer.asCharBuffer();
+			charBuffer.put(new char[]{'a', '\u00e1', '\u1234', '\uffff'});
+			dumpBytes(buffer, 8);
+			char[] chars = new char[4];
+			charBuffer.flip();
+			charBuffer.get(chars);
+			for (char c : chars) {
+				System.out.print((int) c);
+				System.out.print(',');
+			}
+			System.out.println();
+		}
+	}
+
+	// Unaligned accesses
+	static private void test5() {
+		System.out.println("JTranscNioTest.test5:");
+		for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+			System.out.println(byteOrder);
+			ByteBuffer buffer = ByteBuffer.allocate(32).order(byteOrder);
+			for (int n = 0; n < buffer.capacity(); n++) buffer.put(n, (byte) (n * 17));
+			System.out.println(buffer.getLong(3));
+			System.out.println(buffer.getInt(5));
+			System.out.println(buffer.getShort(7));
+			buffer.putLong(9, 0x0102030405060708L);
+			dumpBytes(buffer, 20);
+			System.out.println(buffer.getLong(9));
+			buffer.putDouble(1, -1.25);
+			System.out.println(buffer.getDouble(1));
+			System.out.println(buffer.getLong(1));
+		}
+	}
 }
\ No newline at end of file
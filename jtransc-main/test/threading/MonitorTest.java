@@ -0,0 +1,216 @@
+package threading;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+public class MonitorTest {
+	static public void main(String[] args) throws InterruptedException {
+		startAndJoin();
+		contendedCounter();
+		reentrantLocks();
+		exceptionReleasesLock();
+		waitAndNotify();
+		notifyAll3();
+		illegalMonitorState();
+		runtimeCaches();
+	}
+
+	static private void startAndJoin() throws InterruptedException {
+		final int[] result = new int[1];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				result[0] = 10;
+			}
+		});
+		System.out.println("join.aliveBeforeStart:" + thread.isAlive());
+		thread.start();
+		thread.join();
+		System.out.println("join.result:" + result[0]);
+		System.out.println("join.aliveAfterJoin:" + thread.isAlive());
+	}
+
+	static private class Counter {
+		int value;
+
+		synchronized void increment() {
+			value++;
+		}
+	}
+
+	// Enough threads and iterations to inflate the lock of the counter
+	static private void contendedCounter() throws InterruptedException {
+		final Counter counter = new Counter();
+		final Object lock = new Object();
+		final int[] blockCount = new int[1];
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int n = 0; n < 4; n++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int m = 0; m < 10000; m++) {
+						counter.increment();
+						synchronized (lock) {
+							blockCount[0]++;
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		System.out.println("counter.method:" + counter.value);
+		System.out.println("counter.block:" + blockCount[0]);
+	}
+
+	static private void reentrantLocks() {
+		Object lock = new Object();
+		// More nested entries than a thin lock can count
+		int depth = enter(lock, 1000);
+		System.out.println("reentrant.depth:" + depth);
+		System.out.println("reentrant.holdsAfter:" + Thread.holdsLock(lock));
+	}
+
+	static private int enter(Object lock, int count) {
+		if (count == 0) return Thread.holdsLock(lock) ? 0 : -1000000;
+		synchronized (lock) {
+			return enter(lock, count - 1) + 1;
+		}
+	}
+
+	static private class Failing {
+		synchronized void fail() {
+			throw new IllegalStateException("fail");
+		}
+	}
+
+	static private void exceptionReleasesLock() throws InterruptedException {
+		final Failing failing = new Failing();
+		try {
+			failing.fail();
+		} catch (IllegalStateException e) {
+			System.out.println("exception.caught:" + e.getMessage());
+		}
+		System.out.println("exception.holdsLock:" + Thread.holdsLock(failing));
+		final boolean[] acquired = new boolean[1];
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (failing) {
+					acquired[0] = true;
+				}
+			}
+		});
+		other.start();
+		other.join();
+		System.out.println("exception.otherAcquired:" + acquired[0]);
+	}
+
+	static private void waitAndNotify() throws InterruptedException {
+		final LinkedList<Integer> queue = new LinkedList<>();
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int n = 1; n <= 5; n++) {
+					synchronized (queue) {
+						queue.add(n);
+						queue.notify();
+					}
+				}
+			}
+		});
+		producer.start();
+		int sum = 0;
+		for (int n = 0; n < 5; n++) {
+			synchronized (queue) {
+				while (queue.isEmpty()) queue.wait();
+				sum += queue.removeFirst();
+			}
+		}
+		producer.join();
+		System.out.println("wait.sum:" + sum);
+
+		Object lock = new Object();
+		long start = System.currentTimeMillis();
+		synchronized (lock) {
+			lock.wait(50);
+		}
+		System.out.println("wait.timeout:" + (System.currentTimeMillis() - start >= 40));
+	}
+
+	static private void notifyAll3() throws InterruptedException {
+		final Object lock = new Object();
+		final boolean[] open = new boolean[1];
+		final int[] woken = new int[1];
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int n = 0; n < 3; n++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (lock) {
+						try {
+							while (!open[0]) lock.wait();
+						} catch (InterruptedException e) {
+							e.printStackTrace();
+						}
+						woken[0]++;
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		synchronized (lock) {
+			open[0] = true;
+			lock.notifyAll();
+		}
+		for (Thread thread : threads) thread.join();
+		System.out.println("notifyAll.woken:" + woken[0]);
+	}
+
+	static private void illegalMonitorState() throws InterruptedException {
+		Object lock = new Object();
+		try {
+			lock.notify();
+			System.out.println("illegal.notify:none");
+		} catch (IllegalMonitorStateException e) {
+			System.out.println("illegal.notify:thrown");
+		}
+		try {
+			lock.wait(1);
+			System.out.println("illegal.wait:none");
+		} catch (IllegalMonitorStateException e) {
+			System.out.println("illegal.wait:thrown");
+		}
+	}
+
+	// Class.forName and Integer.valueOf share runtime caches that every thread reads and fills
+	static private void runtimeCaches() throws InterruptedException {
+		final String[] names = { "java.lang.String", "java.util.ArrayList", "java.util.LinkedList", "threading.MonitorTest" };
+		final int[] mismatches = new int[1];
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int n = 0; n < 4; n++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int local = 0;
+					for (int m = 0; m < 1000; m++) {
+						try {
+							for (String name : names) {
+								if (Class.forName(name) != Class.forName(name)) local++;
+							}
+						} catch (ClassNotFoundException e) {
+							local++;
+						}
+						if (Integer.valueOf(m % 256 - 128) != Integer.valueOf(m % 256 - 128)) local++;
+					}
+					synchronized (mismatches) {
+						mismatches[0] += local;
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		System.out.println("caches.mismatches:" + mismatches[0]);
+	}
+}
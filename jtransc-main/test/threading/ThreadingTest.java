@@ -2,6 +2,11 @@ package threading;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class ThreadingTest {
 	static public void main(String[] args) {
@@ -33,5 +38,184 @@ public class ThreadingTest {
 		for (Object log : logs) {
 			System.out.println(log);
 		}
+
+		poolWithMoreTasksThanThreads();
+		shutdownAndAwaitTermination();
+		idlePoolShutdown();
+		recursiveForkJoin();
+		completableFutures();
+		futureTaskCancel();
+	}
+
+	static private void poolWithMoreTasksThanThreads() {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		ArrayList<Future<Integer>> futures = new ArrayList<>();
+		for (int n = 0; n < 20; n++) {
+			final int value = n;
+			futures.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return value * value;
+				}
+			}));
+		}
+		int sum = 0;
+		try {
+			for (Future<Integer> future : futures) sum += future.get();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		pool.shutdown();
+		System.out.println("pool.sum:" + sum);
+		System.out.println("pool.largestPoolSize:" + (pool.getLargestPoolSize() <= 2));
+	}
+
+	static private void shutdownAndAwaitTermination() {
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		final AtomicInteger count = new AtomicInteger();
+		for (int n = 0; n < 10; n++) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+					count.incrementAndGet();
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			System.out.println("shutdown.awaitTermination:" + pool.awaitTermination(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		System.out.println("shutdown.count:" + count.get());
+		System.out.println("shutdown.isTerminated:" + pool.isTerminated());
+		try {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			System.out.println("shutdown.execute:accepted");
+		} catch (RejectedExecutionException e) {
+			System.out.println("shutdown.execute:rejected");
+		}
+	}
+
+	// Waking up the idle workers doesn't go through the work queue
+	static private void idlePoolShutdown() {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(1));
+		System.out.println("idle.prestarted:" + pool.prestartAllCoreThreads());
+		pool.shutdown();
+		System.out.println("idle.queued:" + pool.getQueue().size());
+		try {
+			System.out.println("idle.awaitTermination:" + pool.awaitTermination(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		System.out.println("idle.poolSize:" + pool.getPoolSize());
+	}
+
+	static private class Fibonacci extends RecursiveTask<Integer> {
+		private final int n;
+
+		Fibonacci(int n) {
+			this.n = n;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (n <= 1) return n;
+			Fibonacci f1 = new Fibonacci(n - 1);
+			f1.fork();
+			Fibonacci f2 = new Fibonacci(n - 2);
+			return f2.compute() + f1.join();
+		}
+	}
+
+	static private void recursiveForkJoin() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		System.out.println("forkjoin.fib:" + pool.invoke(new Fibonacci(15)));
+		pool.shutdown();
+	}
+
+	static private void completableFutures() {
+		CompletableFuture<Integer> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IllegalStateException("failed"));
+		System.out.println("completable.isCompletedExceptionally:" + failed.isCompletedExceptionally());
+		try {
+			failed.get();
+		} catch (ExecutionException e) {
+			System.out.println("completable.get:" + e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		try {
+			failed.join();
+		} catch (CompletionException e) {
+			System.out.println("completable.join:" + e.getCause().getMessage());
+		}
+		System.out.println("completable.exceptionally:" + failed.exceptionally(new Function<Throwable, Integer>() {
+			@Override
+			public Integer apply(Throwable t) {
+				return -1;
+			}
+		}).join());
+		System.out.println("completable.thenApplyFailed:" + failed.thenApply(new Function<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer value) {
+				return value + 1;
+			}
+		}).isCompletedExceptionally());
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		ArrayList<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int n = 1; n <= 5; n++) {
+			final int value = n;
+			futures.add(CompletableFuture.supplyAsync(new Supplier<Integer>() {
+				@Override
+				public Integer get() {
+					return value;
+				}
+			}, pool).thenApply(new Function<Integer, Integer>() {
+				@Override
+				public Integer apply(Integer value) {
+					return value * 10;
+				}
+			}));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+		int sum = 0;
+		for (CompletableFuture<Integer> future : futures) sum += future.getNow(0);
+		System.out.println("completable.allOf:" + sum);
+		pool.shutdown();
+	}
+
+	static private void futureTaskCancel() {
+		final AtomicInteger calls = new AtomicInteger();
+		FutureTask<Integer> task = new FutureTask<>(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				calls.incrementAndGet();
+				return 1;
+			}
+		});
+		System.out.println("futuretask.cancel:" + task.cancel(false));
+		System.out.println("futuretask.isCancelled:" + task.isCancelled());
+		System.out.println("futuretask.isDone:" + task.isDone());
+		task.run();
+		System.out.println("futuretask.calls:" + calls.get());
+		try {
+			task.get();
+			System.out.println("futuretask.get:value");
+		} catch (CancellationException e) {
+			System.out.println("futuretask.get:cancelled");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 }
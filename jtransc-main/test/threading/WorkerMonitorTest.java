@@ -0,0 +1,75 @@
+package threading;
+
+// Fields of objects started threads see are copies in js workers, so results travel through primitive arrays
+public class WorkerMonitorTest {
+	static public void main(String[] args) throws InterruptedException {
+		contendedCounter();
+		waitAndNotify();
+		illegalMonitorState();
+	}
+
+	static private void contendedCounter() throws InterruptedException {
+		final Object lock = new Object();
+		final int[] counter = new int[1];
+		Thread[] threads = new Thread[4];
+		for (int n = 0; n < threads.length; n++) {
+			threads[n] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int m = 0; m < 1000; m++) {
+						synchronized (lock) {
+							int value = counter[0];
+							Thread.yield();
+							counter[0] = value + 1;
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		System.out.println("counter:" + counter[0]);
+	}
+
+	static private void waitAndNotify() throws InterruptedException {
+		final Object lock = new Object();
+		final int[] state = new int[1];
+		Thread thread;
+		synchronized (lock) {
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (lock) {
+						state[0] = 1;
+						lock.notifyAll();
+					}
+				}
+			});
+			thread.start();
+			while (state[0] == 0) lock.wait();
+			System.out.println("notified:" + state[0]);
+		}
+		thread.join();
+	}
+
+	static private void illegalMonitorState() throws InterruptedException {
+		Object lock = new Object();
+		try {
+			lock.wait(1L);
+			System.out.println("wait:returned");
+		} catch (IllegalMonitorStateException e) {
+			System.out.println("wait:IllegalMonitorStateException");
+		}
+		try {
+			lock.notify();
+			System.out.println("notify:returned");
+		} catch (IllegalMonitorStateException e) {
+			System.out.println("notify:IllegalMonitorStateException");
+		}
+		synchronized (lock) {
+			lock.wait(1L);
+			lock.notify();
+		}
+		System.out.println("owner:ok");
+	}
+}
@@ -87,10 +87,10 @@ IO.Stream = function() {
 IO.Stream.prototype.open = function(path, flags) {
 	if (!fs) N.throwRuntimeException("Can't open");
 	try {
-		var flagsStr = '';
-		if ((flags & O_RDONLY) != 0) flagsStr += 'r';
-		if ((flags & O_RDWR) != 0) flagsStr += 'w';
-		this.fd = fs.openSync(path, flagsStr); // @TODO: convert flags!!!
+		// Like the other targets, writable files are opened without truncating them
+		var flagsStr = 'r';
+		if ((flags & O_RDWR) != 0) flagsStr = fs.existsSync(path) ? 'r+' : 'w+';
+		this.fd = fs.openSync(path, flagsStr);
 		var stat = fs.fstatSync(this.fd);
 		this.position = 0;
 		this.length = stat.size;
@@ -105,21 +105,25 @@ IO.Stream.prototype.close = function() {
 	fs.closeSync(this.fd);
 };
 
+// Node buffer sharing the memory of a typed array, so fs reads and writes it in place
+IO.view = function(data, offset, length) {
+	return Buffer.from(data.buffer, data.byteOffset + offset, length);
+};
+
 IO.Stream.prototype.read = function(data, offset, length) {
 	if (!fs) return -1;
-	if (offset < 0 || offset >= this.length) return -1;
+	if (this.position >= this.length) return -1;
 	if (length == 0) return 0;
-	var buffer = new Buffer(length);
-	var readed = fs.readSync(this.fd, buffer, offset, length, this.position);
+	var readed = fs.readSync(this.fd, IO.view(data, offset, length), 0, length, this.position);
 	if (readed > 0) this.position += readed;
-	for (var n = 0; n < readed; n++) data[n] = buffer[n];
 	return readed;
 };
 
 IO.Stream.prototype.write = function(data, offset, length) {
 	if (!fs) return -1;
-	var written = fs.writeSync(this.fd, new Buffer(data), offset, length, this.position);
+	var written = fs.writeSync(this.fd, IO.view(data, offset, length), 0, length, this.position);
 	if (written > 0) this.position += written;
+	if (this.position > this.length) this.length = this.position;
 	return written;
 };
 
@@ -136,6 +140,7 @@ IO.Stream.prototype.getLength = function() {
 };
 
 IO.Stream.prototype.setLength = function(v) {
+	fs.ftruncateSync(this.fd, v);
 	this.length = v;
-	this.fd.setLength(v);
+	if (this.position > v) this.position = v;
 };
@@ -138,7 +138,7 @@ final public class FastMemory {
 
 	@JTranscInline
 	@HaxeMethodBody("return this._data.getInt64(p0);")
-	@JTranscMethodBody(target = "js", value = "return Int64.make(this.view.getInt32(p0, true), this.view.getInt32(p0 + 4, true));")
+	@JTranscMethodBody(target = "js", value = "return N.lnew(this.view.getInt32(p0, true), this.view.getInt32(p0 + 4, true));")
 	final public long getInt64(int index) {
 		return data.getLong(index);
 	}
@@ -180,7 +180,7 @@ final public class FastMemory {
 
 	@JTranscInline
 	@HaxeMethodBody("this._data.setInt64(p0, p1);")
-	@JTranscMethodBody(target = "js", value = "this.view.setInt32(p0, p1.high); this.view.setInt32(p0 + 4, p1.low);")
+	@JTranscMethodBody(target = "js", value = "this.view.setInt32(p0, N.lhigh(p1)); this.view.setInt32(p0 + 4, N.llow(p1));")
 	final public void setInt64(int index, long value) {
 		data.putLong(index, value);
 	}
@@ -224,7 +224,7 @@ final public class FastMemory {
 
 	@JTranscInline
 	@HaxeMethodBody("return this._data.getInt64(p0 << 3);") // @TODO: Optimize
-	@JTranscMethodBody(target = "js", value = "return Int64.make(this.s32[p0 << 1 + 0], this.s32[p0 << 1 +1]);")
+	@JTranscMethodBody(target = "js", value = "return N.lnew(this.s32[p0 << 1 + 0], this.s32[p0 << 1 +1]);")
 	final public long getAlignedInt64(int index8) {
 		return data.getLong(index8 << 3);
 	}
@@ -266,7 +266,7 @@ final public class FastMemory {
 
 	@JTranscInline
 	@HaxeMethodBody("this._data.setInt64(p0 << 3, p1);") // @TODO: Optimize
-	@JTranscMethodBody(target = "js", value = "this.s32[p0 << 1 + 0] = p1.low; this.s32[p0 << 1 + 1] = p1.high;")
+	@JTranscMethodBody(target = "js", value = "this.s32[p0 << 1 + 0] = N.llow(p1); this.s32[p0 << 1 + 1] = N.lhigh(p1);")
 	final public void setAlignedInt64(int index8, long value) {
 		data.putLong(index8 << 3, value);
 	}
@@ -22,44 +22,99 @@ import com.jtransc.annotation.haxe.HaxeAddMembers;
 import com.jtransc.annotation.haxe.HaxeMethodBody;
 import com.jtransc.annotation.haxe.HaxeRemoveField;
 
-import java.util.HashMap;
-
+// Open addressing with linear probing. Keys are stored unboxed, 0 marks free slots and key 0 is stored aside.
+// Removals shift back the following entries of the cluster, so there are no tombstones and lookups stay short.
 @JTranscInvisible
 @HaxeAddMembers({
-        "var _map = new Map<Int, Dynamic>();"
+	"var _map = new Map<Int, Dynamic>();"
 })
 public class FastIntMap<T> {
-    @HaxeRemoveField
-    private HashMap<Integer, T> map;
+	@HaxeRemoveField
+	private int[] keys;
+	@HaxeRemoveField
+	private Object[] values;
+	@HaxeRemoveField
+	private int size;
+	@HaxeRemoveField
+	private boolean hasZero;
+	@HaxeRemoveField
+	private Object zeroValue;
 
-    @HaxeMethodBody("")
+	@HaxeMethodBody("")
 	@JTranscMethodBody(target = "js", value = "this.map = new Map();")
-    public FastIntMap() {
-        this.map = new HashMap<Integer, T>();
-    }
+	public FastIntMap() {
+		this.keys = new int[16];
+		this.values = new Object[16];
+	}
 
-    @HaxeMethodBody("return _map.get(p0);")
+	@SuppressWarnings("unchecked")
+	@HaxeMethodBody("return _map.get(p0);")
 	@JTranscMethodBody(target = "js", value = "return this.map.get(p0);")
-    public T get(int key) {
-        return this.map.get(key);
-    }
+	public T get(int key) {
+		if (key == 0) return (T) zeroValue;
+		int index = find(key);
+		return (index >= 0) ? (T) values[index] : null;
+	}
 
-    @HaxeMethodBody("_map.set(p0, p1);")
+	@HaxeMethodBody("_map.set(p0, p1);")
 	@JTranscMethodBody(target = "js", value = "this.map.set(p0, p1);")
-    public void set(int key, T value) {
-        this.map.put(key, value);
-    }
+	public void set(int key, T value) {
+		if (key == 0) {
+			hasZero = true;
+			zeroValue = value;
+			return;
+		}
+		int mask = keys.length - 1;
+		int index = slot(key, mask);
+		while (true) {
+			int k = keys[index];
+			if (k == 0) break;
+			if (k == key) {
+				values[index] = value;
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+		// Load factor of 3/4
+		if (++size >= (keys.length >> 2) * 3) grow();
+	}
 
-    @HaxeMethodBody("return _map.exists(p0);")
+	@HaxeMethodBody("return _map.exists(p0);")
 	@JTranscMethodBody(target = "js", value = "return this.map.has(p0);")
-    public boolean has(int key) {
-        return this.map.containsKey(key);
-    }
+	public boolean has(int key) {
+		return (key == 0) ? hasZero : (find(key) >= 0);
+	}
 
 	@HaxeMethodBody("_map.remove(p0);")
 	@JTranscMethodBody(target = "js", value = "this.map.delete(p0);")
 	public void remove(int key) {
-		this.map.remove(key);
+		if (key == 0) {
+			hasZero = false;
+			zeroValue = null;
+			return;
+		}
+		int index = find(key);
+		if (index < 0) return;
+		int mask = keys.length - 1;
+		// Moves back entries that can't be found anymore after emptying the slot
+		int free = index;
+		int next = (index + 1) & mask;
+		while (true) {
+			int k = keys[next];
+			if (k == 0) break;
+			int ideal = slot(k, mask);
+			if (((next - ideal) & mask) >= ((next - free) & mask)) {
+				keys[free] = k;
+				values[free] = values[next];
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[free] = 0;
+		values[free] = null;
+		size--;
 	}
 
 	//@HaxeMethodBody("_map.remove(p0);")
@@ -67,4 +122,39 @@ public class FastIntMap<T> {
 	//public int size() {
 	//	return this.map.size();
 	//}
+
+	@HaxeMethodBody("return -1;")
+	private int find(int key) {
+		int mask = keys.length - 1;
+		int index = slot(key, mask);
+		while (true) {
+			int k = keys[index];
+			if (k == key) return index;
+			if (k == 0) return -1;
+			index = (index + 1) & mask;
+		}
+	}
+
+	@HaxeMethodBody("")
+	private void grow() {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		int mask = oldKeys.length * 2 - 1;
+		keys = new int[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+		for (int n = 0; n < oldKeys.length; n++) {
+			int k = oldKeys[n];
+			if (k == 0) continue;
+			int index = slot(k, mask);
+			while (keys[index] != 0) index = (index + 1) & mask;
+			keys[index] = k;
+			values[index] = oldValues[n];
+		}
+	}
+
+	// Fibonacci hashing, so consecutive keys don't end in a single cluster
+	static private int slot(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
 }
@@ -22,35 +22,123 @@ import com.jtransc.annotation.haxe.HaxeAddMembers;
 import com.jtransc.annotation.haxe.HaxeMethodBody;
 import com.jtransc.annotation.haxe.HaxeRemoveField;
 
-import java.util.HashMap;
-
+// Same layout as FastIntMap, with null marking free slots and string hashes kept to skip most equals calls
 @JTranscInvisible
 @HaxeAddMembers({"var _map = new Map<String, Dynamic>();"})
 public class FastStringMap<T> {
-    @HaxeRemoveField
-	private HashMap<String, T> map;
+	@HaxeRemoveField
+	private String[] keys;
+	@HaxeRemoveField
+	private int[] hashes;
+	@HaxeRemoveField
+	private Object[] values;
+	@HaxeRemoveField
+	private int size;
 
-    @HaxeMethodBody("")
+	@HaxeMethodBody("")
 	@JTranscMethodBody(target = "js", value = "this.data = new Map();")
 	public FastStringMap() {
-		this.map = new HashMap<String, T>();
+		this.keys = new String[16];
+		this.hashes = new int[16];
+		this.values = new Object[16];
 	}
 
-    @HaxeMethodBody("return _map.get(p0._str);")
+	@SuppressWarnings("unchecked")
+	@HaxeMethodBody("return _map.get(p0._str);")
 	@JTranscMethodBody(target = "js", value = "return this.data.get(N.istr(p0));")
-    public T get(String key) {
-		return this.map.get(key);
+	public T get(String key) {
+		int index = find(key);
+		return (index >= 0) ? (T) values[index] : null;
 	}
 
-    @HaxeMethodBody("_map.set(p0._str, p1);")
+	@HaxeMethodBody("_map.set(p0._str, p1);")
 	@JTranscMethodBody(target = "js", value = "this.data.set(N.istr(p0), p1);")
 	public void set(String key, T value) {
-		this.map.put(key, value);
+		int hash = key.hashCode();
+		int mask = keys.length - 1;
+		int index = slot(hash, mask);
+		while (true) {
+			String k = keys[index];
+			if (k == null) break;
+			if (hashes[index] == hash && k.equals(key)) {
+				values[index] = value;
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		hashes[index] = hash;
+		values[index] = value;
+		// Load factor of 3/4
+		if (++size >= (keys.length >> 2) * 3) grow();
 	}
 
-    @HaxeMethodBody("return _map.exists(p0._str);")
+	@HaxeMethodBody("return _map.exists(p0._str);")
 	@JTranscMethodBody(target = "js", value = "return this.data.has(N.istr(p0));")
 	public boolean has(String key) {
-		return this.map.containsKey(key);
+		return find(key) >= 0;
+	}
+
+	@HaxeMethodBody("_map.remove(p0._str);")
+	@JTranscMethodBody(target = "js", value = "this.data.delete(N.istr(p0));")
+	public void remove(String key) {
+		int index = find(key);
+		if (index < 0) return;
+		int mask = keys.length - 1;
+		// Moves back entries that can't be found anymore after emptying the slot
+		int free = index;
+		int next = (index + 1) & mask;
+		while (true) {
+			String k = keys[next];
+			if (k == null) break;
+			int ideal = slot(hashes[next], mask);
+			if (((next - ideal) & mask) >= ((next - free) & mask)) {
+				keys[free] = k;
+				hashes[free] = hashes[next];
+				values[free] = values[next];
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[free] = null;
+		values[free] = null;
+		size--;
+	}
+
+	@HaxeMethodBody("return -1;")
+	private int find(String key) {
+		int hash = key.hashCode();
+		int mask = keys.length - 1;
+		int index = slot(hash, mask);
+		while (true) {
+			String k = keys[index];
+			if (k == null) return -1;
+			if (hashes[index] == hash && k.equals(key)) return index;
+			index = (index + 1) & mask;
+		}
+	}
+
+	@HaxeMethodBody("")
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		Object[] oldValues = values;
+		int mask = oldKeys.length * 2 - 1;
+		keys = new String[oldKeys.length * 2];
+		hashes = new int[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+		for (int n = 0; n < oldKeys.length; n++) {
+			if (oldKeys[n] == null) continue;
+			int index = slot(oldHashes[n], mask);
+			while (keys[index] != null) index = (index + 1) & mask;
+			keys[index] = oldKeys[n];
+			hashes[index] = oldHashes[n];
+			values[index] = oldValues[n];
+		}
+	}
+
+	static private int slot(int hash, int mask) {
+		int h = hash * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
 	}
 }
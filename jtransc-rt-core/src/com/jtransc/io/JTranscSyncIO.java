@@ -26,6 +26,10 @@ public class JTranscSyncIO {
 	public static final int ACCESS_WRITE = 0x02;
 	public static final int ACCESS_READ = 0x04;
 
+	public static final int MAP_READ_ONLY = 0;
+	public static final int MAP_READ_WRITE = 1;
+	public static final int MAP_PRIVATE = 2;
+
 	static public Impl impl = new Impl(null) {
 		@Override
 		public ImplStream open(String path, int mode) throws FileNotFoundException {
@@ -273,6 +277,20 @@ public class JTranscSyncIO {
 			_setLength(newLength);
 		}
 
+		@Override
+		public byte[] map(long position, int size, int mode) {
+			if (size > 0) {
+				byte[] mapped = _map(position, size, mode);
+				if (mapped != null) return mapped;
+			}
+			return super.map(position, size, mode);
+		}
+
+		@Override
+		public void flushMapped(byte[] data, long position, int mode) {
+			if (!_flushMapped(data)) super.flushMapped(data, position, mode);
+		}
+
 		@HaxeMethodBody("_stream.syncioOpen(p0._str, p1); return true;")
 		@JTranscMethodBody(target = "js", value = "this._stream.open(N.istr(p0), p1); return true;")
 		@JTranscMethodBody(target = "cpp", value = {
@@ -287,7 +305,7 @@ public class JTranscSyncIO {
 			//"sprintf(temp, \"%s\", str.c_str());",
 			"this->file = ::fopen(name, readonly ? \"rb\" : \"r+b\");",
 			"if (readonly && (this->file == NULL)) return false;",
-			"if (this->file == NULL) { this->file = ::fopen(name, \"w+b\"); if (this->file != NULL) fclose(this->file); }",
+			"if (this->file == NULL) this->file = ::fopen(name, \"w+b\");",
 			//"if (this->file == NULL) throw ",
 			"if (this->file != NULL) ::fseek(this->file, 0, SEEK_SET);",
 			//"printf(\"OPENED\\n\");fflush(stdout);",
@@ -297,7 +315,7 @@ public class JTranscSyncIO {
 			"try {",
 			"	scope readonly = !(p1 & 2);",
 			"	scope name = N.istr2(p0);",
-			"   scope mode = readonly ? \"rb\" : \"r+b\";",
+			"   scope mode = readonly ? \"rb\" : (std.file.exists(name) ? \"r+b\" : \"w+b\");",
 			"	this.file = File(name, mode);",
 			//"	writefln(\"Opened: %s in mode %s\", name, mode);",
 			"	return true;",
@@ -347,10 +365,70 @@ public class JTranscSyncIO {
 
 		@HaxeMethodBody("_stream.syncioSetLength(p0);")
 		@JTranscMethodBody(target = "js", value = "this._stream.setLength(N.ltoFloat(p0));")
-		//@JTranscMethodBody(target = "cpp", value = "if (this->file != NULL) ::ftruncate(fileno(this->file), p0);")
+		@JTranscMethodBody(target = "cpp", value = {
+			"if (this->file == NULL) return;",
+			"::fflush(this->file);",
+			"#ifdef _WIN32",
+			"::_chsize_s(::_fileno(this->file), p0);",
+			"#else",
+			"::ftruncate(::fileno(this->file), p0);",
+			"#endif",
+		})
 		private void _setLength(long newLength) {
 			throw new RuntimeException("Not implemented");
 		}
+
+		// Maps the region with mmap. Offsets must be page aligned, so the mapping may start before position.
+		// Returns null when the target can't map the file.
+		@JTranscMethodBody(target = "cpp", value = {
+			"#ifdef _WIN32",
+			"return SOBJ(NULL);",
+			"#else",
+			"if (this->file == NULL) return SOBJ(NULL);",
+			"::fflush(this->file);",
+			"int fd = ::fileno(this->file);",
+			"int64_t end = p0 + p1;",
+			"struct stat stat_buf;",
+			"if (::fstat(fd, &stat_buf) != 0) return SOBJ(NULL);",
+			"if (stat_buf.st_size < end && ::ftruncate(fd, end) != 0) return SOBJ(NULL);",
+			"int64_t start = p0 - (p0 % ::sysconf(_SC_PAGESIZE));",
+			"size_t length = (size_t)(end - start);",
+			"int prot = (p2 == 0) ? PROT_READ : (PROT_READ | PROT_WRITE);",
+			"void *mapping = ::mmap(NULL, length, prot, (p2 == 2) ? MAP_PRIVATE : MAP_SHARED, fd, start);",
+			"if (mapping == MAP_FAILED) return SOBJ(NULL);",
+			"return SOBJ(new JA_B_MAPPED(mapping, length, (int)(p0 - start), p1));",
+			"#endif",
+		})
+		@JTranscMethodBody(target = "d", value = {
+			"try {",
+			"	auto mode = (p2 == 0) ? MmFile.Mode.read : ((p2 == 1) ? MmFile.Mode.readWrite : MmFile.Mode.readCopyOnWrite);",
+			"	auto end = p0 + p1;",
+			"	auto mapping = new MmFile(this.file, mode, (p2 == 1) ? end : 0, null, 0);",
+			"	return new JA_B_Mapped(mapping, cast(byte[])mapping[p0 .. end]);",
+			"} catch (Throwable t) {",
+			"	return null;",
+			"}",
+		})
+		private byte[] _map(long position, int size, int mode) {
+			return null;
+		}
+
+		@JTranscMethodBody(target = "cpp", value = {
+			"#ifndef _WIN32",
+			"auto mapped = dynamic_cast<JA_B_MAPPED*>(p0.get());",
+			"if (mapped != NULL) return ::msync(mapped->mapping, mapped->mappingSize, MS_SYNC) == 0;",
+			"#endif",
+			"return false;",
+		})
+		@JTranscMethodBody(target = "d", value = {
+			"auto mapped = cast(JA_B_Mapped)p0;",
+			"if (mapped is null) return false;",
+			"mapped.mapping.flush();",
+			"return true;",
+		})
+		private boolean _flushMapped(byte[] data) {
+			return false;
+		}
 	}
 
 	static public class ByteStream extends ImplStream {
@@ -565,5 +643,35 @@ public class JTranscSyncIO {
 			read(out, 0, count);
 			return out;
 		}
+
+		// Returns size bytes of the file at position. Streams that can't map the file return a copy,
+		// and flushMapped writes it back.
+		public byte[] map(long position, int size, int mode) {
+			byte[] out = new byte[size];
+			long old = getPosition();
+			try {
+				setPosition(position);
+				int n = 0;
+				while (n < size) {
+					int count = read(out, n, size - n);
+					if (count <= 0) break;
+					n += count;
+				}
+			} finally {
+				setPosition(old);
+			}
+			return out;
+		}
+
+		public void flushMapped(byte[] data, long position, int mode) {
+			if (mode != MAP_READ_WRITE) return;
+			long old = getPosition();
+			try {
+				setPosition(position);
+				write(data, 0, data.length);
+			} finally {
+				setPosition(old);
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -177,7 +177,7 @@ public class JTranscRegex {
 			"this._opts = opts;\n" +
 			"this._text = text._str;\n" +
 			"this._ereg = new EReg(pattern._str, opts);\n" +
-			"this._matches = (new EReg('^' + pattern._str + '$', opts)).match(text._str);"
+			"this._matches = (new EReg('^(?:' + pattern._str + ')$', opts)).match(text._str);"
 		)
 		@JTranscMethodBody(target = "js", value = {
 			"this._ereg = new RegExp(N.istr(this._pattern), N.istr(this._flagsString + 'g'));",
@@ -226,7 +226,11 @@ public class JTranscRegex {
 		native public String group(int group);
 
 		@HaxeMethodBody("return this._matches;")
-		@JTranscMethodBody(target = "js", value = "return (new RegExp('^' + N.istr(this._pattern) + '$', opts)).test(N.istr(this._text));")
+		@JTranscMethodBody(target = "js", value = {
+			"var pattern = N.istr(this.{% FIELD com.jtransc.text.JTranscRegex$Matcher:pattern %});",
+			"var text = N.istr(this.{% FIELD com.jtransc.text.JTranscRegex$Matcher:text %});",
+			"return N.regexp('^(?:' + pattern + ')$', this._opts).test(text);",
+		})
 		native public boolean matches();
 
 		@HaxeMethodBody("return _find();")
@@ -261,7 +265,7 @@ public class JTranscRegex {
 			"var opts = p1 ? (this._opts + 'g') : (this._opts);",
 			"var text = N.istr(this.{% FIELD com.jtransc.text.JTranscRegex$Matcher:text %});",
 			"var pattern = N.istr(this.{% FIELD com.jtransc.text.JTranscRegex$Matcher:pattern %});",
-			"return N.str(text.replace(new RegExp(pattern, opts), N.istr(p0)));"
+			"return N.str(text.replace(N.regexp(pattern, opts), N.istr(p0)));"
 		})
 		native private String replaceFirstAll(String replacement, boolean all);
 
@@ -18,6 +18,13 @@ public class JTranscThreading {
 			return _isSupported();
 		}
 
+		// Threads see the same heap, so objects like work queues can be shared between them.
+		// Js workers get copies of the objects instead.
+		public boolean hasSharedHeap() {
+			if (parent != null) return parent.hasSharedHeap();
+			return _hasSharedHeap();
+		}
+
 		public void start(Thread thread) {
 			if (parent != null) {
 				parent.start(thread);
@@ -27,12 +34,19 @@ public class JTranscThreading {
 			thread.run();
 		}
 
-		@JTranscMethodBody(target = "js", value = "return false;")
+		@JTranscMethodBody(target = "js", value = "return N.sharedArrays;")
 		@JTranscMethodBody(target = "d", value = "return true;")
+		@JTranscMethodBody(target = "cpp", value = "return true;")
 		private boolean _isSupported() {
 			return !JTranscSystem.isJTransc();
 		}
 
+		@JTranscMethodBody(target = "d", value = "return true;")
+		@JTranscMethodBody(target = "cpp", value = "return true;")
+		private boolean _hasSharedHeap() {
+			return !JTranscSystem.isJTransc();
+		}
+
 		public boolean isAlive(Thread thread) {
 			if (parent != null) return parent.isAlive(thread);
 			//return thread._isAlive;
@@ -2,6 +2,7 @@
 #define WIN32_LEAN_AND_MEAN
 #define _CRT_SECURE_NO_DEPRECATE
 #include <windows.h>
+#include <io.h>
 #endif
 
 #include <memory>
@@ -12,8 +13,12 @@
 #include <algorithm>
 #include <cmath>
 #include <csignal>
-//#include <chrono>
-//#include <thread>
+#include <type_traits>
+#include <chrono>
+#include <thread>
+#include <mutex>
+#include <condition_variable>
+#include <atomic>
 
 extern "C" {
 	#include <stdio.h>
@@ -21,6 +26,7 @@ extern "C" {
 	#include <string.h>
 	#ifndef _WIN32
 		#include <sys/stat.h>
+		#include <sys/mman.h>
 		#include <unistd.h>
 	#endif
 	#include <math.h>
@@ -28,6 +34,13 @@ extern "C" {
 	#include <stdint.h>
 }
 
+#ifdef JTRANSC_GC_BOEHM
+	// Threads started by the program register themselves with the collector (N::threadEnter)
+	#define GC_THREADS
+	#include <gc/gc_cpp.h>
+	#include <gc/gc_allocator.h>
+#endif
+
 #undef min
 #undef max
 
@@ -72,8 +85,44 @@ struct CLASS_TRACE { public:
 // For referencing pointers
 {{ CLASS_REFERENCES }}
 
-typedef std::shared_ptr<java_lang_Object> SOBJ;
-typedef std::weak_ptr<java_lang_Object> WOBJ;
+#ifdef JTRANSC_GC_BOEHM
+	// Raw pointer handle. Objects are allocated in the collected heap (java_lang_Object extends gc)
+	// and the conservative mark-sweep collector finds roots on the stack, in registers and in static data.
+	template <class T> struct GC_PTR { public:
+		T *ptr;
+		GC_PTR() : ptr(NULL) { }
+		GC_PTR(T *ptr) : ptr(ptr) { }
+		template <class U> GC_PTR(const GC_PTR<U> &other) : ptr(other.ptr) { }
+		inline T *get() const { return ptr; }
+		inline T *operator->() const { return ptr; }
+		inline T &operator*() const { return *ptr; }
+		inline explicit operator bool() const { return ptr != NULL; }
+		inline bool operator==(const GC_PTR<T> &other) const { return ptr == other.ptr; }
+		inline bool operator!=(const GC_PTR<T> &other) const { return ptr != other.ptr; }
+	};
+
+	typedef GC_PTR<java_lang_Object> SOBJ;
+	// @TODO: Use GC_general_register_disappearing_link to support weak references
+	typedef GC_PTR<java_lang_Object> WOBJ;
+
+	#define JTRANSC_OBJECT_BASE virtual public gc
+	#define JTRANSC_ARRAY_BASE , public gc_cleanup
+	#define SOBJ_FROM_THIS SOBJ(this)
+	#define JTRANSC_DATA_ALLOC(size, atomic) ((atomic) ? GC_MALLOC_ATOMIC(size) : GC_MALLOC(size))
+	#define JTRANSC_DATA_FREE(ptr)
+	// The storage of std containers comes from malloc, that the collector doesn't scan
+	typedef std::vector<SOBJ, gc_allocator<SOBJ>> JT_SOBJ_VECTOR;
+#else
+	typedef std::shared_ptr<java_lang_Object> SOBJ;
+	typedef std::weak_ptr<java_lang_Object> WOBJ;
+
+	#define JTRANSC_OBJECT_BASE public std::enable_shared_from_this<java_lang_Object>
+	#define JTRANSC_ARRAY_BASE
+	#define SOBJ_FROM_THIS shared_from_this()
+	#define JTRANSC_DATA_ALLOC(size, atomic) ::malloc(size)
+	#define JTRANSC_DATA_FREE(ptr) ::free(ptr)
+	typedef std::vector<SOBJ> JT_SOBJ_VECTOR;
+#endif
 
 // generateTypeTableHeader()
 {{ TYPE_TABLE_HEADERS }}
@@ -104,10 +153,11 @@ struct N { public:
 	//static const int64_t MAX_INT64 = (int64_t)0x7FFFFFFFFFFFFFFF;
 	static SOBJ resolveClass(std::wstring str);
 	inline static int64_t lnew(int high, int low);
-	static bool is(SOBJ obj, int type);
+	inline static bool isClass(const SOBJ &obj, int pre, int post);
+	inline static bool isInterface(const SOBJ &obj, int word, uint32_t mask);
 	static bool isArray(SOBJ obj);
 	static bool isArray(SOBJ obj, std::wstring desc);
-	static bool isUnknown(std::shared_ptr<{% CLASS java.lang.Object %}> obj, const char *error);
+	static bool isUnknown(SOBJ obj, const char *error);
 	static int cmp(double a, double b);
 	static int cmpl(double a, double b);
 	static int cmpg(double a, double b);
@@ -150,7 +200,11 @@ struct N { public:
 	static SOBJ ensureNpe(SOBJ obj, const wchar_t *position);
 	static void throwNpe();
 	static SOBJ ensureNpe(SOBJ obj);
-	static std::vector<SOBJ> getVectorOrEmpty(SOBJ array);
+	static void throwArrayIndexOutOfBounds(int index);
+	static void throwIllegalMonitorState();
+	static SOBJ throwing(SOBJ obj);
+	static void gc();
+	static JT_SOBJ_VECTOR getVectorOrEmpty(SOBJ array);
 
 	static int strLen(SOBJ obj);
 	static int strCharAt(SOBJ obj, int n);
@@ -158,6 +212,7 @@ struct N { public:
 	static int identityHashCode(SOBJ obj);
 
 	static void writeChars(SOBJ str, char *out, int len);
+	static void copyReversed(void *dst, const void *src, int count, int size);
 
 	static SOBJ    unboxVoid(SOBJ obj);
 	static int32_t unboxBool(SOBJ obj);
@@ -183,6 +238,18 @@ struct N { public:
 	static double getTime();
 	static void startup();
 
+	static int32_t threadId();
+	static void threadEnter(SOBJ thread);
+	static void threadExit();
+	static SOBJ getCurrentThread();
+
+	static void monitorEnter(SOBJ obj);
+	static void monitorExit(SOBJ obj);
+	static bool monitorTryExit(SOBJ obj);
+	static void monitorWait(SOBJ obj, int64_t millis);
+	static void monitorNotify(SOBJ obj, bool all);
+	static bool monitorHoldsLock(SOBJ obj);
+
 	static void initStringPool();
 };
 
@@ -191,20 +258,20 @@ struct N { public:
 
 {{ ARRAY_HEADERS_PRE }}
 
-struct JA_0 : public java_lang_Object { public:
+struct JA_0 : public java_lang_Object JTRANSC_ARRAY_BASE { public:
 	void *_data;
 	int length;
 	int elementSize;
 	std::wstring desc;
 	JA_0(void* data, int len, int esize, std::wstring d) : length(len), elementSize(esize), desc(d) {
-		this->__INSTANCE_CLASS_ID = 1;
+		this->__INSTANCE_CLASS_ID = TYPE_TABLE::ARRAY;
 		this->_data = data;
 	}
 
-	JA_0(int len, int esize, std::wstring d) : JA_0((void*)::malloc(esize * (len + 1)), len, esize, d) {
+	JA_0(int len, int esize, std::wstring d, bool atomic = true) : JA_0((void*)JTRANSC_DATA_ALLOC(esize * (len + 1), atomic), len, esize, d) {
 		::memset(this->_data, 0, (len + 1) * esize);
 	}
-	~JA_0() { ::free(_data); }
+	~JA_0() { JTRANSC_DATA_FREE(_data); }
 	void *getOffsetPtr(int offset) { return (void*)&(((int8_t *)_data)[offset * elementSize]); }
 	void *getStartPtr() { return getOffsetPtr(0); }
 	int bytesLength() { return length * elementSize; }
@@ -223,31 +290,32 @@ struct JA_0 : public java_lang_Object { public:
 
 template <class T>
 struct JA_Base : JA_0 {
-	JA_Base(int size, std::wstring desc) : JA_0(size, sizeof(T), desc) {
+	// Only object arrays hold references that the collector has to scan
+	JA_Base(int size, std::wstring desc) : JA_0(size, sizeof(T), desc, !std::is_same<T, SOBJ>::value) {
 	};
 	JA_Base(void* data, int size, std::wstring desc) : JA_0(data, size, sizeof(T), desc) {
 	};
 	inline void checkBounds(int offset) {
-		if (offset < 0 || offset >= length) {
-			std::wstringstream os;
-			os << L"Out of bounds " << offset << L" " << length;
-			throw os.str();
-		}
+		if (offset < 0 || offset >= length) N::throwArrayIndexOutOfBounds(offset);
 	};
 	T *getStartPtr() { return (T *)_data; }
 
+	// Used for accesses proven to be in bounds and in @JTranscUnsafeFastArrays methods, so they skip the check even with CHECK_ARRAYS
+	inline void uncheckedSet(int offset, T v) { ((T*)(this->_data))[offset] = v; };
+	inline T uncheckedGet(int offset) { return ((T*)(this->_data))[offset]; }
+
 	#ifdef CHECK_ARRAYS
-		inline void fastSet(int offset, T v) { checkBounds(offset); ((T*)(this->_data))[offset] = v; };
-		inline T fastGet(int offset) { checkBounds(offset); return ((T*)(this->_data))[offset]; }
+		inline void fastSet(int offset, T v) { checkBounds(offset); uncheckedSet(offset, v); };
+		inline T fastGet(int offset) { checkBounds(offset); return uncheckedGet(offset); }
 	#else
-		inline void fastSet(int offset, T v) { ((T*)(this->_data))[offset] = v; };
-		inline T fastGet(int offset) { return ((T*)(this->_data))[offset]; }
+		inline void fastSet(int offset, T v) { uncheckedSet(offset, v); };
+		inline T fastGet(int offset) { return uncheckedGet(offset); }
 	#endif
 
 	inline JA_Base<T> *init(int offset, T v) { ((T*)(this->_data))[offset] = v; return this; };
 
-	void set(int offset, T v) { checkBounds(offset); fastSet(offset, v); };
-	T get(int offset) { checkBounds(offset); return fastGet(offset); };
+	void set(int offset, T v) { checkBounds(offset); uncheckedSet(offset, v); };
+	T get(int offset) { checkBounds(offset); return uncheckedGet(offset); };
 
 	void fill(int from, int to, T v) { checkBounds(from); checkBounds(to - 1); T* data = (T*)this->_data; for (int n = from; n < to; n++) data[n] = v; };
 
@@ -261,6 +329,15 @@ struct JA_B : JA_Base<int8_t> {
 	JA_B(int size, std::wstring desc = L"[B") : JA_Base(size, desc) { };
 	JA_B(void* data, int size, std::wstring desc = L"[B") : JA_Base(data, size, desc) { };
 };
+#ifndef _WIN32
+// Byte array over a memory mapped file region. The mapping lives as long as the array.
+struct JA_B_MAPPED : JA_B {
+	void *mapping;
+	size_t mappingSize;
+	JA_B_MAPPED(void *mapping, size_t mappingSize, int offset, int size) : JA_B((int8_t *)mapping + offset, size), mapping(mapping), mappingSize(mappingSize) { };
+	~JA_B_MAPPED() { ::munmap(mapping, mappingSize); _data = NULL; }
+};
+#endif
 struct JA_Z : public JA_B {
 	JA_Z(int size, std::wstring desc = L"[Z") : JA_B(size, desc) { };
 	JA_Z(void* data, int size, std::wstring desc = L"[Z") : JA_B(data, size, desc) { };
@@ -305,9 +382,9 @@ struct JA_L : JA_Base<SOBJ> {
 	JA_L(int size, std::wstring desc) : JA_Base(size, desc) { };
 	JA_L(void* data, int size, std::wstring desc) : JA_Base(data, size, desc) { };
 
-	std::vector<SOBJ> getVector() {
+	JT_SOBJ_VECTOR getVector() {
 		int len = this->length;
-		std::vector<SOBJ> out(len);
+		JT_SOBJ_VECTOR out(len);
 		for (int n = 0; n < len; n++) out[n] = this->fastGet(n);
 		return out;
 	}
@@ -354,6 +431,14 @@ SOBJ JA_0::toDoubleArray() { return SOBJ(new JA_D((void *)getStartPtr(), bytesLe
 
 {{ ARRAY_HEADERS_POST }}
 
+// Held for the duration of a synchronized method
+struct JT_MONITOR_GUARD { public:
+	SOBJ obj;
+	JT_MONITOR_GUARD(SOBJ obj) : obj(obj) { N::monitorEnter(obj); }
+	// Destructors must not throw, and the lock of a synchronized method is always held here
+	~JT_MONITOR_GUARD() { N::monitorTryExit(obj); }
+};
+
 // Strings
 {{ STRINGS }}
 
@@ -371,11 +456,15 @@ int64_t N::lnew(int high, int low) {
 	return (((int64_t)high) << 32) | (((int64_t)low) << 0);
 };
 
-bool N::is(SOBJ obj, int type) {
+bool N::isClass(const SOBJ &obj, int pre, int post) {
+	if (obj.get() == NULL) return false;
+	int id = TYPE_TABLE::TABLE[obj.get()->__INSTANCE_CLASS_ID].pre;
+	return (id >= pre) && (id <= post);
+};
+
+bool N::isInterface(const SOBJ &obj, int word, uint32_t mask) {
 	if (obj.get() == NULL) return false;
-	const int* table = TYPE_TABLE::TABLE[obj.get()->__INSTANCE_CLASS_ID].subtypes;
-	while (*table != -1) if (*(table++) == type) return true;
-	return false;
+	return (TYPE_TABLE::TABLE[obj.get()->__INSTANCE_CLASS_ID].interfaces[word] & mask) != 0;
 };
 
 bool N::isArray(SOBJ obj) {
@@ -387,7 +476,7 @@ bool N::isArray(SOBJ obj, std::wstring desc) {
 	return (ptr != null) && (ptr->desc == desc);
 };
 
-bool N::isUnknown(std::shared_ptr<{% CLASS java.lang.Object %}> obj, const char * error) {
+bool N::isUnknown(SOBJ obj, const char * error) {
 	throw error;
 };
 
@@ -533,28 +622,28 @@ SOBJ N::str(char *s) {
 };
 
 SOBJ N::strArray(int count, wchar_t **strs) {
-	std::shared_ptr<JA_L> out(new JA_L(count, L"[java/lang/String;"));
-	for (int n = 0; n < count; n++) out->set(n, N::str(std::wstring(strs[n])));
-	return out.get()->sptr();
+	SOBJ out(new JA_L(count, L"[java/lang/String;"));
+	for (int n = 0; n < count; n++) GET_OBJECT(JA_L, out)->set(n, N::str(std::wstring(strs[n])));
+	return out;
 }
 
 SOBJ N::strArray(std::vector<std::wstring> strs) {
 	int len = strs.size();
-	std::shared_ptr<JA_L> out(new JA_L(len, L"[java/lang/String;"));
-	for (int n = 0; n < len; n++) out->set(n, N::str(strs[n]));
-	return out.get()->sptr();
+	SOBJ out(new JA_L(len, L"[java/lang/String;"));
+	for (int n = 0; n < len; n++) GET_OBJECT(JA_L, out)->set(n, N::str(strs[n]));
+	return out;
 }
 
 SOBJ N::strArray(std::vector<std::string> strs) {
 	int len = strs.size();
-	std::shared_ptr<JA_L> out(new JA_L(len, L"[Ljava/lang/String;"));
-	for (int n = 0; n < len; n++) out->set(n, N::str(strs[n]));
-	return out.get()->sptr();
+	SOBJ out(new JA_L(len, L"[Ljava/lang/String;"));
+	for (int n = 0; n < len; n++) GET_OBJECT(JA_L, out)->set(n, N::str(strs[n]));
+	return out;
 }
 
 SOBJ N::strEmptyArray() {
-	std::shared_ptr<JA_L> out(new JA_L(0, L"Ljava/lang/String;"));
-	return out.get()->sptr();
+	SOBJ out(new JA_L(0, L"Ljava/lang/String;"));
+	return out;
 }
 
 std::wstring N::istr2(SOBJ obj) {
@@ -600,7 +689,7 @@ SOBJ N::dummyMethodClass() {
 void N::throwNpe(const wchar_t* position) {
 	TRACE_REGISTER("N::throwNpe()");
 	std::wcout << L"N::throwNpe():" << std::wstring(position) << L"\n";
-	throw {% CONSTRUCTOR java.lang.NullPointerException:()V %}();
+	throw N::throwing({% CONSTRUCTOR java.lang.NullPointerException:()V %}());
 }
 
 SOBJ N::ensureNpe(SOBJ obj, const wchar_t* position) {
@@ -621,6 +710,34 @@ SOBJ N::ensureNpe(SOBJ obj) {
 	return obj;
 }
 
+void N::throwArrayIndexOutOfBounds(int index) {
+	throw N::throwing({% CONSTRUCTOR java.lang.ArrayIndexOutOfBoundsException:(I)V %}(index));
+}
+
+void N::throwIllegalMonitorState() {
+	throw N::throwing({% CONSTRUCTOR java.lang.IllegalMonitorStateException:()V %}());
+}
+
+#ifdef JTRANSC_GC_BOEHM
+	// The C++ runtime copies thrown values to memory that the collector doesn't scan. The last object thrown
+	// by each thread is kept in an uncollectable cell, so it stays alive until it is caught.
+	static thread_local SOBJ *N_thrown = NULL;
+#endif
+
+SOBJ N::throwing(SOBJ obj) {
+	#ifdef JTRANSC_GC_BOEHM
+		if (N_thrown == NULL) N_thrown = new (GC_MALLOC_UNCOLLECTABLE(sizeof(SOBJ))) SOBJ();
+		*N_thrown = obj;
+	#endif
+	return obj;
+}
+
+void N::gc() {
+	#ifdef JTRANSC_GC_BOEHM
+		GC_gcollect();
+	#endif
+}
+
 int N::identityHashCode(SOBJ obj) {
 	return (int32_t)(size_t)(void *)(obj.get());
 }
@@ -634,6 +751,15 @@ void N::writeChars(SOBJ str, char *out, int maxlen) {
 	out[len] = 0;
 }
 
+// Copies count elements of size bytes, reversing the bytes of each one
+void N::copyReversed(void *dst, const void *src, int count, int size) {
+	int8_t *d = (int8_t *)dst;
+	const int8_t *s = (const int8_t *)src;
+	for (int n = 0; n < count; n++, d += size, s += size) {
+		for (int m = 0; m < size; m++) d[m] = s[size - 1 - m];
+	}
+}
+
 SOBJ    N::unboxVoid(SOBJ obj) { return SOBJ(NULL); }
 int32_t N::unboxBool(SOBJ obj) { return GET_OBJECT({% CLASS java.lang.Boolean %}, obj)->{% SMETHOD java.lang.Boolean:booleanValue %}(); }
 int32_t N::unboxByte(SOBJ obj) { return GET_OBJECT({% CLASS java.lang.Byte %}, obj)->{% SMETHOD java.lang.Byte:byteValue %}(); }
@@ -657,14 +783,12 @@ SOBJ N::boxDouble(double v) { return {% SMETHOD java.lang.Double:valueOf:(D)Ljav
 
 //SOBJ JA_0::{% METHOD java.lang.Object:getClass %}() { return {% SMETHOD java.lang.Class:forName0 %}(N::str(desc)); }
 
-std::vector<SOBJ> N::getVectorOrEmpty(SOBJ obj) {
+JT_SOBJ_VECTOR N::getVectorOrEmpty(SOBJ obj) {
 	auto array = GET_OBJECT(JA_L, obj);
-	if (array == NULL)  return std::vector<SOBJ>(0);
+	if (array == NULL)  return JT_SOBJ_VECTOR(0);
 	return array->getVector();
 };
 
-#include <chrono>
-
 double N::getTime() {
 	using namespace std::chrono;
     milliseconds ms = duration_cast< milliseconds >(
@@ -674,6 +798,218 @@ double N::getTime() {
 	return (double)(int64_t)ms.count();
 };
 
+// Threads
+
+static std::atomic<int32_t> N_lastThreadId(0);
+static thread_local int32_t N_threadId = 0;
+// java.lang.Thread being run by this native thread, null for the main thread.
+// Kept alive by the SOBJ in the stack of the thread entry and by the set of running threads of java.lang.Thread.
+static thread_local java_lang_Object *N_currentThread = NULL;
+
+int32_t N::threadId() {
+	if (N_threadId == 0) N_threadId = ++N_lastThreadId;
+	return N_threadId;
+};
+
+void N::threadEnter(SOBJ thread) {
+	#ifdef JTRANSC_GC_BOEHM
+		struct GC_stack_base sb;
+		GC_get_stack_base(&sb);
+		GC_register_my_thread(&sb);
+	#endif
+	N_currentThread = thread.get();
+};
+
+void N::threadExit() {
+	N_currentThread = NULL;
+	#ifdef JTRANSC_GC_BOEHM
+		if (N_thrown != NULL) {
+			GC_FREE(N_thrown);
+			N_thrown = NULL;
+		}
+		GC_unregister_my_thread();
+	#endif
+};
+
+SOBJ N::getCurrentThread() {
+	return (N_currentThread != NULL) ? N_currentThread->sptr() : SOBJ(null);
+};
+
+// Monitors
+//
+// The lock word of an object (java_lang_Object::__jt_lock) is:
+// - 0 when the object is not locked
+// - (owner thread id << LOCK_OWNER_SHIFT) | (recursion count << LOCK_COUNT_SHIFT) while it is owned without contention (thin lock)
+// - a JT_MONITOR pointer | LOCK_INFLATED once another thread had to wait for it, or wait() was called on it (fat lock)
+// Uncontended enter/exit are a single CAS each. Inflated monitors are never deflated, they are deleted with the object.
+
+static const uintptr_t LOCK_INFLATED = 1;
+static const int LOCK_COUNT_SHIFT = 1;
+static const uintptr_t LOCK_COUNT_MAX = 0x1FF;
+static const int LOCK_OWNER_SHIFT = 10;
+static const int LOCK_SPINS = 64;
+
+struct JT_MONITOR { public:
+	std::mutex mutex;
+	std::condition_variable released;
+	std::condition_variable notified;
+	int32_t owner;
+	int32_t count;
+
+	JT_MONITOR(int32_t owner, int32_t count) : owner(owner), count(count) { }
+
+	void enter(int32_t tid) {
+		std::unique_lock<std::mutex> lock(mutex);
+		while (owner != 0 && owner != tid) released.wait(lock);
+		owner = tid;
+		count++;
+	}
+
+	bool exit(int32_t tid) {
+		std::unique_lock<std::mutex> lock(mutex);
+		if (owner != tid) return false;
+		if (--count == 0) {
+			owner = 0;
+			released.notify_one();
+		}
+		return true;
+	}
+
+	void wait(int32_t tid, int64_t millis) {
+		std::unique_lock<std::mutex> lock(mutex);
+		if (owner != tid) N::throwIllegalMonitorState();
+		int32_t oldCount = count;
+		owner = 0;
+		count = 0;
+		released.notify_one();
+		if (millis > 0) {
+			notified.wait_for(lock, std::chrono::milliseconds(millis));
+		} else {
+			notified.wait(lock);
+		}
+		while (owner != 0) released.wait(lock);
+		owner = tid;
+		count = oldCount;
+	}
+
+	void notify(bool all) {
+		std::unique_lock<std::mutex> lock(mutex);
+		if (all) notified.notify_all(); else notified.notify_one();
+	}
+
+	bool isOwner(int32_t tid) {
+		std::unique_lock<std::mutex> lock(mutex);
+		return owner == tid;
+	}
+};
+
+static inline JT_MONITOR *N_lockMonitor(uintptr_t word) { return (JT_MONITOR *)(word & ~LOCK_INFLATED); }
+static inline uintptr_t N_lockOwner(uintptr_t word) { return word >> LOCK_OWNER_SHIFT; }
+static inline uintptr_t N_lockCount(uintptr_t word) { return (word >> LOCK_COUNT_SHIFT) & LOCK_COUNT_MAX; }
+
+java_lang_Object::~java_lang_Object() {
+	uintptr_t word = __jt_lock.load(std::memory_order_acquire);
+	if (word & LOCK_INFLATED) delete N_lockMonitor(word);
+};
+
+#ifdef JTRANSC_GC_BOEHM
+static void N_lockFinalize(void *obj, void *monitor) {
+	delete (JT_MONITOR *)monitor;
+};
+#endif
+
+// Replaces a thin lock word with a monitor in the same state. Any thread can inflate. word is updated with the new value.
+static void N_lockInflate(java_lang_Object *obj, uintptr_t &word) {
+	JT_MONITOR *monitor = new JT_MONITOR((int32_t)N_lockOwner(word), (int32_t)N_lockCount(word));
+	if (obj->__jt_lock.compare_exchange_strong(word, (uintptr_t)monitor | LOCK_INFLATED, std::memory_order_acq_rel)) {
+		word = (uintptr_t)monitor | LOCK_INFLATED;
+		#ifdef JTRANSC_GC_BOEHM
+			// Collected objects are not destroyed, but objects with a cleanup (arrays) already delete it from the destructor
+			void *base = GC_base(obj);
+			GC_finalization_proc oldProc;
+			void *oldData;
+			GC_register_finalizer_no_order(base, N_lockFinalize, monitor, &oldProc, &oldData);
+			if (oldProc != NULL) GC_register_finalizer_no_order(base, oldProc, oldData, NULL, NULL);
+		#endif
+	} else {
+		delete monitor;
+	}
+};
+
+void N::monitorEnter(SOBJ obj) {
+	std::atomic<uintptr_t> &lock = N::ensureNpe(obj)->__jt_lock;
+	uintptr_t tid = (uintptr_t)N::threadId();
+	uintptr_t word = lock.load(std::memory_order_relaxed);
+	for (int spins = 0; ; spins++) {
+		if (word & LOCK_INFLATED) {
+			// Pairs with the release of the inflating CAS, so the monitor is seen constructed
+			std::atomic_thread_fence(std::memory_order_acquire);
+			N_lockMonitor(word)->enter((int32_t)tid);
+			return;
+		} else if (word == 0) {
+			if (lock.compare_exchange_weak(word, (tid << LOCK_OWNER_SHIFT) | (1 << LOCK_COUNT_SHIFT), std::memory_order_acquire)) return;
+		} else if (N_lockOwner(word) == tid) {
+			if (N_lockCount(word) < LOCK_COUNT_MAX) {
+				if (lock.compare_exchange_weak(word, word + (1 << LOCK_COUNT_SHIFT), std::memory_order_relaxed)) return;
+			} else {
+				N_lockInflate(obj.get(), word);
+			}
+		} else if (spins < LOCK_SPINS) {
+			std::this_thread::yield();
+			word = lock.load(std::memory_order_relaxed);
+		} else {
+			// Still owned by another thread: inflate it on behalf of the owner and block on the monitor
+			N_lockInflate(obj.get(), word);
+		}
+	}
+};
+
+void N::monitorExit(SOBJ obj) {
+	if (!N::monitorTryExit(N::ensureNpe(obj))) N::throwIllegalMonitorState();
+};
+
+// Returns false, without throwing, when the current thread doesn't hold the lock of a non-null obj
+bool N::monitorTryExit(SOBJ obj) {
+	std::atomic<uintptr_t> &lock = obj->__jt_lock;
+	uintptr_t tid = (uintptr_t)N::threadId();
+	uintptr_t word = lock.load(std::memory_order_relaxed);
+	while (true) {
+		if (word & LOCK_INFLATED) {
+			std::atomic_thread_fence(std::memory_order_acquire);
+			return N_lockMonitor(word)->exit((int32_t)tid);
+		}
+		if (N_lockOwner(word) != tid) return false;
+		uintptr_t next = (N_lockCount(word) == 1) ? 0 : (word - (1 << LOCK_COUNT_SHIFT));
+		if (lock.compare_exchange_weak(word, next, std::memory_order_release)) return true;
+	}
+};
+
+void N::monitorWait(SOBJ obj, int64_t millis) {
+	std::atomic<uintptr_t> &lock = N::ensureNpe(obj)->__jt_lock;
+	uintptr_t tid = (uintptr_t)N::threadId();
+	uintptr_t word = lock.load(std::memory_order_acquire);
+	// Waiting needs the condition variables of the monitor
+	while (!(word & LOCK_INFLATED)) {
+		if (N_lockOwner(word) != tid) N::throwIllegalMonitorState();
+		N_lockInflate(obj.get(), word);
+	}
+	N_lockMonitor(word)->wait((int32_t)tid, millis);
+};
+
+void N::monitorNotify(SOBJ obj, bool all) {
+	if (!N::monitorHoldsLock(obj)) N::throwIllegalMonitorState();
+	uintptr_t word = obj->__jt_lock.load(std::memory_order_acquire);
+	// Threads waiting for an object always inflate it first, so there is nobody to notify on a thin lock
+	if (word & LOCK_INFLATED) N_lockMonitor(word)->notify(all);
+};
+
+bool N::monitorHoldsLock(SOBJ obj) {
+	uintptr_t tid = (uintptr_t)N::threadId();
+	uintptr_t word = N::ensureNpe(obj)->__jt_lock.load(std::memory_order_acquire);
+	if (word & LOCK_INFLATED) return N_lockMonitor(word)->isOwner((int32_t)tid);
+	return word != 0 && N_lockOwner(word) == tid;
+};
+
 void SIGSEGV_handler(int signal) {
 	std::wcout << L"invalid memory access (segmentation fault)\n";
 	throw L"invalid memory access (segmentation fault)";
@@ -692,6 +1028,10 @@ void SIGFPE_handler(int signal) {
 //SIGFPE	erroneous arithmetic operation such as divide by zero
 
 void N::startup() {
+	#ifdef JTRANSC_GC_BOEHM
+		GC_INIT();
+		GC_allow_register_threads();
+	#endif
 	setvbuf(stdout, NULL, _IONBF, 0);
 	setvbuf(stderr, NULL, _IONBF, 0);
 	std::signal(SIGSEGV, SIGSEGV_handler);
@@ -459,10 +459,13 @@ function __addArrayJavaMethods(ARRAY) {
 
 function __createJavaArrayType(desc, type, elementBytesSize) {
 	var ARRAY;
+	// With workers, primitive arrays live in shared memory so all the workers see the same elements
+	var shared = N.sharedArrays && type !== Array;
 	ARRAY = function(size) {
 		this.desc = desc;
 		this.memorySize = size * elementBytesSize;
-		this.data = new type((((this.memorySize + 7) & ~7) / elementBytesSize)|0);
+		var allocSize = (((this.memorySize + 7) & ~7) / elementBytesSize)|0;
+		this.data = shared ? new type(new SharedArrayBuffer(allocSize * elementBytesSize)) : new type(allocSize);
 		this.length = size;
 		this.init();
 
@@ -472,7 +475,7 @@ function __createJavaArrayType(desc, type, elementBytesSize) {
 	ARRAY.prototype = Object.create(JA_0.prototype);
 	ARRAY.prototype.constructor = ARRAY;
 
-	if (desc == '[J') {
+	if (desc == '[J' && type === Array) {
 		ARRAY.prototype.init = function() {
 			var zero = N.lnew(0, 0);
 			for (var n = 0; n < this.length; n++) this.set(n, zero);
@@ -732,6 +735,50 @@ N.l2i   = function(v) { return Int64.toInt(v); }
 N.l2f   = function(v) { return Int64.toFloat(v); }
 N.l2d   = function(v) { return Int64.toFloat(v); }
 
+N.isLong = function(v) { return v instanceof Int64; };
+
+// Switches longs to native BigInt values. Generated code emits BigInt operators inline in this mode,
+// so this only has to cover the helpers still called from the runtime and from native method bodies.
+// Constants are built with BigInt() calls instead of literals, so engines without BigInt can still parse this file.
+N.linitBigInt = function() {
+	var ZERO = BigInt(0), B32 = BigInt(32), B63 = BigInt(63);
+	var MIN = -(BigInt(1) << B63), MAX = (BigInt(1) << B63) - BigInt(1);
+	var divisionByZero = function() { throw {% CONSTRUCTOR java.lang.ArithmeticException:(Ljava/lang/String;)V %}(N.str('/ by zero')); };
+
+	N.i2j   = function(v) { return BigInt(v | 0); };
+	N.d2j   = N.f2j = function(v) {
+		if (isNaN(v)) return ZERO;
+		if (v >= 9223372036854775807) return MAX;
+		if (v <= -9223372036854775808) return MIN;
+		return BigInt(Math.trunc(v));
+	};
+	N.lnew  = function(high, low) { return BigInt.asIntN(64, (BigInt(high | 0) << B32) | BigInt(low >>> 0)); };
+	N.lnewFloat = N.d2j;
+	N.ltoFloat = function(v) { return Number(v); };
+	N.llow  = function(v) { return Number(BigInt.asIntN(32, v)); };
+	N.lhigh = function(v) { return Number(BigInt.asIntN(32, v >> B32)); };
+	N.ladd  = function(a, b) { return BigInt.asIntN(64, a + b); };
+	N.lsub  = function(a, b) { return BigInt.asIntN(64, a - b); };
+	N.lmul  = function(a, b) { return BigInt.asIntN(64, a * b); };
+	N.ldiv  = function(a, b) { if (b == ZERO) divisionByZero(); return BigInt.asIntN(64, a / b); };
+	N.lrem  = function(a, b) { if (b == ZERO) divisionByZero(); return a % b; };
+	N.llcmp = N.lcmp = function(a, b) { return (a < b) ? -1 : ((a > b) ? 1 : 0); };
+	N.lxor  = function(a, b) { return a ^ b; };
+	N.land  = function(a, b) { return a & b; };
+	N.lor   = function(a, b) { return a | b; };
+	N.lshl  = function(a, b) { return BigInt.asIntN(64, a << BigInt(b & 63)); };
+	N.lshr  = function(a, b) { return a >> BigInt(b & 63); };
+	N.lushr = function(a, b) { return BigInt.asIntN(64, BigInt.asUintN(64, a) >> BigInt(b & 63)); };
+	N.lneg  = function(a) { return BigInt.asIntN(64, -a); };
+	N.linv  = function(a) { return ~a; };
+	N.l2i   = function(v) { return Number(BigInt.asIntN(32, v)); };
+	N.l2f   = function(v) { return Math.fround(Number(v)); };
+	N.l2d   = function(v) { return Number(v); };
+	N.isLong = function(v) { return typeof v === 'bigint'; };
+
+	JA_J = __createJavaArrayType('[J', BigInt64Array, 8);
+};
+
 N.cmp  = function(a, b) { return (a < b) ? -1 : ((a > b) ? 1 : 0); }
 N.cmpl = function(a, b) { return (isNaN(a) || isNaN(b)) ? -1 : N.cmp(a, b); }
 N.cmpg = function(a, b) { return (isNaN(a) || isNaN(b)) ? 1 : N.cmp(a, b); }
@@ -785,6 +832,22 @@ N.str = function(str) {
 	return out;
 }
 
+// Shared RegExp objects for stateless uses (test and replace). The least recently used are evicted first
+N.regexpCache = new Map();
+N.regexp = function(pattern, flags) {
+	var cache = N.regexpCache;
+	var key = flags + ':' + pattern;
+	var re = cache.get(key);
+	if (re !== undefined) {
+		cache.delete(key);
+	} else {
+		re = new RegExp(pattern, flags);
+		if (cache.size >= 64) cache.delete(cache.keys().next().value);
+	}
+	cache.set(key, re);
+	return re;
+};
+
 N.strLit = function(str) {
 	// Check cache!
 	return N.str(str);
@@ -814,6 +877,20 @@ N.istrArray = function(strs) {
 	return strs.data.map(function(s) { return N.istr(s); });
 };
 
+// Case index of a string switch (see StringSwitchFeature), or -1 when the string doesn't match any case
+N.strSwitch = function(map, str) {
+	if (str == null) throw {% CONSTRUCTOR java.lang.NullPointerException:()V %}();
+	var index = map.get(N.istr(str));
+	return (index !== undefined) ? index : -1;
+};
+
+N.strSwitchInit = function(holder, key, values, indices) {
+	var map = new Map();
+	for (var n = 0; n < values.length; n++) map.set(values[n], indices[n]);
+	holder[key] = map;
+	return map;
+};
+
 N.iteratorToArray = function(it) {
 	if (it == null) return null;
 	var out = [];
@@ -893,6 +970,13 @@ N._arraycopyArray = function(srcData, srcPos, destData, destPos, length, overlap
 	}
 }
 
+// DataView over the bytes of a typed array. Created once per array and shares its ArrayBuffer
+N.byteView = function(array) {
+	var data = array.data;
+	if (array.dataView === undefined) array.dataView = new DataView(data.buffer, data.byteOffset, data.byteLength);
+	return array.dataView;
+};
+
 N._arraycopyGeneric = function(srcData, srcPos, destData, destPos, length, overlapping) {
 	if (overlapping) {
 		for (var n = length - 1; n >= 0; n--) destData[destPos + n] = srcData[srcPos + n];
@@ -1045,6 +1129,28 @@ N.throwRuntimeException = function(msg) {
 	//throw msg;
 };
 
+N.throwIllegalMonitorState = function() {
+	throw {% CONSTRUCTOR java.lang.IllegalMonitorStateException:()V %}();
+};
+
+N.checkNotNull = function(value) {
+	if (value == null) throw {% CONSTRUCTOR java.lang.NullPointerException:()V %}();
+	return value;
+};
+
+// Array accesses that AstCheckElimination couldn't prove safe
+N.aget = function(array, index) {
+	if (array == null) throw {% CONSTRUCTOR java.lang.NullPointerException:()V %}();
+	if (index < 0 || index >= array.length) throw {% CONSTRUCTOR java.lang.ArrayIndexOutOfBoundsException:(I)V %}(index);
+	return array.data[index];
+};
+
+N.aset = function(array, index, value) {
+	if (array == null) throw {% CONSTRUCTOR java.lang.NullPointerException:()V %}();
+	if (index < 0 || index >= array.length) throw {% CONSTRUCTOR java.lang.ArrayIndexOutOfBoundsException:(I)V %}(index);
+	array.data[index] = value;
+};
+
 N.boxWithType = function(clazz, value) {
 	if (value instanceof JA_0) return value;
 	if (value instanceof {% CLASS java.lang.Object %}) return value;
@@ -1096,7 +1202,7 @@ N.boxArray = function(array) {
 
 N.box = function(v) {
 	if (v instanceof {% CLASS java.lang.Object %}) return v; // already boxed!
-	if (v instanceof Int64) return N.boxLong(v);
+	if (N.isLong(v)) return N.boxLong(v);
 	if (typeof v == 'string') return N.str(v);
 	if ((v|0) == v) return N.boxInt(v);
 	if (+(v) == v) return N.boxFloat(v);
@@ -1138,6 +1244,206 @@ N.clone = function(obj) {
 	return temp;
 };
 
+///////////////////////
+// Threads
+///////////////////////
+// With the "threads" extra setting set to "workers", started threads run on node worker_threads. Workers load the
+// same program, so static fields are per worker. A started thread gets a copy of the objects reachable from it,
+// except for primitive arrays, AtomicInteger values and monitors, that live in shared memory.
+N.sharedArrays = false;
+N.threadId = 1;
+N.threadCounter = null;
+N.currentThread = null;
+N.workerClasses = null;
+
+N.initWorkers = function(classes) {
+	var worker_threads = require('worker_threads');
+	N.sharedArrays = true;
+	N.workerClasses = classes;
+	if (worker_threads.isMainThread) {
+		N.threadCounter = new Int32Array(new SharedArrayBuffer(4));
+		N.threadCounter[0] = 1;
+	} else {
+		N.threadId = worker_threads.workerData.id;
+		N.threadCounter = worker_threads.workerData.counter;
+	}
+};
+
+N.isWorker = function() {
+	return N.sharedArrays && !require('worker_threads').isMainThread;
+};
+
+// Runs the thread in a new worker. Returns false when workers are not enabled.
+N.threadStart = function(thread, runMethod) {
+	if (!N.sharedArrays) return false;
+	var state = new Int32Array(new SharedArrayBuffer(4));
+	state[0] = 1;
+	thread.__jt_state = state;
+	var worker_threads = require('worker_threads');
+	new worker_threads.Worker((typeof __filename !== 'undefined') ? __filename : process.argv[1], {
+		argv: process.argv.slice(2),
+		workerData: {
+			id: Atomics.add(N.threadCounter, 0, 1) + 1,
+			counter: N.threadCounter,
+			run: runMethod,
+			thread: N.workerEncode(thread)
+		}
+	});
+	return true;
+};
+
+N.workerMain = function() {
+	var data = require('worker_threads').workerData;
+	var thread = N.workerDecode(data.thread);
+	N.currentThread = thread;
+	thread[data.run]();
+};
+
+N.threadRunning = function(thread) {
+	return thread.__jt_state ? (Atomics.load(thread.__jt_state, 0) != 0) : true;
+};
+
+N.threadExited = function(thread) {
+	if (thread.__jt_state) Atomics.store(thread.__jt_state, 0, 0);
+};
+
+// Object graphs are sent to workers as trees of plain values, with references to objects already sent.
+// Typed arrays are passed as is: the ones in shared memory end shared with the worker.
+N.workerEncode = function(value) {
+	var ids = new Map();
+	var fields = function(obj) {
+		var out = {};
+		for (var key in obj) {
+			var v = obj[key];
+			if (typeof v === 'function' || key === '__jt_held' || key.startsWith('$$CLASS_ID')) continue;
+			out[key] = encode(v);
+		}
+		return out;
+	};
+	var encode = function(v) {
+		if (v == null || typeof v !== 'object' || ArrayBuffer.isView(v)) return v;
+		if (v instanceof Int64) return { t: 'j', h: v.high, l: v.low };
+		if (Array.isArray(v)) return { t: 'A', v: v.map(encode) };
+		if (ids.has(v)) return { t: 'r', i: ids.get(v) };
+		var id = ids.size;
+		ids.set(v, id);
+		if (v instanceof {% CLASS java.lang.String %}) return { t: 's', i: id, v: v._str };
+		if (v instanceof JA_0) {
+			N.monitorCell(v);
+			return { t: 'o', i: id, a: (v instanceof JA_L) ? 'L' : v.desc, f: fields(v) };
+		}
+		if (typeof v.$$CLASS_ID === 'undefined') N.throwRuntimeException("Can't pass " + v + ' to another thread');
+		N.monitorCell(v);
+		return { t: 'o', i: id, c: v.$$CLASS_ID, f: fields(v) };
+	};
+	return encode(value);
+};
+
+N.workerDecode = function(value) {
+	var objects = [];
+	var arrays = { 'L': JA_L, '[Z': JA_Z, '[B': JA_B, '[C': JA_C, '[S': JA_S, '[I': JA_I, '[J': JA_J, '[F': JA_F, '[D': JA_D };
+	var decode = function(e) {
+		if (e == null || typeof e !== 'object' || ArrayBuffer.isView(e)) return e;
+		switch (e.t) {
+			case 'j': return N.lnew(e.h, e.l);
+			case 'A': return e.v.map(decode);
+			case 'r': return objects[e.i];
+			case 's': return objects[e.i] = N.str(e.v);
+		}
+		var clazz = (e.a !== undefined) ? arrays[e.a] : N.workerClasses[e.c];
+		var out = objects[e.i] = Object.create(clazz.prototype);
+		for (var key in e.f) out[key] = decode(e.f[key]);
+		return out;
+	};
+	return decode(value);
+};
+
+// Monitors of objects seen by more than one thread use a shared cell: [owner thread id, recursion count, notifications].
+// The rest of objects are only locked by their own thread, so they just count how many times they are held.
+N.monitorCell = function(obj) {
+	var cell = obj.__jt_lock;
+	if (!cell) {
+		cell = obj.__jt_lock = new Int32Array(new SharedArrayBuffer(12));
+		if (obj.__jt_held > 0) {
+			cell[0] = N.threadId;
+			cell[1] = obj.__jt_held;
+		}
+	}
+	return cell;
+};
+
+N.monitorAcquire = function(cell, count) {
+	for (;;) {
+		var owner = Atomics.compareExchange(cell, 0, 0, N.threadId);
+		if (owner == 0) break;
+		Atomics.wait(cell, 0, owner);
+	}
+	cell[1] = count;
+};
+
+N.monitorRelease = function(cell) {
+	cell[1] = 0;
+	Atomics.store(cell, 0, 0);
+	Atomics.notify(cell, 0, 1);
+};
+
+N.monitorEnter = function(obj) {
+	var cell = obj.__jt_lock;
+	if (!cell) {
+		obj.__jt_held = (obj.__jt_held | 0) + 1;
+	} else if (cell[0] == N.threadId) {
+		cell[1]++;
+	} else {
+		N.monitorAcquire(cell, 1);
+	}
+};
+
+N.monitorExit = function(obj) {
+	var cell = obj.__jt_lock;
+	if (!cell) {
+		if (!(obj.__jt_held > 0)) N.throwIllegalMonitorState();
+		obj.__jt_held--;
+	} else {
+		if (cell[0] != N.threadId) N.throwIllegalMonitorState();
+		if (--cell[1] == 0) N.monitorRelease(cell);
+	}
+};
+
+N.monitorWait = function(obj, millis) {
+	// Without workers there is a single thread, and monitors are not tracked
+	if (!N.sharedArrays) return;
+	if (!N.monitorHoldsLock(obj)) N.throwIllegalMonitorState();
+	var cell = obj.__jt_lock;
+	// No other thread can notify objects without a shared cell
+	if (!cell) return;
+	var count = cell[1];
+	var seq = Atomics.load(cell, 2);
+	N.monitorRelease(cell);
+	Atomics.wait(cell, 2, seq, (millis > 0) ? millis : Infinity);
+	N.monitorAcquire(cell, count);
+};
+
+N.monitorNotify = function(obj, all) {
+	if (!N.sharedArrays) return;
+	if (!N.monitorHoldsLock(obj)) N.throwIllegalMonitorState();
+	var cell = obj.__jt_lock;
+	if (!cell) return;
+	Atomics.add(cell, 2, 1);
+	Atomics.notify(cell, 2, all ? Infinity : 1);
+};
+
+N.monitorHoldsLock = function(obj) {
+	var cell = obj.__jt_lock;
+	return cell ? (cell[0] == N.threadId) : (obj.__jt_held > 0);
+};
+
+// AtomicInteger keeps its value in a shared cell when workers are enabled
+N.atomicInit = function(obj, field) {
+	if (!N.sharedArrays) return;
+	obj.__jt_cell = new Int32Array(new SharedArrayBuffer(4));
+	obj.__jt_cell[0] = obj[field];
+};
+
 N.methodWithoutBody = function(name) {
 	throw 'Method not implemented: native or abstract: ' + name;
 };
@@ -16,9 +16,14 @@
 
 package java.io;
 
+import sun.nio.ch.FileChannelImpl;
+
+import java.nio.channels.FileChannel;
+
 public class FileInputStream extends InputStream {
 	private final FileDescriptor fd;
 	private final RandomAccessFile rf;
+	private FileChannel channel = null;
 
 	private volatile boolean closed = false;
 
@@ -63,6 +68,7 @@ public class FileInputStream extends InputStream {
 	public void close() throws IOException {
 		if (closed) return;
 		closed = true;
+		if (channel != null) channel.close();
 		this.rf.close();
 	}
 
@@ -70,6 +76,13 @@ public class FileInputStream extends InputStream {
 		throw new IOException();
 	}
 
+	public FileChannel getChannel() {
+		synchronized (this) {
+			if (channel == null) channel = new FileChannelImpl(rf.jfd, true, false, false, this);
+			return channel;
+		}
+	}
+
 	protected void finalize() throws IOException {
 		if ((fd != FileDescriptor.in)) {
 			close();
@@ -17,6 +17,9 @@
 package java.io;
 
 import com.jtransc.io.JTranscSyncIO;
+import sun.nio.ch.FileChannelImpl;
+
+import java.nio.channels.FileChannel;
 
 public class FileOutputStream extends OutputStream {
 	private final FileDescriptor fd;
@@ -24,6 +27,7 @@ public class FileOutputStream extends OutputStream {
 	private final String path;
 	private final JTranscSyncIO.ImplStream jfd;
 	private volatile boolean closed = false;
+	private FileChannel channel = null;
 
 	public FileOutputStream(String name) throws FileNotFoundException {
 		this(name != null ? new File(name) : null, false);
@@ -70,6 +74,7 @@ public class FileOutputStream extends OutputStream {
 	public void close() throws IOException {
 		if (closed) return;
 		closed = true;
+		if (channel != null) channel.close();
 		jfd.close();
 	}
 
@@ -77,4 +82,11 @@ public class FileOutputStream extends OutputStream {
 		if (fd != null) return fd;
 		throw new IOException();
 	}
+
+	public FileChannel getChannel() {
+		synchronized (this) {
+			if (channel == null) channel = new FileChannelImpl(jfd, false, true, append, this);
+			return channel;
+		}
+	}
 }
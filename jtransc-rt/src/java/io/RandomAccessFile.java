@@ -18,18 +18,20 @@ package java.io;
 
 import com.jtransc.JTranscBits;
 import com.jtransc.io.JTranscSyncIO;
+import sun.nio.ch.FileChannelImpl;
 
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 
 public class RandomAccessFile implements DataOutput, DataInput, Closeable {
 	private FileDescriptor fd;
-	//private FileChannel channel = null;
+	private FileChannel channel = null;
 	private boolean rw;
 	private final String path;
 
 	private volatile boolean closed = false;
 
-	private final JTranscSyncIO.ImplStream jfd;
+	final JTranscSyncIO.ImplStream jfd;
 
 	private byte[] temp = new byte[8];
 
@@ -62,6 +64,13 @@ public class RandomAccessFile implements DataOutput, DataInput, Closeable {
 		return fd;
 	}
 
+	public final FileChannel getChannel() {
+		synchronized (this) {
+			if (channel == null) channel = new FileChannelImpl(jfd, true, rw, false, this);
+			return channel;
+		}
+	}
+
 	public int read() throws IOException {
 		return jfd.read();
 	}
@@ -130,7 +139,7 @@ public class RandomAccessFile implements DataOutput, DataInput, Closeable {
 	public void close() throws IOException {
 		if (closed) return;
 		closed = true;
-		//if (channel != null) channel.close();
+		if (channel != null) channel.close();
 		jfd.close();
 	}
 
@@ -253,10 +253,13 @@ public final class Class<T> implements java.io.Serializable, Type, GenericDeclar
 		if (className.startsWith("L") && className.endsWith(";")) {
 			return forName(className.substring(1, className.length() - 1).replace('/', '.'));
 		}
-		if (!_classCache.has(className)) {
-			_classCache.set(className, new Class<>(className));
+		Class<?> result;
+		synchronized (_classCache) {
+			if (!_classCache.has(className)) {
+				_classCache.set(className, new Class<>(className));
+			}
+			result = _classCache.get(className);
 		}
-		Class<?> result = _classCache.get(className);
 		if (result == null) {
 			JTranscConsole.error("Couldn't find class " + className);
 		}
@@ -137,21 +137,22 @@ public final class Integer extends Number implements Comparable<Integer> {
 		return valueOf(s, 10);
 	}
 
-	static private Integer[] values;
-
 	static private final int MIN = -128;
 	static private final int MAX = 128;
 	static private final int LENGTH = MAX - MIN;
 
+	// Built by the static initializer: filling it lazily raced when threads boxed values at the same time
+	static private final Integer[] values = new Integer[LENGTH];
+
+	static {
+		for (int n = MIN; n < MAX; n++) {
+			values[n - MIN] = new Integer(n);
+		}
+	}
+
 	@SuppressWarnings("UnnecessaryBoxing")
 	@JTranscKeep
 	public static Integer valueOf(int i) {
-		if (values == null) {
-			values = new Integer[LENGTH];
-			for (int n = MIN; n < MAX; n++) {
-				values[n - MIN] = new Integer(n);
-			}
-		}
 		if (i >= MIN && i < MAX) {
 			return values[i - MIN];
 		} else {
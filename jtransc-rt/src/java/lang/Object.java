@@ -45,6 +45,11 @@ import java.lang.reflect.Field;
 @JTranscAddFile(target = "d", priority = -1, process = true, prependAppend = "d/Base.d")
 @JTranscAddMembers(target = "d", value = {
 	"core.sync.mutex.Mutex __d_mutex = null;",
+	"core.sync.condition.Condition __d_condition = null;",
+})
+@JTranscAddMembers(target = "cpp", value = {
+	"std::atomic<uintptr_t> __jt_lock{0};",
+	"~java_lang_Object();",
 })
 public class Object {
 	static private int $$lastId = 0;
@@ -104,12 +109,21 @@ public class Object {
 		return getClass().getName() + "@" + Integer.toHexString(this.hashCode());
 	}
 
+	@JTranscMethodBody(target = "js", value = "N.monitorNotify(this, false);")
+	@JTranscMethodBody(target = "cpp", value = "N::monitorNotify(this->sptr(), false);")
+	@JTranscMethodBody(target = "d", value = "N.monitorNotify(this, false);")
 	public final void notify() {
 	}
 
+	@JTranscMethodBody(target = "js", value = "N.monitorNotify(this, true);")
+	@JTranscMethodBody(target = "cpp", value = "N::monitorNotify(this->sptr(), true);")
+	@JTranscMethodBody(target = "d", value = "N.monitorNotify(this, true);")
 	public final void notifyAll() {
 	}
 
+	@JTranscMethodBody(target = "js", value = "N.monitorWait(this, N.l2d(p0));")
+	@JTranscMethodBody(target = "cpp", value = "N::monitorWait(this->sptr(), p0);")
+	@JTranscMethodBody(target = "d", value = "N.monitorWait(this, p0);")
 	public final void wait(long timeout) throws InterruptedException {
 	}
 
@@ -76,7 +76,11 @@ public class Runtime {
 		return new ProcessBuilder(cmdarray).environment(envp).directory(dir).start();
 	}
 
-	public native int availableProcessors();
+	@JTranscMethodBody(target = "cpp", value = "return (int32_t)std::max(1u, std::thread::hardware_concurrency());")
+	@JTranscMethodBody(target = "d", value = "return cast(int)std.parallelism.totalCPUs;")
+	public int availableProcessors() {
+		return 1;
+	}
 
 	public native long freeMemory();
 
@@ -564,8 +564,8 @@ public final class String implements java.io.Serializable, Comparable<String>, C
 		return this;
 	}
 
-	@HaxeMethodBody("return new EReg('^' + p0._str + '$', '').match(this._str);")
-	@JTranscMethodBody(target = "js", value = "return new RegExp('^' + N.istr(p0) + '$').test(N.istr(this));")
+	@HaxeMethodBody("return new EReg('^(?:' + p0._str + ')$', '').match(this._str);")
+	@JTranscMethodBody(target = "js", value = "return N.regexp('^(?:' + N.istr(p0) + ')$', '').test(N.istr(this));")
 	public boolean matches(String regex) {
 		return Pattern.matches(regex, this);
 	}
@@ -167,6 +167,7 @@ public class System {
 	@JTranscMethodBody(target = "d", value = "core.stdc.stdlib.exit(p0);")
 	native public static void exit(int status);
 
+	@JTranscMethodBody(target = "cpp", value = "N::gc();")
 	public static void gc() {
 
 	}
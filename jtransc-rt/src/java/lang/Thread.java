@@ -23,6 +23,7 @@ import com.jtransc.annotation.haxe.HaxeMethodBody;
 import com.jtransc.thread.JTranscThreading;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 @JTranscAddMembers(target = "d", value = {
@@ -36,6 +37,9 @@ public class Thread implements Runnable {
 
 	static private Thread _currentThread;
 
+	// Started threads that didn't finish yet, so they are reachable while they run
+	static private final HashSet<Thread> _runningThreads = new HashSet<Thread>();
+
 	@JTranscMethodBody(target = "d", value = {
 		"if (_dCurrentThread is null) {",
 		"	_dCurrentThread = new {% CLASS java.lang.Thread %}();",
@@ -43,12 +47,21 @@ public class Thread implements Runnable {
 		"return _dCurrentThread;",
 	})
 	public static Thread currentThread() {
+		Thread thread = _getStartedCurrentThread();
+		if (thread != null) return thread;
 		if (_currentThread == null) {
 			_currentThread = new Thread();
 		}
 		return _currentThread;
 	}
 
+	// The started thread running the caller, or null in the main thread
+	@JTranscMethodBody(target = "js", value = "return N.currentThread;")
+	@JTranscMethodBody(target = "cpp", value = "return N::getCurrentThread();")
+	static private Thread _getStartedCurrentThread() {
+		return null;
+	}
+
 	public StackTraceElement[] getStackTrace() {
 		StackTraceElement[] stackTrace = _getStackTrace();
 		if ((stackTrace == null) || (stackTrace.length == 0)) {
@@ -71,10 +84,16 @@ public class Thread implements Runnable {
 	}
 
 	@JTranscMethodBody(target = "d", value = "Thread.yield();")
+	@JTranscMethodBody(target = "cpp", value = "std::this_thread::yield();")
 	public static void yield() {
 	}
 
 	@JTranscMethodBody(target = "d", value = "Thread.sleep(dur!(\"msecs\")(p0));")
+	@JTranscMethodBody(target = "js", value = {
+		"if (N.sharedArrays) Atomics.wait(new Int32Array(new SharedArrayBuffer(4)), 0, 0, N.l2d(p0));",
+		"else {% SMETHOD com.jtransc.JTranscSystem:sleep:(D)V %}(N.l2d(p0));",
+	})
+	@JTranscMethodBody(target = "cpp", value = "std::this_thread::sleep_for(std::chrono::milliseconds(p0));")
 	public static void sleep(long millis) throws InterruptedException {
 		JTranscSystem.sleep(millis);
 	}
@@ -139,14 +158,55 @@ public class Thread implements Runnable {
 
 	@JTranscMethodBody(target = "d", value = "this.thread.start();")
 	public synchronized void start() {
-		JTranscThreading.impl.start(this);
+		if (JTranscThreading.impl.isSupported()) {
+			_isAlive = true;
+			synchronized (_runningThreads) {
+				_runningThreads.add(this);
+			}
+		}
+		_start();
 	}
 
+	@JTranscMethodBody(target = "cpp", value = {
+		"SOBJ thread = this->sptr();",
+		"std::thread([thread]() {",
+		"	N::threadEnter(thread);",
+		"	GET_OBJECT({% CLASS java.lang.Thread %}, thread)->{% METHOD java.lang.Thread:runInternal:()V %}();",
+		"	N::threadExit();",
+		"}).detach();",
+	})
+	private void _start() {
+		if (!_startWorker()) JTranscThreading.impl.start(this);
+	}
+
+	@JTranscMethodBody(target = "js", value = "return N.threadStart(this, '{% METHOD java.lang.Thread:runInternal:()V %}');")
+	private boolean _startWorker() {
+		return false;
+	}
 
 	@SuppressWarnings("unused")
 	private void runInternal() {
-		runInternalInit();
-		run();
+		try {
+			runInternalInit();
+			run();
+		} catch (Throwable t) {
+			UncaughtExceptionHandler handler = getUncaughtExceptionHandler();
+			if (handler != null) {
+				handler.uncaughtException(this, t);
+			} else {
+				System.err.println("Exception in thread \"" + getName() + "\"");
+				t.printStackTrace();
+			}
+		} finally {
+			synchronized (_runningThreads) {
+				_runningThreads.remove(this);
+			}
+			synchronized (this) {
+				_isAlive = false;
+				_exited();
+				notifyAll();
+			}
+		}
 	}
 
 	@JTranscMethodBody(target = "d", value = {
@@ -155,6 +215,16 @@ public class Thread implements Runnable {
 	private void runInternalInit() {
 	}
 
+	// Threads running in js workers are copies of the started one, so they publish their state in shared memory
+	@JTranscMethodBody(target = "js", value = "N.threadExited(this);")
+	private void _exited() {
+	}
+
+	@JTranscMethodBody(target = "js", value = "return N.threadRunning(this);")
+	private boolean _running() {
+		return true;
+	}
+
 	@Override
 	public void run() {
 		if (this.target != null) {
@@ -187,7 +257,7 @@ public class Thread implements Runnable {
 	}
 
 	public final boolean isAlive() {
-		return JTranscThreading.impl.isAlive(this);
+		return (_isAlive && _running()) || JTranscThreading.impl.isAlive(this);
 	}
 
 	@Deprecated
@@ -196,9 +266,17 @@ public class Thread implements Runnable {
 	@Deprecated
 	native public final void resume();
 
-	native public final void setPriority(int newPriority);
+	private int priority = NORM_PRIORITY;
+	private boolean daemon = false;
 
-	native public final int getPriority();
+	public final void setPriority(int newPriority) {
+		if (newPriority < MIN_PRIORITY || newPriority > MAX_PRIORITY) throw new IllegalArgumentException();
+		this.priority = newPriority;
+	}
+
+	public final int getPriority() {
+		return priority;
+	}
 
 	public final synchronized void setName(String name) {
 		this.name = name;
@@ -208,7 +286,9 @@ public class Thread implements Runnable {
 		return this.name;
 	}
 
-	native public final ThreadGroup getThreadGroup();
+	public final ThreadGroup getThreadGroup() {
+		return group;
+	}
 
 	native public static int activeCount();
 
@@ -217,19 +297,44 @@ public class Thread implements Runnable {
 	@Deprecated
 	native public int countStackFrames();
 
-	native public final synchronized void join(long millis) throws InterruptedException;
+	// Threads notify themselves when they finish
+	public final synchronized void join(long millis) throws InterruptedException {
+		if (millis < 0) throw new IllegalArgumentException("timeout value is negative");
+		if (millis == 0) {
+			while (isAlive()) wait(0);
+		} else {
+			long end = System.currentTimeMillis() + millis;
+			while (isAlive()) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) break;
+				wait(remaining);
+			}
+		}
+	}
 
-	native public final synchronized void join(long millis, int nanos) throws InterruptedException;
+	public final synchronized void join(long millis, int nanos) throws InterruptedException {
+		join((millis == 0 && nanos > 0) ? 1 : millis);
+	}
 
-	native public final void join() throws InterruptedException;
+	public final void join() throws InterruptedException {
+		join(0);
+	}
 
 	native public static void dumpStack();
 
+	public final void setDaemon(boolean on) {
+		this.daemon = on;
+		_setDaemon(on);
+	}
+
+	// D waits for non daemon threads before exiting
 	@JTranscMethodBody(target = "d", value = "this.thread.isDaemon = p0;")
-	native public final void setDaemon(boolean on);
+	private void _setDaemon(boolean on) {
+	}
 
-	@JTranscMethodBody(target = "d", value = "return this.thread.isDaemon;")
-	native public final boolean isDaemon();
+	public final boolean isDaemon() {
+		return daemon;
+	}
 
 	native public final void checkAccess();
 
@@ -255,6 +360,8 @@ public class Thread implements Runnable {
 		this.classLoader = cl;
 	}
 
+	@JTranscMethodBody(target = "js", value = "return N.monitorHoldsLock(p0);")
+	@JTranscMethodBody(target = "cpp", value = "return N::monitorHoldsLock(p0);")
 	public static boolean holdsLock(Object obj) {
 		return false;
 	}
@@ -278,11 +385,22 @@ public class Thread implements Runnable {
 		void uncaughtException(Thread t, Throwable e);
 	}
 
-	native public static void setDefaultUncaughtExceptionHandler(UncaughtExceptionHandler eh);
+	static private UncaughtExceptionHandler defaultUncaughtExceptionHandler;
+	private UncaughtExceptionHandler uncaughtExceptionHandler;
+
+	public static void setDefaultUncaughtExceptionHandler(UncaughtExceptionHandler eh) {
+		defaultUncaughtExceptionHandler = eh;
+	}
 
-	native public static UncaughtExceptionHandler getDefaultUncaughtExceptionHandler();
+	public static UncaughtExceptionHandler getDefaultUncaughtExceptionHandler() {
+		return defaultUncaughtExceptionHandler;
+	}
 
-	native public UncaughtExceptionHandler getUncaughtExceptionHandler();
+	public UncaughtExceptionHandler getUncaughtExceptionHandler() {
+		return (uncaughtExceptionHandler != null) ? uncaughtExceptionHandler : defaultUncaughtExceptionHandler;
+	}
 
-	native public void setUncaughtExceptionHandler(UncaughtExceptionHandler eh);
+	public void setUncaughtExceptionHandler(UncaughtExceptionHandler eh) {
+		this.uncaughtExceptionHandler = eh;
+	}
 }
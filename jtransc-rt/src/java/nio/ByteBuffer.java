@@ -22,7 +22,7 @@ import libcore.io.Memory;
 
 import java.nio.internal.SizeOf;
 
-public final class ByteBuffer extends Buffer implements Comparable<ByteBuffer> {
+public class ByteBuffer extends Buffer implements Comparable<ByteBuffer> {
 	ByteOrder order;
 	boolean isNativeOrder;
 
@@ -30,7 +30,7 @@ public final class ByteBuffer extends Buffer implements Comparable<ByteBuffer> {
 	final int arrayOffset;
 
 	private final boolean isReadOnly;
-	private boolean isDirect;
+	boolean isDirect;
 
 	ByteBuffer(byte[] backingArray) {
 		this(backingArray.length, backingArray, 0, false);
@@ -42,7 +42,7 @@ public final class ByteBuffer extends Buffer implements Comparable<ByteBuffer> {
 		this.isDirect = isDirect;
 	}
 
-	private ByteBuffer(int capacity, byte[] backingArray, int arrayOffset, boolean isReadOnly) {
+	ByteBuffer(int capacity, byte[] backingArray, int arrayOffset, boolean isReadOnly) {
 		super(0, capacity, null);
 		this.backingArray = backingArray;
 		this.arrayOffset = arrayOffset;
@@ -344,45 +344,74 @@ public final class ByteBuffer extends Buffer implements Comparable<ByteBuffer> {
 
 	final void get(char[] dst, int dstOffset, int charCount) {
 		int byteCount = checkGetBounds(SizeOf.CHAR, dst.length, dstOffset, charCount);
-		//Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.CHAR, order.needsSwap);
+		Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.CHAR, order.needsSwap);
 		position += byteCount;
-		throw new RuntimeException("Not implemented");
 	}
 
 	final void get(double[] dst, int dstOffset, int doubleCount) {
 		int byteCount = checkGetBounds(SizeOf.DOUBLE, dst.length, dstOffset, doubleCount);
-		//Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.DOUBLE, order.needsSwap);
+		Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.DOUBLE, order.needsSwap);
 		position += byteCount;
-		throw new RuntimeException("Not implemented");
 	}
 
 	final void get(float[] dst, int dstOffset, int floatCount) {
 		int byteCount = checkGetBounds(SizeOf.FLOAT, dst.length, dstOffset, floatCount);
-		//Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.FLOAT, order.needsSwap);
+		Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.FLOAT, order.needsSwap);
 		position += byteCount;
-		throw new RuntimeException("Not implemented");
 	}
 
 	final void get(int[] dst, int dstOffset, int intCount) {
 		int byteCount = checkGetBounds(SizeOf.INT, dst.length, dstOffset, intCount);
-		//Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.INT, order.needsSwap);
+		Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.INT, order.needsSwap);
 		position += byteCount;
-		throw new RuntimeException("Not implemented");
 	}
 
 	final void get(long[] dst, int dstOffset, int longCount) {
 		int byteCount = checkGetBounds(SizeOf.LONG, dst.length, dstOffset, longCount);
-		//Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.LONG, order.needsSwap);
+		Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.LONG, order.needsSwap);
 		position += byteCount;
-		throw new RuntimeException("Not implemented");
-
 	}
 
 	final void get(short[] dst, int dstOffset, int shortCount) {
 		int byteCount = checkGetBounds(SizeOf.SHORT, dst.length, dstOffset, shortCount);
-		//Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.SHORT, order.needsSwap);
+		Memory.unsafeBulkGet(dst, dstOffset, byteCount, backingArray, arrayOffset + position, SizeOf.SHORT, order.needsSwap);
+		position += byteCount;
+	}
+
+	final void put(char[] src, int srcOffset, int charCount) {
+		int byteCount = checkPutBounds(SizeOf.CHAR, src.length, srcOffset, charCount);
+		Memory.unsafeBulkPut(backingArray, arrayOffset + position, byteCount, src, srcOffset, SizeOf.CHAR, order.needsSwap);
+		position += byteCount;
+	}
+
+	final void put(double[] src, int srcOffset, int doubleCount) {
+		int byteCount = checkPutBounds(SizeOf.DOUBLE, src.length, srcOffset, doubleCount);
+		Memory.unsafeBulkPut(backingArray, arrayOffset + position, byteCount, src, srcOffset, SizeOf.DOUBLE, order.needsSwap);
+		position += byteCount;
+	}
+
+	final void put(float[] src, int srcOffset, int floatCount) {
+		int byteCount = checkPutBounds(SizeOf.FLOAT, src.length, srcOffset, floatCount);
+		Memory.unsafeBulkPut(backingArray, arrayOffset + position, byteCount, src, srcOffset, SizeOf.FLOAT, order.needsSwap);
+		position += byteCount;
+	}
+
+	final void put(int[] src, int srcOffset, int intCount) {
+		int byteCount = checkPutBounds(SizeOf.INT, src.length, srcOffset, intCount);
+		Memory.unsafeBulkPut(backingArray, arrayOffset + position, byteCount, src, srcOffset, SizeOf.INT, order.needsSwap);
+		position += byteCount;
+	}
+
+	final void put(long[] src, int srcOffset, int longCount) {
+		int byteCount = checkPutBounds(SizeOf.LONG, src.length, srcOffset, longCount);
+		Memory.unsafeBulkPut(backingArray, arrayOffset + position, byteCount, src, srcOffset, SizeOf.LONG, order.needsSwap);
+		position += byteCount;
+	}
+
+	final void put(short[] src, int srcOffset, int shortCount) {
+		int byteCount = checkPutBounds(SizeOf.SHORT, src.length, srcOffset, shortCount);
+		Memory.unsafeBulkPut(backingArray, arrayOffset + position, byteCount, src, srcOffset, SizeOf.SHORT, order.needsSwap);
 		position += byteCount;
-		throw new RuntimeException("Not implemented");
 	}
 
 	public final byte get() {
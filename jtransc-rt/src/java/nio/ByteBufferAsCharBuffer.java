@@ -147,14 +147,14 @@ final class ByteBufferAsCharBuffer extends CharBuffer implements ByteBufferAs {
         return this;
     }
 
-    //@Override
-    //public CharBuffer put(char[] src, int srcOffset, int charCount) {
-    //    byteBuffer.limit(limit * SizeOf.CHAR);
-    //    byteBuffer.position(position * SizeOf.CHAR);
-    //    ((ByteBuffer) byteBuffer).put(src, srcOffset, charCount);
-    //    this.position += charCount;
-    //    return this;
-    //}
+    @Override
+    public CharBuffer put(char[] src, int srcOffset, int charCount) {
+        byteBuffer.limit(limit * SizeOf.CHAR);
+        byteBuffer.position(position * SizeOf.CHAR);
+        ((ByteBuffer) byteBuffer).put(src, srcOffset, charCount);
+        this.position += charCount;
+        return this;
+    }
 
     @Override
     public CharBuffer slice() {
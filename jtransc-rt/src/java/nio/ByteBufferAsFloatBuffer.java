@@ -16,7 +16,6 @@
 
 package java.nio;
 
-import com.jtransc.JTranscArrays;
 import com.jtransc.mem.BytesWrite;
 
 import java.nio.internal.SizeOf;
@@ -138,18 +137,9 @@ final class ByteBufferAsFloatBuffer extends FloatBuffer implements ByteBufferAs
     @Override
     public FloatBuffer put(float[] src, int srcOffset, int floatCount) {
         byteBuffer.limit(limit * SizeOf.FLOAT);
-		byteBuffer.position(position * SizeOf.FLOAT);
-		if (JTranscArrays.nativeReinterpretSupported() && byteBuffer.isNativeOrder) {
-			float[] dst = JTranscArrays.nativeReinterpretAsFloat(byteBuffer.array());
-			System.arraycopy(src, srcOffset, dst, position, floatCount);
-		} else {
-			int offset = position * SizeOf.FLOAT;
-			for (int n = 0; n < floatCount; n++) {
-				byteBuffer.putFloat(offset, src[srcOffset + n]);
-				offset += 4;
-			}
-		}
-		position += floatCount;
+        byteBuffer.position(position * SizeOf.FLOAT);
+        ((ByteBuffer) byteBuffer).put(src, srcOffset, floatCount);
+        this.position += floatCount;
         return this;
     }
 
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Carlos Ballesteros Velasco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio;
+
+import com.jtransc.io.JTranscSyncIO;
+
+// On C++ and D the backing array is the mapped file region itself.
+// Other targets map a copy, and force() writes it back to the file.
+public class MappedByteBuffer extends ByteBuffer {
+	private final JTranscSyncIO.ImplStream stream;
+	private final long filePosition;
+	private final int mapMode;
+
+	MappedByteBuffer(byte[] data, boolean isReadOnly, JTranscSyncIO.ImplStream stream, long filePosition, int mapMode) {
+		super(data.length, data, 0, isReadOnly);
+		this.isDirect = true;
+		this.stream = stream;
+		this.filePosition = filePosition;
+		this.mapMode = mapMode;
+	}
+
+	public final boolean isLoaded() {
+		return true;
+	}
+
+	public final MappedByteBuffer load() {
+		return this;
+	}
+
+	public final MappedByteBuffer force() {
+		synchronized (stream) {
+			stream.flushMapped(backingArray, filePosition, mapMode);
+		}
+		return this;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Carlos Ballesteros Velasco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio;
+
+import com.jtransc.io.JTranscSyncIO;
+
+// Creates the buffers whose constructors are not public, and exposes their storage, for the channels in sun.nio.ch
+public final class NioInternalUtils {
+	private NioInternalUtils() {
+	}
+
+	// Byte buffers are always backed by an array, read-only and mapped ones too. Readers can use it to avoid a copy.
+	static public byte[] backingArray(ByteBuffer buffer) {
+		return buffer.backingArray;
+	}
+
+	static public int backingArrayOffset(ByteBuffer buffer) {
+		return buffer.arrayOffset;
+	}
+
+	static public MappedByteBuffer newMappedByteBuffer(byte[] data, boolean isReadOnly, JTranscSyncIO.ImplStream stream, long filePosition, int mapMode) {
+		return new MappedByteBuffer(data, isReadOnly, stream, filePosition, mapMode);
+	}
+}
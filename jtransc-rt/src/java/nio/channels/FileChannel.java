@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Carlos Ballesteros Velasco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.spi.AbstractInterruptibleChannel;
+
+public abstract class FileChannel extends AbstractInterruptibleChannel implements SeekableByteChannel, GatheringByteChannel, ScatteringByteChannel {
+	protected FileChannel() {
+	}
+
+	public abstract int read(ByteBuffer dst) throws IOException;
+
+	public abstract long read(ByteBuffer[] dsts, int offset, int length) throws IOException;
+
+	public final long read(ByteBuffer[] dsts) throws IOException {
+		return read(dsts, 0, dsts.length);
+	}
+
+	public abstract int write(ByteBuffer src) throws IOException;
+
+	public abstract long write(ByteBuffer[] srcs, int offset, int length) throws IOException;
+
+	public final long write(ByteBuffer[] srcs) throws IOException {
+		return write(srcs, 0, srcs.length);
+	}
+
+	public abstract long position() throws IOException;
+
+	public abstract FileChannel position(long newPosition) throws IOException;
+
+	public abstract long size() throws IOException;
+
+	public abstract FileChannel truncate(long size) throws IOException;
+
+	public abstract void force(boolean metaData) throws IOException;
+
+	public abstract long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+	public abstract long transferFrom(ReadableByteChannel src, long position, long count) throws IOException;
+
+	public abstract int read(ByteBuffer dst, long position) throws IOException;
+
+	public abstract int write(ByteBuffer src, long position) throws IOException;
+
+	public abstract MappedByteBuffer map(MapMode mode, long position, long size) throws IOException;
+
+	public static class MapMode {
+		public static final MapMode READ_ONLY = new MapMode("READ_ONLY");
+		public static final MapMode READ_WRITE = new MapMode("READ_WRITE");
+		public static final MapMode PRIVATE = new MapMode("PRIVATE");
+
+		private final String name;
+
+		private MapMode(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
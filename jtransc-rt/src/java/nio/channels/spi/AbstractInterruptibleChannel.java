@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Carlos Ballesteros Velasco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.channels.spi;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.InterruptibleChannel;
+
+public abstract class AbstractInterruptibleChannel implements Channel, InterruptibleChannel {
+	private final Object closeLock = new Object();
+	private volatile boolean open = true;
+
+	protected AbstractInterruptibleChannel() {
+	}
+
+	public final void close() throws IOException {
+		synchronized (closeLock) {
+			if (!open) return;
+			open = false;
+			implCloseChannel();
+		}
+	}
+
+	protected abstract void implCloseChannel() throws IOException;
+
+	public final boolean isOpen() {
+		return open;
+	}
+}
@@ -0,0 +1,720 @@
+package java.util.concurrent;
+
+import com.jtransc.thread.JTranscThreading;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// The result is set once, holding the future monitor. Dependent stages register actions that run
+// when it is set: in the completing thread, or on an executor for the async variants.
+// Async variants without an executor run on the common ForkJoinPool.
+public class CompletableFuture<T> implements Future<T>, CompletionStage<T> {
+	// Result of futures completed with null or with an exception
+	static final class AltResult {
+		final Throwable ex;
+
+		AltResult(Throwable ex) {
+			this.ex = ex;
+		}
+	}
+
+	static final AltResult NIL = new AltResult(null);
+
+	// Computes a dependent stage from the result of its source
+	private interface Step<T, U> {
+		void run(T value, Throwable ex, CompletableFuture<U> dst) throws Throwable;
+	}
+
+	// Computes a dependent stage from two sources that completed normally
+	private interface BiStep<T, U, V> {
+		void run(T value, U other, CompletableFuture<V> dst) throws Throwable;
+	}
+
+	private Object result;
+	private ArrayList<Runnable> dependents;
+
+	public CompletableFuture() {
+	}
+
+	private CompletableFuture(Object result) {
+		this.result = result;
+	}
+
+	private static Executor asyncPool() {
+		return ForkJoinPool.commonPool();
+	}
+
+	private static Executor checkExecutor(Executor executor) {
+		if (executor == null) throw new NullPointerException();
+		return executor;
+	}
+
+	private static Object encodeValue(Object value) {
+		return (value == null) ? NIL : value;
+	}
+
+	private static Object encodeThrowable(Throwable x) {
+		return new AltResult((x instanceof CompletionException) ? x : new CompletionException(x));
+	}
+
+	// Exceptions reaching dependent stages are wrapped in a CompletionException
+	private static Object encodeRelay(Object r) {
+		Throwable x = exceptionOf(r);
+		return (x != null) ? encodeThrowable(x) : r;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T valueOf(Object r) {
+		return (r instanceof AltResult) ? null : (T) r;
+	}
+
+	private static Throwable exceptionOf(Object r) {
+		return (r instanceof AltResult) ? ((AltResult) r).ex : null;
+	}
+
+	final boolean completeRaw(Object r) {
+		ArrayList<Runnable> actions;
+		synchronized (this) {
+			if (result != null) return false;
+			result = r;
+			actions = dependents;
+			dependents = null;
+			notifyAll();
+		}
+		if (actions != null) {
+			for (Runnable action : actions) action.run();
+		}
+		return true;
+	}
+
+	final boolean completeThrowable(Throwable x) {
+		return completeRaw(encodeThrowable(x));
+	}
+
+	// Runs action once this future completes, right away if it already did
+	final void onComplete(Runnable action) {
+		synchronized (this) {
+			if (result == null) {
+				if (dependents == null) dependents = new ArrayList<Runnable>();
+				dependents.add(action);
+				return;
+			}
+		}
+		action.run();
+	}
+
+	private synchronized Object rawResult() {
+		return result;
+	}
+
+	private static Runnable relay(final CompletableFuture<?> src, final CompletableFuture<?> dst) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				dst.completeRaw(encodeRelay(src.rawResult()));
+			}
+		};
+	}
+
+	private static void execute(Executor executor, CompletableFuture<?> dst, Runnable task) {
+		if (executor == null) {
+			task.run();
+			return;
+		}
+		try {
+			executor.execute(task);
+		} catch (Throwable t) {
+			dst.completeThrowable(t);
+		}
+	}
+
+	private <U> CompletableFuture<U> uniStage(final Executor executor, final Step<? super T, U> step) {
+		final CompletableFuture<U> dst = new CompletableFuture<U>();
+		onComplete(new Runnable() {
+			@Override
+			public void run() {
+				final Object r = rawResult();
+				execute(executor, dst, new Runnable() {
+					@Override
+					public void run() {
+						try {
+							step.run(CompletableFuture.<T>valueOf(r), exceptionOf(r), dst);
+						} catch (Throwable t) {
+							dst.completeThrowable(t);
+						}
+					}
+				});
+			}
+		});
+		return dst;
+	}
+
+	private <U, V> CompletableFuture<V> biStage(CompletionStage<? extends U> other, final Executor executor, final BiStep<? super T, ? super U, V> step) {
+		final CompletableFuture<? extends U> o = other.toCompletableFuture();
+		final CompletableFuture<V> dst = new CompletableFuture<V>();
+		onComplete(new Runnable() {
+			@Override
+			public void run() {
+				o.onComplete(new Runnable() {
+					@Override
+					public void run() {
+						final Object r = rawResult();
+						final Object s = o.rawResult();
+						Throwable ex = exceptionOf(r);
+						if (ex == null) ex = exceptionOf(s);
+						if (ex != null) {
+							dst.completeThrowable(ex);
+							return;
+						}
+						execute(executor, dst, new Runnable() {
+							@Override
+							public void run() {
+								try {
+									step.run(CompletableFuture.<T>valueOf(r), CompletableFuture.<U>valueOf(s), dst);
+								} catch (Throwable t) {
+									dst.completeThrowable(t);
+								}
+							}
+						});
+					}
+				});
+			}
+		});
+		return dst;
+	}
+
+	// The first of both sources to complete feeds the step
+	private <U> CompletableFuture<U> eitherStage(CompletionStage<?> other, Executor executor, Step<? super T, U> step) {
+		CompletableFuture<?> o = other.toCompletableFuture();
+		CompletableFuture<T> first = new CompletableFuture<T>();
+		onComplete(relay(this, first));
+		o.onComplete(relay(o, first));
+		return first.uniStage(executor, step);
+	}
+
+	private <U> CompletableFuture<U> uniApply(Executor executor, Function<? super T, ? extends U> fn) {
+		return uniStage(executor, this.<U>applyStep(fn));
+	}
+
+	private <U> Step<T, U> applyStep(final Function<? super T, ? extends U> fn) {
+		if (fn == null) throw new NullPointerException();
+		return new Step<T, U>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<U> dst) {
+				if (ex != null) {
+					dst.completeThrowable(ex);
+				} else {
+					dst.complete(fn.apply(value));
+				}
+			}
+		};
+	}
+
+	private CompletableFuture<Void> uniAccept(Executor executor, final Consumer<? super T> action) {
+		if (action == null) throw new NullPointerException();
+		return uniStage(executor, new Step<T, Void>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<Void> dst) {
+				if (ex != null) {
+					dst.completeThrowable(ex);
+				} else {
+					action.accept(value);
+					dst.complete(null);
+				}
+			}
+		});
+	}
+
+	private CompletableFuture<Void> uniRun(Executor executor, final Runnable action) {
+		if (action == null) throw new NullPointerException();
+		return uniStage(executor, new Step<T, Void>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<Void> dst) {
+				if (ex != null) {
+					dst.completeThrowable(ex);
+				} else {
+					action.run();
+					dst.complete(null);
+				}
+			}
+		});
+	}
+
+	private <U> CompletableFuture<U> uniCompose(Executor executor, final Function<? super T, ? extends CompletionStage<U>> fn) {
+		if (fn == null) throw new NullPointerException();
+		return uniStage(executor, new Step<T, U>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<U> dst) {
+				if (ex != null) {
+					dst.completeThrowable(ex);
+				} else {
+					CompletableFuture<U> inner = fn.apply(value).toCompletableFuture();
+					inner.onComplete(relay(inner, dst));
+				}
+			}
+		});
+	}
+
+	private CompletableFuture<T> uniWhenComplete(Executor executor, final BiConsumer<? super T, ? super Throwable> action) {
+		if (action == null) throw new NullPointerException();
+		return uniStage(executor, new Step<T, T>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<T> dst) {
+				Throwable failure = ex;
+				try {
+					action.accept(value, ex);
+				} catch (Throwable t) {
+					if (failure == null) failure = t;
+				}
+				if (failure != null) {
+					dst.completeThrowable(failure);
+				} else {
+					dst.complete(value);
+				}
+			}
+		});
+	}
+
+	private <U> CompletableFuture<U> uniHandle(Executor executor, final BiFunction<? super T, Throwable, ? extends U> fn) {
+		if (fn == null) throw new NullPointerException();
+		return uniStage(executor, new Step<T, U>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<U> dst) {
+				dst.complete(fn.apply(value, ex));
+			}
+		});
+	}
+
+	private <U, V> CompletableFuture<V> biApply(CompletionStage<? extends U> other, Executor executor, final BiFunction<? super T, ? super U, ? extends V> fn) {
+		if (fn == null) throw new NullPointerException();
+		return biStage(other, executor, new BiStep<T, U, V>() {
+			@Override
+			public void run(T value, U otherValue, CompletableFuture<V> dst) {
+				dst.complete(fn.apply(value, otherValue));
+			}
+		});
+	}
+
+	private <U> CompletableFuture<Void> biAccept(CompletionStage<? extends U> other, Executor executor, final BiConsumer<? super T, ? super U> action) {
+		if (action == null) throw new NullPointerException();
+		return biStage(other, executor, new BiStep<T, U, Void>() {
+			@Override
+			public void run(T value, U otherValue, CompletableFuture<Void> dst) {
+				action.accept(value, otherValue);
+				dst.complete(null);
+			}
+		});
+	}
+
+	private CompletableFuture<Void> biRun(CompletionStage<?> other, Executor executor, final Runnable action) {
+		if (action == null) throw new NullPointerException();
+		return biStage(other, executor, new BiStep<T, Object, Void>() {
+			@Override
+			public void run(T value, Object otherValue, CompletableFuture<Void> dst) {
+				action.run();
+				dst.complete(null);
+			}
+		});
+	}
+
+	private <U> CompletableFuture<U> orApply(CompletionStage<? extends T> other, Executor executor, Function<? super T, U> fn) {
+		return eitherStage(other, executor, this.<U>applyStep(fn));
+	}
+
+	private CompletableFuture<Void> orAccept(CompletionStage<? extends T> other, Executor executor, final Consumer<? super T> action) {
+		if (action == null) throw new NullPointerException();
+		return eitherStage(other, executor, new Step<T, Void>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<Void> dst) {
+				if (ex != null) {
+					dst.completeThrowable(ex);
+				} else {
+					action.accept(value);
+					dst.complete(null);
+				}
+			}
+		});
+	}
+
+	private CompletableFuture<Void> orRun(CompletionStage<?> other, Executor executor, final Runnable action) {
+		if (action == null) throw new NullPointerException();
+		return eitherStage(other, executor, new Step<T, Void>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<Void> dst) {
+				if (ex != null) {
+					dst.completeThrowable(ex);
+				} else {
+					action.run();
+					dst.complete(null);
+				}
+			}
+		});
+	}
+
+	public static <U> CompletableFuture<U> supplyAsync(Supplier<U> supplier) {
+		return supplyAsync(supplier, asyncPool());
+	}
+
+	public static <U> CompletableFuture<U> supplyAsync(final Supplier<U> supplier, Executor executor) {
+		if (supplier == null) throw new NullPointerException();
+		final CompletableFuture<U> dst = new CompletableFuture<U>();
+		execute(checkExecutor(executor), dst, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					dst.complete(supplier.get());
+				} catch (Throwable t) {
+					dst.completeThrowable(t);
+				}
+			}
+		});
+		return dst;
+	}
+
+	public static CompletableFuture<Void> runAsync(Runnable runnable) {
+		return runAsync(runnable, asyncPool());
+	}
+
+	public static CompletableFuture<Void> runAsync(final Runnable runnable, Executor executor) {
+		if (runnable == null) throw new NullPointerException();
+		final CompletableFuture<Void> dst = new CompletableFuture<Void>();
+		execute(checkExecutor(executor), dst, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+					dst.complete(null);
+				} catch (Throwable t) {
+					dst.completeThrowable(t);
+				}
+			}
+		});
+		return dst;
+	}
+
+	public static <U> CompletableFuture<U> completedFuture(U value) {
+		return new CompletableFuture<U>(encodeValue(value));
+	}
+
+	public static CompletableFuture<Void> allOf(final CompletableFuture<?>... cfs) {
+		final CompletableFuture<Void> dst = new CompletableFuture<Void>();
+		if (cfs.length == 0) {
+			dst.completeRaw(NIL);
+			return dst;
+		}
+		final AtomicInteger remaining = new AtomicInteger(cfs.length);
+		Runnable countDown = new Runnable() {
+			@Override
+			public void run() {
+				if (remaining.decrementAndGet() != 0) return;
+				for (CompletableFuture<?> cf : cfs) {
+					Throwable ex = exceptionOf(cf.rawResult());
+					if (ex != null) {
+						dst.completeThrowable(ex);
+						return;
+					}
+				}
+				dst.completeRaw(NIL);
+			}
+		};
+		for (CompletableFuture<?> cf : cfs) cf.onComplete(countDown);
+		return dst;
+	}
+
+	public static CompletableFuture<Object> anyOf(CompletableFuture<?>... cfs) {
+		CompletableFuture<Object> dst = new CompletableFuture<Object>();
+		for (CompletableFuture<?> cf : cfs) cf.onComplete(relay(cf, dst));
+		return dst;
+	}
+
+	// Waits until the deadline (0 for none). Returns null on timeout.
+	private Object waitingGet(long deadline) throws InterruptedException {
+		synchronized (this) {
+			while (result == null) {
+				if (!JTranscThreading.impl.isSupported()) throw new IllegalStateException("Incomplete future can't complete without threads");
+				if (deadline == 0L) {
+					wait();
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0L) return null;
+					wait(remaining);
+				}
+			}
+			return result;
+		}
+	}
+
+	// Waits with no deadline ignoring interruptions, that are restored once completed
+	private Object joiningGet() {
+		boolean interrupted = false;
+		Object r;
+		while (true) {
+			try {
+				r = waitingGet(0L);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		return r;
+	}
+
+	private static <T> T reportGet(Object r) throws ExecutionException {
+		Throwable x = exceptionOf(r);
+		if (x != null) {
+			if (x instanceof CancellationException) throw (CancellationException) x;
+			if ((x instanceof CompletionException) && x.getCause() != null) x = x.getCause();
+			throw new ExecutionException(x);
+		}
+		return valueOf(r);
+	}
+
+	private static <T> T reportJoin(Object r) {
+		Throwable x = exceptionOf(r);
+		if (x != null) {
+			if (x instanceof CancellationException) throw (CancellationException) x;
+			if (x instanceof CompletionException) throw (CompletionException) x;
+			throw new CompletionException(x);
+		}
+		return valueOf(r);
+	}
+
+	@Override
+	public boolean isDone() {
+		return rawResult() != null;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		return reportGet(waitingGet(0L));
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		Object r = waitingGet(unit.deadline(timeout));
+		if (r == null) throw new TimeoutException();
+		return reportGet(r);
+	}
+
+	public T join() {
+		return reportJoin(joiningGet());
+	}
+
+	public T getNow(T valueIfAbsent) {
+		Object r = rawResult();
+		return (r == null) ? valueIfAbsent : CompletableFuture.<T>reportJoin(r);
+	}
+
+	public boolean complete(T value) {
+		return completeRaw(encodeValue(value));
+	}
+
+	public boolean completeExceptionally(Throwable ex) {
+		if (ex == null) throw new NullPointerException();
+		return completeRaw(new AltResult(ex));
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = completeRaw(new AltResult(new CancellationException()));
+		return cancelled || isCancelled();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return exceptionOf(rawResult()) instanceof CancellationException;
+	}
+
+	public boolean isCompletedExceptionally() {
+		return exceptionOf(rawResult()) != null;
+	}
+
+	public void obtrudeValue(T value) {
+		synchronized (this) {
+			result = encodeValue(value);
+			notifyAll();
+		}
+	}
+
+	public void obtrudeException(Throwable ex) {
+		if (ex == null) throw new NullPointerException();
+		synchronized (this) {
+			result = new AltResult(ex);
+			notifyAll();
+		}
+	}
+
+	public synchronized int getNumberOfDependents() {
+		return (dependents == null) ? 0 : dependents.size();
+	}
+
+	public <U> CompletableFuture<U> thenApply(Function<? super T, ? extends U> fn) {
+		return uniApply(null, fn);
+	}
+
+	public <U> CompletableFuture<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+		return uniApply(asyncPool(), fn);
+	}
+
+	public <U> CompletableFuture<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+		return uniApply(checkExecutor(executor), fn);
+	}
+
+	public CompletableFuture<Void> thenAccept(Consumer<? super T> action) {
+		return uniAccept(null, action);
+	}
+
+	public CompletableFuture<Void> thenAcceptAsync(Consumer<? super T> action) {
+		return uniAccept(asyncPool(), action);
+	}
+
+	public CompletableFuture<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+		return uniAccept(checkExecutor(executor), action);
+	}
+
+	public CompletableFuture<Void> thenRun(Runnable action) {
+		return uniRun(null, action);
+	}
+
+	public CompletableFuture<Void> thenRunAsync(Runnable action) {
+		return uniRun(asyncPool(), action);
+	}
+
+	public CompletableFuture<Void> thenRunAsync(Runnable action, Executor executor) {
+		return uniRun(checkExecutor(executor), action);
+	}
+
+	public <U, V> CompletableFuture<V> thenCombine(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+		return biApply(other, null, fn);
+	}
+
+	public <U, V> CompletableFuture<V> thenCombineAsync(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+		return biApply(other, asyncPool(), fn);
+	}
+
+	public <U, V> CompletableFuture<V> thenCombineAsync(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+		return biApply(other, checkExecutor(executor), fn);
+	}
+
+	public <U> CompletableFuture<Void> thenAcceptBoth(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+		return biAccept(other, null, action);
+	}
+
+	public <U> CompletableFuture<Void> thenAcceptBothAsync(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+		return biAccept(other, asyncPool(), action);
+	}
+
+	public <U> CompletableFuture<Void> thenAcceptBothAsync(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action, Executor executor) {
+		return biAccept(other, checkExecutor(executor), action);
+	}
+
+	public CompletableFuture<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+		return biRun(other, null, action);
+	}
+
+	public CompletableFuture<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+		return biRun(other, asyncPool(), action);
+	}
+
+	public CompletableFuture<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+		return biRun(other, checkExecutor(executor), action);
+	}
+
+	public <U> CompletableFuture<U> applyToEither(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+		return orApply(other, null, fn);
+	}
+
+	public <U> CompletableFuture<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+		return orApply(other, asyncPool(), fn);
+	}
+
+	public <U> CompletableFuture<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn, Executor executor) {
+		return orApply(other, checkExecutor(executor), fn);
+	}
+
+	public CompletableFuture<Void> acceptEither(CompletionStage<? extends T> other, Consumer<? super T> action) {
+		return orAccept(other, null, action);
+	}
+
+	public CompletableFuture<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action) {
+		return orAccept(other, asyncPool(), action);
+	}
+
+	public CompletableFuture<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action, Executor executor) {
+		return orAccept(other, checkExecutor(executor), action);
+	}
+
+	public CompletableFuture<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+		return orRun(other, null, action);
+	}
+
+	public CompletableFuture<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+		return orRun(other, asyncPool(), action);
+	}
+
+	public CompletableFuture<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+		return orRun(other, checkExecutor(executor), action);
+	}
+
+	public <U> CompletableFuture<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+		return uniCompose(null, fn);
+	}
+
+	public <U> CompletableFuture<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
+		return uniCompose(asyncPool(), fn);
+	}
+
+	public <U> CompletableFuture<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn, Executor executor) {
+		return uniCompose(checkExecutor(executor), fn);
+	}
+
+	public CompletableFuture<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+		return uniWhenComplete(null, action);
+	}
+
+	public CompletableFuture<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+		return uniWhenComplete(asyncPool(), action);
+	}
+
+	public CompletableFuture<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+		return uniWhenComplete(checkExecutor(executor), action);
+	}
+
+	public <U> CompletableFuture<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+		return uniHandle(null, fn);
+	}
+
+	public <U> CompletableFuture<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+		return uniHandle(asyncPool(), fn);
+	}
+
+	public <U> CompletableFuture<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
+		return uniHandle(checkExecutor(executor), fn);
+	}
+
+	public CompletableFuture<T> exceptionally(final Function<Throwable, ? extends T> fn) {
+		if (fn == null) throw new NullPointerException();
+		return uniStage(null, new Step<T, T>() {
+			@Override
+			public void run(T value, Throwable ex, CompletableFuture<T> dst) {
+				dst.complete((ex != null) ? fn.apply(ex) : value);
+			}
+		});
+	}
+
+	public CompletableFuture<T> toCompletableFuture() {
+		return this;
+	}
+
+	public String toString() {
+		Object r = rawResult();
+		String state = (r == null) ? "Incomplete" : ((exceptionOf(r) != null) ? "Completed exceptionally" : "Completed normally");
+		return super.toString() + "[" + state + "]";
+	}
+}
@@ -0,0 +1,500 @@
+package java.util.concurrent;
+
+import com.jtransc.thread.JTranscThreading;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Work stealing pool. Each worker owns a deque: forked tasks are pushed and popped at its tail,
+// while idle workers steal from the head of the others. Tasks from other threads go to a shared
+// submission queue. Workers are started on demand, up to the parallelism, and wait on the pool
+// monitor when there is nothing to run. A task is always queued before signalWork takes the pool
+// monitor, and idle workers look at the queues holding it, so either they see the task or they
+// are already waiting when the signal comes.
+// Targets without threads sharing the heap run every task in the thread forking or submitting it.
+public class ForkJoinPool extends AbstractExecutorService {
+	public interface ForkJoinWorkerThreadFactory {
+		ForkJoinWorkerThread newThread(ForkJoinPool pool);
+	}
+
+	static final class DefaultForkJoinWorkerThreadFactory implements ForkJoinWorkerThreadFactory {
+		public final ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			return new ForkJoinWorkerThread(pool);
+		}
+	}
+
+	public static final ForkJoinWorkerThreadFactory defaultForkJoinWorkerThreadFactory = new DefaultForkJoinWorkerThreadFactory();
+
+	private static final Object commonLock = new Object();
+	private static ForkJoinPool common;
+	private static int poolCount = 0;
+
+	static final class WorkQueue {
+		private final ArrayDeque<ForkJoinTask<?>> tasks = new ArrayDeque<>();
+		private final boolean asyncMode;
+
+		WorkQueue(boolean asyncMode) {
+			this.asyncMode = asyncMode;
+		}
+
+		synchronized void push(ForkJoinTask<?> task) {
+			tasks.addLast(task);
+		}
+
+		// Next task for the owner
+		synchronized ForkJoinTask<?> pop() {
+			return asyncMode ? tasks.pollFirst() : tasks.pollLast();
+		}
+
+		// Oldest task, for thieves
+		synchronized ForkJoinTask<?> steal() {
+			return tasks.pollFirst();
+		}
+
+		synchronized boolean tryUnpush(ForkJoinTask<?> task) {
+			if (tasks.peekLast() != task) return false;
+			tasks.pollLast();
+			return true;
+		}
+
+		synchronized int size() {
+			return tasks.size();
+		}
+
+		synchronized void drainTo(Collection<? super ForkJoinTask<?>> out) {
+			out.addAll(tasks);
+			tasks.clear();
+		}
+	}
+
+	private final boolean pooled = JTranscThreading.impl.hasSharedHeap();
+	private final int parallelism;
+	private final ForkJoinWorkerThreadFactory factory;
+	private final Thread.UncaughtExceptionHandler handler;
+	private final boolean asyncMode;
+	private final boolean isCommon;
+	private final String workerNamePrefix;
+	private final ArrayDeque<ForkJoinTask<?>> submissions = new ArrayDeque<>();
+	private final ArrayList<ForkJoinWorkerThread> workers = new ArrayList<>();
+	private volatile WorkQueue[] queues = new WorkQueue[0];
+	private volatile int workerCount;
+	private volatile int idleCount;
+	private volatile int submissionCount;
+	private final AtomicLong stealCount = new AtomicLong();
+	private int nextWorkerIndex;
+	private boolean shutdown;
+	private volatile boolean terminated;
+	// awaitTermination waits on its own lock, so only idle workers wait on the pool monitor and notify reaches one of them
+	private final Object termination = new Object();
+
+	public ForkJoinPool() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors()), defaultForkJoinWorkerThreadFactory, null, false);
+	}
+
+	public ForkJoinPool(int parallelism) {
+		this(parallelism, defaultForkJoinWorkerThreadFactory, null, false);
+	}
+
+	public ForkJoinPool(int parallelism, ForkJoinWorkerThreadFactory factory, Thread.UncaughtExceptionHandler handler, boolean asyncMode) {
+		this(parallelism, factory, handler, asyncMode, false);
+	}
+
+	private ForkJoinPool(int parallelism, ForkJoinWorkerThreadFactory factory, Thread.UncaughtExceptionHandler handler, boolean asyncMode, boolean isCommon) {
+		if (parallelism <= 0) throw new IllegalArgumentException();
+		if (factory == null) throw new NullPointerException();
+		this.parallelism = parallelism;
+		this.factory = factory;
+		this.handler = handler;
+		this.asyncMode = asyncMode;
+		this.isCommon = isCommon;
+		synchronized (commonLock) {
+			this.workerNamePrefix = isCommon ? "ForkJoinPool.commonPool-worker-" : "ForkJoinPool-" + (++poolCount) + "-worker-";
+		}
+	}
+
+	public static ForkJoinPool commonPool() {
+		synchronized (commonLock) {
+			if (common == null) {
+				int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+				common = new ForkJoinPool(parallelism, defaultForkJoinWorkerThreadFactory, null, false, true);
+			}
+			return common;
+		}
+	}
+
+	public static int getCommonPoolParallelism() {
+		return commonPool().getParallelism();
+	}
+
+	// Called from a worker of this pool
+	final void push(WorkQueue queue, ForkJoinTask<?> task) {
+		if (!pooled) {
+			task.doExec();
+			return;
+		}
+		queue.push(task);
+		signalWork();
+	}
+
+	final void externalPush(ForkJoinTask<?> task) {
+		if (task == null) throw new NullPointerException();
+		if (!pooled) {
+			if (isShutdown()) throw new RejectedExecutionException();
+			task.doExec();
+			return;
+		}
+		synchronized (this) {
+			if (shutdown) throw new RejectedExecutionException();
+			submissions.addLast(task);
+			submissionCount = submissions.size();
+		}
+		signalWork();
+	}
+
+	// Called after queuing a task, without holding the pool monitor
+	private void signalWork() {
+		synchronized (this) {
+			if (idleCount > 0) {
+				notify();
+			} else if (!shutdown && workers.size() < parallelism) {
+				addWorker();
+			}
+		}
+	}
+
+	// Called holding the pool monitor
+	private void addWorker() {
+		ForkJoinWorkerThread worker = factory.newThread(this);
+		if (worker == null) return;
+		worker.poolIndex = nextWorkerIndex++;
+		worker.setName(workerNamePrefix + worker.poolIndex);
+		if (handler != null) worker.setUncaughtExceptionHandler(handler);
+		workers.add(worker);
+		workerCount = workers.size();
+		WorkQueue[] old = queues;
+		WorkQueue[] updated = new WorkQueue[old.length + 1];
+		System.arraycopy(old, 0, updated, 0, old.length);
+		updated[old.length] = worker.workQueue;
+		queues = updated;
+		worker.start();
+	}
+
+	final void deregisterWorker(ForkJoinWorkerThread worker, Throwable exception) {
+		ArrayList<ForkJoinTask<?>> orphans = new ArrayList<>();
+		worker.workQueue.drainTo(orphans);
+		synchronized (this) {
+			workers.remove(worker);
+			workerCount = workers.size();
+			WorkQueue[] updated = new WorkQueue[workers.size()];
+			for (int n = 0; n < updated.length; n++) updated[n] = workers.get(n).workQueue;
+			queues = updated;
+			if (!shutdown) {
+				submissions.addAll(orphans);
+				submissionCount = submissions.size();
+			}
+			tryTerminate();
+		}
+		if (!orphans.isEmpty()) signalWork();
+		if (exception instanceof RuntimeException) throw (RuntimeException) exception;
+		if (exception instanceof Error) throw (Error) exception;
+	}
+
+	// Called holding the pool monitor
+	private void tryTerminate() {
+		if (terminated || !shutdown || !workers.isEmpty()) return;
+		terminated = true;
+		synchronized (termination) {
+			termination.notifyAll();
+		}
+	}
+
+	final void runWorker(ForkJoinWorkerThread worker) {
+		WorkQueue queue = worker.workQueue;
+		int seed = worker.poolIndex;
+		while (true) {
+			ForkJoinTask<?> task = queue.pop();
+			if (task == null) task = scan(queue, seed++);
+			if (task != null) {
+				task.doExec();
+			} else if (!awaitWork()) {
+				return;
+			}
+		}
+	}
+
+	private ForkJoinTask<?> pollSubmission() {
+		if (submissionCount == 0) return null;
+		synchronized (this) {
+			ForkJoinTask<?> task = submissions.pollFirst();
+			submissionCount = submissions.size();
+			return task;
+		}
+	}
+
+	// Takes a submission or steals a task from another worker
+	private ForkJoinTask<?> scan(WorkQueue queue, int seed) {
+		ForkJoinTask<?> task = pollSubmission();
+		if (task != null) return task;
+		WorkQueue[] all = queues;
+		int count = all.length;
+		for (int n = 0; n < count; n++) {
+			WorkQueue other = all[((seed + n) & 0x7fffffff) % count];
+			if (other == queue) continue;
+			task = other.steal();
+			if (task != null) {
+				stealCount.incrementAndGet();
+				return task;
+			}
+		}
+		return null;
+	}
+
+	// Called holding the pool monitor
+	private boolean hasQueuedTasks() {
+		if (!submissions.isEmpty()) return true;
+		for (WorkQueue queue : queues) {
+			if (queue.size() > 0) return true;
+		}
+		return false;
+	}
+
+	// Returns false when the worker has to exit
+	private boolean awaitWork() {
+		synchronized (this) {
+			if (hasQueuedTasks()) return true;
+			if (shutdown) return false;
+			idleCount++;
+			try {
+				wait();
+			} catch (InterruptedException ignored) {
+			} finally {
+				idleCount--;
+			}
+			return true;
+		}
+	}
+
+	// Runs other tasks until the joined one completes. When there is nothing left to run, the joined
+	// task is already running in another worker, so this one just waits for it to complete.
+	final void awaitJoin(WorkQueue queue, ForkJoinTask<?> joined) {
+		int seed = 0;
+		while (joined.status == 0) {
+			ForkJoinTask<?> task = queue.pop();
+			if (task == null) task = scan(queue, seed++);
+			if (task != null) {
+				task.doExec();
+			} else {
+				joined.awaitDoneUninterruptibly(0L);
+			}
+		}
+	}
+
+	final void helpQuiesce(WorkQueue queue) {
+		int seed = 0;
+		while (true) {
+			ForkJoinTask<?> task = queue.pop();
+			if (task == null) task = scan(queue, seed++);
+			if (task == null) return;
+			task.doExec();
+		}
+	}
+
+	final int getIdleCount() {
+		return idleCount;
+	}
+
+	public <T> T invoke(ForkJoinTask<T> task) {
+		externalPush(task);
+		return task.join();
+	}
+
+	public void execute(ForkJoinTask<?> task) {
+		externalPush(task);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (task == null) throw new NullPointerException();
+		externalPush((task instanceof ForkJoinTask<?>) ? (ForkJoinTask<?>) task : new ForkJoinTask.AdaptedRunnable<Void>(task, null));
+	}
+
+	public <T> ForkJoinTask<T> submit(ForkJoinTask<T> task) {
+		externalPush(task);
+		return task;
+	}
+
+	@Override
+	public <T> ForkJoinTask<T> submit(Callable<T> task) {
+		ForkJoinTask<T> job = new ForkJoinTask.AdaptedCallable<T>(task);
+		externalPush(job);
+		return job;
+	}
+
+	@Override
+	public <T> ForkJoinTask<T> submit(Runnable task, T result) {
+		ForkJoinTask<T> job = new ForkJoinTask.AdaptedRunnable<T>(task, result);
+		externalPush(job);
+		return job;
+	}
+
+	@Override
+	public ForkJoinTask<?> submit(Runnable task) {
+		ForkJoinTask<?> job = (task instanceof ForkJoinTask<?>) ? (ForkJoinTask<?>) task : new ForkJoinTask.AdaptedRunnable<Void>(task, null);
+		externalPush(job);
+		return job;
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+		ArrayList<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for (Callable<T> t : tasks) {
+			ForkJoinTask<T> f = new ForkJoinTask.AdaptedCallable<T>(t);
+			futures.add(f);
+			externalPush(f);
+		}
+		for (Future<T> f : futures) ((ForkJoinTask<?>) f).quietlyJoin();
+		return futures;
+	}
+
+	public ForkJoinWorkerThreadFactory getFactory() {
+		return factory;
+	}
+
+	public Thread.UncaughtExceptionHandler getUncaughtExceptionHandler() {
+		return handler;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public int getPoolSize() {
+		return workerCount;
+	}
+
+	public boolean getAsyncMode() {
+		return asyncMode;
+	}
+
+	public int getRunningThreadCount() {
+		return Math.max(0, workerCount - idleCount);
+	}
+
+	public int getActiveThreadCount() {
+		return getRunningThreadCount();
+	}
+
+	public synchronized boolean isQuiescent() {
+		return idleCount == workers.size() && !hasQueuedTasks();
+	}
+
+	public long getStealCount() {
+		return stealCount.get();
+	}
+
+	public long getQueuedTaskCount() {
+		long count = 0;
+		for (WorkQueue queue : queues) count += queue.size();
+		return count;
+	}
+
+	public int getQueuedSubmissionCount() {
+		return submissionCount;
+	}
+
+	public boolean hasQueuedSubmissions() {
+		return submissionCount > 0;
+	}
+
+	public String toString() {
+		String state;
+		synchronized (this) {
+			state = terminated ? "Terminated" : (shutdown ? "Shutting down" : "Running");
+		}
+		return super.toString() +
+			"[" + state +
+			", parallelism = " + parallelism +
+			", size = " + getPoolSize() +
+			", running = " + getRunningThreadCount() +
+			", steals = " + getStealCount() +
+			", tasks = " + getQueuedTaskCount() +
+			", submissions = " + getQueuedSubmissionCount() +
+			"]";
+	}
+
+	// The common pool can't be shut down
+	@Override
+	public void shutdown() {
+		if (isCommon) return;
+		synchronized (this) {
+			shutdown = true;
+			tryTerminate();
+			notifyAll();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		ArrayList<Runnable> tasks = new ArrayList<>();
+		if (isCommon) return tasks;
+		synchronized (this) {
+			shutdown = true;
+			for (ForkJoinTask<?> task : submissions) task.cancel(false);
+			submissions.clear();
+			submissionCount = 0;
+			for (WorkQueue queue : queues) {
+				ArrayList<ForkJoinTask<?>> queued = new ArrayList<>();
+				queue.drainTo(queued);
+				for (ForkJoinTask<?> task : queued) task.cancel(false);
+			}
+			tryTerminate();
+			notifyAll();
+		}
+		return tasks;
+	}
+
+	@Override
+	public synchronized boolean isTerminated() {
+		return terminated || (!pooled && shutdown);
+	}
+
+	public synchronized boolean isTerminating() {
+		return shutdown && !terminated;
+	}
+
+	@Override
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!pooled) return isShutdown();
+		long deadline = unit.deadline(timeout);
+		synchronized (termination) {
+			while (!terminated) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0L) return false;
+				termination.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	public boolean awaitQuiescence(long timeout, TimeUnit unit) {
+		Thread t = Thread.currentThread();
+		if (t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).pool == this) {
+			helpQuiesce(((ForkJoinWorkerThread) t).workQueue);
+			return true;
+		}
+		long deadline = unit.deadline(timeout);
+		while (!isQuiescent()) {
+			if (System.currentTimeMillis() >= deadline) return false;
+			Thread.yield();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,352 @@
+package java.util.concurrent;
+
+import java.util.Collection;
+
+// A task is pending while status is 0. Completion happens once, holding the task monitor,
+// and wakes up the threads waiting on it. Workers joining a task run other tasks meanwhile.
+public abstract class ForkJoinTask<V> implements Future<V>, java.io.Serializable {
+	static final int NORMAL = 1;
+	static final int CANCELLED = 2;
+	static final int EXCEPTIONAL = 3;
+
+	volatile int status;
+	private Throwable exception;
+
+	public ForkJoinTask() {
+	}
+
+	public abstract V getRawResult();
+
+	protected abstract void setRawResult(V value);
+
+	protected abstract boolean exec();
+
+	final void doExec() {
+		if (status != 0) return;
+		boolean completed;
+		try {
+			completed = exec();
+		} catch (Throwable t) {
+			setExceptionalCompletion(t);
+			return;
+		}
+		if (completed) setCompletion(NORMAL);
+	}
+
+	private void setCompletion(int s) {
+		synchronized (this) {
+			if (status != 0) return;
+			status = s;
+			notifyAll();
+		}
+	}
+
+	private void setExceptionalCompletion(Throwable t) {
+		synchronized (this) {
+			if (status != 0) return;
+			exception = t;
+			status = EXCEPTIONAL;
+			notifyAll();
+		}
+	}
+
+	// Waits up to millis (0 for no limit) for the task to complete
+	final void awaitDone(long millis) throws InterruptedException {
+		synchronized (this) {
+			if (millis == 0L) {
+				while (status == 0) wait();
+			} else if (status == 0) {
+				wait(millis);
+			}
+		}
+	}
+
+	// Like awaitDone ignoring interruptions, that are restored once done
+	final void awaitDoneUninterruptibly(long millis) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				awaitDone(millis);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	private int doJoin() {
+		if (status != 0) return status;
+		Thread t = Thread.currentThread();
+		if (t instanceof ForkJoinWorkerThread) {
+			ForkJoinWorkerThread w = (ForkJoinWorkerThread) t;
+			if (w.workQueue.tryUnpush(this)) {
+				doExec();
+			} else {
+				w.pool.awaitJoin(w.workQueue, this);
+			}
+		} else {
+			awaitDoneUninterruptibly(0L);
+		}
+		return status;
+	}
+
+	private int doInvoke() {
+		doExec();
+		return doJoin();
+	}
+
+	private void reportException(int s) {
+		if (s == CANCELLED) throw new CancellationException();
+		if (s == EXCEPTIONAL) {
+			Throwable ex = exception;
+			if (ex instanceof RuntimeException) throw (RuntimeException) ex;
+			if (ex instanceof Error) throw (Error) ex;
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public final ForkJoinTask<V> fork() {
+		Thread t = Thread.currentThread();
+		if (t instanceof ForkJoinWorkerThread) {
+			ForkJoinWorkerThread w = (ForkJoinWorkerThread) t;
+			w.pool.push(w.workQueue, this);
+		} else {
+			ForkJoinPool.commonPool().externalPush(this);
+		}
+		return this;
+	}
+
+	public final V join() {
+		int s = doJoin();
+		if (s != NORMAL) reportException(s);
+		return getRawResult();
+	}
+
+	public final V invoke() {
+		int s = doInvoke();
+		if (s != NORMAL) reportException(s);
+		return getRawResult();
+	}
+
+	public static void invokeAll(ForkJoinTask<?> t1, ForkJoinTask<?> t2) {
+		t2.fork();
+		int s1 = t1.doInvoke();
+		if (s1 != NORMAL) t1.reportException(s1);
+		int s2 = t2.doJoin();
+		if (s2 != NORMAL) t2.reportException(s2);
+	}
+
+	public static void invokeAll(ForkJoinTask<?>... tasks) {
+		for (int i = tasks.length - 1; i > 0; i--) tasks[i].fork();
+		ForkJoinTask<?> failed = null;
+		int failedStatus = NORMAL;
+		for (int i = 0; i < tasks.length; i++) {
+			int s = (i == 0) ? tasks[i].doInvoke() : tasks[i].doJoin();
+			if (s != NORMAL && failed == null) {
+				failed = tasks[i];
+				failedStatus = s;
+			}
+		}
+		if (failed != null) failed.reportException(failedStatus);
+	}
+
+	public static <T extends ForkJoinTask<?>> Collection<T> invokeAll(Collection<T> tasks) {
+		invokeAll(tasks.toArray(new ForkJoinTask<?>[tasks.size()]));
+		return tasks;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		setCompletion(CANCELLED);
+		return status == CANCELLED;
+	}
+
+	@Override
+	public final boolean isDone() {
+		return status != 0;
+	}
+
+	@Override
+	public final boolean isCancelled() {
+		return status == CANCELLED;
+	}
+
+	public final boolean isCompletedAbnormally() {
+		return status > NORMAL;
+	}
+
+	public final boolean isCompletedNormally() {
+		return status == NORMAL;
+	}
+
+	public final Throwable getException() {
+		int s = status;
+		if (s == CANCELLED) return new CancellationException();
+		if (s == EXCEPTIONAL) return exception;
+		return null;
+	}
+
+	public void completeExceptionally(Throwable ex) {
+		setExceptionalCompletion((ex instanceof RuntimeException || ex instanceof Error) ? ex : new RuntimeException(ex));
+	}
+
+	public void complete(V value) {
+		try {
+			setRawResult(value);
+		} catch (Throwable t) {
+			setExceptionalCompletion(t);
+			return;
+		}
+		setCompletion(NORMAL);
+	}
+
+	public final void quietlyComplete() {
+		setCompletion(NORMAL);
+	}
+
+	@Override
+	public final V get() throws InterruptedException, ExecutionException {
+		// Workers help running other tasks while joining instead
+		if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) awaitDone(0L);
+		int s = doJoin();
+		if (s == CANCELLED) throw new CancellationException();
+		if (s == EXCEPTIONAL) throw new ExecutionException(exception);
+		return getRawResult();
+	}
+
+	@Override
+	public final V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = unit.deadline(timeout);
+		while (status == 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0L) throw new TimeoutException();
+			awaitDone(remaining);
+		}
+		return get();
+	}
+
+	public final void quietlyJoin() {
+		doJoin();
+	}
+
+	public final void quietlyInvoke() {
+		doInvoke();
+	}
+
+	public static void helpQuiesce() {
+		Thread t = Thread.currentThread();
+		if (t instanceof ForkJoinWorkerThread) {
+			ForkJoinWorkerThread w = (ForkJoinWorkerThread) t;
+			w.pool.helpQuiesce(w.workQueue);
+		} else {
+			ForkJoinPool.commonPool().awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void reinitialize() {
+		synchronized (this) {
+			status = 0;
+			exception = null;
+		}
+	}
+
+	public static ForkJoinPool getPool() {
+		Thread t = Thread.currentThread();
+		return (t instanceof ForkJoinWorkerThread) ? ((ForkJoinWorkerThread) t).pool : null;
+	}
+
+	public static boolean inForkJoinPool() {
+		return Thread.currentThread() instanceof ForkJoinWorkerThread;
+	}
+
+	public boolean tryUnfork() {
+		Thread t = Thread.currentThread();
+		return (t instanceof ForkJoinWorkerThread) && ((ForkJoinWorkerThread) t).workQueue.tryUnpush(this);
+	}
+
+	public static int getQueuedTaskCount() {
+		Thread t = Thread.currentThread();
+		return (t instanceof ForkJoinWorkerThread) ? ((ForkJoinWorkerThread) t).workQueue.size() : 0;
+	}
+
+	public static int getSurplusQueuedTaskCount() {
+		Thread t = Thread.currentThread();
+		if (!(t instanceof ForkJoinWorkerThread)) return 0;
+		ForkJoinWorkerThread w = (ForkJoinWorkerThread) t;
+		return w.workQueue.size() - w.pool.getIdleCount();
+	}
+
+	public static ForkJoinTask<?> adapt(Runnable runnable) {
+		return new AdaptedRunnable<Void>(runnable, null);
+	}
+
+	public static <T> ForkJoinTask<T> adapt(Runnable runnable, T result) {
+		return new AdaptedRunnable<T>(runnable, result);
+	}
+
+	public static <T> ForkJoinTask<T> adapt(Callable<? extends T> callable) {
+		return new AdaptedCallable<T>(callable);
+	}
+
+	static final class AdaptedRunnable<T> extends ForkJoinTask<T> implements RunnableFuture<T> {
+		final Runnable runnable;
+		T result;
+
+		AdaptedRunnable(Runnable runnable, T result) {
+			if (runnable == null) throw new NullPointerException();
+			this.runnable = runnable;
+			this.result = result;
+		}
+
+		public final T getRawResult() {
+			return result;
+		}
+
+		public final void setRawResult(T v) {
+			result = v;
+		}
+
+		public final boolean exec() {
+			runnable.run();
+			return true;
+		}
+
+		public final void run() {
+			invoke();
+		}
+	}
+
+	static final class AdaptedCallable<T> extends ForkJoinTask<T> implements RunnableFuture<T> {
+		final Callable<? extends T> callable;
+		T result;
+
+		AdaptedCallable(Callable<? extends T> callable) {
+			if (callable == null) throw new NullPointerException();
+			this.callable = callable;
+		}
+
+		public final T getRawResult() {
+			return result;
+		}
+
+		public final void setRawResult(T v) {
+			result = v;
+		}
+
+		public final boolean exec() {
+			try {
+				result = callable.call();
+				return true;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public final void run() {
+			invoke();
+		}
+	}
+}
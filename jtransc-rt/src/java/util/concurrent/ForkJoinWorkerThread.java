@@ -0,0 +1,44 @@
+package java.util.concurrent;
+
+public class ForkJoinWorkerThread extends Thread {
+	final ForkJoinPool pool;
+	final ForkJoinPool.WorkQueue workQueue;
+	int poolIndex;
+
+	protected ForkJoinWorkerThread(ForkJoinPool pool) {
+		super("ForkJoinPool-worker");
+		this.pool = pool;
+		this.workQueue = new ForkJoinPool.WorkQueue(pool.getAsyncMode());
+		setDaemon(true);
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public int getPoolIndex() {
+		return poolIndex;
+	}
+
+	protected void onStart() {
+	}
+
+	protected void onTermination(Throwable exception) {
+	}
+
+	public void run() {
+		Throwable exception = null;
+		try {
+			onStart();
+			pool.runWorker(this);
+		} catch (Throwable t) {
+			exception = t;
+		} finally {
+			try {
+				onTermination(exception);
+			} finally {
+				pool.deregisterWorker(this, exception);
+			}
+		}
+	}
+}
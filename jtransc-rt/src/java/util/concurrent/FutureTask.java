@@ -1,49 +1,119 @@
 package java.util.concurrent;
 
+import com.jtransc.thread.JTranscThreading;
+
+// State changes happen holding the task monitor. Threads in get() wait on it.
 public class FutureTask<V> implements RunnableFuture<V> {
-	private V result;
+	private static final int NEW = 0;
+	private static final int RUNNING = 1;
+	private static final int NORMAL = 2;
+	private static final int EXCEPTIONAL = 3;
+	private static final int CANCELLED = 4;
+
+	private Callable<V> callable;
+	private int state = NEW;
+	private Object outcome;
 
 	public FutureTask(Callable<V> callable) {
-		try {
-			result = callable.call();
-		} catch (Exception e) {
-			e.printStackTrace();
-			result = null;
-		}
+		if (callable == null) throw new NullPointerException();
+		this.callable = callable;
 	}
 
 	public FutureTask(Runnable runnable, V result) {
-		runnable.run();
-		this.result = result;
+		this.callable = Executors.callable(runnable, result);
 	}
 
 	@Override
 	public void run() {
-		// @TODO: Should call exeuction here instead of the constructor?
+		Callable<V> c;
+		synchronized (this) {
+			if (state != NEW) return;
+			state = RUNNING;
+			c = callable;
+		}
+		V result;
+		try {
+			result = c.call();
+		} catch (Throwable t) {
+			setException(t);
+			return;
+		}
+		set(result);
+	}
+
+	protected void done() {
+	}
+
+	protected void set(V v) {
+		finish(NORMAL, v);
+	}
+
+	protected void setException(Throwable t) {
+		finish(EXCEPTIONAL, t);
+	}
+
+	private void finish(int finalState, Object value) {
+		synchronized (this) {
+			if (state >= NORMAL) return;
+			state = finalState;
+			outcome = value;
+			callable = null;
+			notifyAll();
+		}
+		done();
 	}
 
 	@Override
 	public boolean cancel(boolean mayInterruptIfRunning) {
-		return false;
+		synchronized (this) {
+			if (state >= NORMAL) return false;
+		}
+		finish(CANCELLED, null);
+		return isCancelled();
 	}
 
 	@Override
-	public boolean isCancelled() {
-		return false;
+	public synchronized boolean isCancelled() {
+		return state == CANCELLED;
 	}
 
 	@Override
-	public boolean isDone() {
-		return true;
+	public synchronized boolean isDone() {
+		return state >= NORMAL;
 	}
 
 	@Override
 	public V get() throws InterruptedException, ExecutionException {
-		return result;
+		try {
+			return get(0L);
+		} catch (TimeoutException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	@Override
 	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-		return get();
+		return get(unit.deadline(timeout));
+	}
+
+	// Waits until the deadline (0 for none)
+	@SuppressWarnings("unchecked")
+	private V get(long deadline) throws InterruptedException, ExecutionException, TimeoutException {
+		// Nobody else can run the task without threads
+		if (!JTranscThreading.impl.isSupported()) run();
+		synchronized (this) {
+			while (state < NORMAL) {
+				if (deadline == 0L) {
+					wait();
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0L) throw new TimeoutException();
+					wait(remaining);
+				}
+			}
+			if (state == CANCELLED) throw new CancellationException();
+			if (state == EXCEPTIONAL) throw new ExecutionException((Throwable) outcome);
+			return (V) outcome;
+		}
 	}
 }
@@ -1,12 +1,75 @@
 package java.util.concurrent;
 
+import com.jtransc.thread.JTranscThreading;
+
 import java.util.AbstractQueue;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
+// Every operation holds the deque monitor. Blocked producers and consumers wait on it.
 public class LinkedBlockingDeque<E> extends AbstractQueue<E> implements BlockingDeque<E>, java.io.Serializable {
 	private LinkedList<E> queue = new LinkedList<>();
+	private final int capacity;
+
+	public LinkedBlockingDeque() {
+		this(Integer.MAX_VALUE);
+	}
+
+	public LinkedBlockingDeque(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException();
+		this.capacity = capacity;
+	}
+
+	public LinkedBlockingDeque(Collection<? extends E> c) {
+		this(Integer.MAX_VALUE);
+		addAll(c);
+	}
+
+	// Waits for another thread to change the deque. Returns false when nothing else can change it.
+	private boolean await(long deadline) throws InterruptedException {
+		if (!JTranscThreading.impl.isSupported()) return false;
+		if (deadline == 0L) {
+			wait();
+			return true;
+		}
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0L) return false;
+		wait(remaining);
+		return true;
+	}
+
+	private boolean insert(E e, boolean first) {
+		if (e == null) throw new NullPointerException();
+		if (queue.size() >= capacity) return false;
+		if (first) queue.addFirst(e);
+		else queue.addLast(e);
+		notifyAll();
+		return true;
+	}
+
+	private E extract(boolean first) {
+		if (queue.isEmpty()) return null;
+		E e = first ? queue.removeFirst() : queue.removeLast();
+		notifyAll();
+		return e;
+	}
+
+	private boolean insert(E e, boolean first, long deadline) throws InterruptedException {
+		while (!insert(e, first)) {
+			if (!await(deadline)) return false;
+		}
+		return true;
+	}
+
+	private E extract(boolean first, long deadline) throws InterruptedException {
+		E e;
+		while ((e = extract(first)) == null) {
+			if (!await(deadline)) return null;
+		}
+		return e;
+	}
 
 	@Override
 	public Iterator<E> iterator() {
@@ -20,42 +83,42 @@ public class LinkedBlockingDeque<E> extends AbstractQueue<E> implements Blocking
 
 	@Override
 	public void push(E e) {
-		queue.push(e);
+		addFirst(e);
 	}
 
 	@Override
 	public E pop() {
-		return queue.pop();
+		return removeFirst();
 	}
 
 	@Override
-	public int size() {
+	public synchronized int size() {
 		return queue.size();
 	}
 
 	@Override
 	public void put(E e) throws InterruptedException {
-		queue.add(e);
+		putLast(e);
 	}
 
 	@Override
 	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
-		return queue.offer(e);
+		return offerLast(e, timeout, unit);
 	}
 
 	@Override
 	public E take() throws InterruptedException {
-		return queue.remove();
+		return takeFirst();
 	}
 
 	@Override
 	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
-		return queue.poll();
+		return pollFirst(timeout, unit);
 	}
 
 	@Override
-	public int remainingCapacity() {
-		return Integer.MAX_VALUE;
+	public synchronized int remainingCapacity() {
+		return capacity - queue.size();
 	}
 
 	@Override
@@ -64,137 +127,163 @@ public class LinkedBlockingDeque<E> extends AbstractQueue<E> implements Blocking
 	}
 
 	@Override
-	public int drainTo(Collection<? super E> c, int maxElements) {
+	public synchronized int drainTo(Collection<? super E> c, int maxElements) {
 		int transferred = 0;
 		while (queue.size() > 0 && transferred < maxElements) {
 			c.add(queue.poll());
+			transferred++;
 		}
+		if (transferred > 0) notifyAll();
 		return transferred;
 	}
 
 	@Override
 	public void addFirst(E e) {
-		queue.addFirst(e);
+		if (!offerFirst(e)) throw new IllegalStateException("Deque full");
 	}
 
 	@Override
 	public void addLast(E e) {
-		queue.addLast(e);
+		if (!offerLast(e)) throw new IllegalStateException("Deque full");
 	}
 
 	@Override
-	public boolean offerFirst(E e) {
-		return queue.offerFirst(e);
+	public synchronized boolean offerFirst(E e) {
+		return insert(e, true);
 	}
 
 	@Override
-	public boolean offerLast(E e) {
-		return queue.offerLast(e);
+	public synchronized boolean offerLast(E e) {
+		return insert(e, false);
 	}
 
 	@Override
 	public E removeFirst() {
-		return queue.removeFirst();
+		E e = pollFirst();
+		if (e == null) throw new NoSuchElementException();
+		return e;
 	}
 
 	@Override
 	public E removeLast() {
-		return queue.removeLast();
+		E e = pollLast();
+		if (e == null) throw new NoSuchElementException();
+		return e;
 	}
 
 	@Override
-	public E pollFirst() {
-		return queue.pollFirst();
+	public synchronized E pollFirst() {
+		return extract(true);
 	}
 
 	@Override
-	public E pollLast() {
-		return queue.pollLast();
+	public synchronized E pollLast() {
+		return extract(false);
 	}
 
 	@Override
-	public E getFirst() {
+	public synchronized E getFirst() {
 		return queue.getFirst();
 	}
 
 	@Override
-	public E getLast() {
+	public synchronized E getLast() {
 		return queue.getLast();
 	}
 
 	@Override
-	public E peekFirst() {
+	public synchronized E peekFirst() {
 		return queue.peekFirst();
 	}
 
 	@Override
-	public E peekLast() {
+	public synchronized E peekLast() {
 		return queue.peekLast();
 	}
 
 	@Override
-	public void putFirst(E e) throws InterruptedException {
-		queue.addFirst(e);
+	public synchronized void putFirst(E e) throws InterruptedException {
+		if (!insert(e, true, 0L)) throw new IllegalStateException("Deque full");
 	}
 
 	@Override
-	public void putLast(E e) throws InterruptedException {
-		queue.addLast(e);
+	public synchronized void putLast(E e) throws InterruptedException {
+		if (!insert(e, false, 0L)) throw new IllegalStateException("Deque full");
 	}
 
 	@Override
-	public boolean offerFirst(E e, long timeout, TimeUnit unit) throws InterruptedException {
-		return queue.offerFirst(e);
+	public synchronized boolean offerFirst(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		return insert(e, true, unit.deadline(timeout));
 	}
 
 	@Override
-	public boolean offerLast(E e, long timeout, TimeUnit unit) throws InterruptedException {
-		return queue.offerLast(e);
+	public synchronized boolean offerLast(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		return insert(e, false, unit.deadline(timeout));
 	}
 
 	@Override
-	public E takeFirst() throws InterruptedException {
-		return queue.pollFirst();
+	public synchronized E takeFirst() throws InterruptedException {
+		E e = extract(true, 0L);
+		if (e == null) throw new NoSuchElementException();
+		return e;
 	}
 
 	@Override
-	public E takeLast() throws InterruptedException {
-		return queue.pollLast();
+	public synchronized E takeLast() throws InterruptedException {
+		E e = extract(false, 0L);
+		if (e == null) throw new NoSuchElementException();
+		return e;
 	}
 
 	@Override
-	public E pollFirst(long timeout, TimeUnit unit) throws InterruptedException {
-		return queue.pollFirst();
+	public synchronized E pollFirst(long timeout, TimeUnit unit) throws InterruptedException {
+		return extract(true, unit.deadline(timeout));
 	}
 
 	@Override
-	public E pollLast(long timeout, TimeUnit unit) throws InterruptedException {
-		return queue.pollLast();
+	public synchronized E pollLast(long timeout, TimeUnit unit) throws InterruptedException {
+		return extract(false, unit.deadline(timeout));
 	}
 
 	@Override
-	public boolean removeFirstOccurrence(Object o) {
+	public synchronized boolean removeFirstOccurrence(Object o) {
 		return queue.removeFirstOccurrence(o);
 	}
 
 	@Override
-	public boolean removeLastOccurrence(Object o) {
+	public synchronized boolean removeLastOccurrence(Object o) {
 		return queue.removeLastOccurrence(o);
 	}
 
+	@Override
+	public boolean remove(Object o) {
+		return removeFirstOccurrence(o);
+	}
+
+	@Override
+	public synchronized boolean contains(Object o) {
+		return queue.contains(o);
+	}
+
+	@Override
+	public synchronized void clear() {
+		queue.clear();
+		notifyAll();
+	}
+
 	@Override
 	public boolean offer(E e) {
-		return queue.offer(e);
+		return offerLast(e);
 	}
 
 	@Override
 	public E poll() {
-		return queue.poll();
+		return pollFirst();
 	}
 
 	@Override
-	public E peek() {
+	public synchronized E peek() {
 		return queue.peek();
 	}
 
-}
\ No newline at end of file
+}
@@ -1,4 +1,17 @@
 package java.util.concurrent;
 
+import java.util.Collection;
+
 public class LinkedBlockingQueue<E> extends LinkedBlockingDeque<E> implements BlockingQueue<E>, java.io.Serializable {
+	public LinkedBlockingQueue() {
+		super();
+	}
+
+	public LinkedBlockingQueue(int capacity) {
+		super(capacity);
+	}
+
+	public LinkedBlockingQueue(Collection<? extends E> c) {
+		super(c);
+	}
 }
@@ -1,4 +1,144 @@
 package java.util.concurrent;
 
-public class SynchronousQueue<E> extends LinkedBlockingDeque<E> implements BlockingQueue<E>, java.io.Serializable {
+import com.jtransc.thread.JTranscThreading;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+// Handoff queue: offer only succeeds when a consumer is already waiting in take or poll.
+// Elements handed off are kept until their consumer wakes up, but the queue always looks empty.
+public class SynchronousQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>, java.io.Serializable {
+	private final LinkedList<E> handoffs = new LinkedList<>();
+	private int waitingConsumers = 0;
+
+	public SynchronousQueue() {
+	}
+
+	public SynchronousQueue(boolean fair) {
+	}
+
+	@Override
+	public synchronized boolean offer(E e) {
+		if (e == null) throw new NullPointerException();
+		if (waitingConsumers <= handoffs.size()) return false;
+		handoffs.addLast(e);
+		notifyAll();
+		return true;
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = unit.deadline(timeout);
+		synchronized (this) {
+			while (!offer(e)) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0L || !JTranscThreading.impl.isSupported()) return false;
+				wait(remaining);
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public synchronized void put(E e) throws InterruptedException {
+		while (!offer(e)) {
+			if (!JTranscThreading.impl.isSupported()) throw new IllegalStateException("No consumer");
+			wait();
+		}
+	}
+
+	@Override
+	public synchronized E poll() {
+		return handoffs.pollFirst();
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		E e = poll(0L);
+		if (e == null) throw new IllegalStateException("No producer");
+		return e;
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return poll(unit.deadline(timeout));
+	}
+
+	// Registers as a waiting consumer until an element is handed off or the deadline (0 for none) passes
+	private synchronized E poll(long deadline) throws InterruptedException {
+		if (!JTranscThreading.impl.isSupported()) return handoffs.pollFirst();
+		waitingConsumers++;
+		notifyAll();
+		try {
+			while (handoffs.isEmpty()) {
+				if (deadline == 0L) {
+					wait();
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0L) return null;
+					wait(remaining);
+				}
+			}
+			return handoffs.removeFirst();
+		} finally {
+			waitingConsumers--;
+		}
+	}
+
+	@Override
+	public E peek() {
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return 0;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return true;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return Collections.emptyIterator();
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return 0;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return false;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return false;
+	}
+
+	@Override
+	public void clear() {
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public synchronized int drainTo(Collection<? super E> c, int maxElements) {
+		int transferred = 0;
+		while (!handoffs.isEmpty() && transferred < maxElements) {
+			c.add(handoffs.removeFirst());
+			transferred++;
+		}
+		return transferred;
+	}
 }
@@ -1,103 +1,431 @@
 package java.util.concurrent;
 
+import com.jtransc.thread.JTranscThreading;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 
-public class ThreadPoolExecutor implements ExecutorService {
+// Pool state is guarded by the executor monitor; the work queue does its own locking.
+// Idle workers wait on the executor monitor instead of blocking in the work queue, so waking them never touches it,
+// and execute hands tasks to them directly. Tasks added through getQueue() are only seen once a worker wakes up.
+// Targets without threads sharing the heap run every task in the thread calling execute.
+public class ThreadPoolExecutor extends AbstractExecutorService {
+	private static final RejectedExecutionHandler defaultHandler = new AbortPolicy();
+
+	private final BlockingQueue<Runnable> workQueue;
+	private final HashSet<Worker> workers = new HashSet<>();
+	// Tasks given to idle workers, there are never more than idle workers
+	private final ArrayDeque<Runnable> handoffs = new ArrayDeque<>();
+	private int idleWorkers;
+	private final boolean pooled = JTranscThreading.impl.hasSharedHeap();
+	private volatile ThreadFactory threadFactory;
+	private volatile RejectedExecutionHandler handler;
+	private volatile long keepAliveTime;
+	private volatile boolean allowCoreThreadTimeOut;
+	private volatile int corePoolSize;
+	private volatile int maximumPoolSize;
+	private boolean shutdown;
+	private boolean stopped;
+	private volatile boolean terminated;
+	// Apart from the executor monitor, so notifying idle workers never wakes awaitTermination instead
+	private final Object termination = new Object();
+	private int largestPoolSize;
+	private int activeCount;
+	private long completedTaskCount;
+
 	public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+		this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, Executors.defaultThreadFactory(), defaultHandler);
 	}
 
 	public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
+		this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, defaultHandler);
 	}
 
 	public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
+		this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, Executors.defaultThreadFactory(), handler);
 	}
 
 	public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+		if (corePoolSize < 0 || maximumPoolSize <= 0 || maximumPoolSize < corePoolSize || keepAliveTime < 0) throw new IllegalArgumentException();
+		if (workQueue == null || threadFactory == null || handler == null) throw new NullPointerException();
+		this.corePoolSize = corePoolSize;
+		this.maximumPoolSize = maximumPoolSize;
+		this.keepAliveTime = unit.toNanos(keepAliveTime);
+		this.workQueue = workQueue;
+		this.threadFactory = threadFactory;
+		this.handler = handler;
+	}
+
+	private final class Worker implements Runnable {
+		Runnable firstTask;
+		Thread thread;
+
+		Worker(Runnable firstTask) {
+			this.firstTask = firstTask;
+		}
+
+		@Override
+		public void run() {
+			runWorker(this);
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) throw new NullPointerException();
+		if (!pooled) {
+			if (isShutdown()) {
+				reject(command);
+			} else {
+				runTask(Thread.currentThread(), command);
+			}
+			return;
+		}
+		synchronized (this) {
+			if (!shutdown) {
+				if (workers.size() < corePoolSize && addWorker(command)) return;
+				if (idleWorkers > handoffs.size()) {
+					handoffs.addLast(command);
+					notify();
+					return;
+				}
+				if (workQueue.offer(command)) {
+					if (workers.isEmpty()) addWorker(null);
+					return;
+				}
+				if (workers.size() < maximumPoolSize && addWorker(command)) return;
+			}
+		}
+		reject(command);
+	}
+
+	// Called holding the pool monitor
+	private boolean addWorker(Runnable firstTask) {
+		Worker worker = new Worker(firstTask);
+		Thread thread = threadFactory.newThread(worker);
+		if (thread == null) return false;
+		worker.thread = thread;
+		workers.add(worker);
+		if (workers.size() > largestPoolSize) largestPoolSize = workers.size();
+		thread.start();
+		return true;
+	}
+
+	private void runWorker(Worker worker) {
+		Runnable task = worker.firstTask;
+		worker.firstTask = null;
+		try {
+			while (task != null || (task = getTask()) != null) {
+				synchronized (this) {
+					activeCount++;
+				}
+				try {
+					runTask(worker.thread, task);
+				} finally {
+					synchronized (this) {
+						activeCount--;
+						completedTaskCount++;
+					}
+				}
+				task = null;
+			}
+		} finally {
+			workerExit(worker);
+		}
+	}
+
+	private void runTask(Thread thread, Runnable task) {
+		beforeExecute(thread, task);
+		Throwable thrown = null;
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			thrown = e;
+			throw e;
+		} catch (Error e) {
+			thrown = e;
+			throw e;
+		} finally {
+			afterExecute(task, thrown);
+		}
+	}
+
+	// Called holding the pool monitor
+	private boolean hasQueuedTasks() {
+		return !handoffs.isEmpty() || !workQueue.isEmpty();
 	}
+
+	// Null tells the calling worker to exit
+	private synchronized Runnable getTask() {
+		long idleStart = System.nanoTime();
+		while (true) {
+			if (!handoffs.isEmpty()) return handoffs.pollFirst();
+			if (stopped || (shutdown && workQueue.isEmpty())) return null;
+			if (workers.size() > maximumPoolSize) return null;
+			Runnable task = workQueue.poll();
+			if (task != null) return task;
+			long timeout = 0L;
+			if (allowCoreThreadTimeOut || workers.size() > corePoolSize) {
+				long remaining = keepAliveTime - (System.nanoTime() - idleStart);
+				if (remaining <= 0L) return null;
+				timeout = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining));
+			}
+			idleWorkers++;
+			try {
+				wait(timeout);
+			} catch (InterruptedException e) {
+			} finally {
+				idleWorkers--;
+			}
+		}
+	}
+
+	private void workerExit(Worker worker) {
+		synchronized (this) {
+			workers.remove(worker);
+			// Keeps the pool alive after a task killed its worker
+			if (!stopped && workers.size() < corePoolSize && !(shutdown && !hasQueuedTasks())) addWorker(null);
+			tryTerminate();
+		}
+	}
+
+	// Called holding the pool monitor
+	private void tryTerminate() {
+		if (terminated || !shutdown || !workers.isEmpty()) return;
+		if (!stopped && hasQueuedTasks()) return;
+		terminated = true;
+		try {
+			terminated();
+		} finally {
+			synchronized (termination) {
+				termination.notifyAll();
+			}
+		}
+	}
+
+	final void reject(Runnable command) {
+		handler.rejectedExecution(command, this);
+	}
+
 	@Override
 	public void shutdown() {
+		synchronized (this) {
+			if (shutdown) return;
+			shutdown = true;
+			notifyAll();
+			tryTerminate();
+		}
 	}
 
+	// Running tasks are not interrupted, they finish normally
 	@Override
 	public List<Runnable> shutdownNow() {
-		return new ArrayList<>();
+		ArrayList<Runnable> tasks = new ArrayList<>();
+		synchronized (this) {
+			shutdown = true;
+			stopped = true;
+			tasks.addAll(handoffs);
+			handoffs.clear();
+			workQueue.drainTo(tasks);
+			notifyAll();
+			tryTerminate();
+		}
+		return tasks;
 	}
 
 	@Override
-	public boolean isShutdown() {
-		return false;
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	public synchronized boolean isTerminating() {
+		return shutdown && !terminated;
 	}
 
 	@Override
-	public boolean isTerminated() {
-		return true;
+	public synchronized boolean isTerminated() {
+		return terminated || (!pooled && shutdown);
 	}
 
 	@Override
 	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!pooled) return isShutdown();
+		long deadline = unit.deadline(timeout);
+		synchronized (termination) {
+			while (!terminated) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0L) return false;
+				termination.wait(remaining);
+			}
+		}
 		return true;
 	}
 
-	@Override
-	public <T> Future<T> submit(Callable<T> task) {
-		try {
-			return new ImmediateFuture<>(task.call());
-		} catch (Exception e) {
-			return new ImmediateFuture<>(null);
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		if (threadFactory == null) throw new NullPointerException();
+		this.threadFactory = threadFactory;
+	}
+
+	public ThreadFactory getThreadFactory() {
+		return threadFactory;
+	}
+
+	public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+		if (handler == null) throw new NullPointerException();
+		this.handler = handler;
+	}
+
+	public RejectedExecutionHandler getRejectedExecutionHandler() {
+		return handler;
+	}
+
+	public synchronized void setCorePoolSize(int corePoolSize) {
+		if (corePoolSize < 0 || corePoolSize > maximumPoolSize) throw new IllegalArgumentException();
+		this.corePoolSize = corePoolSize;
+		// Idle workers check again whether they have to time out
+		notifyAll();
+	}
+
+	public int getCorePoolSize() {
+		return corePoolSize;
+	}
+
+	public synchronized boolean prestartCoreThread() {
+		return pooled && !shutdown && workers.size() < corePoolSize && addWorker(null);
+	}
+
+	public int prestartAllCoreThreads() {
+		int n = 0;
+		while (prestartCoreThread()) ++n;
+		return n;
+	}
+
+	public boolean allowsCoreThreadTimeOut() {
+		return allowCoreThreadTimeOut;
+	}
+
+	public void allowCoreThreadTimeOut(boolean value) {
+		if (value && keepAliveTime <= 0) throw new IllegalArgumentException("Core threads must have nonzero keep alive times");
+		allowCoreThreadTimeOut = value;
+	}
+
+	public synchronized void setMaximumPoolSize(int maximumPoolSize) {
+		if (maximumPoolSize <= 0 || maximumPoolSize < corePoolSize) throw new IllegalArgumentException();
+		this.maximumPoolSize = maximumPoolSize;
+		notifyAll();
+	}
+
+	public int getMaximumPoolSize() {
+		return maximumPoolSize;
+	}
+
+	public void setKeepAliveTime(long time, TimeUnit unit) {
+		if (time < 0) throw new IllegalArgumentException();
+		if (time == 0 && allowsCoreThreadTimeOut()) throw new IllegalArgumentException("Core threads must have nonzero keep alive times");
+		this.keepAliveTime = unit.toNanos(time);
+	}
+
+	public long getKeepAliveTime(TimeUnit unit) {
+		return unit.convert(keepAliveTime, TimeUnit.NANOSECONDS);
+	}
+
+	public BlockingQueue<Runnable> getQueue() {
+		return workQueue;
+	}
+
+	public boolean remove(Runnable task) {
+		synchronized (this) {
+			if (handoffs.remove(task)) return true;
 		}
+		return workQueue.remove(task);
 	}
 
-	@Override
-	public <T> Future<T> submit(Runnable task, T result) {
-		task.run();
-		return new ImmediateFuture<>(result);
+	public void purge() {
+		for (Object task : workQueue.toArray()) {
+			if (task instanceof Future<?> && ((Future<?>) task).isCancelled()) workQueue.remove(task);
+		}
 	}
 
-	@Override
-	public Future<?> submit(Runnable task) {
-		return submit(task, null);
+	public synchronized int getPoolSize() {
+		return workers.size();
 	}
 
-	@Override
-	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
-		ArrayList<Future<T>> out = new ArrayList<>();
-		for (Callable<T> task : tasks) {
-			try {
-				out.add(new ImmediateFuture(task.call()));
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+	public synchronized int getActiveCount() {
+		return activeCount;
+	}
+
+	public synchronized int getLargestPoolSize() {
+		return largestPoolSize;
+	}
+
+	public synchronized long getTaskCount() {
+		return completedTaskCount + activeCount + handoffs.size() + workQueue.size();
+	}
+
+	public synchronized long getCompletedTaskCount() {
+		return completedTaskCount;
+	}
+
+	public String toString() {
+		String state;
+		synchronized (this) {
+			state = terminated ? "Terminated" : (shutdown ? "Shutting down" : "Running");
 		}
+		return super.toString() +
+			"[" + state +
+			", pool size = " + getPoolSize() +
+			", active threads = " + getActiveCount() +
+			", queued tasks = " + workQueue.size() +
+			", completed tasks = " + getCompletedTaskCount() +
+			"]";
+	}
 
-		return out;
+	protected void beforeExecute(Thread t, Runnable r) {
 	}
 
-	@Override
-	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
-		return invokeAll(tasks);
+	protected void afterExecute(Runnable r, Throwable t) {
 	}
 
-	@Override
-	public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
-		for (Callable<T> task : tasks) {
-			try {
-				return task.call();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+	protected void terminated() {
+	}
+
+	public static class CallerRunsPolicy implements RejectedExecutionHandler {
+		public CallerRunsPolicy() {
+		}
+
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			if (!e.isShutdown()) r.run();
 		}
-		return null;
 	}
 
-	@Override
-	public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-		return invokeAny(tasks);
+	public static class AbortPolicy implements RejectedExecutionHandler {
+		public AbortPolicy() {
+		}
+
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			throw new RejectedExecutionException("Task " + r.toString() + " rejected from " + e.toString());
+		}
 	}
 
-	@Override
-	public void execute(Runnable command) {
+	public static class DiscardPolicy implements RejectedExecutionHandler {
+		public DiscardPolicy() {
+		}
 
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+		}
+	}
+
+	public static class DiscardOldestPolicy implements RejectedExecutionHandler {
+		public DiscardOldestPolicy() {
+		}
+
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			if (!e.isShutdown()) {
+				e.getQueue().poll();
+				e.execute(r);
+			}
+		}
 	}
 }
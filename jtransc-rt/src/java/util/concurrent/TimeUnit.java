@@ -26,11 +26,21 @@ public enum TimeUnit {
 	}
 
 	public long convert(long duration, TimeUnit sourceUnit) {
-		return _convert(duration, sourceUnit.value);
+		return scale(duration, sourceUnit.value, this.value);
+	}
+
+	// Saturates like the JDK instead of overflowing
+	static private long scale(long duration, long from, long to) {
+		if (from <= to) return duration / (to / from);
+		long ratio = from / to;
+		long max = Long.MAX_VALUE / ratio;
+		if (duration > max) return Long.MAX_VALUE;
+		if (duration < -max) return Long.MIN_VALUE;
+		return duration * ratio;
 	}
 
 	private long _convert(long duration, long constant) {
-		return duration * constant / this.value;
+		return scale(duration, this.value, constant);
 	}
 
 	public long toNanos(long duration) {
@@ -65,12 +75,22 @@ public enum TimeUnit {
 		return 0;
 	}
 
-	public void timedWait(Object obj, long timeout) {
+	public void timedWait(Object obj, long timeout) throws InterruptedException {
+		if (timeout > 0) obj.wait(Math.max(1L, toMillis(timeout)));
 	}
 
 	public void timedJoin(Thread thread, long timeout) throws InterruptedException {
+		if (timeout > 0) thread.join(Math.max(1L, toMillis(timeout)));
 	}
 
 	public void sleep(long timeout) throws InterruptedException {
+		if (timeout > 0) Thread.sleep(toMillis(timeout));
+	}
+
+	// System.currentTimeMillis() deadline for a wait of duration in this unit, at least a millisecond away
+	long deadline(long duration) {
+		long millis = Math.max(1L, toMillis(duration));
+		long now = System.currentTimeMillis();
+		return (millis > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + millis;
 	}
 }
@@ -1,5 +1,7 @@
 package java.util.concurrent.atomic;
 
+import com.jtransc.annotation.JTranscMethodBody;
+
 public class AtomicBoolean implements java.io.Serializable {
 	private boolean value;
 
@@ -10,20 +12,24 @@ public class AtomicBoolean implements java.io.Serializable {
 	public AtomicBoolean() {
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_load_n(&this->{% FIELD java.util.concurrent.atomic.AtomicBoolean:value %}, __ATOMIC_SEQ_CST);")
 	public final boolean get() {
 		return value;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "__atomic_store_n(&this->{% FIELD java.util.concurrent.atomic.AtomicBoolean:value %}, p0, __ATOMIC_SEQ_CST);")
 	public final void set(boolean newValue) {
 		this.value = newValue;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_exchange_n(&this->{% FIELD java.util.concurrent.atomic.AtomicBoolean:value %}, p0, __ATOMIC_SEQ_CST);")
 	public final boolean getAndSet(boolean newValue) {
 		boolean old = get();
 		this.value = newValue;
 		return old;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_compare_exchange_n(&this->{% FIELD java.util.concurrent.atomic.AtomicBoolean:value %}, &p0, p1, false, __ATOMIC_SEQ_CST, __ATOMIC_SEQ_CST);")
 	public final boolean compareAndSet(boolean expect, boolean update) {
 		if (this.value != expect) return false; // Should return true too to avoid infinite loops?
 		this.value = update;
@@ -24,9 +24,15 @@ public class AtomicInteger extends Number implements java.io.Serializable {
 
 	public AtomicInteger(int initialValue) {
 		value = initialValue;
+		_init();
 	}
 
 	public AtomicInteger() {
+		_init();
+	}
+
+	@JTranscMethodBody(target = "js", value = "N.atomicInit(this, '{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}');")
+	private void _init() {
 	}
 
 	// http://dlang.org/library/core/atomic.html
@@ -36,22 +42,35 @@ public class AtomicInteger extends Number implements java.io.Serializable {
 	//rel	Sink-load + sink-store barrier.
 	//seq	Fully sequenced (acquire + release).
 
+	@JTranscMethodBody(target = "js", value = "return this.__jt_cell ? Atomics.load(this.__jt_cell, 0) : this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'];")
 	@JTranscMethodBody(target = "d", value = "return core.atomic.atomicLoad!(core.atomic.MemoryOrder.seq)(*cast(shared(int *))&this.{% FIELD #CLASS:value %});")
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_load_n(&this->{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}, __ATOMIC_SEQ_CST);")
 	public final int get() {
 		return value;
 	}
 
+	@JTranscMethodBody(target = "js", value = "if (this.__jt_cell) Atomics.store(this.__jt_cell, 0, p0); else this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'] = p0;")
 	@JTranscMethodBody(target = "d", value = "core.atomic.atomicStore!(core.atomic.MemoryOrder.seq)(*cast(shared(int *))&this.{% FIELD #CLASS:value %}, p0);")
+	@JTranscMethodBody(target = "cpp", value = "__atomic_store_n(&this->{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}, p0, __ATOMIC_SEQ_CST);")
 	public final void set(int newValue) {
 		value = newValue;
 	}
 
+	@JTranscMethodBody(target = "js", value = "if (this.__jt_cell) Atomics.store(this.__jt_cell, 0, p0); else this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'] = p0;")
 	@JTranscMethodBody(target = "d", value = "core.atomic.atomicStore!(core.atomic.MemoryOrder.raw)(*cast(shared(int *))&this.{% FIELD #CLASS:value %}, p0);")
+	@JTranscMethodBody(target = "cpp", value = "__atomic_store_n(&this->{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}, p0, __ATOMIC_RELEASE);")
 	public final void lazySet(int newValue) {
 		set(newValue);
 	}
 
+	@JTranscMethodBody(target = "js", value = {
+		"if (this.__jt_cell) return Atomics.compareExchange(this.__jt_cell, 0, p0, p1) == p0;",
+		"if (this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'] != p0) return false;",
+		"this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'] = p1;",
+		"return true;",
+	})
 	@JTranscMethodBody(target = "d", value = "return core.atomic.cas(cast(shared(int *))&this.{% FIELD #CLASS:value %}, cast(const(int))p0, p1);")
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_compare_exchange_n(&this->{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}, &p0, p1, false, __ATOMIC_SEQ_CST, __ATOMIC_SEQ_CST);")
 	public final boolean compareAndSet(int expect, int update) {
 		if (get() == expect) {
 			set(update);
@@ -61,7 +80,12 @@ public class AtomicInteger extends Number implements java.io.Serializable {
 		}
 	}
 
+	@JTranscMethodBody(target = "js", value = {
+		"if (this.__jt_cell) return (Atomics.add(this.__jt_cell, 0, p0) + p0) | 0;",
+		"return this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'] = (this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'] + p0) | 0;",
+	})
 	@JTranscMethodBody(target = "d", value = "return core.atomic.atomicOp!(\"+=\")(*cast(shared(int *))&this.{% FIELD #CLASS:value %}, p0);")
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_add_fetch(&this->{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}, p0, __ATOMIC_SEQ_CST);")
 	private int _addAndGet(int delta) {
 		return this.value = get() + delta;
 	}
@@ -74,6 +98,13 @@ public class AtomicInteger extends Number implements java.io.Serializable {
 		return _addAndGet(delta) - delta;
 	}
 
+	@JTranscMethodBody(target = "js", value = {
+		"if (this.__jt_cell) return Atomics.exchange(this.__jt_cell, 0, p0);",
+		"var old = this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'];",
+		"this['{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}'] = p0;",
+		"return old;",
+	})
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_exchange_n(&this->{% FIELD java.util.concurrent.atomic.AtomicInteger:value %}, p0, __ATOMIC_SEQ_CST);")
 	public final int getAndSet(int newValue) {
 		int old = get();
 		set(newValue);
@@ -16,6 +16,8 @@
 
 package java.util.concurrent.atomic;
 
+import com.jtransc.annotation.JTranscMethodBody;
+
 public class AtomicLong extends Number implements java.io.Serializable {
 	private volatile long value;
 
@@ -26,18 +28,22 @@ public class AtomicLong extends Number implements java.io.Serializable {
 	public AtomicLong() {
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_load_n(&this->{% FIELD java.util.concurrent.atomic.AtomicLong:value %}, __ATOMIC_SEQ_CST);")
 	public final long get() {
 		return value;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "__atomic_store_n(&this->{% FIELD java.util.concurrent.atomic.AtomicLong:value %}, p0, __ATOMIC_SEQ_CST);")
 	public final void set(long newValue) {
 		value = newValue;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "__atomic_store_n(&this->{% FIELD java.util.concurrent.atomic.AtomicLong:value %}, p0, __ATOMIC_RELEASE);")
 	public final void lazySet(long newValue) {
 		value = newValue;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_exchange_n(&this->{% FIELD java.util.concurrent.atomic.AtomicLong:value %}, p0, __ATOMIC_SEQ_CST);")
 	public final long getAndSet(long newValue) {
 		long old = this.value;
 		this.value = newValue;
@@ -48,6 +54,7 @@ public class AtomicLong extends Number implements java.io.Serializable {
 		return this.value = newValue;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_compare_exchange_n(&this->{% FIELD java.util.concurrent.atomic.AtomicLong:value %}, &p0, p1, false, __ATOMIC_SEQ_CST, __ATOMIC_SEQ_CST);")
 	public final boolean compareAndSet(long expect, long update) {
 		if (this.value == expect) {
 			this.value = update;
@@ -61,28 +68,33 @@ public class AtomicLong extends Number implements java.io.Serializable {
 		return compareAndSet(expect, update);
 	}
 
+	@JTranscMethodBody(target = "cpp", value = "return __atomic_add_fetch(&this->{% FIELD java.util.concurrent.atomic.AtomicLong:value %}, p0, __ATOMIC_SEQ_CST);")
+	private long _addAndGet(long delta) {
+		return _setAndSet(this.value + delta);
+	}
+
 	public final long getAndIncrement() {
-		return getAndSet(this.value + 1);
+		return _addAndGet(+1) - 1;
 	}
 
 	public final long getAndDecrement() {
-		return getAndSet(this.value - 1);
+		return _addAndGet(-1) + 1;
 	}
 
 	public final long getAndAdd(long delta) {
-		return getAndSet(this.value + delta);
+		return _addAndGet(delta) - delta;
 	}
 
 	public final long incrementAndGet() {
-		return _setAndSet(this.value + 1);
+		return _addAndGet(+1);
 	}
 
 	public final long decrementAndGet() {
-		return _setAndSet(this.value - 1);
+		return _addAndGet(-1);
 	}
 
 	public final long addAndGet(long delta) {
-		return _setAndSet(this.value + delta);
+		return _addAndGet(delta);
 	}
 
 	public String toString() {
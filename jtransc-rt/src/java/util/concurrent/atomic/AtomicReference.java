@@ -16,6 +16,8 @@
 
 package java.util.concurrent.atomic;
 
+import com.jtransc.annotation.JTranscMethodBody;
+
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class AtomicReference<V> implements java.io.Serializable {
 	private V value = null;
@@ -27,10 +29,19 @@ public class AtomicReference<V> implements java.io.Serializable {
 	public AtomicReference() {
 	}
 
+	// The cpp target has threads, and its references can't be swapped with atomic instructions, so it locks
+	@JTranscMethodBody(target = "cpp", value = {
+		"JT_MONITOR_GUARD guard(SOBJ_FROM_THIS);",
+		"return this->{% FIELD java.util.concurrent.atomic.AtomicReference:value %};",
+	})
 	public final V get() {
 		return value;
 	}
 
+	@JTranscMethodBody(target = "cpp", value = {
+		"JT_MONITOR_GUARD guard(SOBJ_FROM_THIS);",
+		"this->{% FIELD java.util.concurrent.atomic.AtomicReference:value %} = p0;",
+	})
 	public final void set(V newValue) {
 		this.value = newValue;
 	}
@@ -39,6 +50,12 @@ public class AtomicReference<V> implements java.io.Serializable {
 		this.set(newValue);
 	}
 
+	@JTranscMethodBody(target = "cpp", value = {
+		"JT_MONITOR_GUARD guard(SOBJ_FROM_THIS);",
+		"if (this->{% FIELD java.util.concurrent.atomic.AtomicReference:value %}.get() != p0.get()) return false;",
+		"this->{% FIELD java.util.concurrent.atomic.AtomicReference:value %} = p1;",
+		"return true;",
+	})
 	public final boolean compareAndSet(V expect, V update) {
 		if (this.value != expect) return false;
 		this.value = update;
@@ -49,6 +66,12 @@ public class AtomicReference<V> implements java.io.Serializable {
 		return this.compareAndSet(expect, update);
 	}
 
+	@JTranscMethodBody(target = "cpp", value = {
+		"JT_MONITOR_GUARD guard(SOBJ_FROM_THIS);",
+		"SOBJ old = this->{% FIELD java.util.concurrent.atomic.AtomicReference:value %};",
+		"this->{% FIELD java.util.concurrent.atomic.AtomicReference:value %} = p0;",
+		"return old;",
+	})
 	public final V getAndSet(V newValue) {
 		V old = this.value;
 		this.value = newValue;
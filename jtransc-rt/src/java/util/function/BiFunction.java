@@ -0,0 +1,8 @@
+package java.util.function;
+
+@FunctionalInterface
+public interface BiFunction<T, U, R> {
+	R apply(T t, U u);
+
+	//default native <V> BiFunction<T, U, V> andThen(Function<? super R, ? extends V> after);
+}
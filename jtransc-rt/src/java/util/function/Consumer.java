@@ -0,0 +1,8 @@
+package java.util.function;
+
+@FunctionalInterface
+public interface Consumer<T> {
+	void accept(T t);
+
+	//default native Consumer<T> andThen(Consumer<? super T> after);
+}
@@ -0,0 +1,9 @@
+package java.util.function;
+
+@FunctionalInterface
+public interface Function<T, R> {
+	R apply(T t);
+
+	//default native <V> Function<V, R> compose(Function<? super V, ? extends T> before);
+	//default native <V> Function<T, V> andThen(Function<? super R, ? extends V> after);
+}
@@ -19,6 +19,8 @@ package java.util.regex;
 import regexodus.REFlags;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Tommy Ettinger : 6/7/2016.
@@ -51,7 +53,31 @@ public final class Pattern implements java.io.Serializable {
 	private Pattern(String pattern, int flags) {
 		this.pattern = pattern;
 		this.flags = flags;
-		this.i = regexodus.Pattern.compile(pattern, convertFlags(flags));
+		this.i = compileCached(pattern, flags);
+	}
+
+	// String.split, replaceAll and matches compile their regex on every call.
+	// Compiled patterns are immutable, so the most recently used ones are shared.
+	static private final int CACHE_SIZE = 64;
+
+	static private final LinkedHashMap<String, regexodus.Pattern> cache = new LinkedHashMap<String, regexodus.Pattern>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, regexodus.Pattern> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	static private regexodus.Pattern compileCached(String pattern, int flags) {
+		String key = flags + ":" + pattern;
+		synchronized (cache) {
+			regexodus.Pattern compiled = cache.get(key);
+			if (compiled != null) return compiled;
+		}
+		regexodus.Pattern compiled = regexodus.Pattern.compile(pattern, convertFlags(flags));
+		synchronized (cache) {
+			cache.put(key, compiled);
+		}
+		return compiled;
 	}
 
 	// @TODO: Maybe we could match flags to avoid conversion at all!
@@ -1,12 +1,34 @@
 package libcore.io;
 
 import com.jtransc.JTranscBits;
+import com.jtransc.annotation.JTranscMethodBody;
 
 import java.nio.ByteOrder;
 
 public class Memory {
+	static private ByteOrder NATIVE = ByteOrder.nativeOrder();
+	static private ByteOrder SWAPPED = (NATIVE == ByteOrder.LITTLE_ENDIAN) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+	// On these targets byte[] is plain memory: multi-byte values are a single unaligned load/store
+	static private final boolean RAW = hasRawAccess();
+
+	@JTranscMethodBody(target = "cpp", value = "return true;")
+	@JTranscMethodBody(target = "d", value = "return true;")
+	@JTranscMethodBody(target = "js", value = "return true;")
+	static private boolean hasRawAccess() {
+		return false;
+	}
+
+	static private void checkRange(byte[] array, int offset, int size) {
+		if (offset < 0 || offset > array.length - size) throw new ArrayIndexOutOfBoundsException(offset);
+	}
 
 	public static int peekInt(byte[] src, int offset, ByteOrder order) {
+		if (RAW) {
+			checkRange(src, offset, 4);
+			int v = peekIntNative(src, offset);
+			return (order == NATIVE) ? v : Integer.reverseBytes(v);
+		}
 		if (order == ByteOrder.BIG_ENDIAN) {
 			return (((src[offset++] & 0xff) << 24) |
 				((src[offset++] & 0xff) << 16) |
@@ -21,6 +43,11 @@ public class Memory {
 	}
 
 	public static long peekLong(byte[] src, int offset, ByteOrder order) {
+		if (RAW) {
+			checkRange(src, offset, 8);
+			long v = peekLongNative(src, offset);
+			return (order == NATIVE) ? v : Long.reverseBytes(v);
+		}
 		if (order == ByteOrder.BIG_ENDIAN) {
 			int h = ((src[offset++] & 0xff) << 24) |
 				((src[offset++] & 0xff) << 16) |
@@ -45,6 +72,11 @@ public class Memory {
 	}
 
 	public static short peekShort(byte[] src, int offset, ByteOrder order) {
+		if (RAW) {
+			checkRange(src, offset, 2);
+			short v = peekShortNative(src, offset);
+			return (order == NATIVE) ? v : Short.reverseBytes(v);
+		}
 		if (order == ByteOrder.BIG_ENDIAN) {
 			return (short) ((src[offset] << 8) | (src[offset + 1] & 0xff));
 		} else {
@@ -53,28 +85,142 @@ public class Memory {
 	}
 
 	public static void pokeInt(byte[] dst, int offset, int value, ByteOrder order) {
+		if (RAW) {
+			checkRange(dst, offset, 4);
+			pokeIntNative(dst, offset, (order == NATIVE) ? value : Integer.reverseBytes(value));
+			return;
+		}
 		JTranscBits.writeInt(dst, offset, value, order == ByteOrder.LITTLE_ENDIAN);
 	}
 
 	public static void pokeLong(byte[] dst, int offset, long value, ByteOrder order) {
+		if (RAW) {
+			checkRange(dst, offset, 8);
+			pokeLongNative(dst, offset, (order == NATIVE) ? value : Long.reverseBytes(value));
+			return;
+		}
 		JTranscBits.writeLong(dst, offset, value, order == ByteOrder.LITTLE_ENDIAN);
 	}
 
 	public static void pokeShort(byte[] dst, int offset, short value, ByteOrder order) {
+		if (RAW) {
+			checkRange(dst, offset, 2);
+			pokeShortNative(dst, offset, (order == NATIVE) ? value : Short.reverseBytes(value));
+			return;
+		}
 		JTranscBits.writeShort(dst, offset, value, order == ByteOrder.LITTLE_ENDIAN);
 	}
 
+	// Native byte order loads and stores. Only called when RAW and after checkRange.
+
+	@JTranscMethodBody(target = "cpp", value = "int16_t v; ::memcpy(&v, GET_OBJECT(JA_B, p0)->getOffsetPtr(p1), sizeof(v)); return v;")
+	@JTranscMethodBody(target = "d", value = "short v; core.stdc.string.memcpy(&v, (cast(JA_0)p0).ptr + p1, v.sizeof); return v;")
+	@JTranscMethodBody(target = "js", value = "return N.byteView(p0).getInt16(p1, N.isLittleEndian);")
+	static private short peekShortNative(byte[] src, int offset) {
+		return peekShort(src, offset, NATIVE);
+	}
+
+	@JTranscMethodBody(target = "cpp", value = "int32_t v; ::memcpy(&v, GET_OBJECT(JA_B, p0)->getOffsetPtr(p1), sizeof(v)); return v;")
+	@JTranscMethodBody(target = "d", value = "int v; core.stdc.string.memcpy(&v, (cast(JA_0)p0).ptr + p1, v.sizeof); return v;")
+	@JTranscMethodBody(target = "js", value = "return N.byteView(p0).getInt32(p1, N.isLittleEndian);")
+	static private int peekIntNative(byte[] src, int offset) {
+		return peekInt(src, offset, NATIVE);
+	}
+
+	@JTranscMethodBody(target = "cpp", value = "int64_t v; ::memcpy(&v, GET_OBJECT(JA_B, p0)->getOffsetPtr(p1), sizeof(v)); return v;")
+	@JTranscMethodBody(target = "d", value = "long v; core.stdc.string.memcpy(&v, (cast(JA_0)p0).ptr + p1, v.sizeof); return v;")
+	@JTranscMethodBody(target = "js", value = {
+		"var view = N.byteView(p0), le = N.isLittleEndian;",
+		"var a = view.getInt32(p1, le), b = view.getInt32(p1 + 4, le);",
+		"return le ? N.lnew(b, a) : N.lnew(a, b);",
+	})
+	static private long peekLongNative(byte[] src, int offset) {
+		return peekLong(src, offset, NATIVE);
+	}
+
+	@JTranscMethodBody(target = "cpp", value = "int16_t v = (int16_t)p2; ::memcpy(GET_OBJECT(JA_B, p0)->getOffsetPtr(p1), &v, sizeof(v));")
+	@JTranscMethodBody(target = "d", value = "short v = p2; core.stdc.string.memcpy((cast(JA_0)p0).ptr + p1, &v, v.sizeof);")
+	@JTranscMethodBody(target = "js", value = "N.byteView(p0).setInt16(p1, p2, N.isLittleEndian);")
+	static private void pokeShortNative(byte[] dst, int offset, short value) {
+		pokeShort(dst, offset, value, NATIVE);
+	}
+
+	@JTranscMethodBody(target = "cpp", value = "int32_t v = (int32_t)p2; ::memcpy(GET_OBJECT(JA_B, p0)->getOffsetPtr(p1), &v, sizeof(v));")
+	@JTranscMethodBody(target = "d", value = "int v = p2; core.stdc.string.memcpy((cast(JA_0)p0).ptr + p1, &v, v.sizeof);")
+	@JTranscMethodBody(target = "js", value = "N.byteView(p0).setInt32(p1, p2, N.isLittleEndian);")
+	static private void pokeIntNative(byte[] dst, int offset, int value) {
+		pokeInt(dst, offset, value, NATIVE);
+	}
+
+	@JTranscMethodBody(target = "cpp", value = "int64_t v = (int64_t)p2; ::memcpy(GET_OBJECT(JA_B, p0)->getOffsetPtr(p1), &v, sizeof(v));")
+	@JTranscMethodBody(target = "d", value = "long v = p2; core.stdc.string.memcpy((cast(JA_0)p0).ptr + p1, &v, v.sizeof);")
+	@JTranscMethodBody(target = "js", value = {
+		"var view = N.byteView(p0), le = N.isLittleEndian;",
+		"var h = N.lhigh(p2), l = N.llow(p2);",
+		"view.setInt32(p1, le ? l : h, le);",
+		"view.setInt32(p1 + 4, le ? h : l, le);",
+	})
+	static private void pokeLongNative(byte[] dst, int offset, long value) {
+		pokeLong(dst, offset, value, NATIVE);
+	}
+
+	// Copies byteCount bytes between a primitive array and a byte[], reversing each element when swapping.
+	// Returns false when the target can't copy raw memory and the caller must convert element by element.
+	@JTranscMethodBody(target = "cpp", value = {
+		"void *a = GET_OBJECT(JA_0, p0)->getOffsetPtr(p1);",
+		"void *b = GET_OBJECT(JA_B, p2)->getOffsetPtr(p3);",
+		"void *dst = p7 ? b : a;",
+		"void *src = p7 ? a : b;",
+		"if (p6) N::copyReversed(dst, src, p4 / p5, p5); else ::memmove(dst, src, p4);",
+		"return true;",
+	})
+	@JTranscMethodBody(target = "d", value = {
+		"auto array = cast(JA_0)p0;",
+		"auto a = array.ptr + p1 * array.itemLen;",
+		"auto b = (cast(JA_0)p2).ptr + p3;",
+		"auto dst = p7 ? b : a;",
+		"auto src = p7 ? a : b;",
+		"if (p6) N.copyReversed(dst, src, p4 / p5, p5); else core.stdc.string.memmove(dst, src, p4);",
+		"return true;",
+	})
+	@JTranscMethodBody(target = "js", value = {
+		"var a = p0.data, b = p2.data;",
+		"if (p6 || !a.buffer) return false;",
+		"var aBytes = new Int8Array(a.buffer, a.byteOffset + p1 * a.BYTES_PER_ELEMENT, p4);",
+		"var bBytes = new Int8Array(b.buffer, b.byteOffset + p3, p4);",
+		"if (p7) bBytes.set(aBytes); else aBytes.set(bBytes);",
+		"return true;",
+	})
+	static private boolean bulkCopy(Object array, int arrayOffset, byte[] bytes, int bytesOffset, int byteCount, int sizeofElements, boolean swap, boolean toBytes) {
+		return false;
+	}
+
 	public static void unsafeBulkGet(Object dst, int dstOffset, int byteCount, byte[] src, int srcOffset, int sizeofElements, boolean swap) {
+		if (bulkCopy(dst, dstOffset, src, srcOffset, byteCount, sizeofElements, swap, false)) return;
+		int count = byteCount / sizeofElements;
+		ByteOrder order = swap ? SWAPPED : NATIVE;
 		if (dst instanceof int[]) {
-			unsafeBulkGet((int[])dst, dstOffset, byteCount, src, srcOffset, sizeofElements, swap);
+			unsafeBulkGet((int[]) dst, dstOffset, byteCount, src, srcOffset, sizeofElements, swap);
+		} else if (dst instanceof short[]) {
+			short[] out = (short[]) dst;
+			for (int n = 0; n < count; n++) out[dstOffset + n] = peekShort(src, srcOffset + n * sizeofElements, order);
+		} else if (dst instanceof char[]) {
+			char[] out = (char[]) dst;
+			for (int n = 0; n < count; n++) out[dstOffset + n] = (char) peekShort(src, srcOffset + n * sizeofElements, order);
+		} else if (dst instanceof long[]) {
+			long[] out = (long[]) dst;
+			for (int n = 0; n < count; n++) out[dstOffset + n] = peekLong(src, srcOffset + n * sizeofElements, order);
+		} else if (dst instanceof float[]) {
+			float[] out = (float[]) dst;
+			for (int n = 0; n < count; n++) out[dstOffset + n] = Float.intBitsToFloat(peekInt(src, srcOffset + n * sizeofElements, order));
+		} else if (dst instanceof double[]) {
+			double[] out = (double[]) dst;
+			for (int n = 0; n < count; n++) out[dstOffset + n] = Double.longBitsToDouble(peekLong(src, srcOffset + n * sizeofElements, order));
 		} else {
 			throw new RuntimeException("Unhandled unsafeBulkGet dst: " + dst);
 		}
 	}
 
-	static private ByteOrder NATIVE = ByteOrder.nativeOrder();
-	static private ByteOrder SWAPPED = (NATIVE == ByteOrder.LITTLE_ENDIAN) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
-
 	public static void unsafeBulkGet(int[] dst, int dstOffset, int byteCount, byte[] src, int srcOffset, int sizeofElements, boolean swap) {
 		int elementCount = byteCount / 4;
 		ByteOrder order = swap ? SWAPPED : NATIVE;
@@ -82,4 +228,31 @@ public class Memory {
 			dst[dstOffset + n] = peekInt(src, srcOffset + n * sizeofElements, order);
 		}
 	}
+
+	public static void unsafeBulkPut(byte[] dst, int dstOffset, int byteCount, Object src, int srcOffset, int sizeofElements, boolean swap) {
+		if (bulkCopy(src, srcOffset, dst, dstOffset, byteCount, sizeofElements, swap, true)) return;
+		int count = byteCount / sizeofElements;
+		ByteOrder order = swap ? SWAPPED : NATIVE;
+		if (src instanceof int[]) {
+			int[] in = (int[]) src;
+			for (int n = 0; n < count; n++) pokeInt(dst, dstOffset + n * sizeofElements, in[srcOffset + n], order);
+		} else if (src instanceof short[]) {
+			short[] in = (short[]) src;
+			for (int n = 0; n < count; n++) pokeShort(dst, dstOffset + n * sizeofElements, in[srcOffset + n], order);
+		} else if (src instanceof char[]) {
+			char[] in = (char[]) src;
+			for (int n = 0; n < count; n++) pokeShort(dst, dstOffset + n * sizeofElements, (short) in[srcOffset + n], order);
+		} else if (src instanceof long[]) {
+			long[] in = (long[]) src;
+			for (int n = 0; n < count; n++) pokeLong(dst, dstOffset + n * sizeofElements, in[srcOffset + n], order);
+		} else if (src instanceof float[]) {
+			float[] in = (float[]) src;
+			for (int n = 0; n < count; n++) pokeInt(dst, dstOffset + n * sizeofElements, Float.floatToRawIntBits(in[srcOffset + n]), order);
+		} else if (src instanceof double[]) {
+			double[] in = (double[]) src;
+			for (int n = 0; n < count; n++) pokeLong(dst, dstOffset + n * sizeofElements, Double.doubleToRawLongBits(in[srcOffset + n]), order);
+		} else {
+			throw new RuntimeException("Unhandled unsafeBulkPut src: " + src);
+		}
+	}
 }
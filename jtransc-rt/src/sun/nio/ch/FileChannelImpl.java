@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 Carlos Ballesteros Velasco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sun.nio.ch;
+
+import com.jtransc.io.JTranscSyncIO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.NioInternalUtils;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+// Channel over the stream of a RandomAccessFile, FileInputStream or FileOutputStream.
+// It shares the stream position with its parent, and closing the channel closes the parent.
+// Operations hold the stream monitor, so positional ones can seek and restore the position.
+public class FileChannelImpl extends FileChannel {
+	private static final int TRANSFER_CHUNK = 8 * 1024 * 1024;
+	private static final int COPY_CHUNK = 64 * 1024;
+
+	private final JTranscSyncIO.ImplStream stream;
+	private final boolean readable;
+	private final boolean writable;
+	private final boolean append;
+	private final Closeable parent;
+
+	public FileChannelImpl(JTranscSyncIO.ImplStream stream, boolean readable, boolean writable, boolean append, Closeable parent) {
+		this.stream = stream;
+		this.readable = readable;
+		this.writable = writable;
+		this.append = append;
+		this.parent = parent;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!isOpen()) throw new ClosedChannelException();
+	}
+
+	private void ensureReadable() throws IOException {
+		ensureOpen();
+		if (!readable) throw new NonReadableChannelException();
+	}
+
+	private void ensureWritable() throws IOException {
+		ensureOpen();
+		if (!writable) throw new NonWritableChannelException();
+	}
+
+	// Reads at the stream position straight into the buffer array
+	private int readAtPosition(ByteBuffer dst) {
+		if (dst.isReadOnly()) throw new IllegalArgumentException("Read-only buffer");
+		int len = dst.remaining();
+		if (len == 0) return 0;
+		int n = stream.read(dst.array(), dst.arrayOffset() + dst.position(), len);
+		if (n <= 0) return -1;
+		dst.position(dst.position() + n);
+		return n;
+	}
+
+	// Writes from the buffer storage, also for read-only and mapped buffers, so transferTo doesn't copy mapped chunks
+	private int writeAtPosition(ByteBuffer src) {
+		int len = src.remaining();
+		if (len == 0) return 0;
+		int n = stream.write(NioInternalUtils.backingArray(src), NioInternalUtils.backingArrayOffset(src) + src.position(), len);
+		if (n <= 0) return 0;
+		src.position(src.position() + n);
+		return n;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureReadable();
+		synchronized (stream) {
+			return readAtPosition(dst);
+		}
+	}
+
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > dsts.length - length) throw new IndexOutOfBoundsException();
+		ensureReadable();
+		synchronized (stream) {
+			long total = 0L;
+			for (int i = offset; i < offset + length; i++) {
+				int wanted = dsts[i].remaining();
+				int n = readAtPosition(dsts[i]);
+				if (n < 0) return (total == 0L) ? -1L : total;
+				total += n;
+				if (n < wanted) break;
+			}
+			return total;
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		ensureWritable();
+		synchronized (stream) {
+			if (append) stream.setPosition(stream.getLength());
+			return writeAtPosition(src);
+		}
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > srcs.length - length) throw new IndexOutOfBoundsException();
+		ensureWritable();
+		synchronized (stream) {
+			if (append) stream.setPosition(stream.getLength());
+			long total = 0L;
+			for (int i = offset; i < offset + length; i++) {
+				int wanted = srcs[i].remaining();
+				int n = writeAtPosition(srcs[i]);
+				total += n;
+				if (n < wanted) break;
+			}
+			return total;
+		}
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		synchronized (stream) {
+			return stream.getPosition();
+		}
+	}
+
+	@Override
+	public FileChannel position(long newPosition) throws IOException {
+		if (newPosition < 0L) throw new IllegalArgumentException("Negative position");
+		ensureOpen();
+		synchronized (stream) {
+			stream.setPosition(newPosition);
+		}
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		synchronized (stream) {
+			return stream.getLength();
+		}
+	}
+
+	@Override
+	public FileChannel truncate(long size) throws IOException {
+		if (size < 0L) throw new IllegalArgumentException("Negative size");
+		ensureWritable();
+		synchronized (stream) {
+			if (size < stream.getLength()) stream.setLength(size);
+			if (stream.getPosition() > size) stream.setPosition(size);
+		}
+		return this;
+	}
+
+	@Override
+	public void force(boolean metaData) throws IOException {
+		// Writes go straight to the target file handle. Mapped regions are synced by MappedByteBuffer.force.
+		ensureOpen();
+	}
+
+	@Override
+	public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		if (position < 0L || count < 0L) throw new IllegalArgumentException();
+		ensureReadable();
+		if (!target.isOpen()) throw new ClosedChannelException();
+		long size = size();
+		if (position >= size) return 0L;
+		long remaining = Math.min(count, size - position);
+		long transferred = 0L;
+		// Mapped chunks let the target read file pages directly where the target maps files natively
+		while (transferred < remaining) {
+			int chunk = (int) Math.min(TRANSFER_CHUNK, remaining - transferred);
+			MappedByteBuffer buffer = map(MapMode.READ_ONLY, position + transferred, chunk);
+			while (buffer.hasRemaining()) {
+				if (target.write(buffer) <= 0) return transferred + buffer.position();
+			}
+			transferred += chunk;
+		}
+		return transferred;
+	}
+
+	@Override
+	public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+		if (position < 0L || count < 0L) throw new IllegalArgumentException();
+		ensureWritable();
+		if (!src.isOpen()) throw new ClosedChannelException();
+		if (position > size()) return 0L;
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_CHUNK, count));
+		long transferred = 0L;
+		while (transferred < count) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), count - transferred));
+			if (src.read(buffer) <= 0) break;
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				int n = write(buffer, position + transferred);
+				if (n <= 0) return transferred;
+				transferred += n;
+			}
+		}
+		return transferred;
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		if (position < 0L) throw new IllegalArgumentException("Negative position");
+		ensureReadable();
+		synchronized (stream) {
+			long old = stream.getPosition();
+			try {
+				stream.setPosition(position);
+				return readAtPosition(dst);
+			} finally {
+				stream.setPosition(old);
+			}
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src, long position) throws IOException {
+		if (position < 0L) throw new IllegalArgumentException("Negative position");
+		ensureWritable();
+		synchronized (stream) {
+			long old = stream.getPosition();
+			try {
+				stream.setPosition(position);
+				return writeAtPosition(src);
+			} finally {
+				stream.setPosition(old);
+			}
+		}
+	}
+
+	@Override
+	public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+		if (mode == null) throw new NullPointerException("Mode is null");
+		if (position < 0L) throw new IllegalArgumentException("Negative position");
+		if (size < 0L || size > Integer.MAX_VALUE) throw new IllegalArgumentException("Size exceeds Integer.MAX_VALUE");
+		ensureReadable();
+		if (mode != MapMode.READ_ONLY && !writable) throw new NonWritableChannelException();
+		int imode;
+		if (mode == MapMode.READ_ONLY) {
+			imode = JTranscSyncIO.MAP_READ_ONLY;
+		} else if (mode == MapMode.READ_WRITE) {
+			imode = JTranscSyncIO.MAP_READ_WRITE;
+		} else {
+			imode = JTranscSyncIO.MAP_PRIVATE;
+		}
+		synchronized (stream) {
+			if (position + size > stream.getLength() && !writable) {
+				throw new IOException("Channel not open for writing - cannot extend file to required size");
+			}
+			byte[] data = stream.map(position, (int) size, imode);
+			return NioInternalUtils.newMappedByteBuffer(data, mode == MapMode.READ_ONLY, stream, position, imode);
+		}
+	}
+
+	@Override
+	protected void implCloseChannel() throws IOException {
+		parent.close();
+	}
+}
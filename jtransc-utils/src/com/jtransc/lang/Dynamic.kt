@@ -2,9 +2,11 @@ package com.jtransc.lang
 
 import com.jtransc.error.InvalidOperationException
 import com.jtransc.error.noImpl
+import java.lang.reflect.Method
 import java.lang.reflect.ParameterizedType
 import java.lang.reflect.Type
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 object Dynamic {
 	@Suppress("UNCHECKED_CAST")
@@ -27,9 +29,12 @@ object Dynamic {
 		field?.set(instance, value)
 	}
 
+	// Templates access the same properties over and over, so getters are only looked up once per class and name
+	private val getters = ConcurrentHashMap<Pair<Class<*>, String>, Method>()
+
 	fun <T : Any> getField(instance: T?, name: String): Any? {
 		if (instance == null) return null
-		val getter = instance.javaClass.getMethod("get${name.capitalize()}")
+		val getter = getters.getOrPut(instance.javaClass to name) { instance.javaClass.getMethod("get${name.capitalize()}") }
 		if (getter != null) {
 			getter.isAccessible = true
 			return getter.invoke(instance)
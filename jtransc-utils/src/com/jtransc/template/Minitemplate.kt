@@ -5,10 +5,11 @@ import com.jtransc.error.invalidOp
 import com.jtransc.lang.Dynamic
 import com.jtransc.text.*
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 
 class Minitemplate(val template: String, val config: Config = Config()) {
-	val templateTokens = Token.tokenize(template)
-	val node = BlockNode.parse(templateTokens, config)
+	val templateTokens by lazy { Token.tokenize(template) }
+	val node = config.parse(template)
 
 	class Config(
 		private val extraTags: List<Tag> = listOf(),
@@ -37,6 +38,12 @@ class Minitemplate(val template: String, val config: Config = Config()) {
 		val filters = hashMapOf<String, Filter>().apply {
 			for (filter in allFilters) this[filter.name] = filter
 		}
+
+		// Parsed templates by their text. Nodes are immutable, so they are shared by all the Minitemplates using
+		// this config, and templates evaluated over and over are only tokenized and parsed once.
+		private val nodes = ConcurrentHashMap<String, BlockNode>()
+
+		fun parse(template: String): BlockNode = nodes.getOrPut(template) { BlockNode.parse(Token.tokenize(template), this) }
 	}
 
 	data class Filter(val name: String, val eval: (subject: Any?, args: List<Any?>) -> Any?)
@@ -120,38 +120,69 @@ class Indenter(private val actions: ArrayList<Action> = arrayListOf<Indenter.Act
 
 	fun toString(markHandler: ((sb: StringBuilder, line: Int, data: Any) -> Unit)?, doIndent: Boolean): String {
 		val out = StringBuilder()
+		val handler: ((line: Int, data: Any) -> Unit)? = if (markHandler != null) ({ line, data -> markHandler(out, line, data) }) else null
+		val writer = Writer(out, doIndent, handler)
+		writer.write(this)
+		return out.toString()
+	}
+
+	fun writeTo(out: Appendable, doIndent: Boolean = true) = Writer(out, doIndent).write(this)
+
+	// Serializes indenters one after another to an Appendable, so big outputs don't have to be materialized
+	// as a single String. Line numbers passed to markHandler are relative to the start of the Writer.
+	class Writer(val out: Appendable, val doIndent: Boolean = true, val markHandler: ((line: Int, data: Any) -> Unit)? = null) {
 		var line = 0
+			private set
+		var length = 0L
+			private set
+		private var indentIndex = 0
+
+		private fun append(str: String) {
+			out.append(str)
+			length += str.length
+		}
+
+		private fun append(c: Char) {
+			out.append(c)
+			length++
+		}
 
-		var indentIndex = 0
+		fun write(str: String): Writer = write(Indenter.single(str))
 
-		fun eval(actions: List<Action>) {
+		fun write(indenter: Indenter): Writer {
+			eval(indenter, indenter.actions)
+			return this
+		}
+
+		// Appends text already rendered by another Writer, as is
+		fun writeRaw(text: String): Writer {
+			append(text)
+			line += text.count { it == '\n' }
+			return this
+		}
+
+		private fun eval(indenter: Indenter, actions: List<Action>) {
 			for (action in actions) {
 				when (action) {
 					is Action.Line -> {
-						if (noIndentEmptyLines && action.str.isEmpty()) {
-							if (doIndent) out.append('\n')
+						if (indenter.noIndentEmptyLines && action.str.isEmpty()) {
+							if (doIndent) append('\n')
 							line++
 						} else {
-							if (doIndent) out.append(INDENTS[indentIndex]) else out.append(" ")
-							out.append(action.str)
+							if (doIndent) append(INDENTS[indentIndex]) else append(" ")
+							append(action.str)
 							line += action.str.count { it == '\n' }
-							if (doIndent) out.append('\n')
+							if (doIndent) append('\n')
 							line++
 						}
 					}
-					is Action.LineDeferred -> eval(action.callback().actions)
+					is Action.LineDeferred -> eval(indenter, action.callback().actions)
 					Action.Indent -> indentIndex++
 					Action.Unindent -> indentIndex--
-					is Action.Marker -> {
-						markHandler?.invoke(out, line, action.data)
-					}
+					is Action.Marker -> markHandler?.invoke(line, action.data)
 				}
 			}
 		}
-
-		eval(actions)
-
-		return out.toString()
 	}
 
 	fun toString(markHandler: ((sb: StringBuilder, line: Int, data: Any) -> Unit)?): String = toString(markHandler = markHandler, doIndent = true)
@@ -27,6 +27,7 @@ import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.FileNotFoundException
 import java.io.IOException
+import java.io.OutputStream
 import java.net.URL
 import java.nio.charset.Charset
 import java.util.*
@@ -69,10 +70,11 @@ class SyncVfsFile(internal val vfs: SyncVfs, val path: String) {
 	fun symlinkTo(target: String): Unit = vfs.symlink(path, target)
 	fun read(): ByteArray = vfs.read(path)
 	fun readBytes(): ByteArray = read()
-	fun readOrNull(): ByteArray? = if (exists) read() else null
+	fun readOrNull(): ByteArray? = vfs.readOrNull(path)
 	inline fun <reified T : Any> readSpecial(): T = readSpecial(T::class.java)
 	fun <T> readSpecial(clazz: Class<T>): T = vfs.readSpecial(clazz, path)
 	fun write(data: ByteArray): Unit = vfs.write(path, data)
+	fun writeStream(callback: (OutputStream) -> Unit): Unit = vfs.writeStream(path, callback)
 	fun readString(encoding: Charset = Charsets.UTF_8): String = encoding.toString(vfs.read(path))
 	fun readLines(encoding: Charset = Charsets.UTF_8): List<String> = this.readString().lines()
 	val exists: Boolean get() = vfs.exists(path)
@@ -219,6 +221,9 @@ open class SyncVfs {
 		throw NotImplementedException()
 	}
 
+	// Vfs that know about their files without trying to read them can find a missing file without an exception
+	open fun readOrNull(path: String): ByteArray? = if (exists(path)) read(path) else null
+
 	open fun <T> readSpecial(clazz: Class<T>, path: String): T {
 		throw NotImplementedException()
 	}
@@ -227,6 +232,13 @@ open class SyncVfs {
 		throw NotImplementedException()
 	}
 
+	// Vfs without native streaming support get the whole content buffered and written at once
+	open fun writeStream(path: String, callback: (OutputStream) -> Unit): Unit {
+		val out = ByteArrayOutputStream()
+		callback(out)
+		write(path, out.toByteArray())
+	}
+
 	open fun listdir(path: String): Iterable<SyncVfsStat> {
 		throw NotImplementedException()
 	}
@@ -307,6 +319,7 @@ private class _LocalVfs : SyncVfs() {
 	override val absolutePath: String get() = ""
 	override fun read(path: String): ByteArray = RawIo.fileRead(path)
 	override fun write(path: String, data: ByteArray): Unit = RawIo.fileWrite(path, data)
+	override fun writeStream(path: String, callback: (OutputStream) -> Unit): Unit = File(path).outputStream().buffered().use(callback)
 	override fun listdir(path: String): Iterable<SyncVfsStat> = RawIo.listdir(path).map { it.toSyncStat(this, "$path/${it.name}") }
 	override fun mkdir(path: String): Unit = RawIo.mkdir(path)
 	override fun rmdir(path: String): Unit = RawIo.rmdir(path)
@@ -338,6 +351,7 @@ abstract class ProxySyncVfs : SyncVfs() {
 	override fun read(path: String): ByteArray = transform(path).read()
 	override fun <T> readSpecial(clazz: Class<T>, path: String): T = transform(path).readSpecial(clazz)
 	override fun write(path: String, data: ByteArray): Unit = transform(path).write(data)
+	override fun writeStream(path: String, callback: (OutputStream) -> Unit): Unit = transform(path).writeStream(callback)
 	// @TODO: Probably transform SyncVfsStat!
 	override fun listdir(path: String): Iterable<SyncVfsStat> = transform(path).listdir().map { transformStat(it) }
 
@@ -390,6 +404,11 @@ private class _LogSyncVfs(val parent: SyncVfs) : ProxySyncVfs() {
 		println("Writting $parent($path) with ${data.toString(UTF8)}")
 		super.write(path, data)
 	}
+
+	override fun writeStream(path: String, callback: (OutputStream) -> Unit): Unit {
+		println("Writting $parent($path) from stream")
+		super.writeStream(path, callback)
+	}
 }
 
 
@@ -416,7 +435,7 @@ fun UrlVfs(url: String): SyncVfsFile = _UrlVfs().root().jailAccess(url)
 fun UrlVfs(url: URL): SyncVfsFile = _UrlVfs().root().jailAccess(url.toExternalForm())
 fun RootLocalVfs(): SyncVfsFile = _LocalVfs().root()
 fun MergeVfs(nodes: List<SyncVfsFile>) = if (nodes.isNotEmpty()) MergedSyncVfs(nodes).root() else MemoryVfs()
-fun MergedLocalAndJars(paths: List<String>) = MergeVfs(LocalAndJars(paths))
+fun MergedLocalAndJars(paths: List<String>) = if (paths.isNotEmpty()) ClassPathSyncVfs(paths).root() else MemoryVfs()
 fun LocalAndJars(paths: List<String>): List<SyncVfsFile> {
 	return paths.map { if (it.endsWith(".jar")) ZipVfs(it) else LocalVfs(File(it)) }
 }
@@ -564,7 +583,7 @@ val SyncVfsFile.withoutExtension: SyncVfsFile get() = SyncVfsFile(vfs, Path.with
 fun SyncVfsFile.withExtension(ext: String): SyncVfsFile = SyncVfsFile(vfs, Path.withExtension(path, ext))
 fun SyncVfsFile.withBaseName(baseName: String): SyncVfsFile = parent.access(baseName)
 
-private class MergedSyncVfs(val nodes: List<SyncVfsFile>) : SyncVfs() {
+private open class MergedSyncVfs(val nodes: List<SyncVfsFile>) : SyncVfs() {
 	init {
 		if (nodes.isEmpty()) throw InvalidArgumentException("Nodes can't be empty")
 	}
@@ -613,6 +632,71 @@ private class MergedSyncVfs(val nodes: List<SyncVfsFile>) : SyncVfs() {
 	override fun toString(): String = "MergedSyncVfs(" + this.nodes.joinToString(", ") + ")"
 }
 
+// Read-only view of a class path. Every jar entry and directory file is indexed once on construction,
+// so lookups are a single hash probe instead of trying (and failing on) every node in order.
+// Files added to the class path folders after construction are not visible.
+private class ClassPathSyncVfs(val paths: List<String>) : MergedSyncVfs(LocalAndJars(paths)) {
+	private val files = hashMapOf<String, SyncVfsFile>()
+	private val directories = hashSetOf("")
+
+	init {
+		for ((index, path) in paths.withIndex()) {
+			val node = nodes[index]
+			val vfs = node.vfs
+			if (vfs is ZipSyncVfs) {
+				for (e in vfs.zip.entries()) {
+					if (e.isDirectory) {
+						addDirectory(e.name.trim('/'))
+					} else {
+						addFile(e.name.trim('/'), node)
+					}
+				}
+			} else {
+				val root = File(path).absoluteFile
+				val rootPath = root.path
+				if (!root.isDirectory) continue
+				for (file in root.walkTopDown()) {
+					val name = file.path.substring(rootPath.length).replace('\\', '/').trim('/')
+					if (file.isDirectory) {
+						addDirectory(name)
+					} else {
+						addFile(name, node)
+					}
+				}
+			}
+		}
+	}
+
+	private fun addDirectory(path: String) {
+		var current = path
+		while (directories.add(current)) current = Path.parent(current)
+	}
+
+	private fun addFile(path: String, node: SyncVfsFile) {
+		if (path !in files) files[path] = node
+		addDirectory(Path.parent(path))
+	}
+
+	private fun nodeFor(path: String): SyncVfsFile? = files[path.trim('/')]
+
+	override fun readOrNull(path: String): ByteArray? = nodeFor(path)?.get(path)?.read()
+	override fun read(path: String): ByteArray = readOrNull(path) ?: throw FileNotFoundException(path)
+	override fun <T> readSpecial(clazz: Class<T>, path: String): T = (nodeFor(path) ?: throw FileNotFoundException(path))[path].readSpecial(clazz)
+	override fun exists(path: String): Boolean = path.trim('/').let { it in files || it in directories }
+
+	override fun stat(path: String): SyncVfsStat {
+		val key = path.trim('/')
+		val node = files[key]
+		return when {
+			node != null -> node[path].stat()
+			key in directories -> super.stat(path)
+			else -> SyncVfsStat.notExists(SyncVfsFile(this, path))
+		}
+	}
+
+	override fun toString(): String = "ClassPathSyncVfs(" + this.nodes.joinToString(", ") + ")"
+}
+
 private class ResourcesSyncVfs(val clazz: Class<*>) : SyncVfs() {
 	val classLoader = clazz.classLoader
 	override fun read(path: String): ByteArray {
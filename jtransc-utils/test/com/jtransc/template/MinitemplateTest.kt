@@ -95,5 +95,13 @@ class MinitemplateTest {
 		)
 	}
 
+	@Test fun testCachedTemplates() {
+		val config = Minitemplate.Config()
+		val template = "{% for n in numbers %}{{ n }}{% end %}"
+		Assert.assertSame(Minitemplate(template, config).node, Minitemplate(template, config).node)
+		Assert.assertEquals("12", Minitemplate(template, config)(mapOf("numbers" to listOf(1, 2))))
+		Assert.assertEquals("345", Minitemplate(template, config)(mapOf("numbers" to listOf(3, 4, 5))))
+	}
+
 	data class Person(val name:String, val surname:String)
 }
\ No newline at end of file
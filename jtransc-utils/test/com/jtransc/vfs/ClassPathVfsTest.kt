@@ -0,0 +1,83 @@
+package com.jtransc.vfs
+
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import java.io.File
+import java.io.FileNotFoundException
+import java.nio.file.Files
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class ClassPathVfsTest {
+	val temp: File = Files.createTempDirectory("jtransc-classpath").toFile()
+
+	// lib.jar: a/A.class, a/Shared.class and j/J.class. classes: a/Shared.class and d/D.class
+	val jar = File(temp, "lib.jar").apply {
+		ZipOutputStream(outputStream()).use { zip ->
+			for ((name, content) in listOf("a/" to null, "a/A.class" to "A", "a/Shared.class" to "jar", "j/" to null, "j/J.class" to "J")) {
+				zip.putNextEntry(ZipEntry(name))
+				if (content != null) zip.write(content.toByteArray())
+				zip.closeEntry()
+			}
+		}
+	}
+
+	val classes = File(temp, "classes").apply {
+		File(this, "a").mkdirs()
+		File(this, "d").mkdirs()
+		File(this, "a/Shared.class").writeText("folder")
+		File(this, "d/D.class").writeText("D")
+	}
+
+	@After fun cleanup() {
+		temp.deleteRecursively()
+	}
+
+	fun vfs(vararg paths: File) = MergedLocalAndJars(paths.map { it.absolutePath })
+
+	@Test fun testJarAndFolder() {
+		val vfs = vfs(jar, classes)
+		Assert.assertEquals("A", vfs["a/A.class"].readString())
+		Assert.assertEquals("J", vfs["/j/J.class"].readString())
+		Assert.assertEquals("D", vfs["d/D.class"].readString())
+	}
+
+	@Test fun testFirstPathShadowsTheRest() {
+		Assert.assertEquals("jar", vfs(jar, classes)["a/Shared.class"].readString())
+		Assert.assertEquals("folder", vfs(classes, jar)["a/Shared.class"].readString())
+	}
+
+	@Test fun testDirectories() {
+		val vfs = vfs(jar, classes)
+		for (dir in listOf("a", "j", "d", "")) {
+			Assert.assertTrue(dir, vfs[dir].exists)
+			Assert.assertTrue(dir, vfs[dir].stat().isDirectory)
+		}
+		Assert.assertFalse(vfs["a/A.class"].stat().isDirectory)
+		Assert.assertEquals(1L, vfs["a/A.class"].size)
+	}
+
+	@Test fun testMiss() {
+		val vfs = vfs(jar, classes)
+		Assert.assertFalse(vfs["a/Missing.class"].exists)
+		Assert.assertFalse(vfs["a/Missing.class"].stat().exists)
+		Assert.assertNull(vfs["a/Missing.class"].readOrNull())
+		Assert.assertNull(vfs["missing/Missing.class"].readOrNull())
+		try {
+			vfs["a/Missing.class"].read()
+			Assert.fail()
+		} catch (e: FileNotFoundException) {
+		}
+	}
+
+	// Misses are answered by the index built when the vfs is created, without probing the jars and folders
+	@Test fun testMissesUseTheIndex() {
+		val vfs = vfs(jar, classes)
+		File(classes, "d/Late.class").writeText("late")
+		Assert.assertNull(vfs["d/Late.class"].readOrNull())
+		Assert.assertFalse(vfs["d/Late.class"].exists)
+		for (n in 0 until 1000) Assert.assertNull(vfs["a/Missing$n.class"].readOrNull())
+		Assert.assertEquals("D", vfs["d/D.class"].readString())
+	}
+}